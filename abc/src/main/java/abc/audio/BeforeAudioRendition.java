@@ -17,27 +17,70 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.audio;
 
-import java.util.Hashtable;
+import java.util.ArrayList;
+import java.util.HashMap;
 
+import abc.notation.Accidental;
+import abc.notation.BarLine;
+import abc.notation.Dynamic;
 import abc.notation.KeySignature;
+import abc.notation.MultiNote;
 import abc.notation.Music;
 import abc.notation.MusicElement;
+import abc.notation.MusicElementVisitor;
+import abc.notation.Note;
+import abc.notation.NoteAbstract;
 import abc.notation.PartLabel;
+import abc.notation.RepeatBarLine;
 import abc.notation.Voice;
 
 /**
  * Utility class to prepare a {@link abc.notation.Music} object
  * to be rendered in audio output (MIDI or other)
+ * <p>
+ * All transformations are made in one pass over each voice, which
+ * feeds the voice of a new music: the source music is never changed,
+ * elements are shared with it, except notes which have to be changed,
+ * they are cloned. Preparing a music takes a linear time, and may be
+ * done by several threads at once.
  */
 public class BeforeAudioRendition {
 
+	/** Restores the key of parts, see {@link #correctPartsKeys(Music)} */
+	public static final int PARTS_KEYS = 1;
+	/** Writes accidentals on notes, see {@link #applyAccidentals(Music)} */
+	public static final int ACCIDENTALS = 2;
+	/** Sets dynamics on notes, see {@link #applyDynamics(Music)} */
+	public static final int DYNAMICS = 4;
+	/** Expands repeats, see {@link #transformRepeatsAndBreaks(Music)} */
+	public static final int REPEATS = 8;
+	/** All transformations */
+	public static final int ALL = PARTS_KEYS | ACCIDENTALS | DYNAMICS
+			| REPEATS;
+
 	public static Music transformAll(Music source) {
-		Music dest = correctPartsKeys(source);
-		//dest = transformDecorations(dest);
-		dest = applyAccidentals(dest);
-		dest = applyDynamics(dest);
-		dest = generateBassAndChords(dest);
-		dest = transformRepeatsAndBreaks(dest);
+		//transformDecorations and generateBassAndChords do nothing yet
+		return transform(source, ALL);
+	}
+
+	/**
+	 * Returns a new music, made of the elements of source with the
+	 * given transformations, all done in one pass.
+	 * 
+	 * @param transformations {@link #PARTS_KEYS}, {@link #ACCIDENTALS},
+	 * {@link #DYNAMICS} and/or {@link #REPEATS}
+	 */
+	public static Music transform(Music source, int transformations) {
+		Music dest = new AudioMusic(source);
+		for (Object o : source.getVoices()) {
+			Voice voice = (Voice) o;
+			Voice destVoice = dest.getVoice(voice.getVoiceName());
+			destVoice.setTablature(voice.getTablature());
+			destVoice.setVolume(voice.getVolume());
+			destVoice.setInstrument(voice.getInstrument());
+			//keep elements references, as Music.append does
+			destVoice.addAll(transform(voice, transformations));
+		}
 		return dest;
 	}
 	
@@ -59,59 +102,26 @@ public class BeforeAudioRendition {
 	 * This method corrects this, the key was Bb before the
 	 * first part A, so before the second part A we add a Bb
 	 * key.
+	 * 
+	 * @return a new music, the given one is not changed
 	 */
 	public static Music correctPartsKeys(Music music) {
-		//we may have key/clef changes
-		//repeat operation for each voice. Key is for all voices
-		//but clef can change from one voice to another
-        for (Object o : music.getVoices()) {
-            Voice voice = (Voice) o;
-            if (voice.hasObject(KeySignature.class)
-                    && voice.hasObject(PartLabel.class)) {
-                Hashtable partsKey = new Hashtable();
-                KeySignature tuneKey = null;
-                int size = voice.size();
-                int i = 0;
-                while (i < size) {
-                    MusicElement me = (MusicElement) voice.elementAt(i);
-                    if (me instanceof KeySignature) {
-                        tuneKey = (KeySignature) me;
-                    } else if (me instanceof PartLabel) {
-                        PartLabel pl = (PartLabel) me;
-                        if ((tuneKey != null) && (partsKey.get(pl.getLabel() + "") == null)) {
-                            //first time we see this part, store the key
-                            partsKey.put(pl.getLabel() + "", tuneKey);
-                        } else {//not the first time we see this part
-                            //add the key
-                            tuneKey = (KeySignature) partsKey.get(pl.getLabel() + "");
-                            if (i < (size - 1)) {
-                                if (!(voice.elementAt(i + 1) instanceof KeySignature)) {
-                                    //if next element is a key, no need to insert one
-                                    //just before, next while step it'll be defined as
-                                    //tuneKey
-                                    voice.insertElementAt(tuneKey, i + 1);
-                                    i++;
-                                    size++;
-                                }
-                            }
-                        }
-                    }
-                    i++;
-                }//end for each element of voice
-            }//end voice has key(s) and part(s)
-        }//end for each voice of music
-		//else nothing to do
-		return music;
+		return transform(music, PARTS_KEYS);
 	}
 	
 	/**
 	 * Propagate key accidentals to notes. And non-key
 	 * accidental to the same note of a bar.
 	 * 
+	 * Notes of multi notes keep their accidentals, they are
+	 * found with the key by the audio renderer.
+	 * 
 	 * TODO use the rule ??? to apply or not to octaves
+	 * 
+	 * @return a new music, the given one is not changed
 	 */
 	public static Music applyAccidentals(Music music) {
-		return music;
+		return transform(music, ACCIDENTALS);
 	}
 	
 	/**
@@ -123,32 +133,28 @@ public class BeforeAudioRendition {
 	 * @return the Music object which contents has been changed
 	 */
 	public static Music transformDecorations(Music music) {
-		Music ret = new Music();
-		KeySignature tuneKey = null;
-		KeySignature currentKey = null;
-		Hashtable partsKey = new Hashtable();
-		MusicElement element;
-        for (Object o : music.getFirstVoice()) {
-            element = (MusicElement) o;
-
-        }
 		return music;
 	}
 	
 	/**
-	 * Transforms <code>|: ... :|</code> into <code>2 * (...)</code>,
-	 * repeat bars.
+	 * Expands repeats and alternate endings, and replaces
+	 * repeat bar lines by simple bar lines. The key found at
+	 * the start of the repeat is restored when going back to it.
+	 * 
+	 * @return a new music, the given one is not changed
 	 */
 	public static Music transformRepeatsAndBreaks(Music music) {
-		return music;
+		return transform(music, REPEATS);
 	}
 	
 	/**
-	 * Apply dynamics by modifying notes' velocities by a
-	 * percentage, e.g. +ff+ apply 120%.
+	 * Propagate level dynamics (<I>pppp</I> to <I>ffff</I>) to
+	 * the following notes, until the next one.
+	 * 
+	 * @return a new music, the given one is not changed
 	 */
 	public static Music applyDynamics(Music music) {
-		return music;
+		return transform(music, DYNAMICS);
 	}
 	
 	/**
@@ -159,4 +165,248 @@ public class BeforeAudioRendition {
 	public static Music generateBassAndChords(Music music) {
 		return music;
 	}
+
+	/**
+	 * Returns the elements of the voice, with the given transformations.
+	 */
+	private static ArrayList transform(Voice voice, int transformations) {
+		boolean partsKeys = (transformations & PARTS_KEYS) != 0;
+		boolean accidentals = (transformations & ACCIDENTALS) != 0;
+		boolean dynamics = (transformations & DYNAMICS) != 0;
+		boolean repeats = (transformations & REPEATS) != 0;
+		int size = voice.size();
+		ArrayList ret = new ArrayList(size);
+		HashMap partsKey = new HashMap();
+		KeySignature tuneKey = null;
+		// key with the accidentals found in the current bar
+		KeySignature currentKey = null;
+		Dynamic dynamic = null;
+		//highest ending of the repeat starting at each index
+		int[] lastEndings = repeats ? getLastEndings(voice) : null;
+		int repeatStart = 0;
+		KeySignature repeatKey = null;
+		int repeatNumber = 1;
+		//the repeat has been played, next endings may follow
+		boolean repeatDone = false;
+		boolean inWrongEnding = false;
+		int i = 0;
+		while (i < size) {
+			MusicElement element = (MusicElement) voice.elementAt(i);
+			byte type = element.getElementType();
+			if ((type == MusicElementVisitor.BAR_LINE)
+					|| (type == MusicElementVisitor.REPEAT_BAR_LINE)) {
+				//accidentals of the bar are over
+				if ((currentKey != null)
+						&& (currentKey.getAccidentals() != tuneKey.getAccidentals()))
+					currentKey = new KeySignature(tuneKey.getAccidentals());
+				if (!repeats) {
+					ret.add(element);
+					i++;
+					continue;
+				}
+				byte barType = ((BarLine) element).getType();
+				boolean close = (barType == BarLine.REPEAT_CLOSE)
+						|| (barType == BarLine.DOUBLE_REPEAT_CLOSE)
+						|| (barType == BarLine.CLOSE_AND_OPEN_REPEAT);
+				boolean open = (barType == BarLine.REPEAT_OPEN)
+						|| (barType == BarLine.DOUBLE_REPEAT_OPEN)
+						|| (barType == BarLine.CLOSE_AND_OPEN_REPEAT);
+				boolean wasInWrongEnding = inWrongEnding;
+				boolean goBack = false;
+				if (close) {
+					if (inWrongEnding) {
+						//end of a skipped ending
+						inWrongEnding = false;
+					} else {
+						if (repeatDone) {
+							//repeat from the end of the previous one
+							repeatNumber = 1;
+							repeatDone = false;
+						}
+						int times = Math.max(lastEndings[repeatStart],
+								barType == BarLine.DOUBLE_REPEAT_CLOSE ? 3 : 2);
+						if (repeatNumber < times) {
+							goBack = true;
+						} else {
+							//keep the repeat number for the next ending
+							repeatDone = true;
+							repeatStart = i + 1;
+							repeatKey = tuneKey;
+						}
+					}
+				}
+				if (open && !goBack) {
+					inWrongEnding = false;
+					repeatDone = false;
+					repeatNumber = 1;
+					repeatStart = i + 1;
+					repeatKey = tuneKey;
+				}
+				if (!goBack && (type == MusicElementVisitor.REPEAT_BAR_LINE)) {
+					byte[] numbers = ((RepeatBarLine) element).getRepeatNumbers();
+					if ((numbers.length == 0) || contains(numbers, repeatNumber)) {
+						inWrongEnding = false;
+					} else if (!inWrongEnding && !repeatDone
+							&& (repeatNumber < numbers[0])) {
+						//ending of a next time, missing :| before it
+						goBack = true;
+					} else
+						inWrongEnding = true;
+				}
+				if (goBack) {
+					repeatNumber++;
+					ret.add(new BarLine(BarLine.SIMPLE));
+					if ((repeatKey != null) && (repeatKey != tuneKey)) {
+						ret.add(repeatKey);
+						tuneKey = repeatKey;
+						currentKey = new KeySignature(tuneKey.getAccidentals());
+					}
+					i = repeatStart;
+					continue;
+				}
+				if (!wasInWrongEnding && !inWrongEnding) {
+					if ((type == MusicElementVisitor.BAR_LINE) && !close && !open)
+						ret.add(element);
+					else
+						ret.add(new BarLine(BarLine.SIMPLE));
+				}
+				i++;
+				continue;
+			}
+			if (inWrongEnding) {
+				i++;
+				continue;
+			}
+			switch (type) {
+			case MusicElementVisitor.KEY_SIGNATURE:
+				tuneKey = (KeySignature) element;
+				currentKey = new KeySignature(tuneKey.getAccidentals());
+				ret.add(element);
+				break;
+			case MusicElementVisitor.PART_LABEL:
+				ret.add(element);
+				if (!partsKeys)
+					break;
+				String label = ((PartLabel) element).getLabel() + "";
+				KeySignature partKey = (KeySignature) partsKey.get(label);
+				if (partKey == null) {
+					//first time we see this part, store the key
+					if (tuneKey != null)
+						partsKey.put(label, tuneKey);
+				} else if (i < (size - 1)) {
+					//not the first time we see this part, add the key
+					//if next element is a key, no need to add one
+					if (!(voice.elementAt(i + 1) instanceof KeySignature)) {
+						ret.add(partKey);
+						tuneKey = partKey;
+						currentKey = new KeySignature(tuneKey.getAccidentals());
+					}
+				}
+				break;
+			case MusicElementVisitor.DYNAMIC:
+				if (dynamics && isLevel((Dynamic) element))
+					dynamic = (Dynamic) element;
+				ret.add(element);
+				break;
+			case MusicElementVisitor.NOTE:
+			case MusicElementVisitor.MULTI_NOTE:
+				NoteAbstract note = (NoteAbstract) element;
+				Dynamic noteDynamic = dynamics ? note.getDynamic() : null;
+				if ((noteDynamic != null) && isLevel(noteDynamic))
+					dynamic = noteDynamic;
+				Dynamic newDynamic = ((noteDynamic == null) && (dynamic != null)
+						&& !((note instanceof Note) && ((Note) note).isRest()))
+						? dynamic : null;
+				Note[] notes = (note instanceof Note) ? new Note[] { (Note) note }
+						: ((MultiNote) note).toArray();
+				Accidental newAccidental = null;
+				if (accidentals && (currentKey != null) && (notes != null)) {
+					for (Note n : notes) {
+						if (n.isRest())
+							continue;
+						Accidental accidental = n.getAccidental();
+						if (!accidental.isInTheKey())
+							currentKey.setAccidental(n.getStrictHeight(), accidental);
+						else if (note instanceof Note) {
+							accidental = n.getAccidental(currentKey);
+							if (!accidental.isNatural())
+								newAccidental = accidental;
+						}
+					}
+				}
+				if ((newDynamic != null) || (newAccidental != null)) {
+					try {
+						note = (NoteAbstract) note.clone();
+						if (newDynamic != null)
+							note.setDynamic(newDynamic);
+						if (newAccidental != null)
+							((Note) note).setAccidental(newAccidental);
+					} catch (CloneNotSupportedException never) {
+						never.printStackTrace();
+					}
+				}
+				ret.add(note);
+				break;
+			default:
+				ret.add(element);
+			}
+			i++;
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns for each index the highest ending number found from it
+	 * to the next repeat start.
+	 */
+	private static int[] getLastEndings(Voice voice) {
+		int size = voice.size();
+		int[] ret = new int[size + 1];
+		int max = 0;
+		for (int i = size - 1; i >= 0; i--) {
+			Object element = voice.elementAt(i);
+			if (element instanceof RepeatBarLine) {
+				byte[] numbers = ((RepeatBarLine) element).getRepeatNumbers();
+				for (byte number : numbers)
+					max = Math.max(max, number);
+			}
+			ret[i] = max;
+			if (element instanceof BarLine) {
+				byte type = ((BarLine) element).getType();
+				if ((type == BarLine.REPEAT_OPEN)
+						|| (type == BarLine.DOUBLE_REPEAT_OPEN)
+						|| (type == BarLine.CLOSE_AND_OPEN_REPEAT))
+					max = 0;
+			}
+		}
+		return ret;
+	}
+
+	private static boolean contains(byte[] numbers, int number) {
+		for (byte n : numbers) {
+			if (n == number)
+				return true;
+		}
+		return false;
+	}
+
+	/** Returns <TT>true</TT> for dynamics from <I>pppp</I> to <I>ffff</I> */
+	private static boolean isLevel(Dynamic dynamic) {
+		return (dynamic.getType() >= Dynamic.PPPP)
+				&& (dynamic.getType() <= Dynamic.FFFF);
+	}
+
+	/**
+	 * A music which keeps the global instructions of its source.
+	 */
+	private static class AudioMusic extends Music {
+
+		private static final long serialVersionUID = -1866468787431212327L;
+
+		private AudioMusic(Music source) {
+			super();
+			setGlobalInstructions(source.getGlobalInstructions());
+		}
+
+	}
 }
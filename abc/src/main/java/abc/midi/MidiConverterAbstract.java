@@ -37,6 +37,8 @@ import abc.notation.Interval;
 import abc.notation.KeySignature;
 import abc.notation.MultiNote;
 import abc.notation.Music;
+import abc.notation.MusicElement;
+import abc.notation.MusicElementVisitor;
 import abc.notation.Note;
 import abc.notation.NoteAbstract;
 import abc.notation.RepeatBarLine;
@@ -93,10 +95,13 @@ public abstract class MidiConverterAbstract implements MidiConverterInterface {
 				Voice voice = (Voice) it.next();
 				int i = 0;// StaffItem iterator
 	  		while (i < voice.size()) {
+				// read once, dispatched on its type tag
+				MusicElement element = (MusicElement) voice.elementAt(i);
+				byte type = element.getElementType();
 				if (!inWrongEnding) {
 					//==================================================================== TEMPO
-					if (voice.elementAt(i) instanceof abc.notation.Tempo) {
-						addTempoEventsFor(track, elapsedTime, getMidiMessagesFor((Tempo)voice.elementAt(i)));//, trackLengthInTicks));
+					if (type == MusicElementVisitor.TEMPO) {
+						addTempoEventsFor(track, elapsedTime, getMidiMessagesFor((Tempo) element));//, trackLengthInTicks));
 					}
 					else
 					/*if (voice.elementAt(i) instanceof abc.notation.PartLabel) {
@@ -114,18 +119,18 @@ public abstract class MidiConverterAbstract implements MidiConverterInterface {
 					}
 					else*/
 						//==================================================================== KEY SIGNATURE
-					if (voice.elementAt(i) instanceof abc.notation.KeySignature) {
-							tuneKey = (KeySignature)(voice.elementAt(i));
+					if (type == MusicElementVisitor.KEY_SIGNATURE) {
+							tuneKey = (KeySignature) element;
 							currentKey = new KeySignature(tuneKey.getAccidentals());
 					}
 					else
 					//==================================================================== NOTE
 					// Notes ending ties should be ignored. Already taken into
 					// account in getNoteLengthInTicks(Note)
-					if (voice.elementAt(i) instanceof abc.notation.Note
-						&& !((abc.notation.Note)voice.elementAt(i)).isEndingTie()) {
+					if (type == MusicElementVisitor.NOTE
+						&& !((Note) element).isEndingTie()) {
 
-						Note note = (Note)voice.elementAt(i);
+						Note note = (Note) element;
 						long noteDuration;
 						boolean fermata = false;
 						Vector decorationNotes = new Vector();
@@ -147,10 +152,10 @@ public abstract class MidiConverterAbstract implements MidiConverterInterface {
 								case Decoration.TURNX_INVERTED:
 									Note n = new Note(note.getHeight());
 									n.setAccidental(note.getAccidental(currentKey));
-									Note o = new Interval(Interval.SECOND, Interval.MAJOR,
+									Note o = Interval.valueOf(Interval.SECOND, Interval.MAJOR,
 												Interval.UPWARD)
 											.calculateSecondNote(n);
-									Note m = new Interval(Interval.SECOND, Interval.MAJOR,
+									Note m = Interval.valueOf(Interval.SECOND, Interval.MAJOR,
 											Interval.DOWNWARD)
 										.calculateSecondNote(n);
 									//TODO ornament templates: regular, musette, balkan...
@@ -238,15 +243,15 @@ public abstract class MidiConverterAbstract implements MidiConverterInterface {
 					}
 					else
 					//==================================================================== MULTI NOTE
-					if ((voice.elementAt(i) instanceof abc.notation.MultiNote)) {
-						MultiNote multiNote = (MultiNote)voice.elementAt(i);
+					if (type == MusicElementVisitor.MULTI_NOTE) {
+						MultiNote multiNote = (MultiNote) element;
 						playMultiNote(multiNote, i, currentKey, elapsedTime, track, staff);
 						elapsedTime+=getNoteLengthInTicks(multiNote, staff);
 					}
 				} //endif (!inWrongEnding)
     			//====================================================================== REPEAT BAR LINE
-  				if (voice.elementAt(i) instanceof abc.notation.RepeatBarLine) {
-  					RepeatBarLine bar = (RepeatBarLine)voice.elementAt(i);
+  				if (type == MusicElementVisitor.REPEAT_BAR_LINE) {
+  					RepeatBarLine bar = (RepeatBarLine) element;
   					if (repeatNumber<bar.getRepeatNumbers()[0] && lastRepeatOpen!=-1) {
   						repeatNumber++;
   						i=lastRepeatOpen;
@@ -259,9 +264,9 @@ public abstract class MidiConverterAbstract implements MidiConverterInterface {
   				}
   				else
 				//====================================================================== BAR LINE OPEN / CLOSE
-				if (voice.elementAt(i) instanceof abc.notation.BarLine) {
+				if (type == MusicElementVisitor.BAR_LINE) {
 					//currentKey = new KeySignature(tuneKey.getAccidentals());
-					switch ( ((BarLine)(voice.elementAt(i))).getType()) {
+					switch (((BarLine) element).getType()) {
 						case BarLine.SIMPLE : break;
 						case BarLine.REPEAT_OPEN : lastRepeatOpen=i; repeatNumber=1; break;
 						case BarLine.REPEAT_CLOSE :
@@ -276,7 +281,11 @@ public abstract class MidiConverterAbstract implements MidiConverterInterface {
 					}
 				}
   				//Whatever kind of bar line it is
-  				if (voice.elementAt(i) instanceof abc.notation.BarLine) {
+  				//(the key still shares the tune key accidentals if no
+  				//accidental has been found in the bar)
+  				if (((type == MusicElementVisitor.BAR_LINE)
+  						|| (type == MusicElementVisitor.REPEAT_BAR_LINE))
+  						&& (currentKey.getAccidentals() != tuneKey.getAccidentals())) {
 					currentKey = new KeySignature(tuneKey.getAccidentals());
 				}
   				i++;
@@ -450,12 +459,8 @@ public abstract class MidiConverterAbstract implements MidiConverterInterface {
    * @return The midi height of the note in the given key. */
   public static byte getMidiNoteNumber (Note note, KeySignature key)
   {
-    byte heigth = note.getStrictHeight();
-    Accidental accidental = new Accidental(note.getAccidental(key).getNearestOccidentalValue());
-    byte midiNoteNumber = (byte)(heigth+(69-Note.A));
-    midiNoteNumber = (byte)(midiNoteNumber + note.getOctaveTransposition()*12);
-   	midiNoteNumber += (byte) accidental.getValue(); //-2 dbl flat, -1 flat, 0 natural...
-    return midiNoteNumber;
+    //midi like height of C is 0, midi note number of A is 69
+    return (byte)(note.getMidiLikeHeight(key)+(69-Note.A));
   }
 }
 
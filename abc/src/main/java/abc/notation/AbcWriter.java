@@ -0,0 +1,844 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Vector;
+
+import abc.instructions.Xcommand;
+
+/**
+ * Writes {@link Tune} and {@link TuneBook} back to abc text, from the
+ * notation objects, without the abc source. This is the way to send a
+ * transposed or edited tune, e.g. <TT>writer.write(TuneBook.transpose(book,
+ * 2), out)</TT>.
+ * <p>
+ * The text of a tune is built in a {@link StringBuilder} owned by the writer
+ * and reused from tune to tune, and given to the {@link Writer} by chunks, so
+ * writing a big book doesn't create one string per element or per line. A
+ * writer is not thread-safe, use one writer per thread.
+ * <p>
+ * The header gives the reference number, the titles and the other fields of
+ * {@link TuneInfos}, the instructions, the meter, the default note length,
+ * the tempo, the parts order and the key. Then the music of each part and
+ * voice is written with its notes, rests, chords, bar lines, repeats,
+ * decorations, dynamics, chord names, annotations, grace notes, tuplets, ties
+ * and slurs. Fields which have no abc letter (lyricist, informations) are
+ * not written.
+ * <p>
+ * Note lengths are written relative to a default length of 1/8, or after a
+ * meter change to the default length of the meter, as the parser does. So
+ * the text is not the original one, but reading it gives the same music.
+ */
+public class AbcWriter {
+
+	/** Lines longer than this are continued with a <TT>\</TT> after a bar
+	 * line, when the music has no staff line end */
+	private static final int MAX_LINE_LENGTH = 76;
+
+	/** Size of the chunks given to the writer */
+	private static final int CHUNK_SIZE = 8192;
+
+	/** Fields written in the header, with their letter */
+	private static final byte[] HEADER_FIELDS = { TuneInfos.AREA,
+			TuneInfos.BOOK, TuneInfos.COMPOSER, TuneInfos.DISCOGRAPHY,
+			TuneInfos.FILEURL, TuneInfos.GROUP, TuneInfos.HISTORY,
+			TuneInfos.NOTES, TuneInfos.ORIGIN, TuneInfos.RHYTHM,
+			TuneInfos.SOURCE, TuneInfos.TRANSCRIPTION };
+	private static final char[] HEADER_LETTERS = { 'A', 'B', 'C', 'D', 'F',
+			'G', 'H', 'N', 'O', 'R', 'S', 'Z' };
+
+	/** Note letters by strict height, C=0 to B=11 */
+	private static final String LETTERS = "C?D?EF?G?A?B";
+
+	/** Note letters of the accidentals of a key, C=0 to B=6 */
+	private static final String KEY_LETTERS = "cdefgab";
+
+	/** Dynamic names by type, PPPP=0 to DIMINUENDO_END=25 */
+	private static final String[] DYNAMICS = { "pppp", "ppp", "pp", "p",
+			"mp", "mf", "f", "ff", "fff", "ffff", "fp", "sf", "sfp", "sfpp",
+			"sfz", "fz", "sffz", "crescendo", "crescendo(", "crescendo)",
+			"decrescendo", "decrescendo(", "decrescendo)", "diminuendo",
+			"diminuendo(", "diminuendo)" };
+
+	/** Decoration names by type, null if the type has no name */
+	private static final String[] s_decorations = new String[128];
+	static {
+		// the first name of a type is kept
+		String[] names = { "trill", "lowermordent", "uppermordent", "accent",
+				"fermata", "invertedfermata", "tenuto", "0", "1", "2", "3",
+				"4", "5", "plus", "wedge", "open", "thumb", "turn", "roll",
+				"breath", "shortphrase", "mediumphrase", "longphrase",
+				"segno", "coda", "D.S.", "D.C.", "dacoda", "fine", "upbow",
+				"downbow", "slide", "turnx", "invertedturn", "invertedturnx",
+				"arpeggio", "trill(", "trill)", "repeatbar", "repeatbar2" };
+		for (int i = 0; i < names.length; i++) {
+			byte type = Decoration.convertToType(names[i]);
+			if ((type > 0) && (s_decorations[type] == null))
+				s_decorations[type] = names[i];
+		}
+	}
+
+	/** Text being written, reused for each tune */
+	private final StringBuilder m_buffer = new StringBuilder(CHUNK_SIZE * 2);
+
+	/** Chars given to the writer */
+	private final char[] m_chunk = new char[CHUNK_SIZE];
+
+	/** Index in the buffer of the beginning of the current line, negative if
+	 * the beginning has already been given to the writer */
+	private int m_lineStart = 0;
+
+	/** Default note length of the music being written */
+	private short m_defaultLength = Note.EIGHTH;
+
+	/** Tuplet whose marker has been written */
+	private Tuplet m_tuplet = null;
+
+	/** <TT>true</TT> if the current line is too long and must be continued
+	 * before the next element, unless it is a staff line end */
+	private boolean m_continueLine = false;
+
+	/** Element written before the current one in its voice */
+	private MusicElement m_previous = null;
+
+	private final ElementWriter m_elementWriter = new ElementWriter();
+
+	public AbcWriter() {
+		super();
+	}
+
+	/** Returns the abc text of the given tune */
+	public String toAbc(Tune tune) {
+		StringWriter out = new StringWriter();
+		try {
+			write(tune, out);
+		} catch (IOException never) {
+			// a StringWriter doesn't throw
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Writes the abc text of the given tune. The values of the book of the
+	 * tune are written as the tune ones.
+	 */
+	public void write(Tune tune, Writer out) throws IOException {
+		m_buffer.setLength(0);
+		m_lineStart = 0;
+		writeTune(tune, null, out);
+		flush(out, 0);
+	}
+
+	/**
+	 * Writes the abc text of the given book: the book header, with the book
+	 * infos and instructions, then its tunes, separated by blank lines.
+	 */
+	public void write(TuneBook book, Writer out) throws IOException {
+		m_buffer.setLength(0);
+		m_lineStart = 0;
+		TuneInfos bookInfos = book.getBookInfos();
+		if (bookInfos != null)
+			writeInfos(bookInfos, null);
+		writeInstructions(book.getInstructions());
+		boolean separate = m_buffer.length() > 0;
+		Vector tunes = book.toVector();
+		for (int i = 0; i < tunes.size(); i++) {
+			if (separate)
+				newLine();
+			separate = true;
+			writeTune((Tune) tunes.elementAt(i), bookInfos, out);
+			flush(out, CHUNK_SIZE);
+		}
+		flush(out, 0);
+	}
+
+	/**
+	 * Writes a tune
+	 *
+	 * @param bookInfos
+	 *            infos of the book header already written, <TT>null</TT> if
+	 *            the tune is written alone
+	 */
+	private void writeTune(Tune tune, TuneInfos bookInfos, Writer out)
+			throws IOException {
+		m_buffer.append("X:").append(tune.getReferenceNumber());
+		newLine();
+		TuneInfos infos = tune.getTuneInfos();
+		writeField('T', value(infos, TuneInfos.TITLE, bookInfos));
+		writeInfos(infos, bookInfos);
+		writeInstructions(tune.getInstructions());
+
+		// header fields found at the beginning of the first voice
+		Music music = tune.getDefaultPart().getMusic();
+		Voice first = music.getVoices().isEmpty() ? null : music.getFirstVoice();
+		KeySignature key = null;
+		TimeSignature meter = null;
+		Tempo tempo = null;
+		int start = 0;
+		if (first != null) {
+			for (; start < first.size(); start++) {
+				Object element = first.elementAt(start);
+				if ((element instanceof KeySignature) && (key == null))
+					key = (KeySignature) element;
+				else if ((element instanceof TimeSignature) && (meter == null))
+					meter = (TimeSignature) element;
+				else if ((element instanceof Tempo) && (tempo == null))
+					tempo = (Tempo) element;
+				else
+					break;
+			}
+		}
+		// L: is read after M:, so any length can be given in the header
+		m_defaultLength = Note.EIGHTH;
+		m_tuplet = null;
+		if (meter != null) {
+			m_buffer.append("M:");
+			appendMeter(meter);
+			newLine();
+		}
+		m_buffer.append("L:");
+		appendLength(m_defaultLength, Note.WHOLE);
+		newLine();
+		if (tempo != null) {
+			m_buffer.append("Q:");
+			appendTempo(tempo);
+			newLine();
+		}
+		MultiPartsDefinition partsDef = tune.getMultiPartsDefinition();
+		if (partsDef != null) {
+			m_buffer.append("P:");
+			appendParts(partsDef);
+			newLine();
+		}
+		m_buffer.append("K:");
+		if (key != null)
+			appendKey(key);
+		else
+			m_buffer.append('C');
+		newLine();
+
+		writeMusic(music, start, out);
+		ArrayList parts = tune.getParts();
+		if (parts != null) {
+			for (int i = 0; i < parts.size(); i++) {
+				Part part = (Part) parts.get(i);
+				m_buffer.append("P:").append(part.getLabel());
+				newLine();
+				writeMusic(part.getMusic(), 0, out);
+			}
+		}
+		writeField('W', value(infos, TuneInfos.WORDS, bookInfos));
+	}
+
+	/**
+	 * Writes the voices of a music, each one after a <TT>V:</TT> field if the
+	 * music has other voices than the default one.
+	 *
+	 * @param start
+	 *            index of the first element of the first voice, after the
+	 *            header fields
+	 */
+	private void writeMusic(Music music, int start, Writer out)
+			throws IOException {
+		Collection voices = music.getVoices();
+		boolean voiceFields = voices.size() > 1;
+		if (!voiceFields && !voices.isEmpty())
+			voiceFields = !"1".equals(music.getFirstVoice().getVoiceName());
+		Iterator it = voices.iterator();
+		while (it.hasNext()) {
+			Voice voice = (Voice) it.next();
+			if (voiceFields) {
+				endLine();
+				m_buffer.append("V:").append(voice.getVoiceName());
+				newLine();
+			}
+			for (int i = start; i < voice.size(); i++) {
+				MusicElement element = (MusicElement) voice.elementAt(i);
+				if (element == null)
+					continue;
+				// a separator or the numbers of a repeat stay with their bar
+				// line, a lonely space would make a blank line
+				if (m_continueLine && !(element instanceof NotesSeparator)
+						&& !isRepeatOfBarLine(element)) {
+					if (!(element instanceof EndOfStaffLine)) {
+						m_buffer.append('\\');
+						newLine();
+					}
+					m_continueLine = false;
+				}
+				element.accept(m_elementWriter);
+				m_previous = element;
+				if (m_buffer.length() >= CHUNK_SIZE)
+					flush(out, CHUNK_SIZE);
+			}
+			endLine();
+			m_tuplet = null;
+			m_continueLine = false;
+			m_previous = null;
+			start = 0;
+		}
+	}
+
+	/** Writes the fields of the header, but the title and the words */
+	private void writeInfos(TuneInfos infos, TuneInfos bookInfos) {
+		for (int i = 0; i < HEADER_FIELDS.length; i++)
+			writeField(HEADER_LETTERS[i],
+					value(infos, HEADER_FIELDS[i], bookInfos));
+	}
+
+	/**
+	 * Returns the value of a field to write for a tune, <TT>null</TT> if
+	 * none
+	 *
+	 * @param bookInfos
+	 *            infos of the book header already written, <TT>null</TT>
+	 *            to write the tune values with the ones of its book
+	 */
+	private static String value(TuneInfos infos, byte field,
+			TuneInfos bookInfos) {
+		return bookInfos != null ? infos.getOwn(field) : infos.get(field);
+	}
+
+	/** Writes a field, a line for each line of the value */
+	private void writeField(char letter, String value) {
+		if (value == null)
+			return;
+		int begin = 0;
+		int end;
+		do {
+			end = value.indexOf('\n', begin);
+			if (end == -1)
+				end = value.length();
+			m_buffer.append(letter).append(':').append(value, begin, end);
+			newLine();
+			begin = end + 1;
+		} while (end < value.length());
+	}
+
+	private void writeInstructions(ArrayList instructions) {
+		if (instructions == null)
+			return;
+		for (int i = 0; i < instructions.size(); i++) {
+			Object instruction = instructions.get(i);
+			if (instruction instanceof Xcommand) {
+				m_buffer.append("%%").append(
+						((Xcommand) instruction).getCommand());
+				newLine();
+			}
+		}
+	}
+
+	/** Writes the parts order, e.g. <TT>A(BC)2</TT> */
+	private void appendParts(MultiPartsDefinition partsDef) {
+		Vector parts = partsDef.getParts();
+		for (int i = 0; i < parts.size(); i++) {
+			RepeatedPartAbstract part = (RepeatedPartAbstract) parts
+					.elementAt(i);
+			if (part instanceof RepeatedPart)
+				m_buffer.append(((RepeatedPart) part).getPart().getLabel());
+			else if (part instanceof MultiPartsDefinition) {
+				m_buffer.append('(');
+				appendParts((MultiPartsDefinition) part);
+				m_buffer.append(')');
+			}
+			if (part.getNumberOfRepeats() > 1)
+				m_buffer.append(part.getNumberOfRepeats());
+		}
+	}
+
+	private void appendMeter(TimeSignature meter) {
+		if (meter.isNone()) {
+			m_buffer.append("none");
+			return;
+		}
+		if (meter.isSumOfNumerators()) {
+			int[] sum = meter.getSumOfNumerators();
+			for (int i = 0; i < sum.length; i++) {
+				if (i > 0)
+					m_buffer.append('+');
+				m_buffer.append(sum[i]);
+			}
+		} else
+			m_buffer.append(meter.getNumerator());
+		m_buffer.append('/').append(meter.getDenominator());
+	}
+
+	private void appendTempo(Tempo tempo) {
+		appendLength(tempo.getReferenceLength(), Note.WHOLE);
+		m_buffer.append('=').append(tempo.getNotesNumberPerMinute());
+	}
+
+	/**
+	 * Writes a key: its note and mode, the accidentals which are not the
+	 * ones of the mode, and the clef if not treble.
+	 */
+	private void appendKey(KeySignature key) {
+		byte mode = key.getMode();
+		String notation = key.toLitteralNotation();
+		if (mode == KeySignature.MAJOR)
+			// major is the default mode
+			notation = notation.substring(0, notation.length() - 3);
+		m_buffer.append(notation);
+		if (mode == KeySignature.OTHER)
+			m_buffer.append(" exp");
+		Accidental[] modeAccidentals = new KeySignature(key.getNote(), key
+				.getAccidental(), mode).getAccidentals();
+		Accidental[] accidentals = key.getAccidentals();
+		for (int i = 0; i < 7; i++) {
+			if (!accidentals[i].equals(modeAccidentals[i])) {
+				m_buffer.append(' ');
+				appendAccidental(accidentals[i].isNotDefined()
+						? Accidental.NATURAL : accidentals[i]);
+				m_buffer.append(KEY_LETTERS.charAt(i));
+			}
+		}
+		appendClef(key.getClef(), " ");
+	}
+
+	/** Writes the clef if not treble, after the given separator */
+	private void appendClef(Clef clef, String separator) {
+		String name = null;
+		if (clef.equals(Clef.TREBLE()))
+			return;
+		else if (clef.equals(Clef.BASS()))
+			name = "bass";
+		else if (clef.equals(Clef.ALTO()))
+			name = "alto";
+		else if (clef.equals(Clef.TENOR()))
+			name = "tenor";
+		else if (clef.equals(Clef.BARITONE()))
+			name = "baritone";
+		else if (clef.equals(Clef.MEZZOSOPRANO()))
+			name = "mezzo";
+		else if (clef.equals(Clef.SOPRANO()))
+			name = "soprano";
+		else if (clef.equals(Clef.PERC()))
+			name = "perc";
+		else if (clef.equals(Clef.NONE()))
+			name = "none";
+		if (name != null)
+			m_buffer.append(separator).append("clef=").append(name);
+	}
+
+	private void appendAccidental(Accidental accidental) {
+		if (accidental.isNotDefined())
+			return;
+		else if (accidental.isNatural())
+			m_buffer.append('=');
+		else if (accidental.isSharp())
+			m_buffer.append('^');
+		else if (accidental.isFlat())
+			m_buffer.append('_');
+		else if (accidental.isDoubleSharp())
+			m_buffer.append("^^");
+		else if (accidental.isDoubleFlat())
+			m_buffer.append("__");
+		else if (accidental.getValue() == 0.5f)
+			m_buffer.append("^/");
+		else if (accidental.getValue() == -0.5f)
+			m_buffer.append("_/");
+		else if (accidental.getValue() == 1.5f)
+			m_buffer.append("^3/2");
+		else if (accidental.getValue() == -1.5f)
+			m_buffer.append("_3/2");
+		else
+			// other microtonal values have no abc notation
+			appendAccidental(Accidental.valueOf(accidental
+					.getNearestOccidentalValue()));
+	}
+
+	/**
+	 * Writes a length relative to another one: nothing if equal,
+	 * <TT>3</TT>, <TT>/</TT>, <TT>/4</TT>, <TT>3/2</TT>...
+	 */
+	private void appendRelativeLength(int length, int reference) {
+		int gcd = gcd(length, reference);
+		int num = length / gcd;
+		int den = reference / gcd;
+		if (num != 1)
+			m_buffer.append(num);
+		// a lone / is read as /2 only after 1, 3/ is read as 3
+		if ((den == 2) && (num == 1))
+			m_buffer.append('/');
+		else if (den != 1)
+			m_buffer.append('/').append(den);
+	}
+
+	/** Writes a length as a fraction of another one, e.g. <TT>1/8</TT> */
+	private void appendLength(int length, int reference) {
+		int gcd = gcd(length, reference);
+		m_buffer.append(length / gcd).append('/').append(reference / gcd);
+	}
+
+	private static int gcd(int a, int b) {
+		a = Math.abs(a);
+		b = Math.abs(b);
+		while (b != 0) {
+			int r = a % b;
+			a = b;
+			b = r;
+		}
+		return a == 0 ? 1 : a;
+	}
+
+	/**
+	 * Writes the chord name, annotations, dynamic and decorations of an
+	 * element
+	 */
+	private void appendDecorable(DecorableElement element) {
+		Chord chord = element.getChord();
+		if (chord != null)
+			m_buffer.append('"').append(chord.getText()).append('"');
+		Vector annotations = element.getAnnotations();
+		if (annotations != null) {
+			for (int i = 0; i < annotations.size(); i++)
+				m_buffer.append('"').append(
+						((Annotation) annotations.elementAt(i)).getText())
+						.append('"');
+		}
+		Dynamic dynamic = element.getDynamic();
+		if ((dynamic != null) && (dynamic.getType() >= 0)
+				&& (dynamic.getType() < DYNAMICS.length))
+			m_buffer.append('!').append(DYNAMICS[dynamic.getType()])
+					.append('!');
+		Decoration[] decorations = element.getDecorations();
+		if (decorations != null) {
+			for (int i = 0; i < decorations.length; i++) {
+				byte type = decorations[i].getType();
+				if (type == Decoration.STACCATO)
+					m_buffer.append('.');
+				else if (type == Decoration.ROLL)
+					m_buffer.append('~');
+				else if ((type > 0) && (type < s_decorations.length)
+						&& (s_decorations[type] != null))
+					m_buffer.append('!').append(s_decorations[type]).append(
+							'!');
+			}
+		}
+	}
+
+	/**
+	 * Writes a note or a multi note, with what comes before it (tuplet,
+	 * slurs, grace notes, decorations) and after it (slurs ends).
+	 */
+	private void appendNoteAbstract(NoteAbstract note) {
+		Tuplet tuplet = note.getTuplet();
+		if ((tuplet != null) && (tuplet != m_tuplet)) {
+			m_tuplet = tuplet;
+			appendTuplet(tuplet);
+		}
+		int slurs = note.isBeginingSlur() ? countSlurs(note, true) : 0;
+		for (int i = 0; i < slurs; i++)
+			m_buffer.append('(');
+		if (note.hasGracingNotes()) {
+			m_buffer.append('{');
+			if (note.getGracingType() == GracingType.ACCIACCATURA)
+				m_buffer.append('/');
+			NoteAbstract[] graces = note.getGracingNotes();
+			for (int i = 0; i < graces.length; i++)
+				appendNotes(graces[i], true);
+			m_buffer.append('}');
+		}
+		appendDecorable(note);
+		appendNotes(note, false);
+		slurs = note.isEndingSlur() ? countSlurs(note, false) : 0;
+		for (int i = 0; i < slurs; i++)
+			m_buffer.append(')');
+	}
+
+	/** Writes a note or the notes of a multi note, with their ties */
+	private void appendNotes(NoteAbstract note, boolean grace) {
+		if (note instanceof MultiNote) {
+			Note[] notes = ((MultiNote) note).toArray();
+			m_buffer.append('[');
+			for (int i = 0; i < notes.length; i++)
+				appendNote(notes[i], grace);
+			m_buffer.append(']');
+		} else if (note instanceof Note)
+			appendNote((Note) note, grace);
+	}
+
+	/** Writes the pitch, the length and the tie of a note */
+	private void appendNote(Note note, boolean grace) {
+		if (note.isRest())
+			m_buffer.append(note.isRestInvisible() ? 'x' : 'z');
+		else {
+			appendAccidental(note.getAccidental());
+			byte height = note.getHeight();
+			char letter = LETTERS.charAt(Note.getStrictHeight(height));
+			int octave = Note.getOctaveTransposition(height);
+			if (octave >= 1) {
+				m_buffer.append(Character.toLowerCase(letter));
+				for (int i = 1; i < octave; i++)
+					m_buffer.append('\'');
+			} else {
+				m_buffer.append(letter);
+				for (int i = octave; i < 0; i++)
+					m_buffer.append(',');
+			}
+		}
+		// grace notes lengths are relative to the half of the default length
+		appendRelativeLength(grace ? writtenDuration(note) * 2
+				: writtenDuration(note), m_defaultLength);
+		if (!grace && note.isBeginningTie())
+			m_buffer.append('-');
+	}
+
+	/**
+	 * Returns the duration of a note as written: the strict duration and the
+	 * dots, without the tuplet, or the absolute duration if set.
+	 */
+	private static int writtenDuration(Note note) {
+		short absolute = note.getAbsoluteDuration();
+		short strict = note.getStrictDuration();
+		if ((absolute != -1) || (strict <= 0))
+			return note.getDuration();
+		int duration = strict;
+		int dot = strict;
+		for (int i = 0; i < note.countDots(); i++) {
+			dot /= 2;
+			duration += dot;
+		}
+		return duration;
+	}
+
+	/** Returns the number of slurs starting or ending on the note */
+	private static int countSlurs(NoteAbstract note, boolean starting) {
+		Vector slurs = note.getSlurDefinitions();
+		MusicElementReference ref = note.getReference();
+		int count = 0;
+		for (int i = 0; i < slurs.size(); i++) {
+			SlurDefinition slur = (SlurDefinition) slurs.elementAt(i);
+			MusicElementReference bound = starting ? slur.getStart() : slur
+					.getEnd();
+			if ((bound != null) && bound.equals(ref))
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Writes a tuplet marker <TT>(p:q:r</TT>, with only <TT>(p</TT> for the
+	 * usual tuplets
+	 */
+	private void appendTuplet(Tuplet tuplet) {
+		int p = tuplet.getTupletNumber();
+		int q = tuplet.getDefaultNoteLength() == 0 ? 0 : tuplet
+				.getTotalDuration() / tuplet.getDefaultNoteLength();
+		int r = tuplet.getNumberOfNotes();
+		int defaultQ = -1;
+		if (p == 2 || p == 4 || p == 8)
+			defaultQ = 3;
+		else if (p == 3 || p == 6)
+			defaultQ = 2;
+		m_buffer.append('(').append(p);
+		if (q != defaultQ || r != p) {
+			m_buffer.append(':');
+			if (q != defaultQ)
+				m_buffer.append(q);
+			if (r != p)
+				m_buffer.append(':').append(r);
+		}
+	}
+
+	/** Writes a bar line, and continues the line if it is too long */
+	private void appendBarLine(BarLine barLine) {
+		appendDecorable(barLine);
+		if (barLine instanceof RepeatBarLine) {
+			RepeatBarLine repeat = (RepeatBarLine) barLine;
+			byte[] numbers = repeat.getRepeatNumbers();
+			if ((numbers == null) || (numbers.length == 0)) {
+				String text = repeat.getRepeatText();
+				m_buffer.append("[\"").append(text != null ? text : "")
+						.append('"');
+			} else {
+				// the parser reads |[1 and :|[2 as a bar line followed
+				// by a repeat bar line, the bar line is already written.
+				// Only |1, :|2 and ::|2 bar lines can be written before
+				// numbers, else [2
+				byte type = repeat.getType();
+				if (isRepeatOfBarLine(repeat))
+					m_buffer.append('[');
+				else if (type == BarLine.SIMPLE)
+					m_buffer.append('|');
+				else if (type == BarLine.REPEAT_CLOSE)
+					m_buffer.append(":|");
+				else if (type == BarLine.DOUBLE_REPEAT_CLOSE)
+					m_buffer.append("::|");
+				else
+					m_buffer.append('[');
+				for (int i = 0; i < numbers.length; i++) {
+					if (i > 0)
+						m_buffer.append(',');
+					m_buffer.append(numbers[i]);
+				}
+			}
+		} else {
+			String s = barLine.toString();
+			if (s != null)
+				m_buffer.append(s);
+		}
+		if (m_buffer.length() - m_lineStart > MAX_LINE_LENGTH)
+			m_continueLine = true;
+	}
+
+	/**
+	 * Returns <TT>true</TT> if the element is a repeat bar line written
+	 * just after a bar line
+	 */
+	private boolean isRepeatOfBarLine(MusicElement element) {
+		return (element instanceof RepeatBarLine)
+				&& (m_previous instanceof BarLine);
+	}
+
+	/** Writes an inline field, e.g. <TT>[K:G]</TT> */
+	private void appendInlineField(char letter, MusicElement field) {
+		m_buffer.append('[').append(letter).append(':');
+		if (field instanceof KeySignature)
+			appendKey((KeySignature) field);
+		else if (field instanceof TimeSignature)
+			appendMeter((TimeSignature) field);
+		else if (field instanceof Tempo)
+			appendTempo((Tempo) field);
+		m_buffer.append(']');
+	}
+
+	private void newLine() {
+		m_buffer.append('\n');
+		m_lineStart = m_buffer.length();
+	}
+
+	/** Ends the current line if it is not empty */
+	private void endLine() {
+		if (m_buffer.length() > m_lineStart)
+			newLine();
+	}
+
+	/**
+	 * Gives the text of the buffer to the writer, leaving less than
+	 * <TT>keep</TT> chars
+	 */
+	private void flush(Writer out, int keep) throws IOException {
+		int length = m_buffer.length();
+		if (length < keep || length == 0)
+			return;
+		for (int begin = 0; begin < length; begin += m_chunk.length) {
+			int end = Math.min(length, begin + m_chunk.length);
+			m_buffer.getChars(begin, end, m_chunk, 0);
+			out.write(m_chunk, 0, end - begin);
+		}
+		m_buffer.setLength(0);
+		m_lineStart -= length;
+	}
+
+	/**
+	 * Writes the elements of a voice
+	 */
+	private final class ElementWriter extends MusicElementVisitorAdapter {
+
+		public void visitNote(Note note) {
+			appendNoteAbstract(note);
+		}
+
+		public void visitMultiNote(MultiNote multiNote) {
+			appendNoteAbstract(multiNote);
+		}
+
+		public void visitBarLine(BarLine barLine) {
+			appendBarLine(barLine);
+		}
+
+		public void visitRepeatBarLine(RepeatBarLine repeatBarLine) {
+			appendBarLine(repeatBarLine);
+		}
+
+		public void visitRepeatEnd(RepeatEnd repeatEnd) {
+			appendDecorable(repeatEnd);
+			m_buffer.append(']');
+		}
+
+		public void visitKeySignature(KeySignature keySignature) {
+			appendInlineField('K', keySignature);
+		}
+
+		public void visitTimeSignature(TimeSignature timeSignature) {
+			appendInlineField('M', timeSignature);
+			// as the parser, the default length follows the meter
+			m_defaultLength = timeSignature.getDefaultNoteLength();
+		}
+
+		public void visitTempo(Tempo tempo) {
+			appendInlineField('Q', tempo);
+		}
+
+		public void visitClef(Clef clef) {
+			if (!clef.equals(Clef.TREBLE())) {
+				m_buffer.append("[K:");
+				appendClef(clef, "");
+				m_buffer.append(']');
+			}
+		}
+
+		public void visitEndOfStaffLine(EndOfStaffLine endOfStaffLine) {
+			// a blank line would end the tune
+			endLine();
+		}
+
+		public void visitNotesSeparator(NotesSeparator notesSeparator) {
+			m_buffer.append(' ');
+		}
+
+		public void visitSpacer(Spacer spacer) {
+			appendDecorable(spacer);
+			m_buffer.append('y');
+		}
+
+		public void visitMeasureRepeat(MeasureRepeat measureRepeat) {
+			appendDecorable(measureRepeat);
+			for (int i = 0; i < measureRepeat.getNumberOfMeasure(); i++)
+				m_buffer.append('/');
+		}
+
+		public void visitMeasureRest(MeasureRest measureRest) {
+			m_buffer.append('Z');
+			if (measureRest.getNumberOfRepeats() > 1)
+				m_buffer.append(measureRest.getNumberOfRepeats());
+		}
+
+		public void visitWords(Words words) {
+			endLine();
+			m_buffer.append("w:").append(words.getContent());
+			newLine();
+		}
+
+		public void visitOther(MusicElement element) {
+			if (element instanceof Xcommand) {
+				endLine();
+				m_buffer.append("%%").append(
+						((Xcommand) element).getCommand());
+				newLine();
+			}
+		}
+
+	}
+
+}
@@ -16,6 +16,7 @@
 package abc.notation;
 
 import java.io.Serializable;
+import java.util.HashMap;
 
 /** Accidentals */
 public class Accidental implements Cloneable, Serializable
@@ -46,6 +47,42 @@ public class Accidental implements Cloneable, Serializable
 	public static final Accidental SHARP_AND_A_HALF = new Accidental(1.5f);
 	public static final Accidental DOUBLE_SHARP = new Accidental(_DOUBLE_SHARP);
 
+	/** Float value -> Accidental, for values which are not a constant */
+	private static final HashMap s_pool = new HashMap();
+
+	/**
+	 * Returns the accidental of the given value. Accidentals are
+	 * immutable, so instead of creating a new one, the constants are
+	 * returned, or a shared instance for other microtonal values.
+	 *
+	 * @param value
+	 *            from -2 (double flat) to 2 (double sharp), other values
+	 *            return {@link #NONE}
+	 */
+	public static Accidental valueOf(float value) {
+		if (value == _NONE) return NONE;
+		else if (value == _NATURAL) return NATURAL;
+		else if (value == _SHARP) return SHARP;
+		else if (value == _FLAT) return FLAT;
+		else if (value == _DOUBLE_SHARP) return DOUBLE_SHARP;
+		else if (value == _DOUBLE_FLAT) return DOUBLE_FLAT;
+		else if (value == 0.5f) return HALF_SHARP;
+		else if (value == -0.5f) return HALF_FLAT;
+		else if (value == 1.5f) return SHARP_AND_A_HALF;
+		else if (value == -1.5f) return FLAT_AND_A_HALF;
+		else if ((value < _DOUBLE_FLAT) || (value > _DOUBLE_SHARP)
+				|| Float.isNaN(value)) return NONE;
+		synchronized (s_pool) {
+			Float key = Float.valueOf(value);
+			Accidental ret = (Accidental) s_pool.get(key);
+			if (ret == null) {
+				ret = new Accidental(value);
+				s_pool.put(key, ret);
+			}
+			return ret;
+		}
+	}
+
 	/**
 	 * Convert a string to an accidental. Understand ABC ^ and _, chord names #,
 	 * b and unicode char
@@ -98,6 +135,12 @@ public class Accidental implements Cloneable, Serializable
 		else return super.equals(o);
 	}
 	
+	public int hashCode() {
+		float value = getValue();
+		//0 and -0 are equal
+		return value == 0 ? 0 : Float.floatToIntBits(value);
+	}
+	
 	/** Returns the microtonal offset between this (microtonal)
 	 * accidental and the nearest occidental semitone.
 	 * 
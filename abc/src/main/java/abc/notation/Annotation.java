@@ -72,5 +72,9 @@ public class Annotation extends MusicPresentationElement implements Cloneable {
 	public String toString() {
 		return getText();
 	}
-	
-}
\ No newline at end of file
+
+	byte elementType() {
+		return MusicElementVisitor.ANNOTATION;
+	}
+
+}
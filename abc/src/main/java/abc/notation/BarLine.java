@@ -153,4 +153,9 @@ public class BarLine extends DecorableElement implements Cloneable
 	  default: return null;
 	  }
   }
+
+	byte elementType() {
+		return MusicElementVisitor.BAR_LINE;
+	}
+
 }
@@ -266,4 +266,9 @@ public class Chord extends Annotation implements Cloneable {
 		((Chord) o).m_note = (Note) m_note.clone();
 		return o;
 	}
-}
\ No newline at end of file
+
+	byte elementType() {
+		return MusicElementVisitor.CHORD;
+	}
+
+}
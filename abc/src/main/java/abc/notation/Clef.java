@@ -333,7 +333,7 @@ public class Clef extends MusicElement implements Cloneable {
 	 * printed output, only audio rendition.
 	 * @param staffLines Number of lines in the staff (1 for perc, 5 for all others)
 	 */
-	private Clef(String name, int lineNumber, int octaveTranspo,
+	Clef(String name, int lineNumber, int octaveTranspo,
 			int semitoneTranspo, int staffLines) {
 		m_clefName = name;
 		setLineNumber((byte)lineNumber);
@@ -376,11 +376,11 @@ public class Clef extends MusicElement implements Cloneable {
 			//A 5th (label=4) for 3 lines,
 			//A 3rd (label=2) for 1 line
 			byte label = (byte) (getStaffLines() + 1);
-			Interval interv = new Interval(label,
+			Interval interv = Interval.valueOf(label,
 				label==5?Interval.PERFECT:Interval.MAJOR,
 				Interval.UPWARD);
 			m_highNote = interv.calculateSecondNote(getMiddleNote());
-			m_highNote.setAccidental(new Accidental());//Accidental.NONE
+			m_highNote.setAccidental(Accidental.NONE);
 		}
 		return m_highNote;
 	}
@@ -396,11 +396,11 @@ public class Clef extends MusicElement implements Cloneable {
 			//A 5th (label=4) for 3 lines,
 			//A 3rd (label=2) for 1 line
 			byte label = (byte) (getStaffLines() + 1);
-			Interval interv = new Interval(label,
+			Interval interv = Interval.valueOf(label,
 				label==5?Interval.PERFECT:Interval.MAJOR,
 				Interval.DOWNWARD);
 			m_lowNote = interv.calculateSecondNote(getMiddleNote());
-			m_lowNote.setAccidental(new Accidental());//Accidental.NONE
+			m_lowNote.setAccidental(Accidental.NONE);
 		}
 		return m_lowNote;
 	}
@@ -445,7 +445,7 @@ public class Clef extends MusicElement implements Cloneable {
 					}
                     assert interval != null;
                     m_middleNote = interval.calculateSecondNote(ref);
-					m_middleNote.setAccidental(new Accidental());//Accidental.NONE);
+					m_middleNote.setAccidental(Accidental.NONE);
 					m_middleNote.setOctaveTransposition((byte)
 							(m_middleNote.getOctaveTransposition()
 									+ m_invisibleOctaveTransp));
@@ -536,6 +536,13 @@ public class Clef extends MusicElement implements Cloneable {
 		return m_invisibleOctaveTransp;
 	}
 
+	/** Sets the invisible octave transposition, as computed by
+	 * {@link #setMiddleNote(Note)} */
+	void setInvisibleOctaveTransposition(byte octaveTranspo) {
+		m_invisibleOctaveTransp = octaveTranspo;
+		reset();
+	}
+
 	/** Returns the transposition in octave, +1 for *va, -1 for *vb... */
 	public void setOctaveTransposition(byte i) {
 		if (i < -2) i = -2;
@@ -642,5 +649,9 @@ public class Clef extends MusicElement implements Cloneable {
         }
 		return o;
 	}
-	
+
+	byte elementType() {
+		return MusicElementVisitor.CLEF;
+	}
+
 }
@@ -0,0 +1,251 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+
+/**
+ * A {@link TuneBook} which can be read by several threads while another
+ * one updates it, e.g. tunes served while the book is reloaded.
+ * <p>
+ * Tunes are kept in an immutable snapshot: reference numbers in a sorted
+ * <TT>int</TT> array, and tunes in a parallel array. Reads never lock,
+ * they use the snapshot current when they start. Updates are serialized,
+ * they build a new snapshot and publish it at once, so a batch of
+ * changes ({@link #update(Collection, int[])}, {@link #reload(TuneBook)})
+ * is seen entirely or not at all.
+ * <p>
+ * A snapshot can be kept to read several tunes consistently with
+ * {@link #getTunes()} or {@link #toVector()}.
+ * <p>
+ * Unlike {@link TuneBook#removeTune(int)}, removed tunes are not modified
+ * (book infos and instructions are not taken back), as they can still be
+ * read from an older snapshot. Tunes put in the book must not be
+ * modified once put. The tunes map of {@link TuneBook} is not used, all
+ * the methods reading or writing the tunes are overridden.
+ */
+public class ConcurrentTuneBook extends TuneBook {
+
+	private static final long serialVersionUID = 3920125148396437162L;
+
+	/** The current tunes, replaced by each update */
+	private volatile Snapshot m_snapshot = new Snapshot(new int[0], new Tune[0]);
+
+	public ConcurrentTuneBook() {
+		super(new TuneInfos());
+	}
+
+	/**
+	 * Creates a concurrent book with the infos, instructions and tunes
+	 * of the given book.
+	 */
+	public ConcurrentTuneBook(TuneBook tuneBook) {
+		super((TuneInfos) tuneBook.getBookInfos().clone());
+		getInstructions().addAll(tuneBook.getInstructions());
+		TreeMap tunes = new TreeMap();
+		for (Object o : tuneBook.toVector()) {
+			Tune tune = (Tune) o;
+			tunes.put(tune.getReferenceNumber(), tune);
+		}
+		m_snapshot = Snapshot.of(tunes);
+	}
+
+	public Object clone() {
+		return new ConcurrentTuneBook(this);
+	}
+
+	public boolean containsTune(int referenceNumber) {
+		return m_snapshot.indexOf(referenceNumber) >= 0;
+	}
+
+	public int getHighestReferenceNumber() {
+		int[] refs = m_snapshot.m_refs;
+		return refs.length == 0 ? -1 : refs[refs.length - 1];
+	}
+
+	public int[] getReferenceNumbers() {
+		return (int[]) m_snapshot.m_refs.clone();
+	}
+
+	public Tune getTune(int referenceNumber) {
+		Snapshot snapshot = m_snapshot;
+		int i = snapshot.indexOf(referenceNumber);
+		return i < 0 ? null : snapshot.m_tunes[i];
+	}
+
+	/**
+	 * Returns a read-only map of reference number => Tune, which is a
+	 * snapshot of the book: it doesn't change with next updates.
+	 */
+	public Map getTunes() {
+		return m_snapshot.asMap();
+	}
+
+	public int size() {
+		return m_snapshot.m_refs.length;
+	}
+
+	/** Returns the tunes of the current snapshot */
+	public Vector toVector() {
+		return new Vector(Arrays.asList(m_snapshot.m_tunes));
+	}
+
+	public synchronized boolean putTune(Tune tune) {
+		Snapshot snapshot = m_snapshot;
+		int ref = tune.getReferenceNumber();
+		int i = snapshot.indexOf(ref);
+		attach(tune);
+		int size = snapshot.m_refs.length;
+		if (i >= 0) {
+			Tune[] tunes = (Tune[]) snapshot.m_tunes.clone();
+			tunes[i] = tune;
+			m_snapshot = new Snapshot(snapshot.m_refs, tunes);
+			return true;
+		}
+		// insert at -(i + 1), keeping refs sorted
+		int at = -(i + 1);
+		int[] refs = new int[size + 1];
+		Tune[] tunes = new Tune[size + 1];
+		System.arraycopy(snapshot.m_refs, 0, refs, 0, at);
+		System.arraycopy(snapshot.m_tunes, 0, tunes, 0, at);
+		refs[at] = ref;
+		tunes[at] = tune;
+		System.arraycopy(snapshot.m_refs, at, refs, at + 1, size - at);
+		System.arraycopy(snapshot.m_tunes, at, tunes, at + 1, size - at);
+		m_snapshot = new Snapshot(refs, tunes);
+		return false;
+	}
+
+	public synchronized Tune removeTune(int referenceNumber) {
+		Snapshot snapshot = m_snapshot;
+		int i = snapshot.indexOf(referenceNumber);
+		if (i < 0)
+			return null;
+		Tune ret = snapshot.m_tunes[i];
+		int size = snapshot.m_refs.length;
+		int[] refs = new int[size - 1];
+		Tune[] tunes = new Tune[size - 1];
+		System.arraycopy(snapshot.m_refs, 0, refs, 0, i);
+		System.arraycopy(snapshot.m_tunes, 0, tunes, 0, i);
+		System.arraycopy(snapshot.m_refs, i + 1, refs, i, size - i - 1);
+		System.arraycopy(snapshot.m_tunes, i + 1, tunes, i, size - i - 1);
+		m_snapshot = new Snapshot(refs, tunes);
+		return ret;
+	}
+
+	/**
+	 * Puts and removes tunes at once: readers see all the changes or
+	 * none of them.
+	 *
+	 * @param tunesToPut
+	 *            Collection of {@link Tune} to put, replacing tunes with
+	 *            the same reference numbers. May be <TT>null</TT>.
+	 * @param referenceNumbersToRemove
+	 *            reference numbers of tunes to remove, removed before the
+	 *            tunes are put. May be <TT>null</TT>.
+	 */
+	public synchronized void update(Collection tunesToPut,
+			int[] referenceNumbersToRemove) {
+		TreeMap tunes = new TreeMap(m_snapshot.asMap());
+		if (referenceNumbersToRemove != null) {
+			for (int ref : referenceNumbersToRemove)
+				tunes.remove(ref);
+		}
+		if (tunesToPut != null) {
+			for (Object o : tunesToPut) {
+				Tune tune = (Tune) o;
+				attach(tune);
+				tunes.put(tune.getReferenceNumber(), tune);
+			}
+		}
+		m_snapshot = Snapshot.of(tunes);
+	}
+
+	/**
+	 * Replaces at once all the tunes of this book by the tunes of the
+	 * given book, e.g. when the book file has been parsed again. Readers
+	 * keep on reading the previous tunes until the new ones are
+	 * published. Book infos and instructions of this book are kept.
+	 */
+	public synchronized void reload(TuneBook tuneBook) {
+		TreeMap tunes = new TreeMap();
+		for (Object o : tuneBook.toVector()) {
+			Tune tune = (Tune) o;
+			attach(tune);
+			tunes.put(tune.getReferenceNumber(), tune);
+		}
+		m_snapshot = Snapshot.of(tunes);
+	}
+
+	/**
+	 * Tunes of the book at a given time, never modified.
+	 */
+	private static final class Snapshot implements Serializable {
+
+		private static final long serialVersionUID = -5305934424567937850L;
+
+		/** reference numbers, ascending */
+		private final int[] m_refs;
+		/** m_tunes[i] has reference number m_refs[i] */
+		private final Tune[] m_tunes;
+		/** map view, built on first {@link #asMap()} call */
+		private transient volatile Map m_map = null;
+
+		private Snapshot(int[] refs, Tune[] tunes) {
+			m_refs = refs;
+			m_tunes = tunes;
+		}
+
+		/** Builds a snapshot from a map of Integer => Tune */
+		private static Snapshot of(TreeMap tunes) {
+			int[] refs = new int[tunes.size()];
+			Tune[] values = new Tune[refs.length];
+			Iterator it = tunes.entrySet().iterator();
+			for (int i = 0; it.hasNext(); i++) {
+				Map.Entry entry = (Map.Entry) it.next();
+				refs[i] = (Integer) entry.getKey();
+				values[i] = (Tune) entry.getValue();
+			}
+			return new Snapshot(refs, values);
+		}
+
+		private int indexOf(int referenceNumber) {
+			return Arrays.binarySearch(m_refs, referenceNumber);
+		}
+
+		private Map asMap() {
+			Map map = m_map;
+			if (map == null) {
+				TreeMap tunes = new TreeMap();
+				for (int i = 0; i < m_refs.length; i++)
+					tunes.put(m_refs[i], m_tunes[i]);
+				// may be built twice by concurrent readers, both are equal
+				map = Collections.unmodifiableMap(tunes);
+				m_map = map;
+			}
+			return map;
+		}
+
+	}
+
+}
@@ -344,4 +344,9 @@ public class Decoration extends SymbolElement implements Cloneable
 	public Object clone() throws CloneNotSupportedException {
 		return super.clone();
 	}
+
+	byte elementType() {
+		return MusicElementVisitor.DECORATION;
+	}
+
 }
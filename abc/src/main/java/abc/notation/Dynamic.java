@@ -166,4 +166,8 @@ public class Dynamic extends SymbolElement implements Cloneable {
 		}
 	}
 
-}
\ No newline at end of file
+	byte elementType() {
+		return MusicElementVisitor.DYNAMIC;
+	}
+
+}
@@ -34,4 +34,9 @@ public class Elemskip extends MusicElement implements Cloneable
   public Object clone() throws CloneNotSupportedException {
 	  return super.clone();
   }
+
+	byte elementType() {
+		return MusicElementVisitor.ELEMSKIP;
+	}
+
 }
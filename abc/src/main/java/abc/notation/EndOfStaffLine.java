@@ -27,4 +27,9 @@ public class EndOfStaffLine extends MusicPresentationElement implements Cloneabl
 	public Object clone() throws CloneNotSupportedException {
 		return super.clone();
 	}
+
+	byte elementType() {
+		return MusicElementVisitor.END_OF_STAFF_LINE;
+	}
+
 }
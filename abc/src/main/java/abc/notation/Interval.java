@@ -18,6 +18,7 @@
 package abc.notation;
 
 import java.io.Serializable;
+import java.util.HashMap;
 
 /**
  * In music theory, the term interval describes the relationship
@@ -185,6 +186,41 @@ public class Interval implements Cloneable, Serializable {
 		return new Interval(iLabel, iQuality, iOrder);
 	}
 
+	/** Integer key (label, quality, direction) -> Interval */
+	private static final HashMap s_pool = new HashMap();
+
+	/**
+	 * Second notes of simple intervals, see {@link #getSecondNotes()},
+	 * indexed by label, quality and direction
+	 */
+	private static final Note[][] s_secondNotes = new Note[OCTAVE
+			* (QUADRUPLE_AUGMENTED - QUADRUPLE_DIMINISHED + 1) * 2][];
+
+	/**
+	 * Returns the interval of the given label, quality and direction.
+	 * Intervals are immutable, a shared instance is returned instead of
+	 * creating a new one each time.
+	 * 
+	 * @see #Interval(byte, byte, byte)
+	 * @throws IllegalArgumentException
+	 *             If this interval can't be perfect and qualification is
+	 *             PERFECT, or this interval can't be major/minor and
+	 *             qualification is MAJOR or MINOR
+	 */
+	public static Interval valueOf(byte label, byte quality, byte direction)
+		throws IllegalArgumentException {
+		Integer key = Integer.valueOf(((label & 0xFF) << 16)
+				| ((quality & 0xFF) << 8) | (direction & 0xFF));
+		synchronized (s_pool) {
+			Interval ret = (Interval) s_pool.get(key);
+			if (ret == null) {
+				ret = new Interval(label, quality, direction);
+				s_pool.put(key, ret);
+			}
+			return ret;
+		}
+	}
+
 	/** height or degree offset */
 	private byte m_label = UNISON;
 	private byte m_quality = PERFECT;
@@ -257,13 +293,8 @@ public class Interval implements Cloneable, Serializable {
 		deltaSemitones = Math.abs(high.getMidiLikeHeight(key) - low.getMidiLikeHeight(key));
 		
 		//delta strict height
-		byte[] notes = new byte[] { Note.C, Note.D, Note.E, Note.F, Note.G,
-				Note.A, Note.B };
-		int height1 = 0, height2 = 0;
-		for (int i = 0; i < notes.length; i++) {
-			if (notes[i] == low.getStrictHeight()) height1 = i;
-			if (notes[i] == high.getStrictHeight()) height2 = i;
-		}
+		int height1 = Note.DEGREE_INDEXES[low.getStrictHeight()];
+		int height2 = Note.DEGREE_INDEXES[high.getStrictHeight()];
 		if (height2 < height1) height2 += 7;
 		deltaHeight = height2 - height1;
 		
@@ -308,16 +339,8 @@ public class Interval implements Cloneable, Serializable {
 	 * this Interval
 	 */
 	public int getSemitones() {
-		int semitones = 0;
-		switch (getLabel() % OCTAVE) {
-		case UNISON: semitones = 0; break; //unison
-		case SECOND: semitones = 2; break; //major 2nd
-		case THIRD: semitones = 4; break; //major 3rd
-		case FOURTH: semitones = 5; break; //perfect 4th
-		case FIFTH: semitones = 7; break; //perfect 5th
-		case SIXTH: semitones = 9; break; //major 6th
-		case SEVENTH: semitones = 11; break; //major 7th
-		}
+		//semitones of major or perfect interval
+		int semitones = Note.STRICT_HEIGHTS[getLabel() % OCTAVE];
 		switch (getQuality()) {
 		case QUADRUPLE_DIMINISHED:
 		case TRIPLE_DIMINISHED:
@@ -379,6 +402,11 @@ public class Interval implements Cloneable, Serializable {
 				&& (interval.getDirection() == getDirection());
 		}
 	}
+	
+	public int hashCode() {
+		return (getLabel() << 16) | ((getQuality() & 0xFF) << 8)
+			| (getDirection() & 0xFF);
+	}
 
 	/**
 	 * Returns the quality of the interval (minor, major, perfect...)
@@ -533,38 +561,94 @@ public class Interval implements Cloneable, Serializable {
 				never.printStackTrace();
 			}
 		}
-		byte[] notes = new byte[] { Note.C, Note.D, Note.E, Note.F, Note.G,
-				Note.A, Note.B };
-		int height1 = n1.getStrictHeight();
-		int index = 0;
-		for (int i = 0; i < notes.length; i++) {
-			if (notes[i] == height1) {
-				index = i;
-				break;
+		Note n2;
+		Accidental n1AccValue = n1.getAccidental(key);
+		int octaves = m_direction * getOctaveNumber();
+		if (n1AccValue.isMicrotonal()
+				|| (Math.abs(n1.getHeight()) + 12 * Math.abs(octaves) > 96)) {
+			n2 = computeSecondNote(n1, key);
+		} else {
+			//the second note of a compound interval is the one of the
+			//simple interval, moved by octaves
+			Note[] secondNotes = valueOf((byte) (m_label % OCTAVE), m_quality,
+					m_direction).getSecondNotes();
+			Note secondNote = secondNotes[Note.DEGREE_INDEXES[n1
+					.getStrictHeight()]
+					* 5 + n1AccValue.getNearestOccidentalValue() + 2];
+			try {
+				n2 = (Note) n1.clone();
+			} catch (CloneNotSupportedException never) {
+				never.printStackTrace();
+				return null;
 			}
+			n2.setHeight((byte) (secondNote.getHeight() + 12
+					* (n1.getOctaveTransposition() + octaves)));
+			n2.setAccidental(secondNote.getAccidental());
+		}
+		if (key != null) {
+			if (n2.getAccidental().equals(key.getAccidentalFor(n2.getStrictHeight())))
+				n2.setAccidental(Accidental.NONE);
 		}
-		int steps = getLabel();
-		int octaveTransp = n1.getOctaveTransposition();
-		while (steps > 0) {
-			int oldIndex = index;
-			index = (7 + index + m_direction) % OCTAVE;
-			if ((oldIndex == 6) && (index == 0)) {
-				//upward one octave
-				octaveTransp += 1;
-			} else if ((oldIndex == 0) && (index == 6)) {
-				//downward one octave
-				octaveTransp -= 1;
+		return n2;
+	}
+	
+	/**
+	 * Compute the second note of this interval based on first
+	 * note n1.
+     *
+	 * @return a clone of n1 which pitch is changed
+	 */
+	public Note calculateSecondNote(Note n1) {
+		return calculateSecondNote(n1, null);
+	}
+
+	/**
+	 * Returns the second notes of this interval for C to B in the first
+	 * octave, with accidentals double flat to double sharp, indexed by
+	 * degree of C to B * 5 + accidental value + 2. Computed once for
+	 * simple intervals, the array must not be modified.
+	 */
+	private Note[] getSecondNotes() {
+		int i = ((m_label * (QUADRUPLE_AUGMENTED - QUADRUPLE_DIMINISHED + 1))
+				+ m_quality - QUADRUPLE_DIMINISHED) * 2
+				+ (isUpward() ? 0 : 1);
+		synchronized (s_secondNotes) {
+			if (s_secondNotes[i] == null) {
+				Note[] secondNotes = new Note[7 * 5];
+				for (int degree = 0; degree < 7; degree++) {
+					for (int acc = -2; acc <= 2; acc++) {
+						Note n1 = new Note(Note.STRICT_HEIGHTS[degree],
+								Accidental.valueOf(acc));
+						secondNotes[degree * 5 + acc + 2] = computeSecondNote(
+								n1, null);
+					}
+				}
+				s_secondNotes[i] = secondNotes;
 			}
-			steps--;
+			return s_secondNotes[i];
 		}
+	}
+
+	/**
+	 * Compute the second note of this interval based on first
+	 * note n1, from the degrees and the semitones of the interval.
+	 * The accidental is not removed if it is in the key.
+	 */
+	private Note computeSecondNote(Note n1, KeySignature key) {
+		int index = Note.DEGREE_INDEXES[n1.getStrictHeight()];
+		//floor of division for downward intervals
+		index += m_direction * getLabel();
+		int octaveTransp = n1.getOctaveTransposition()
+				+ (index >= 0 ? index / 7 : (index - 6) / 7);
+		index = ((index % 7) + 7) % 7;
 		Note n2;
 		try {
 			n2 = (Note) n1.clone();
 		} catch (CloneNotSupportedException never) {
 			never.printStackTrace();
-			n2 = null;
+			return null;
 		}
-		n2.setHeight(notes[index]);
+		n2.setHeight(Note.STRICT_HEIGHTS[index]);
 		n2.setOctaveTransposition((byte) octaveTransp);
 		n2.setAccidental(Accidental.NATURAL);
 		
@@ -576,23 +660,9 @@ public class Interval implements Cloneable, Serializable {
 			Accidental[] acc = calculateSecondNoteAccidental(n1, key);
 			n2 = Note.createEnharmonic(n2, acc);
 		}
-		if (key != null) {
-			if (n2.getAccidental().equals(key.getAccidentalFor(n2.getStrictHeight())))
-				n2.setAccidental(Accidental.NONE);
-		}
 		return n2;
 	}
 	
-	/**
-	 * Compute the second note of this interval based on first
-	 * note n1.
-     *
-	 * @return a clone of n1 which pitch is changed
-	 */
-	public Note calculateSecondNote(Note n1) {
-		return calculateSecondNote(n1, null);
-	}
-	
 	private Accidental[] calculateSecondNoteAccidental(Note n1, KeySignature key) {
 		Accidental n1AccValue = n1.getAccidental(key);
 		if (isPerfectUnisonOrOctave()) {
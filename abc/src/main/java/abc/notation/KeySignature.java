@@ -17,6 +17,9 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.notation;
 
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
 /** This class defines key signatures using modes definition like E major, G minor etc etc...
  * <PRE>
  *                           1   2   3   4   5   6   7
@@ -108,8 +111,21 @@ public class KeySignature extends MusicElement implements Cloneable
     private Accidental m_keyAccidental = Accidental.NATURAL;
     private byte mode = OTHER;
     private Accidental[] accidentals = accidentalsRules[0];
+    /** <TT>true</TT> if accidentals array is owned by this key, else
+     * it is a shared one which must be copied before modification */
+    private transient boolean m_ownAccidentals = false;
     private byte keyIndex = 0;
-    private Clef m_clef = Clef.TREBLE();
+    /** created on first {@link #getClef()} call if not set */
+    private Clef m_clef = null;
+    /** enharmonics in this key of C to B with accidentals double flat to
+     * double sharp, filled by {@link Note#createEnharmonic(Note, KeySignature)},
+     * shared by clones, dropped when an accidental is set */
+    private transient Note[] m_enharmonics = null;
+
+    /** String key -> shared accidentals array, never modified */
+    private static final HashMap s_accidentalsPool = new HashMap();
+    /** shared accidentals arrays, to recognize them without lookup */
+    private static final IdentityHashMap s_sharedAccidentals = new IdentityHashMap();
 
     /** Creates a new signature with the specified parameters.
      * @param keyNoteType The note of the mode. Possible values are
@@ -120,12 +136,12 @@ public class KeySignature extends MusicElement implements Cloneable
      * <TT>MAJOR</TT>, <TT>MINOR</TT>, <TT>MIXOLYDIAN</TT>, <TT>PHRYGIAN</TT> or <TT>OTHER</TT>. */
     public KeySignature (byte keyNoteType, byte modeType)
     {
-      this(keyNoteType, new Accidental(), modeType);
+      this(keyNoteType, Accidental.NONE, modeType);
     }
     
     /** @deprecated use {@link #KeySignature(byte, Accidental, byte)} */
 	public KeySignature(byte keyNoteType, float keyAccidentalValue, byte modeType) {
-		this(keyNoteType, new Accidental(keyAccidentalValue), modeType);
+		this(keyNoteType, Accidental.valueOf(keyAccidentalValue), modeType);
 	}
 
     /**
@@ -253,16 +269,8 @@ public class KeySignature extends MusicElement implements Cloneable
 		if (degree == 1)
 			return getNote();
 		else {
-			byte[] notes = new byte[] { Note.C, Note.D, Note.E, Note.F, Note.G,
-					Note.A, Note.B };
-			int index = 0;
-			for (int i = 0; i < notes.length; i++) {
-				if (notes[i] == m_keyNote) {
-					index = i;
-					break;
-				}
-			}
-			return notes[(index + degree - 1) % notes.length];
+			int index = Note.DEGREE_INDEXES[m_keyNote];
+			return Note.STRICT_HEIGHTS[(index + degree - 1) % 7];
 		}
 	}
 
@@ -284,21 +292,50 @@ public class KeySignature extends MusicElement implements Cloneable
     { return m_keyAccidental; }
 
     /** Returns accidentals values of this key signature.
+     * The returned array may be shared with other keys, it must not
+     * be modified, use {@link #setAccidental(byte, Accidental)}.
      * @return accidentals of this key signature. Index 0 correspond to 
      * accidental for C, 1 to accidental for D and so on up to B.*/
     public Accidental[] getAccidentals ()
     { return accidentals; }
 
     /**
-     * Set the accidentals, ensure that the byte array is copied
-     * <TT>accidentals = accidentalRules...[...]</TT> keeps the reference
-     * to accidentalRules... so if you set an accidental with {@link #setAccidental(byte, Accidental)}
-     * the static accidentalRule...[] is altered.
+     * Set the accidentals, ensure that the array is shared and never
+     * altered: <TT>accidentals = accidentalRules...[...]</TT> would keep
+     * the reference to accidentalRules... so if you set an accidental with
+     * {@link #setAccidental(byte, Accidental)} the static accidentalRule...[]
+     * would be altered.
      */
     private void setAccidentals(Accidental[] accidentalsDefinition) {
-    	Accidental[] newArray = new Accidental[7];
-        System.arraycopy(accidentalsDefinition, 0, newArray, 0, 7);
-        accidentals = newArray;
+        accidentals = shareAccidentals(accidentalsDefinition);
+        m_ownAccidentals = false;
+    }
+
+    /**
+     * Returns the shared array equal to the given accidentals. Keys
+     * are built at each bar line by midi conversion, but there are only
+     * a few distinct accidentals arrays: they are shared by keys until
+     * one is modified by {@link #setAccidental(byte, Accidental)}.
+     */
+    private static Accidental[] shareAccidentals(Accidental[] accidentalsDefinition) {
+    	synchronized (s_accidentalsPool) {
+    		if (s_sharedAccidentals.containsKey(accidentalsDefinition))
+    			return accidentalsDefinition;
+    		StringBuffer key = new StringBuffer();
+    		for (int i = 0; i < 7; i++) {
+    			Accidental acc = accidentalsDefinition[i];
+    			key.append(acc.isInTheKey() ? "N" : String.valueOf(acc.getValue()))
+    				.append(' ');
+    		}
+    		Accidental[] ret = (Accidental[]) s_accidentalsPool.get(key.toString());
+    		if (ret == null) {
+    			ret = new Accidental[7];
+    			System.arraycopy(accidentalsDefinition, 0, ret, 0, 7);
+    			s_accidentalsPool.put(key.toString(), ret);
+    			s_sharedAccidentals.put(ret, Boolean.TRUE);
+    		}
+    		return ret;
+    	}
     }
 
     /** Sets the accidental for the specified note.
@@ -324,6 +361,11 @@ public class KeySignature extends MusicElement implements Cloneable
       else
         throw new IllegalArgumentException("Invalid note heigth : " + noteHeigth);
 
+      if (!m_ownAccidentals) {
+    	  accidentals = (Accidental[]) accidentals.clone();
+    	  m_ownAccidentals = true;
+      }
+      m_enharmonics = null;
       if (accidental.isNotDefined())
     	  accidentals[index] = Accidental.NATURAL;
       //accept it, because in midi, the key is changed when there
@@ -540,7 +582,7 @@ public class KeySignature extends MusicElement implements Cloneable
 					|| (this.keyIndex != oKey.keyIndex)
 					|| !(this.m_keyAccidental.equals(oKey.m_keyAccidental))
 					|| (this.mode != oKey.mode)
-					|| !this.m_clef.equals(oKey.m_clef)
+					|| !getClef().equals(oKey.getClef())
 				) {
 				return false;
 			}
@@ -583,7 +625,7 @@ public class KeySignature extends MusicElement implements Cloneable
 			);
 		for (int i = Degree.I; i <= Degree.VII; i++) {
 			if (addedAcc[i-1] != 0) {
-				Accidental acc = new Accidental(
+				Accidental acc = Accidental.valueOf(
 						ret.getAccidentalFor(ret.getDegree(i)).getValue()
 						+ addedAcc[i-1]);
 				if ((acc.isDoubleFlat()) || (acc.isDoubleSharp()))
@@ -594,10 +636,21 @@ public class KeySignature extends MusicElement implements Cloneable
 		return ret;
 	}
 
+    /** Returns the table of enharmonics in this key, indexed by degree
+     * of C to B * 5 + accidental value + 2 */
+    Note[] getEnharmonics() {
+    	if (m_enharmonics == null)
+    		m_enharmonics = new Note[7 * 5];
+    	return m_enharmonics;
+    }
+
   	public Object clone() throws CloneNotSupportedException {
   		Object k = super.clone();
-  		((KeySignature) k).accidentals = accidentals.clone();
-  		((KeySignature) k).m_clef = (Clef) m_clef.clone();
+  		//a shared array stays shared, an owned one is copied
+  		if (m_ownAccidentals)
+  			((KeySignature) k).accidentals = (Accidental[]) accidentals.clone();
+  		if (m_clef != null)
+  			((KeySignature) k).m_clef = (Clef) m_clef.clone();
   		return k;
   	}
 
@@ -605,4 +658,9 @@ public class KeySignature extends MusicElement implements Cloneable
     {
         System.out.println (key +  " " + m_keyAccidental + " " + mode);
     }*/
+
+	byte elementType() {
+		return MusicElementVisitor.KEY_SIGNATURE;
+	}
+
 }
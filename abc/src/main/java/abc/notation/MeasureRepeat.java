@@ -42,4 +42,8 @@ public class MeasureRepeat extends DecorableElement implements Cloneable {
 		return m_numberOfMeasure;
 	}
 
+	byte elementType() {
+		return MusicElementVisitor.MEASURE_REPEAT;
+	}
+
 }
@@ -40,4 +40,8 @@ public class MeasureRest extends MusicElement implements Cloneable {
 		return m_numberOfRepeats;
 	}
 
+	byte elementType() {
+		return MusicElementVisitor.MEASURE_REST;
+	}
+
 }
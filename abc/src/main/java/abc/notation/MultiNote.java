@@ -191,12 +191,11 @@ public class MultiNote extends NoteAbstract implements Cloneable
    * @see Note#isLowerThan(Note)
    * @see #getHighestNote() */
   public Note getLowestNote() {
-	  /*Note lowestNote = (Note)m_notes.elementAt(0);
+	  Note lowestNote = (Note)m_notes.elementAt(0);
 	  for (int i=1; i<m_notes.size(); i++)
 		  if (((Note)(m_notes.elementAt(i))).isLowerThan(lowestNote))
 			  lowestNote = (Note)m_notes.elementAt(i);
-	  return lowestNote;*/
-	  return getLowestNote(this.toArray());
+	  return lowestNote;
   }
   
   /** Returns <TT>true</TT> if the strict durations of all notes composing this
@@ -350,4 +349,9 @@ public class MultiNote extends NoteAbstract implements Cloneable
 		((MultiNote) o).m_notes = (Vector) m_notes.clone();
 		return o;
 	}
-}
\ No newline at end of file
+
+	byte elementType() {
+		return MusicElementVisitor.MULTI_NOTE;
+	}
+
+}
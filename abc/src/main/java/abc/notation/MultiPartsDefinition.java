@@ -44,6 +44,10 @@ public class MultiPartsDefinition extends RepeatedPartAbstract implements Clonea
   public void addPart(RepeatedPartAbstract p)
   { m_parts.addElement(p); }
 
+  /** Returns the <TT>RepeatedPartAbstract</TT> added to this multi part. */
+  Vector getParts()
+  { return m_parts; }
+
   /** Returns this multipart as an array of singles parts. The playing of the
    * multi part would sound the same as the playing of the array of parts.
    * @return An array of singles parts that would sound the same as the
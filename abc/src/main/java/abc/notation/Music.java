@@ -21,11 +21,8 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.TreeMap;
 import java.util.Vector;
 
-import abc.parser.CharStreamPosition;
-
 /**
  * A Music is a collection of {@link abc.notation.Voice}s
  * containing {@link MusicElement music elements} (notes,
@@ -39,8 +36,6 @@ public class Music implements Cloneable, Serializable {
 
 	protected transient NoteAbstract lastNote = null;
 
-	private TreeMap m_bars = new TreeMap();
-
 	private short m_firstBarNumber = 1;
 	
 	private Vector m_voices = new Vector(2, 1);
@@ -51,6 +46,24 @@ public class Music implements Cloneable, Serializable {
 	 * transmitted from the Tune object in {@link Tune#newMusic()} */
 	private ArrayList m_instructions = null;
 
+	/** Index of elements char stream positions, built on first
+	 * {@link #getElementAtStreamPosition(int)} call */
+	private transient StreamPositionIndex m_positionIndex = null;
+
+	/** Columnar view of notes, built on first {@link #getNoteColumns()} call */
+	private transient NoteColumns m_noteColumns = null;
+
+	/** Time map, built on first {@link #getTimeMap()} call */
+	private transient TimeMap m_timeMap = null;
+
+	/** Listeners of changes made by the mutation methods */
+	private transient Vector m_listeners = null;
+
+	/** Range of bars changed since last {@link #clearDirty()} */
+	private transient boolean m_dirty = false;
+	private transient short m_firstDirtyBar = 0;
+	private transient short m_lastDirtyBar = 0;
+
 	public Music() {
 		this((short) 1);
 	}
@@ -58,7 +71,6 @@ public class Music implements Cloneable, Serializable {
 	public Music(short firstBarNo) {
 		super();
 		m_firstBarNumber = firstBarNo;
-		m_bars.put(m_firstBarNumber, new Bar(m_firstBarNumber, 0));
 	}
 	
 	protected void setPartLabel(String c) {
@@ -69,6 +81,14 @@ public class Music implements Cloneable, Serializable {
         }
 	}
 	
+	String getPartLabel() {
+		return m_partLabel;
+	}
+
+	short getFirstBarNumber() {
+		return m_firstBarNumber;
+	}
+
 	protected void setGlobalInstructions(ArrayList al) {
 		m_instructions = al;
 	}
@@ -84,6 +104,16 @@ public class Music implements Cloneable, Serializable {
 		return m_voices;
 	}
 	
+	/**
+	 * Visits the elements of all voices, voice after voice.
+	 * 
+	 * @see Voice#accept(MusicElementVisitor)
+	 */
+	public void accept(MusicElementVisitor visitor) {
+		for (Object o : m_voices)
+			((Voice) o).accept(visitor);
+	}
+
 	/**
 	 * Concatene the given music object to current one
 	 */
@@ -182,12 +212,218 @@ public class Music implements Cloneable, Serializable {
 
 	public Object clone() throws CloneNotSupportedException {
 		Object o = super.clone();
-		((Music) o).m_bars = (TreeMap) m_bars.clone();
 		((Music) o).m_voices = (Vector) m_voices.clone();
 		((Music) o).m_instructions = (ArrayList) m_instructions.clone();
+		((Music) o).m_positionIndex = null;
+		((Music) o).m_noteColumns = null;
+		((Music) o).m_timeMap = null;
+		((Music) o).m_listeners = null;
 		return o;
 	}
 
+	/**
+	 * Adds a listener of the changes made through
+	 * {@link #insertElement(Voice, int, MusicElement)},
+	 * {@link #replaceElement(Voice, int, MusicElement)},
+	 * {@link #removeElement(Voice, int)},
+	 * {@link #setPitch(Note, byte, Accidental)} and
+	 * {@link #setDuration(Note, short, byte)}.
+	 * Changes made directly on voices or elements are not notified.
+	 */
+	public void addListener(MusicChangeListenerInterface listener) {
+		if (m_listeners == null)
+			m_listeners = new Vector();
+		m_listeners.addElement(listener);
+	}
+
+	public void removeListener(MusicChangeListenerInterface listener) {
+		if (m_listeners != null)
+			m_listeners.removeElement(listener);
+	}
+
+	/**
+	 * Inserts an element in a voice at the given position. Following
+	 * elements are moved, their references and the bars of the voice
+	 * are updated.
+	 *
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if position is out of [0, voice size]
+	 */
+	public void insertElement(Voice voice, int position, MusicElement element) {
+		short lastBar = voice.getLastBarNumber();
+		short firstBar = voice.getBarNumberAt(position);
+		voice.insertElement0(element, position);
+		fireMusicChanged(MusicChangeEvent.ELEMENT_INSERTED, voice, position,
+				null, element, firstBar, lastBar);
+	}
+
+	/**
+	 * Replaces the element of a voice at the given position.
+	 *
+	 * @return the replaced element
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if position is out of [0, voice size[
+	 */
+	public MusicElement replaceElement(Voice voice, int position,
+			MusicElement element) {
+		short lastBar = voice.getLastBarNumber();
+		short firstBar = voice.getBarNumberAt(position);
+		MusicElement old = voice.replaceElement0(element, position);
+		fireMusicChanged(MusicChangeEvent.ELEMENT_REPLACED, voice, position,
+				old, element, firstBar, lastBar);
+		return old;
+	}
+
+	/**
+	 * Removes the element of a voice at the given position. Following
+	 * elements are moved, their references and the bars of the voice
+	 * are updated.
+	 *
+	 * @return the removed element
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if position is out of [0, voice size[
+	 */
+	public MusicElement removeElement(Voice voice, int position) {
+		short lastBar = voice.getLastBarNumber();
+		short firstBar = voice.getBarNumberAt(position);
+		MusicElement old = voice.removeElement0(position);
+		fireMusicChanged(MusicChangeEvent.ELEMENT_REMOVED, voice, position,
+				old, null, firstBar, lastBar);
+		return old;
+	}
+
+	/**
+	 * Changes the height and the accidental of a note of this music,
+	 * or of a note of one of its multinotes.
+	 *
+	 * @param note
+	 *            the note to change
+	 * @param height
+	 *            the new height, see {@link Note#setHeight(byte)}
+	 * @param accidental
+	 *            the new accidental, {@link Accidental#NONE} if none
+	 * @throws IllegalArgumentException
+	 *             if the note is not part of this music
+	 */
+	public void setPitch(Note note, byte height, Accidental accidental)
+			throws IllegalArgumentException {
+		Voice voice = getVoiceOf(note);
+		int position = voice.indexOf(note);
+		note.setHeight(height);
+		note.setAccidental(accidental);
+		Object element = voice.elementAt(position);
+		if (element instanceof MultiNote) {
+			// sort again from lowest to highest
+			MultiNote multi = (MultiNote) element;
+			multi.setNotes(multi.toArray());
+		}
+		voice.touch();
+		short bar = voice.getBarNumberAt(position);
+		fireMusicChanged(MusicChangeEvent.PITCH_CHANGED, voice, position,
+				note, note, bar, bar);
+	}
+
+	/**
+	 * Changes the duration of a note of this music, or of a note of one
+	 * of its multinotes.
+	 *
+	 * @param note
+	 *            the note to change
+	 * @param strictDuration
+	 *            the new strict duration, see
+	 *            {@link Note#setStrictDuration(short)}
+	 * @param dots
+	 *            the new number of dots
+	 * @throws IllegalArgumentException
+	 *             if the note is not part of this music, or if the
+	 *             strict duration is not valid
+	 */
+	public void setDuration(Note note, short strictDuration, byte dots)
+			throws IllegalArgumentException {
+		Voice voice = getVoiceOf(note);
+		int position = voice.indexOf(note);
+		note.setStrictDuration(strictDuration);
+		note.setDotted(dots);
+		voice.touch();
+		short bar = voice.getBarNumberAt(position);
+		fireMusicChanged(MusicChangeEvent.DURATION_CHANGED, voice, position,
+				note, note, bar, bar);
+	}
+
+	/** Returns the voice containing the given note, or its multinote */
+	private Voice getVoiceOf(Note note) throws IllegalArgumentException {
+		for (Object o : m_voices) {
+			Voice voice = (Voice) o;
+			if (voice.indexOf(note) != -1)
+				return voice;
+		}
+		throw new IllegalArgumentException("Note " + note
+				+ " hasn't been found in music");
+	}
+
+	/**
+	 * Marks as dirty the bars affected by a change, and notifies the
+	 * listeners. Bars before the change are given by the caller, bars
+	 * after the change are read from the voice.
+	 */
+	private void fireMusicChanged(byte type, Voice voice, int position,
+			MusicElement oldElement, MusicElement newElement,
+			short firstBarBefore, short lastBarBefore) {
+		short firstBar = firstBarBefore;
+		short lastBar = firstBarBefore;
+		if ((oldElement instanceof BarLine) || (newElement instanceof BarLine)) {
+			// bars have been renumbered
+			short firstBarAfter = voice.getBarNumberAt(position);
+			firstBar = (short) Math.min(firstBar, firstBarAfter);
+			if (type == MusicChangeEvent.ELEMENT_REMOVED)
+				firstBar = (short) Math.min(firstBar, firstBarBefore - 1);
+			lastBar = (short) Math.max(lastBarBefore, voice.getLastBarNumber());
+		}
+		if (!m_dirty) {
+			m_dirty = true;
+			m_firstDirtyBar = firstBar;
+			m_lastDirtyBar = lastBar;
+		} else {
+			m_firstDirtyBar = (short) Math.min(m_firstDirtyBar, firstBar);
+			m_lastDirtyBar = (short) Math.max(m_lastDirtyBar, lastBar);
+		}
+		if ((m_listeners == null) || m_listeners.isEmpty())
+			return;
+		MusicChangeEvent e = new MusicChangeEvent(this, type, voice, position,
+				oldElement, newElement, firstBar, lastBar);
+		for (int i = 0; i < m_listeners.size(); i++)
+			((MusicChangeListenerInterface) m_listeners.elementAt(i)).musicChanged(e);
+	}
+
+	/**
+	 * Returns <TT>true</TT> if this music has been changed through its
+	 * mutation methods since the last {@link #clearDirty()} call.
+	 */
+	public boolean isDirty() {
+		return m_dirty;
+	}
+
+	/**
+	 * Returns the number of the first bar changed since the last
+	 * {@link #clearDirty()} call. Meaningless if not {@link #isDirty()}.
+	 */
+	public short getFirstDirtyBar() {
+		return m_firstDirtyBar;
+	}
+
+	/**
+	 * Returns the number of the last bar changed since the last
+	 * {@link #clearDirty()} call. Meaningless if not {@link #isDirty()}.
+	 */
+	public short getLastDirtyBar() {
+		return m_lastDirtyBar;
+	}
+
+	/** Forgets the changes, e.g. once the music has been rendered again */
+	public void clearDirty() {
+		m_dirty = false;
+	}
+
 	/**
 	 * Returns the score element location at the specified offset.
 	 * 
@@ -207,29 +443,44 @@ public class Music implements Cloneable, Serializable {
 	 * @param offset
 	 *            An offset in a char stream.
 	 * @return The score element location at the specified offset.
+	 * The lookup is a binary search in an index of element positions,
+	 * which is rebuilt only when a voice has changed since last call.
 	 * FIXME this is specific to ABC format... should be elsewhere
 	 * than in Music object
 	 */
 	public MusicElement getElementAtStreamPosition(int offset) {
-		Iterator it = m_voices.iterator();
-		CharStreamPosition pos;
-		while (it.hasNext()) {
-			Voice v = (Voice) it.next();
-			int size = v.size();
-			MusicElement current = null;
-			for (int i = 0; i < size; i++) {
-				current = (MusicElement) v.elementAt(i);
-				if (current != null) {
-					pos = current.getCharStreamPosition();
-					if (pos != null) {
-						if ((pos.getStartIndex() <= offset)
-								&& (pos.getEndIndex() > offset))
-							return current;
-					}
-				}
-			}
+		StreamPositionIndex index = m_positionIndex;
+		if ((index == null) || !index.isUpToDate(m_voices)) {
+			index = new StreamPositionIndex(m_voices);
+			m_positionIndex = index;
 		}
-		return null;
+		return index.getElementAt(offset);
+	}
+
+	/**
+	 * Returns a read-only columnar view of the notes of this music.
+	 * The view is kept until a voice is modified.
+	 */
+	public NoteColumns getNoteColumns() {
+		NoteColumns columns = m_noteColumns;
+		if ((columns == null) || !columns.isUpToDate(m_voices)) {
+			columns = new NoteColumns(this);
+			m_noteColumns = columns;
+		}
+		return columns;
+	}
+
+	/**
+	 * Returns the time map of this music, to know when elements and
+	 * bars start. The map is kept until a voice is modified.
+	 */
+	public TimeMap getTimeMap() {
+		TimeMap map = m_timeMap;
+		if ((map == null) || !map.isUpToDate(m_voices)) {
+			map = new TimeMap(this);
+			m_timeMap = map;
+		}
+		return map;
 	}
 	
 	private boolean voiceExists(String voiceName) {
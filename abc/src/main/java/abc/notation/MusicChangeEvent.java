@@ -0,0 +1,172 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.util.EventObject;
+
+/**
+ * Event used when an element of a {@link Music} has been inserted,
+ * replaced, removed or modified.
+ * <p>
+ * The event gives the voice and the position of the change, and the
+ * range of bars affected by the change: bars which must be rendered
+ * again. When a bar line is inserted or removed, the following bars
+ * are renumbered, the range goes up to the last bar of the voice.
+ * When a duration changes, the bar content doesn't move but the time
+ * of the following elements does.
+ *
+ * @see Music#addListener(MusicChangeListenerInterface)
+ */
+public class MusicChangeEvent extends EventObject {
+
+	private static final long serialVersionUID = -2981946405311723358L;
+
+	/** An element has been inserted */
+	public static final byte ELEMENT_INSERTED = 0;
+
+	/** An element has been replaced by another one */
+	public static final byte ELEMENT_REPLACED = 1;
+
+	/** An element has been removed */
+	public static final byte ELEMENT_REMOVED = 2;
+
+	/** The height or accidental of a note has changed */
+	public static final byte PITCH_CHANGED = 3;
+
+	/** The duration of a note has changed */
+	public static final byte DURATION_CHANGED = 4;
+
+	private byte m_eventType;
+
+	private Voice m_voice;
+
+	private int m_position;
+
+	private MusicElement m_oldElement;
+
+	private MusicElement m_newElement;
+
+	private short m_firstBar;
+
+	private short m_lastBar;
+
+	/**
+	 * Creates a new event describing a music change.
+	 *
+	 * @param source
+	 *            The music that changed.
+	 * @param eventType
+	 *            The type of this event, {@link #ELEMENT_INSERTED},
+	 *            {@link #ELEMENT_REPLACED}, {@link #ELEMENT_REMOVED},
+	 *            {@link #PITCH_CHANGED}, {@link #DURATION_CHANGED}
+	 * @param voice
+	 *            The voice that changed
+	 * @param position
+	 *            The position of the change in the voice
+	 * @param oldElement
+	 *            The element before the change, <TT>null</TT> for an
+	 *            insertion
+	 * @param newElement
+	 *            The element after the change, <TT>null</TT> for a
+	 *            removal
+	 * @param firstBar
+	 *            The number of the first bar affected
+	 * @param lastBar
+	 *            The number of the last bar affected
+	 */
+	public MusicChangeEvent(Music source, byte eventType, Voice voice,
+			int position, MusicElement oldElement, MusicElement newElement,
+			short firstBar, short lastBar) {
+		super(source);
+		m_eventType = eventType;
+		m_voice = voice;
+		m_position = position;
+		m_oldElement = oldElement;
+		m_newElement = newElement;
+		m_firstBar = firstBar;
+		m_lastBar = lastBar;
+	}
+
+	/** Returns the music that changed */
+	public Music getMusic() {
+		return (Music) getSource();
+	}
+
+	/**
+	 * Returns the type of this event.
+	 *
+	 * @return The type of this event.
+	 */
+	public byte getType() {
+		return m_eventType;
+	}
+
+	/** Returns the voice that changed */
+	public Voice getVoice() {
+		return m_voice;
+	}
+
+	/** Returns the position of the change in the voice */
+	public int getPosition() {
+		return m_position;
+	}
+
+	/**
+	 * Returns the element before the change, <TT>null</TT> for an
+	 * insertion. For a pitch or duration change, this is the modified
+	 * note itself.
+	 */
+	public MusicElement getOldElement() {
+		return m_oldElement;
+	}
+
+	/**
+	 * Returns the element after the change, <TT>null</TT> for a
+	 * removal.
+	 */
+	public MusicElement getNewElement() {
+		return m_newElement;
+	}
+
+	/** Returns the number of the first bar affected by the change */
+	public short getFirstBar() {
+		return m_firstBar;
+	}
+
+	/** Returns the number of the last bar affected by the change */
+	public short getLastBar() {
+		return m_lastBar;
+	}
+
+	/**
+	 * Returns a string representation of this event.
+	 *
+	 * @return A string representation of this event.
+	 */
+	public String toString() {
+		String type;
+		switch (m_eventType) {
+		case ELEMENT_INSERTED: type = "INSERTED"; break;
+		case ELEMENT_REPLACED: type = "REPLACED"; break;
+		case ELEMENT_REMOVED: type = "REMOVED"; break;
+		case PITCH_CHANGED: type = "PITCH_CHANGED"; break;
+		default: type = "DURATION_CHANGED"; break;
+		}
+		return type + " " + m_voice + " at " + m_position + ", bars "
+			+ m_firstBar + "-" + m_lastBar;
+	}
+
+}
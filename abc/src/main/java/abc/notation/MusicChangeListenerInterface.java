@@ -0,0 +1,34 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.util.EventListener;
+
+/**
+ * This is the interface that should be implemented by any object that wants to
+ * listens to changes made in a music through its mutation methods.
+ */
+public interface MusicChangeListenerInterface extends EventListener {
+
+	/**
+	 * Invoked when a change occured in the music.
+	 *
+	 * @param e
+	 *            An event describing the change that occured in the music.
+	 */
+	public void musicChanged(MusicChangeEvent e);
+
+}
@@ -0,0 +1,605 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import abc.parser.CharStreamPosition;
+
+/**
+ * Structural differences between two versions of a music, e.g. a tune
+ * and its revision, voice by voice.
+ * <p>
+ * Only musical elements are compared: notes and chords (pitch, duration
+ * and decorations), rests, bar lines, keys and meters. Layout elements,
+ * such as notes separators or ends of staff lines, are ignored, so are
+ * spaces and comments of the abc text.
+ * <p>
+ * Voices are first compared bar by bar, each bar as a whole, then the
+ * elements of the bars which differ are compared. Both comparisons find
+ * the shortest edit script with Myers' algorithm in linear space
+ * (the middle snake is found by searching from both ends, then each
+ * half is compared), after equal prefixes and suffixes are skipped.
+ * Bars and elements are compared by integer ids, equal elements having
+ * the same id.
+ * <p>
+ * Each {@link Difference} gives the changed elements of both versions
+ * and their span in the abc text, to highlight them.
+ */
+public class MusicDiff {
+
+	/** Elements of the old version have been removed */
+	public static final byte DELETED = 1;
+
+	/** Elements have been added in the new version */
+	public static final byte INSERTED = 2;
+
+	/** Elements of the old version have been replaced */
+	public static final byte CHANGED = 3;
+
+	private static final MusicElement[] NO_ELEMENTS = new MusicElement[0];
+
+	/** signature -> Integer id of elements, shared by both versions */
+	private final HashMap m_elementIds = new HashMap();
+
+	/** Bar -> Integer id of bars, shared by both versions */
+	private final HashMap m_barIds = new HashMap();
+
+	private MusicDiff() {
+	}
+
+	/**
+	 * Returns the differences between the music of two tunes.
+	 *
+	 * @see #diff(Music, Music)
+	 */
+	public static Difference[] diff(Tune oldTune, Tune newTune) {
+		return diff(oldTune.getMusic(), newTune.getMusic());
+	}
+
+	/**
+	 * Returns the differences between two versions of a music. Voices
+	 * are matched by name. Differences are in voices order of the old
+	 * music, then voices only in the new music, each voice from the
+	 * beginning to the end.
+	 */
+	public static Difference[] diff(Music oldMusic, Music newMusic) {
+		MusicDiff differ = new MusicDiff();
+		ArrayList differences = new ArrayList();
+		for (Object o : oldMusic.getVoices()) {
+			Voice oldVoice = (Voice) o;
+			differ.diff(oldVoice, voiceOf(newMusic, oldVoice.getVoiceName()),
+					differences);
+		}
+		for (Object o : newMusic.getVoices()) {
+			Voice newVoice = (Voice) o;
+			if (voiceOf(oldMusic, newVoice.getVoiceName()) == null)
+				differ.diff(null, newVoice, differences);
+		}
+		return (Difference[]) differences
+				.toArray(new Difference[differences.size()]);
+	}
+
+	/**
+	 * Returns the differences between two versions of a voice, from the
+	 * beginning to the end.
+	 */
+	public static Difference[] diff(Voice oldVoice, Voice newVoice) {
+		ArrayList differences = new ArrayList();
+		new MusicDiff().diff(oldVoice, newVoice, differences);
+		return (Difference[]) differences
+				.toArray(new Difference[differences.size()]);
+	}
+
+	/** Returns the voice of the given name, null if none */
+	private static Voice voiceOf(Music music, String voiceName) {
+		for (Object o : music.getVoices()) {
+			Voice voice = (Voice) o;
+			if (voice.getVoiceName().equals(voiceName))
+				return voice;
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the differences of two voices, one of them may be null.
+	 */
+	private void diff(Voice oldVoice, Voice newVoice, ArrayList differences) {
+		Sequence a = new Sequence(oldVoice);
+		Sequence b = new Sequence(newVoice);
+		int[] aBars = barIds(a);
+		int[] bBars = barIds(b);
+		int[] matches = match(aBars, bBars);
+		// bars which differ, between matching bars
+		int i = 0;
+		int j = 0;
+		while ((i < aBars.length) || (j < bBars.length)) {
+			if ((i < aBars.length) && (matches[i] == j)) {
+				i++;
+				j++;
+				continue;
+			}
+			int i0 = i;
+			while ((i < aBars.length) && (matches[i] == -1))
+				i++;
+			int j0 = j;
+			j = i < aBars.length ? matches[i] : bBars.length;
+			diff(a, a.m_barStarts[i0], a.m_barStarts[i], b,
+					b.m_barStarts[j0], b.m_barStarts[j], differences);
+		}
+	}
+
+	/**
+	 * Adds the differences of the elements of two ranges of bars.
+	 */
+	private void diff(Sequence a, int aFrom, int aTo, Sequence b, int bFrom,
+			int bTo, ArrayList differences) {
+		int[] aIds = new int[aTo - aFrom];
+		System.arraycopy(a.m_ids, aFrom, aIds, 0, aIds.length);
+		int[] bIds = new int[bTo - bFrom];
+		System.arraycopy(b.m_ids, bFrom, bIds, 0, bIds.length);
+		int[] matches = match(aIds, bIds);
+		int i = 0;
+		int j = 0;
+		while ((i < aIds.length) || (j < bIds.length)) {
+			if ((i < aIds.length) && (matches[i] == j)) {
+				i++;
+				j++;
+				continue;
+			}
+			int i0 = i;
+			while ((i < aIds.length) && (matches[i] == -1))
+				i++;
+			int j0 = j;
+			j = i < aIds.length ? matches[i] : bIds.length;
+			differences.add(new Difference(a, aFrom + i0, aFrom + i, b, bFrom
+					+ j0, bFrom + j));
+		}
+	}
+
+	/**
+	 * Returns the ids of the bars of a sequence, the same for bars of
+	 * equal elements.
+	 */
+	private int[] barIds(Sequence s) {
+		int[] ret = new int[s.m_barCount];
+		for (int i = 0; i < ret.length; i++) {
+			int from = s.m_barStarts[i];
+			int[] ids = new int[s.m_barStarts[i + 1] - from];
+			System.arraycopy(s.m_ids, from, ids, 0, ids.length);
+			Bar bar = new Bar(ids);
+			Integer id = (Integer) m_barIds.get(bar);
+			if (id == null) {
+				id = Integer.valueOf(m_barIds.size());
+				m_barIds.put(bar, id);
+			}
+			ret[i] = id.intValue();
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the id of an element, -1 if it is not compared.
+	 */
+	private int elementId(MusicElement element) {
+		String signature = signatureOf(element);
+		if (signature == null)
+			return -1;
+		Integer id = (Integer) m_elementIds.get(signature);
+		if (id == null) {
+			id = Integer.valueOf(m_elementIds.size());
+			m_elementIds.put(signature, id);
+		}
+		return id.intValue();
+	}
+
+	/**
+	 * Returns a string which is equal for elements of equal meaning, null
+	 * for elements which are not compared.
+	 */
+	private static String signatureOf(MusicElement element) {
+		StringBuffer sb = new StringBuffer();
+		switch (element.getElementType()) {
+		case MusicElementVisitor.NOTE:
+			appendNote(sb, (Note) element);
+			break;
+		case MusicElementVisitor.MULTI_NOTE:
+			sb.append('[');
+			Note[] notes = ((MultiNote) element).toArray();
+			for (int i = 0; i < notes.length; i++)
+				appendNote(sb, notes[i]);
+			sb.append(']');
+			appendDecorations(sb, (DecorableElement) element);
+			break;
+		case MusicElementVisitor.BAR_LINE:
+		case MusicElementVisitor.REPEAT_BAR_LINE:
+			sb.append('|').append(element.toString());
+			break;
+		case MusicElementVisitor.KEY_SIGNATURE:
+			sb.append('K').append(((KeySignature) element).toLitteralNotation());
+			break;
+		case MusicElementVisitor.TIME_SIGNATURE:
+			sb.append('M').append(element.toString());
+			break;
+		case MusicElementVisitor.MEASURE_REST:
+			sb.append('Z').append(((MeasureRest) element).getNumberOfRepeats());
+			break;
+		case MusicElementVisitor.MEASURE_REPEAT:
+			sb.append('/').append(((MeasureRepeat) element).getNumberOfMeasure());
+			break;
+		default:
+			return null;
+		}
+		return sb.toString();
+	}
+
+	private static void appendNote(StringBuffer sb, Note note) {
+		if (note.isRest())
+			sb.append('z');
+		else
+			sb.append(note.getHeight()).append(note.getAccidental());
+		sb.append('/').append(note.getDuration());
+		appendDecorations(sb, note);
+	}
+
+	private static void appendDecorations(StringBuffer sb,
+			DecorableElement element) {
+		if (!element.hasDecorations())
+			return;
+		Decoration[] decorations = element.getDecorations();
+		byte[] types = new byte[decorations.length];
+		for (int i = 0; i < types.length; i++)
+			types[i] = decorations[i].getType();
+		// order of decorations doesn't matter
+		Arrays.sort(types);
+		for (int i = 0; i < types.length; i++)
+			sb.append('!').append(types[i]);
+	}
+
+	/**
+	 * Returns the matches of the longest common subsequence of two
+	 * sequences of ids: index in b of each element of a, -1 if none.
+	 */
+	static int[] match(int[] a, int[] b) {
+		int[] matches = new int[a.length];
+		Arrays.fill(matches, -1);
+		match(a, 0, a.length, b, 0, b.length, matches);
+		return matches;
+	}
+
+	private static void match(int[] a, int aFrom, int aTo, int[] b,
+			int bFrom, int bTo, int[] matches) {
+		// equal prefix and suffix
+		while ((aFrom < aTo) && (bFrom < bTo) && (a[aFrom] == b[bFrom]))
+			matches[aFrom++] = bFrom++;
+		while ((aFrom < aTo) && (bFrom < bTo) && (a[aTo - 1] == b[bTo - 1]))
+			matches[--aTo] = --bTo;
+		int n = aTo - aFrom;
+		int m = bTo - bFrom;
+		if ((n == 0) || (m == 0))
+			return;
+		// middle snake, searched forward from the beginning (diagonal
+		// k = x - y) and backward from the end (diagonal delta - k).
+		// Diagonals going out of the sequences are not searched anymore.
+		int max = (n + m + 1) / 2;
+		int offset = max;
+		int[] forward = new int[2 * max + 2];
+		int[] backward = new int[2 * max + 2];
+		Arrays.fill(forward, -1);
+		Arrays.fill(backward, -1);
+		forward[offset + 1] = 0;
+		backward[offset + 1] = 0;
+		int delta = n - m;
+		// paths of odd delta meet going forward, of even delta backward
+		boolean odd = (delta & 1) != 0;
+		int forwardStart = 0;
+		int forwardEnd = 0;
+		int backwardStart = 0;
+		int backwardEnd = 0;
+		for (int d = 0; d < max; d++) {
+			for (int k = -d + forwardStart; k <= d - forwardEnd; k += 2) {
+				int i = offset + k;
+				int x;
+				if ((k == -d) || ((k != d) && (forward[i - 1] < forward[i + 1])))
+					x = forward[i + 1];
+				else
+					x = forward[i - 1] + 1;
+				int y = x - k;
+				while ((x < n) && (y < m) && (a[aFrom + x] == b[bFrom + y])) {
+					x++;
+					y++;
+				}
+				forward[i] = x;
+				if (x > n)
+					forwardEnd += 2;
+				else if (y > m)
+					forwardStart += 2;
+				else if (odd) {
+					int j = offset + delta - k;
+					if ((j >= 0) && (j < backward.length)
+							&& (backward[j] != -1) && (x >= n - backward[j])) {
+						split(a, aFrom, aTo, b, bFrom, bTo, x, y, matches);
+						return;
+					}
+				}
+			}
+			for (int k = -d + backwardStart; k <= d - backwardEnd; k += 2) {
+				int i = offset + k;
+				int x;
+				if ((k == -d)
+						|| ((k != d) && (backward[i - 1] < backward[i + 1])))
+					x = backward[i + 1];
+				else
+					x = backward[i - 1] + 1;
+				int y = x - k;
+				while ((x < n) && (y < m)
+						&& (a[aTo - x - 1] == b[bTo - y - 1])) {
+					x++;
+					y++;
+				}
+				backward[i] = x;
+				if (x > n)
+					backwardEnd += 2;
+				else if (y > m)
+					backwardStart += 2;
+				else if (!odd) {
+					int j = offset + delta - k;
+					if ((j >= 0) && (j < forward.length) && (forward[j] != -1)
+							&& (forward[j] >= n - x)) {
+						int x1 = forward[j];
+						split(a, aFrom, aTo, b, bFrom, bTo, x1, x1 - (j - offset),
+								matches);
+						return;
+					}
+				}
+			}
+		}
+		// no common element
+	}
+
+	/** Matches both sides of the middle snake end (x, y) */
+	private static void split(int[] a, int aFrom, int aTo, int[] b,
+			int bFrom, int bTo, int x, int y, int[] matches) {
+		match(a, aFrom, aFrom + x, b, bFrom, bFrom + y, matches);
+		match(a, aFrom + x, aTo, b, bFrom + y, bTo, matches);
+	}
+
+	/**
+	 * The compared elements of a voice, with their ids and bars.
+	 */
+	private final class Sequence {
+
+		private final Voice m_voice;
+		/** compared elements */
+		private MusicElement[] m_elements;
+		/** position of each element in the voice */
+		private int[] m_positions;
+		private int[] m_ids;
+		/** first element of each bar, and elements count at the end */
+		private int[] m_barStarts;
+		private int m_barCount;
+
+		private Sequence(Voice voice) {
+			m_voice = voice;
+			int size = voice == null ? 0 : voice.size();
+			m_elements = new MusicElement[size];
+			m_positions = new int[size];
+			m_ids = new int[size];
+			m_barStarts = new int[size + 2];
+			int count = 0;
+			boolean barEnded = true;
+			for (int i = 0; i < size; i++) {
+				MusicElement element = (MusicElement) voice.elementAt(i);
+				int id = elementId(element);
+				if (id == -1)
+					continue;
+				if (barEnded) {
+					m_barStarts[m_barCount++] = count;
+					barEnded = false;
+				}
+				m_elements[count] = element;
+				m_positions[count] = i;
+				m_ids[count] = id;
+				count++;
+				// a bar line ends its bar
+				barEnded = element instanceof BarLine;
+			}
+			m_barStarts[m_barCount] = count;
+		}
+
+	}
+
+	/**
+	 * Element ids of a bar, equal for equal bars.
+	 */
+	private static final class Bar {
+
+		private final int[] m_ids;
+		private final int m_hash;
+
+		private Bar(int[] ids) {
+			m_ids = ids;
+			m_hash = Arrays.hashCode(ids);
+		}
+
+		public boolean equals(Object o) {
+			return (o instanceof Bar) && Arrays.equals(m_ids, ((Bar) o).m_ids);
+		}
+
+		public int hashCode() {
+			return m_hash;
+		}
+
+	}
+
+	/**
+	 * A difference: consecutive elements of the old version replaced by
+	 * consecutive elements of the new version. One of them is empty for
+	 * deletions and insertions.
+	 */
+	public static final class Difference {
+
+		private final Voice m_oldVoice;
+		private final Voice m_newVoice;
+		private final MusicElement[] m_oldElements;
+		private final MusicElement[] m_newElements;
+		private final int m_oldIndex;
+		private final int m_newIndex;
+
+		private Difference(Sequence a, int aFrom, int aTo, Sequence b,
+				int bFrom, int bTo) {
+			m_oldVoice = a.m_voice;
+			m_newVoice = b.m_voice;
+			m_oldElements = elements(a, aFrom, aTo);
+			m_newElements = elements(b, bFrom, bTo);
+			m_oldIndex = indexOf(a, aFrom);
+			m_newIndex = indexOf(b, bFrom);
+		}
+
+		private static MusicElement[] elements(Sequence s, int from, int to) {
+			if (from == to)
+				return NO_ELEMENTS;
+			MusicElement[] ret = new MusicElement[to - from];
+			System.arraycopy(s.m_elements, from, ret, 0, ret.length);
+			return ret;
+		}
+
+		/**
+		 * Returns the position in the voice of a compared element, or
+		 * where an element would be inserted.
+		 */
+		private static int indexOf(Sequence s, int i) {
+			if (i < s.m_barStarts[s.m_barCount])
+				return s.m_positions[i];
+			return s.m_voice == null ? 0 : s.m_voice.size();
+		}
+
+		/**
+		 * Returns {@link MusicDiff#DELETED}, {@link MusicDiff#INSERTED} or
+		 * {@link MusicDiff#CHANGED}.
+		 */
+		public byte getType() {
+			if (m_newElements.length == 0)
+				return DELETED;
+			if (m_oldElements.length == 0)
+				return INSERTED;
+			return CHANGED;
+		}
+
+		/**
+		 * Returns the name of the voice, of the new version if the voice
+		 * exists in both versions.
+		 */
+		public String getVoiceName() {
+			return m_newVoice != null ? m_newVoice.getVoiceName() : m_oldVoice
+					.getVoiceName();
+		}
+
+		/** Returns the removed or replaced elements, may be empty */
+		public MusicElement[] getOldElements() {
+			return (MusicElement[]) m_oldElements.clone();
+		}
+
+		/** Returns the added elements or replacements, may be empty */
+		public MusicElement[] getNewElements() {
+			return (MusicElement[]) m_newElements.clone();
+		}
+
+		/**
+		 * Returns the position in the old voice of the first old element,
+		 * or where new elements were inserted.
+		 */
+		public int getOldIndex() {
+			return m_oldIndex;
+		}
+
+		/**
+		 * Returns the position in the new voice of the first new element,
+		 * or where old elements were deleted.
+		 */
+		public int getNewIndex() {
+			return m_newIndex;
+		}
+
+		/**
+		 * Returns the number of the bar of the difference in the old
+		 * voice, -1 if the voice is only in the new version.
+		 */
+		public short getOldBarNumber() {
+			return m_oldVoice == null ? -1 : m_oldVoice
+					.getBarNumberAt(m_oldIndex);
+		}
+
+		/**
+		 * Returns the number of the bar of the difference in the new
+		 * voice, -1 if the voice is only in the old version.
+		 */
+		public short getNewBarNumber() {
+			return m_newVoice == null ? -1 : m_newVoice
+					.getBarNumberAt(m_newIndex);
+		}
+
+		/**
+		 * Returns the span of the old elements in the abc text, from the
+		 * first one to the last one, <TT>null</TT> if none or if they
+		 * have not been parsed.
+		 */
+		public CharStreamPosition getOldPosition() {
+			return spanOf(m_oldElements);
+		}
+
+		/**
+		 * Returns the span of the new elements in the abc text, from the
+		 * first one to the last one, <TT>null</TT> if none or if they
+		 * have not been parsed.
+		 */
+		public CharStreamPosition getNewPosition() {
+			return spanOf(m_newElements);
+		}
+
+		private static CharStreamPosition spanOf(MusicElement[] elements) {
+			CharStreamPosition first = null;
+			int end = 0;
+			for (int i = 0; i < elements.length; i++) {
+				CharStreamPosition position = elements[i]
+						.getCharStreamPosition();
+				if (position == null)
+					continue;
+				if (first == null)
+					first = position;
+				end = Math.max(end, position.getEndIndex());
+			}
+			if (first == null)
+				return null;
+			return new CharStreamPosition(first.getLine(), first.getColumn(),
+					first.getStartIndex(), end);
+		}
+
+		public String toString() {
+			String type = getType() == DELETED ? "deleted"
+					: getType() == INSERTED ? "inserted" : "changed";
+			return type + " in voice " + getVoiceName() + " bar "
+					+ (m_newVoice != null ? getNewBarNumber()
+							: getOldBarNumber()) + ": "
+					+ Arrays.asList(m_oldElements) + " -> "
+					+ Arrays.asList(m_newElements);
+		}
+
+	}
+
+}
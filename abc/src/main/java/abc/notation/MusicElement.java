@@ -17,6 +17,7 @@ package abc.notation;
 
 import java.io.Serializable;
 
+import abc.parser.CharStreamPosition;
 import abc.parser.PositionableInCharStream;
 
 /**
@@ -36,6 +37,129 @@ public abstract class MusicElement
 		return _reference;
 	}
 
+	/**
+	 * Sets the reference of this element, which may be shared with
+	 * {@link TwoNotesLink ties and slurs}, e.g. when it is read back by
+	 * {@link TuneCodec}.
+	 */
+	void setReference(MusicElementReference reference) {
+		_reference = reference;
+	}
+
+	/**
+	 * Sets the position of this element, for the classes of this package.
+	 */
+	void setCharStreamPosition0(CharStreamPosition position) {
+		setCharStreamPosition(position);
+	}
+
+	/** type tag, set on first {@link #getElementType()} call */
+	private transient byte _elementType = 0;
+
+	/**
+	 * Returns the type tag of this element, one of the constants of
+	 * {@link MusicElementVisitor}, e.g. {@link MusicElementVisitor#NOTE}.
+	 * Elements of a class which extends an element class have the tag
+	 * of that class, and {@link MusicElementVisitor#OTHER} otherwise.
+	 */
+	public final byte getElementType() {
+		byte type = _elementType;
+		if (type == 0) {
+			type = elementType();
+			_elementType = type;
+		}
+		return type;
+	}
+
+	/** Returns the type tag of the class, overridden by element classes */
+	byte elementType() {
+		return MusicElementVisitor.OTHER;
+	}
+
+	/**
+	 * Calls the method of the visitor matching the type of this element.
+	 *
+	 * @see #getElementType()
+	 */
+	public void accept(MusicElementVisitor visitor) {
+		switch (getElementType()) {
+		case MusicElementVisitor.NOTE:
+			visitor.visitNote((Note) this);
+			break;
+		case MusicElementVisitor.MULTI_NOTE:
+			visitor.visitMultiNote((MultiNote) this);
+			break;
+		case MusicElementVisitor.BAR_LINE:
+			visitor.visitBarLine((BarLine) this);
+			break;
+		case MusicElementVisitor.REPEAT_BAR_LINE:
+			visitor.visitRepeatBarLine((RepeatBarLine) this);
+			break;
+		case MusicElementVisitor.REPEAT_END:
+			visitor.visitRepeatEnd((RepeatEnd) this);
+			break;
+		case MusicElementVisitor.KEY_SIGNATURE:
+			visitor.visitKeySignature((KeySignature) this);
+			break;
+		case MusicElementVisitor.TIME_SIGNATURE:
+			visitor.visitTimeSignature((TimeSignature) this);
+			break;
+		case MusicElementVisitor.CLEF:
+			visitor.visitClef((Clef) this);
+			break;
+		case MusicElementVisitor.TEMPO:
+			visitor.visitTempo((Tempo) this);
+			break;
+		case MusicElementVisitor.ANNOTATION:
+			visitor.visitAnnotation((Annotation) this);
+			break;
+		case MusicElementVisitor.CHORD:
+			visitor.visitChord((Chord) this);
+			break;
+		case MusicElementVisitor.DECORATION:
+			visitor.visitDecoration((Decoration) this);
+			break;
+		case MusicElementVisitor.DYNAMIC:
+			visitor.visitDynamic((Dynamic) this);
+			break;
+		case MusicElementVisitor.END_OF_STAFF_LINE:
+			visitor.visitEndOfStaffLine((EndOfStaffLine) this);
+			break;
+		case MusicElementVisitor.NOTES_SEPARATOR:
+			visitor.visitNotesSeparator((NotesSeparator) this);
+			break;
+		case MusicElementVisitor.PART_LABEL:
+			visitor.visitPartLabel((PartLabel) this);
+			break;
+		case MusicElementVisitor.SPACER:
+			visitor.visitSpacer((Spacer) this);
+			break;
+		case MusicElementVisitor.MEASURE_REPEAT:
+			visitor.visitMeasureRepeat((MeasureRepeat) this);
+			break;
+		case MusicElementVisitor.MEASURE_REST:
+			visitor.visitMeasureRest((MeasureRest) this);
+			break;
+		case MusicElementVisitor.WORDS:
+			visitor.visitWords((Words) this);
+			break;
+		case MusicElementVisitor.ELEMSKIP:
+			visitor.visitElemskip((Elemskip) this);
+			break;
+		case MusicElementVisitor.TUPLET:
+			visitor.visitTuplet((Tuplet) this);
+			break;
+		case MusicElementVisitor.TIE_DEFINITION:
+			visitor.visitTieDefinition((TieDefinition) this);
+			break;
+		case MusicElementVisitor.SLUR_DEFINITION:
+			visitor.visitSlurDefinition((SlurDefinition) this);
+			break;
+		default:
+			visitor.visitOther(this);
+		}
+	}
+
 	public Object clone() throws CloneNotSupportedException {
 		Object o = super.clone();
 		((MusicElement) o)._reference = (MusicElementReference) _reference
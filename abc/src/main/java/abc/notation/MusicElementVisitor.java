@@ -0,0 +1,135 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+/**
+ * A visitor of {@link MusicElement music elements}, with one method per
+ * element class.
+ * <p>
+ * {@link MusicElement#accept(MusicElementVisitor)} calls the method matching
+ * the {@link MusicElement#getElementType() type tag} of the element, with a
+ * <TT>switch</TT> instead of a chain of <TT>instanceof</TT>. Elements of
+ * classes unknown to this interface go to {@link #visitOther(MusicElement)}.
+ * The tags are also used by {@link VoiceCursor} to filter elements.
+ * 
+ * @see abc.notation.MusicElementVisitorAdapter for a simple implementation
+ * skeleton.
+ */
+public interface MusicElementVisitor {
+
+	/** Type of elements of other classes, see {@link #visitOther(MusicElement)} */
+	public static final byte OTHER = 1;
+	/** Type of {@link Note} elements */
+	public static final byte NOTE = 2;
+	/** Type of {@link MultiNote} elements */
+	public static final byte MULTI_NOTE = 3;
+	/** Type of {@link BarLine} elements */
+	public static final byte BAR_LINE = 4;
+	/** Type of {@link RepeatBarLine} elements */
+	public static final byte REPEAT_BAR_LINE = 5;
+	/** Type of {@link RepeatEnd} elements */
+	public static final byte REPEAT_END = 6;
+	/** Type of {@link KeySignature} elements */
+	public static final byte KEY_SIGNATURE = 7;
+	/** Type of {@link TimeSignature} elements */
+	public static final byte TIME_SIGNATURE = 8;
+	/** Type of {@link Clef} elements */
+	public static final byte CLEF = 9;
+	/** Type of {@link Tempo} elements */
+	public static final byte TEMPO = 10;
+	/** Type of {@link Annotation} elements */
+	public static final byte ANNOTATION = 11;
+	/** Type of {@link Chord} elements */
+	public static final byte CHORD = 12;
+	/** Type of {@link Decoration} elements */
+	public static final byte DECORATION = 13;
+	/** Type of {@link Dynamic} elements */
+	public static final byte DYNAMIC = 14;
+	/** Type of {@link EndOfStaffLine} elements */
+	public static final byte END_OF_STAFF_LINE = 15;
+	/** Type of {@link NotesSeparator} elements */
+	public static final byte NOTES_SEPARATOR = 16;
+	/** Type of {@link PartLabel} elements */
+	public static final byte PART_LABEL = 17;
+	/** Type of {@link Spacer} elements */
+	public static final byte SPACER = 18;
+	/** Type of {@link MeasureRepeat} elements */
+	public static final byte MEASURE_REPEAT = 19;
+	/** Type of {@link MeasureRest} elements */
+	public static final byte MEASURE_REST = 20;
+	/** Type of {@link Words} elements */
+	public static final byte WORDS = 21;
+	/** Type of {@link Elemskip} elements */
+	public static final byte ELEMSKIP = 22;
+	/** Type of {@link Tuplet} elements */
+	public static final byte TUPLET = 23;
+	/** Type of {@link TieDefinition} elements */
+	public static final byte TIE_DEFINITION = 24;
+	/** Type of {@link SlurDefinition} elements */
+	public static final byte SLUR_DEFINITION = 25;
+
+	public void visitNote(Note note);
+
+	public void visitMultiNote(MultiNote multiNote);
+
+	public void visitBarLine(BarLine barLine);
+
+	public void visitRepeatBarLine(RepeatBarLine repeatBarLine);
+
+	public void visitRepeatEnd(RepeatEnd repeatEnd);
+
+	public void visitKeySignature(KeySignature keySignature);
+
+	public void visitTimeSignature(TimeSignature timeSignature);
+
+	public void visitClef(Clef clef);
+
+	public void visitTempo(Tempo tempo);
+
+	public void visitAnnotation(Annotation annotation);
+
+	public void visitChord(Chord chord);
+
+	public void visitDecoration(Decoration decoration);
+
+	public void visitDynamic(Dynamic dynamic);
+
+	public void visitEndOfStaffLine(EndOfStaffLine endOfStaffLine);
+
+	public void visitNotesSeparator(NotesSeparator notesSeparator);
+
+	public void visitPartLabel(PartLabel partLabel);
+
+	public void visitSpacer(Spacer spacer);
+
+	public void visitMeasureRepeat(MeasureRepeat measureRepeat);
+
+	public void visitMeasureRest(MeasureRest measureRest);
+
+	public void visitWords(Words words);
+
+	public void visitElemskip(Elemskip elemskip);
+
+	public void visitTuplet(Tuplet tuplet);
+
+	public void visitTieDefinition(TieDefinition tieDefinition);
+
+	public void visitSlurDefinition(SlurDefinition slurDefinition);
+
+	/** Invoked for elements whose class has no method of its own */
+	public void visitOther(MusicElement element);
+
+}
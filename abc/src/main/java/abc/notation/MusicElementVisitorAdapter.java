@@ -0,0 +1,130 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+/**
+ * An implementation of {@link MusicElementVisitor} where each method calls
+ * the one of the super class of the element, e.g. a {@link RepeatBarLine}
+ * is visited as a {@link BarLine}, and then {@link #visitElement(MusicElement)}
+ * which does nothing. Override the methods of the elements you need.
+ */
+public class MusicElementVisitorAdapter implements MusicElementVisitor {
+
+	public void visitNote(Note note) {
+		visitElement(note);
+	}
+
+	public void visitMultiNote(MultiNote multiNote) {
+		visitElement(multiNote);
+	}
+
+	public void visitBarLine(BarLine barLine) {
+		visitElement(barLine);
+	}
+
+	public void visitRepeatBarLine(RepeatBarLine repeatBarLine) {
+		visitBarLine(repeatBarLine);
+	}
+
+	public void visitRepeatEnd(RepeatEnd repeatEnd) {
+		visitElement(repeatEnd);
+	}
+
+	public void visitKeySignature(KeySignature keySignature) {
+		visitElement(keySignature);
+	}
+
+	public void visitTimeSignature(TimeSignature timeSignature) {
+		visitElement(timeSignature);
+	}
+
+	public void visitClef(Clef clef) {
+		visitElement(clef);
+	}
+
+	public void visitTempo(Tempo tempo) {
+		visitElement(tempo);
+	}
+
+	public void visitAnnotation(Annotation annotation) {
+		visitElement(annotation);
+	}
+
+	public void visitChord(Chord chord) {
+		visitAnnotation(chord);
+	}
+
+	public void visitDecoration(Decoration decoration) {
+		visitElement(decoration);
+	}
+
+	public void visitDynamic(Dynamic dynamic) {
+		visitElement(dynamic);
+	}
+
+	public void visitEndOfStaffLine(EndOfStaffLine endOfStaffLine) {
+		visitElement(endOfStaffLine);
+	}
+
+	public void visitNotesSeparator(NotesSeparator notesSeparator) {
+		visitElement(notesSeparator);
+	}
+
+	public void visitPartLabel(PartLabel partLabel) {
+		visitElement(partLabel);
+	}
+
+	public void visitSpacer(Spacer spacer) {
+		visitElement(spacer);
+	}
+
+	public void visitMeasureRepeat(MeasureRepeat measureRepeat) {
+		visitElement(measureRepeat);
+	}
+
+	public void visitMeasureRest(MeasureRest measureRest) {
+		visitElement(measureRest);
+	}
+
+	public void visitWords(Words words) {
+		visitElement(words);
+	}
+
+	public void visitElemskip(Elemskip elemskip) {
+		visitElement(elemskip);
+	}
+
+	public void visitTuplet(Tuplet tuplet) {
+		visitElement(tuplet);
+	}
+
+	public void visitTieDefinition(TieDefinition tieDefinition) {
+		visitElement(tieDefinition);
+	}
+
+	public void visitSlurDefinition(SlurDefinition slurDefinition) {
+		visitElement(slurDefinition);
+	}
+
+	public void visitOther(MusicElement element) {
+		visitElement(element);
+	}
+
+	/** Invoked by default for all elements, does nothing */
+	public void visitElement(MusicElement element) {
+	}
+
+}
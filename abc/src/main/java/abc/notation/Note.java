@@ -17,7 +17,6 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.notation;
 
-import java.util.Vector;
 
 /**
  * This class defines a (single) Note : height, rhythm, part of tuplet, rest etc...
@@ -97,6 +96,18 @@ public class Note extends NoteAbstract implements Cloneable
   /** The <TT>REST</TT> height type. */
   public static final byte REST		= -128;
 
+  /** Strict heights of the notes, C to B */
+  static final byte[] STRICT_HEIGHTS = { C, D, E, F, G, A, B };
+  /** Index in {@link #STRICT_HEIGHTS} of each semitone of the octave,
+   * -1 for the semitones between two notes */
+  static final byte[] DEGREE_INDEXES = { 0, -1, 1, -1, 2, 3, -1, 4, -1, 5, -1, 6 };
+  /** Strict height of each semitone of the octave, the note under it
+   * (to be sharpened) for the semitones between two notes */
+  private static final byte[] SEMITONE_HEIGHTS = { C, C, D, D, E, F, F, G, G, A, A, B };
+  /** Height above which enharmonics in a key are not looked up from the
+   * first octave, near notes may be out of range */
+  private static final int MAX_ENHARMONIC_HEIGHT = 96;
+
   //max short possible = 290, else transform to int = 560 (9:2 64th)
   private static final short LENGTH_RESOLUTION = 12;
   /** The <TT>LONG</TT> (double breve) length type. */
@@ -192,17 +203,12 @@ public class Note extends NoteAbstract implements Cloneable
 		if ((midiHeight < Byte.MIN_VALUE) || (midiHeight > Byte.MAX_VALUE))
 			throw new NoteHeightException(midiHeight);
 		// +132: we are sure we have a positive value
-		int strictHeight = (midiHeight + 132) % 12;
-		Accidental accident = Accidental.NATURAL;
-		if ((strictHeight != C) && (strictHeight != D) && (strictHeight != E)
-				&& (strictHeight != F) && (strictHeight != G)
-				&& (strictHeight != A) && (strictHeight != B)) {
-			accident = Accidental.SHARP;
-			strictHeight -= 1;
-			midiHeight -= 1;
-		}
-		byte octave = getOctaveTransposition((byte) midiHeight);
-		return new Note((byte) strictHeight, accident, octave);
+		int semitone = (midiHeight + 132) % 12;
+		byte strictHeight = SEMITONE_HEIGHTS[semitone];
+		Accidental accident = (strictHeight == semitone) ? Accidental.NATURAL
+				: Accidental.SHARP;
+		byte octave = (byte) ((midiHeight - semitone) / 12);
+		return new Note(strictHeight, accident, octave);
 	}
 	
 	/**
@@ -213,6 +219,37 @@ public class Note extends NoteAbstract implements Cloneable
 	 * flat).
 	 */
 	static public Note createEnharmonic(Note note, KeySignature key) {
+		Accidental accidental = note.getAccidental();
+		if (note.isRest() || accidental.isInTheKey()
+				|| accidental.isMicrotonal()
+				|| (Math.abs(note.getHeight()) > MAX_ENHARMONIC_HEIGHT))
+			return createEnharmonicInKey(note, key);
+		//enharmonics don't depend on the octave, the one of the same
+		//note in the first octave is computed once for the key
+		int index = DEGREE_INDEXES[note.getStrictHeight()] * 5
+				+ accidental.getNearestOccidentalValue() + 2;
+		Note[] enharmonics = key.getEnharmonics();
+		Note enharmonic = enharmonics[index];
+		if (enharmonic == null) {
+			enharmonic = createEnharmonicInKey(new Note(note.getStrictHeight(),
+					accidental), key);
+			enharmonics[index] = enharmonic;
+		}
+		Note ret;
+		try {
+			ret = (Note) note.clone();
+		} catch (CloneNotSupportedException never) {
+			never.printStackTrace();
+			return null;
+		}
+		ret.setHeight((byte) (enharmonic.getHeight()
+				+ 12 * note.getOctaveTransposition()));
+		ret.setAccidental(enharmonic.getAccidental());
+		return ret;
+	}
+
+	/** Enharmonic of note in key, computed from the key degrees */
+	private static Note createEnharmonicInKey(Note note, KeySignature key) {
 		Note ret;
 		try {
 			ret = (Note) note.clone();
@@ -308,29 +345,38 @@ public class Note extends NoteAbstract implements Cloneable
 		}
         if (ret.isRest() || (accidentalTypes[0].equals(ret.getAccidental())))
 			return ret;
-		Vector nearNotes = new Vector(9);
-		for (int i = -4; i <= 4; i++) {
-			if (i == 0)
-				continue;
-			try {
-				nearNotes.add(transpose(ret, i));
-			} catch (NoteHeightException ignored) {
+		int midiHeight = ret.getMidiLikeHeight();
+		float microtonalHeight = note.getMidiLikeMicrotonalHeight();
+		for (Accidental accidentalType : accidentalTypes) {
+			//the only height which gives the note with this accidental
+			float value = accidentalType.getValue();
+			int height = Math.round(microtonalHeight - value);
+			if ((height + value == microtonalHeight)
+					&& isNearHeight(height, midiHeight)) {
+				ret.setHeight((byte) height);
+				ret.setAccidental(accidentalType);
+				return ret;
 			}
 		}
-		try {
-			nearNotes.add(transpose(ret, 0));
-		} catch (NoteHeightException ignored) {
-		}
-        for (Accidental accidentalType : accidentalTypes) {
-            for (Object nearNote1 : nearNotes) {
-                Note nearNote = (Note) nearNote1;
-                nearNote.setAccidental(accidentalType);
-                if (nearNote.getMidiLikeMicrotonalHeight() == note.getMidiLikeMicrotonalHeight())
-                    return nearNote;
-            }
-        }
 		return ret;
 	}
+
+	/**
+	 * Returns <TT>true</TT> if height is the height (without accidental)
+	 * of a note at most 4 semitones far from the midi like height, i.e.
+	 * one of the enharmonics which can be written. The heights of C D E
+	 * F G A B are the one under a sharpened semitone.
+	 */
+	private static boolean isNearHeight(int height, int midiHeight) {
+		if ((height <= REST) || (height > Byte.MAX_VALUE)
+				|| (DEGREE_INDEXES[(height + 132) % 12] == -1))
+			return false;
+		if (Math.abs(height - midiHeight) <= 4)
+			return true;
+		//e.g. C for ^C, 5 semitones under
+		return (height + 1 - midiHeight == -4) && (height < Byte.MAX_VALUE)
+				&& (DEGREE_INDEXES[(height + 133) % 12] == -1);
+	}
 	
 	/**
 	 * Transpose a note by the given number of semi-tones. The returned note is
@@ -365,7 +411,7 @@ public class Note extends NoteAbstract implements Cloneable
 			throw new NoteHeightException(newMidiHeight);
 		Note newHeight = createFromMidiLikeHeight(newMidiHeight);
 		ret.setHeight(newHeight.getHeight());
-		ret.setAccidental(new Accidental(newHeight.getAccidental().getValue()+microtonalOffset));
+		ret.setAccidental(Accidental.valueOf(newHeight.getAccidental().getValue()+microtonalOffset));
 		ret.setOctaveTransposition(newHeight.getOctaveTransposition());
 		return ret;
 	}
@@ -391,7 +437,15 @@ public class Note extends NoteAbstract implements Cloneable
 
   private byte octaveTransposition = 0;
   /** Accidental for this note. */
-  private Accidental m_accidental = new Accidental();//Accidental.NONE;
+  private Accidental m_accidental = Accidental.NONE;
+  /** Midi like height without key, see {@link #getMidiLikeHeight()} */
+  private transient int m_midiLikeHeight = 0;
+  /** Midi like microtonal height without key, see
+   * {@link #getMidiLikeMicrotonalHeight()} */
+  private transient float m_midiLikeMicrotonalHeight = 0;
+  /** <TT>false</TT> if the midi like heights must be computed, cleared
+   * when the height, octave transposition or accidental is set */
+  private transient boolean m_pitchComputed = false;
   /** The full whole duration that takes into account the dots. (why not
    * the tuplet stuff ? :/ ) */
   private short m_duration = -1;
@@ -426,7 +480,7 @@ public class Note extends NoteAbstract implements Cloneable
    */
   public Note (byte heightValue, float accidentalValue)
   {
-    this(heightValue, new Accidental(accidentalValue));
+    this(heightValue, Accidental.valueOf(accidentalValue));
 	System.err.println("Note constructor using float accidentalValue is deprecated, use Accidental constant");
   }
   /** Creates an abc note with the specified heigth and accidental.
@@ -458,7 +512,7 @@ public class Note extends NoteAbstract implements Cloneable
    */
   public Note (byte heightValue, float accidentalValue, byte octaveTranspositionValue)
   {
-    this(heightValue, new Accidental(accidentalValue));
+    this(heightValue, Accidental.valueOf(accidentalValue));
     setOctaveTransposition((byte)(octaveTransposition+octaveTranspositionValue));
   }
   
@@ -521,6 +575,7 @@ public class Note extends NoteAbstract implements Cloneable
 	  if (strictHeight<0 && strictHeight!=REST)
 		  throw new IllegalArgumentException("negative : " + strictHeight);
 	  octaveTransposition = getOctaveTransposition(heightValue);
+	  m_pitchComputed = false;
 	  //if (isRest())
 		//  setIsLastOfGroup(false);
 	  //System.out.println(heightValue + " decomposed into " + strictHeight + ", "+ octaveTransposition);
@@ -660,7 +715,12 @@ public class Note extends NoteAbstract implements Cloneable
 	 * note accidental is not defined
 	 */
 	public int getMidiLikeHeight(KeySignature key) {
-		return getHeight() + getAccidental(key).getNearestOccidentalValue();
+		if (!m_pitchComputed)
+			computePitch();
+		if ((key != null) && m_accidental.isInTheKey())
+			return m_midiLikeHeight + key.getAccidentalFor(getStrictHeight())
+					.getNearestOccidentalValue();
+		return m_midiLikeHeight;
 	}
 	
 	/**
@@ -696,7 +756,22 @@ public class Note extends NoteAbstract implements Cloneable
 	 * note accidental is not defined
 	 */
 	public float getMidiLikeMicrotonalHeight(KeySignature key) {
-		return getHeight() + getAccidental(key).getValue();
+		if (!m_pitchComputed)
+			computePitch();
+		if ((key != null) && m_accidental.isInTheKey())
+			return m_midiLikeMicrotonalHeight
+					+ key.getAccidentalFor(getStrictHeight()).getValue();
+		return m_midiLikeMicrotonalHeight;
+	}
+
+	/**
+	 * Computes the midi like heights without key, an accidental NONE
+	 * counts for 0, the key one is added by the getters.
+	 */
+	private void computePitch() {
+		m_midiLikeHeight = getHeight() + m_accidental.getNearestOccidentalValue();
+		m_midiLikeMicrotonalHeight = getHeight() + m_accidental.getValue();
+		m_pitchComputed = true;
 	}
 
   /**
@@ -785,6 +860,7 @@ public class Note extends NoteAbstract implements Cloneable
   public void setOctaveTransposition (byte octaveTranspositionValue) {
 	  //byte strictHeight = getStrictHeight();
 	  octaveTransposition = octaveTranspositionValue;
+	  m_pitchComputed = false;
 	  //strictHeight = (byte)(strictHeight + octaveTransposition * 12);
   }
 
@@ -899,6 +975,21 @@ public class Note extends NoteAbstract implements Cloneable
 	  }
   }
 
+  /** Sets the duration of this note in an absolute manner, as
+   * {@link #setDuration(short)} does but without warning, to restore a
+   * duration returned by {@link #getAbsoluteDuration()}. */
+  void setAbsoluteDuration(short duration) {
+	  m_duration = duration;
+  }
+
+  /** Returns the duration set with {@link #setLength(short)} or
+   * {@link #setDuration(short)}, <TT>-1</TT> if the duration is computed
+   * from the strict duration, dots and tuplet. */
+  short getAbsoluteDuration() {
+	  short duration = getDuration();
+	  return duration == computeDuration(m_strictDuration, countDots()) ? -1 : duration;
+  }
+
   /** Sets the accidental for this note.
    * @param accidentalValue Accidental for this note. Possible values are
    * <TT>Accidental.NATURAL</TT>, <TT>Accidental.SHARP</TT> (#),
@@ -906,15 +997,16 @@ public class Note extends NoteAbstract implements Cloneable
    * @deprecated see {@link #setAccidental(Accidental)}
    */
   public void setAccidental(byte accidentalValue)
-  { setAccidental(new Accidental(accidentalValue)); }
+  { setAccidental(Accidental.valueOf(accidentalValue)); }
   public void setAccidental(float accidentalValue)
-  { setAccidental(new Accidental(accidentalValue)); }
+  { setAccidental(Accidental.valueOf(accidentalValue)); }
   /** Sets the accidental for this note. */
   public void setAccidental(Accidental accidental) {
 	  if (accidental == null)
 		  m_accidental = Accidental.NONE;
 	  else
 		  m_accidental = accidental;
+	  m_pitchComputed = false;
   }
 
   /** Returns accidental for this note if any.
@@ -1173,5 +1265,9 @@ public class Note extends NoteAbstract implements Cloneable
 	public Object clone() throws CloneNotSupportedException {
 		return super.clone();
 	}
-}
 
+	byte elementType() {
+		return MusicElementVisitor.NOTE;
+	}
+
+}
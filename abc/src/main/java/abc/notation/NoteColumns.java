@@ -0,0 +1,612 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A read-only columnar view of the notes of a {@link Music}, to scan
+ * a lot of notes without walking the music elements.
+ * <p>
+ * The view is built in one pass, and holds one row per {@link Note},
+ * and one row per note of a {@link MultiNote}. Rows are grouped by
+ * voice, in voices order, then in music order. Each column is an array
+ * of primitives:
+ * <ul>
+ * <li>onset: start time of the note in its voice, in ticks as in the
+ * {@link TimeMap}, {@link #getResolution()} ticks per unit of the scale
+ * of <TT>Note.WHOLE</TT>, <TT>Note.HALF</TT>... A multinote moves the
+ * time forward of its shortest note duration.
+ * <li>end: exact end time of the note, in ticks
+ * <li>duration: the {@link Note#getDuration()} of the note, which may
+ * be rounded for the notes of tuplets
+ * <li>pitch: the midi note number, taking into account the key and the
+ * accidentals previously found in the bar, or {@link #NO_PITCH} for rests
+ * <li>accidental: the accidental written for the note (see
+ * {@link #getAccidental(int)})
+ * <li>voice: index of the voice in {@link Music#getVoices()}
+ * <li>position: index of the note (or its multinote) in its voice
+ * <li>flags: {@link #REST}, {@link #CHORD}, {@link #TIE_START}...
+ * </ul>
+ * Gracing notes are not part of the view. The view is not updated when
+ * the music changes, a new one must be built.
+ *
+ * @see Music#getNoteColumns()
+ */
+public final class NoteColumns {
+
+	/** Pitch of rests */
+	public static final byte NO_PITCH = -1;
+
+	/** The note is a rest */
+	public static final byte REST = 1;
+	/** The note is part of a {@link MultiNote} */
+	public static final byte CHORD = 2;
+	/** The note begins a tie */
+	public static final byte TIE_START = 4;
+	/** The note ends a tie */
+	public static final byte TIE_END = 8;
+	/** The note is part of a {@link Tuplet} */
+	public static final byte TUPLET = 16;
+	/** The note (or its multinote) has gracing notes */
+	public static final byte GRACED = 32;
+
+	/** written accidental value for notes without accidental */
+	private static final byte ACCIDENTAL_NONE = Byte.MIN_VALUE;
+
+	private int m_size = 0;
+	/** ticks per unit of the Note.WHOLE scale */
+	private int m_resolution;
+	private int[] m_onsets;
+	private int[] m_ends;
+	private short[] m_durations;
+	private byte[] m_pitches;
+	/** written accidental value * 2, to keep quarter tones */
+	private byte[] m_accidentals;
+	private short[] m_voices;
+	private int[] m_positions;
+	private byte[] m_flags;
+
+	/** first row of each voice, plus the rows count */
+	private int[] m_voiceStarts;
+	private String[] m_voiceNames;
+
+	/** voices revisions when the view has been built */
+	private int[] m_revisions;
+
+	/**
+	 * Builds the columnar view of the given music.
+	 */
+	public NoteColumns(Music music) {
+		Collection voices = music.getVoices();
+		m_revisions = Voice.getRevisions(voices);
+		m_resolution = TimeMap.resolutionOf(voices);
+		int capacity = 0;
+		for (Object o : voices) {
+			capacity += ((Voice) o).size();
+		}
+		allocate(Math.max(capacity, 16));
+		m_voiceStarts = new int[voices.size() + 1];
+		m_voiceNames = new String[voices.size()];
+		short voiceIndex = 0;
+		for (Object o : voices) {
+			Voice voice = (Voice) o;
+			m_voiceStarts[voiceIndex] = m_size;
+			m_voiceNames[voiceIndex] = voice.getVoiceName();
+			addVoice(voice, voiceIndex);
+			voiceIndex++;
+		}
+		m_voiceStarts[voiceIndex] = m_size;
+	}
+
+	private void allocate(int capacity) {
+		m_onsets = new int[capacity];
+		m_ends = new int[capacity];
+		m_durations = new short[capacity];
+		m_pitches = new byte[capacity];
+		m_accidentals = new byte[capacity];
+		m_voices = new short[capacity];
+		m_positions = new int[capacity];
+		m_flags = new byte[capacity];
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= m_onsets.length)
+			return;
+		int newLength = Math.max(capacity, m_onsets.length * 2);
+		m_onsets = copyOf(m_onsets, newLength);
+		m_ends = copyOf(m_ends, newLength);
+		m_durations = copyOf(m_durations, newLength);
+		m_pitches = copyOf(m_pitches, newLength);
+		m_accidentals = copyOf(m_accidentals, newLength);
+		m_voices = copyOf(m_voices, newLength);
+		m_positions = copyOf(m_positions, newLength);
+		m_flags = copyOf(m_flags, newLength);
+	}
+
+	private void addVoice(Voice voice, short voiceIndex) {
+		KeySignature tuneKey = new KeySignature(Note.C, KeySignature.MAJOR);
+		// key with the accidentals found in the current bar
+		KeySignature currentKey = new KeySignature(tuneKey.getAccidentals());
+		long time = 0;
+		for (int i = 0, j = voice.size(); i < j; i++) {
+			Object element = voice.elementAt(i);
+			if (element instanceof KeySignature) {
+				tuneKey = (KeySignature) element;
+				currentKey = new KeySignature(tuneKey.getAccidentals());
+			} else if ((element instanceof BarLine)
+					&& (currentKey.getAccidentals() != tuneKey.getAccidentals())) {
+				currentKey = new KeySignature(tuneKey.getAccidentals());
+			} else if (element instanceof Note) {
+				Note note = (Note) element;
+				addNote(note, time, voiceIndex, i, currentKey, (byte) 0);
+				time += TimeMap.ticksOf(note, m_resolution);
+			} else if (element instanceof MultiNote) {
+				MultiNote multi = (MultiNote) element;
+				Note[] notes = multi.toArray();
+				if (notes == null)
+					continue;
+				byte flags = CHORD;
+				if (multi.hasGracingNotes())
+					flags |= GRACED;
+				ensureCapacity(m_size + notes.length);
+				for (Note note : notes) {
+					addNote(note, time, voiceIndex, i, currentKey, flags);
+				}
+				time += TimeMap.ticksOf(multi.getShortestNote(), m_resolution);
+			}
+		}
+	}
+
+	private void addNote(Note note, long time, short voiceIndex, int position,
+			KeySignature currentKey, byte flags) {
+		ensureCapacity(m_size + 1);
+		Accidental accidental = note.getAccidental();
+		if (note.isRest()) {
+			flags |= REST;
+			m_pitches[m_size] = NO_PITCH;
+		} else {
+			if (!accidental.isInTheKey())
+				currentKey.setAccidental(note.getStrictHeight(), accidental);
+			int pitch = 60 + note.getMidiLikeHeight(currentKey);
+			m_pitches[m_size] = (byte) Math.max(0, Math.min(127, pitch));
+		}
+		if (note.isBeginningTie())
+			flags |= TIE_START;
+		if (note.isEndingTie())
+			flags |= TIE_END;
+		if (note.isPartOfTuplet())
+			flags |= TUPLET;
+		if (note.hasGracingNotes())
+			flags |= GRACED;
+		m_onsets[m_size] = TimeMap.checkedTicks(time);
+		m_ends[m_size] = TimeMap.checkedTicks(time
+				+ TimeMap.ticksOf(note, m_resolution));
+		m_durations[m_size] = note.getDuration();
+		m_accidentals[m_size] = accidental.isInTheKey() ? ACCIDENTAL_NONE
+				: (byte) (accidental.getValue() * 2);
+		m_voices[m_size] = voiceIndex;
+		m_positions[m_size] = position;
+		m_flags[m_size] = flags;
+		m_size++;
+	}
+
+	/** Returns the number of rows */
+	public int size() {
+		return m_size;
+	}
+
+	/** Returns the number of voices */
+	public int getVoiceCount() {
+		return m_voiceNames.length;
+	}
+
+	/** Returns the name of the voice of the given index */
+	public String getVoiceName(int voice) {
+		return m_voiceNames[voice];
+	}
+
+	/** Returns the first row of the given voice */
+	public int getFirstRowOfVoice(int voice) {
+		return m_voiceStarts[voice];
+	}
+
+	/** Returns the row following the last row of the given voice */
+	public int getEndRowOfVoice(int voice) {
+		return m_voiceStarts[voice + 1];
+	}
+
+	/**
+	 * Returns the number of ticks per unit of the scale of
+	 * <TT>Note.WHOLE</TT>, <TT>Note.HALF</TT>...
+	 */
+	public int getResolution() {
+		return m_resolution;
+	}
+
+	/** Returns the onset of the given row, in ticks */
+	public int getOnset(int row) {
+		checkRow(row);
+		return m_onsets[row];
+	}
+
+	/** Returns the exact end time of the given row, in ticks */
+	public int getEnd(int row) {
+		checkRow(row);
+		return m_ends[row];
+	}
+
+	/** Returns the duration of the given row */
+	public short getDuration(int row) {
+		checkRow(row);
+		return m_durations[row];
+	}
+
+	/** Returns the midi pitch of the given row, {@link #NO_PITCH} for rests */
+	public byte getPitch(int row) {
+		checkRow(row);
+		return m_pitches[row];
+	}
+
+	/**
+	 * Returns the accidental written for the given row,
+	 * {@link Accidental#NONE} if none
+	 */
+	public Accidental getAccidental(int row) {
+		checkRow(row);
+		if (m_accidentals[row] == ACCIDENTAL_NONE)
+			return Accidental.NONE;
+		return Accidental.valueOf(m_accidentals[row] / 2f);
+	}
+
+	/** Returns the voice index of the given row */
+	public short getVoice(int row) {
+		checkRow(row);
+		return m_voices[row];
+	}
+
+	/** Returns the index in its voice of the note (or its multinote) */
+	public int getPosition(int row) {
+		checkRow(row);
+		return m_positions[row];
+	}
+
+	/** Returns the flags of the given row */
+	public byte getFlags(int row) {
+		checkRow(row);
+		return m_flags[row];
+	}
+
+	/** Returns <TT>true</TT> if the given row has all the given flags */
+	public boolean hasFlags(int row, byte flags) {
+		return (getFlags(row) & flags) == flags;
+	}
+
+	/** Returns a cursor on all rows */
+	public Cursor cursor() {
+		return new Cursor(0, m_size);
+	}
+
+	/** Returns a cursor on the rows of the given voice */
+	public Cursor cursor(int voice) {
+		return new Cursor(m_voiceStarts[voice], m_voiceStarts[voice + 1]);
+	}
+
+	/**
+	 * Returns an iterator over the time slices of all voices.
+	 *
+	 * @see TimeSlices
+	 */
+	public TimeSlices timeSlices() {
+		return new TimeSlices();
+	}
+
+	private void checkRow(int row) {
+		if ((row < 0) || (row >= m_size))
+			throw new IndexOutOfBoundsException("Row " + row
+					+ " out of [0, " + m_size + "[");
+	}
+
+	/**
+	 * Returns <TT>true</TT> if none of the given voices has been
+	 * modified since this view has been built.
+	 */
+	boolean isUpToDate(Collection voices) {
+		return Arrays.equals(m_revisions, Voice.getRevisions(voices));
+	}
+
+	private static int[] copyOf(int[] a, int length) {
+		int[] ret = new int[length];
+		System.arraycopy(a, 0, ret, 0, Math.min(a.length, length));
+		return ret;
+	}
+
+	private static short[] copyOf(short[] a, int length) {
+		short[] ret = new short[length];
+		System.arraycopy(a, 0, ret, 0, Math.min(a.length, length));
+		return ret;
+	}
+
+	private static byte[] copyOf(byte[] a, int length) {
+		byte[] ret = new byte[length];
+		System.arraycopy(a, 0, ret, 0, Math.min(a.length, length));
+		return ret;
+	}
+
+	/**
+	 * A cursor on a range of rows. Starts before the first row,
+	 * {@link #next()} must be called to move on each row:
+	 * <PRE>
+	 * NoteColumns.Cursor c = columns.cursor();
+	 * while (c.next()) {
+	 *   if (!c.isRest()) sum += c.getPitch();
+	 * }
+	 * </PRE>
+	 * Getters read the columns directly, without bounds checks.
+	 */
+	public final class Cursor {
+
+		private final int m_begin;
+		private final int m_end;
+		private int m_row;
+
+		private Cursor(int begin, int end) {
+			m_begin = begin;
+			m_end = end;
+			m_row = begin - 1;
+		}
+
+		/**
+		 * Moves to the next row.
+		 *
+		 * @return <TT>false</TT> if there is no more row
+		 */
+		public boolean next() {
+			if (m_row < m_end)
+				m_row++;
+			return m_row < m_end;
+		}
+
+		/** Moves back before the first row */
+		public void reset() {
+			m_row = m_begin - 1;
+		}
+
+		/** Returns the current row */
+		public int getRow() {
+			return m_row;
+		}
+
+		public int getOnset() {
+			return m_onsets[m_row];
+		}
+
+		public int getEnd() {
+			return m_ends[m_row];
+		}
+
+		public short getDuration() {
+			return m_durations[m_row];
+		}
+
+		public byte getPitch() {
+			return m_pitches[m_row];
+		}
+
+		public Accidental getAccidental() {
+			return NoteColumns.this.getAccidental(m_row);
+		}
+
+		public short getVoice() {
+			return m_voices[m_row];
+		}
+
+		public int getPosition() {
+			return m_positions[m_row];
+		}
+
+		public byte getFlags() {
+			return m_flags[m_row];
+		}
+
+		public boolean isRest() {
+			return (m_flags[m_row] & REST) != 0;
+		}
+
+		public boolean isChord() {
+			return (m_flags[m_row] & CHORD) != 0;
+		}
+
+	}
+
+	/**
+	 * An iterator over the notes sounding together, across all voices.
+	 * Each call to {@link #next()} moves to the next time a note starts
+	 * in any voice, the slice holds the rows of the notes sounding at
+	 * that time: notes held from a previous slice first, then the notes
+	 * starting now, in voices order.
+	 * <PRE>
+	 * NoteColumns.TimeSlices slices = columns.timeSlices();
+	 * while (slices.next()) {
+	 *   for (int i = 0; i &lt; slices.size(); i++)
+	 *     pitches[i] = columns.getPitch(slices.getRow(i));
+	 *   analyze(slices.getTime(), pitches, slices.size());
+	 * }
+	 * </PRE>
+	 * Voices are merged by onset with a heap of their next rows, so a
+	 * whole iteration takes O(n log v) for n rows and v voices. No object
+	 * is created while iterating. Rests don't make slices. A note ending a
+	 * tie starts a slice, see {@link NoteColumns#TIE_END}.
+	 */
+	public final class TimeSlices {
+
+		/** voices, a heap ordered by onset of their next row, then index */
+		private final int[] m_heap;
+		private int m_heapSize = 0;
+		/** next row of each voice which is not a rest */
+		private final int[] m_next;
+		/** rows of the slice, held ones then starting ones */
+		private int[] m_rows;
+		private int m_count = 0;
+		/** index in m_rows of the first row starting at m_time */
+		private int m_firstStarting = 0;
+		private int m_time = -1;
+
+		private TimeSlices() {
+			int voices = getVoiceCount();
+			m_heap = new int[voices];
+			m_next = new int[voices];
+			m_rows = new int[Math.max(8, voices * 2)];
+			reset();
+		}
+
+		/** Moves back before the first slice */
+		public void reset() {
+			m_heapSize = 0;
+			m_count = 0;
+			m_firstStarting = 0;
+			m_time = -1;
+			for (int voice = 0; voice < m_next.length; voice++) {
+				m_next[voice] = skipRests(m_voiceStarts[voice],
+						m_voiceStarts[voice + 1]);
+				if (m_next[voice] < m_voiceStarts[voice + 1]) {
+					m_heap[m_heapSize] = voice;
+					siftUp(m_heapSize++);
+				}
+			}
+		}
+
+		/**
+		 * Moves to the next slice.
+		 *
+		 * @return <TT>false</TT> if no more note starts
+		 */
+		public boolean next() {
+			if (m_heapSize == 0) {
+				m_count = 0;
+				m_firstStarting = 0;
+				return false;
+			}
+			int time = m_onsets[m_next[m_heap[0]]];
+			// keep the rows still sounding
+			int count = 0;
+			for (int i = 0; i < m_count; i++) {
+				int row = m_rows[i];
+				if (m_ends[row] > time)
+					m_rows[count++] = row;
+			}
+			m_firstStarting = count;
+			while ((m_heapSize > 0) && (m_onsets[m_next[m_heap[0]]] == time)) {
+				int voice = m_heap[0];
+				int end = m_voiceStarts[voice + 1];
+				int row = m_next[voice];
+				for (; (row < end) && (m_onsets[row] == time); row++) {
+					if ((m_flags[row] & REST) != 0)
+						continue;
+					if (count == m_rows.length) {
+						int[] rows = new int[count * 2];
+						System.arraycopy(m_rows, 0, rows, 0, count);
+						m_rows = rows;
+					}
+					m_rows[count++] = row;
+				}
+				m_next[voice] = skipRests(row, end);
+				if (m_next[voice] == end)
+					m_heap[0] = m_heap[--m_heapSize];
+				siftDown(0);
+			}
+			m_count = count;
+			m_time = time;
+			return true;
+		}
+
+		/** Returns the time of the current slice, in ticks */
+		public int getTime() {
+			return m_time;
+		}
+
+		/** Returns the number of rows sounding in the current slice */
+		public int size() {
+			return m_count;
+		}
+
+		/**
+		 * Returns the row of the i-th note sounding in the current slice,
+		 * i from 0 to {@link #size()} excluded.
+		 */
+		public int getRow(int i) {
+			if ((i < 0) || (i >= m_count))
+				throw new IndexOutOfBoundsException("Note " + i
+						+ " out of [0, " + m_count + "[");
+			return m_rows[i];
+		}
+
+		/**
+		 * Returns <TT>true</TT> if the i-th note starts at the time of
+		 * the slice, <TT>false</TT> if it is held from a previous one.
+		 */
+		public boolean isStarting(int i) {
+			getRow(i);
+			return i >= m_firstStarting;
+		}
+
+		private int skipRests(int row, int end) {
+			while ((row < end) && ((m_flags[row] & REST) != 0))
+				row++;
+			return row;
+		}
+
+		/** Returns <TT>true</TT> if voice a comes before voice b */
+		private boolean before(int a, int b) {
+			int onsetA = m_onsets[m_next[a]];
+			int onsetB = m_onsets[m_next[b]];
+			return (onsetA < onsetB) || ((onsetA == onsetB) && (a < b));
+		}
+
+		private void siftUp(int i) {
+			int voice = m_heap[i];
+			while (i > 0) {
+				int parent = (i - 1) >> 1;
+				if (!before(voice, m_heap[parent]))
+					break;
+				m_heap[i] = m_heap[parent];
+				i = parent;
+			}
+			m_heap[i] = voice;
+		}
+
+		private void siftDown(int i) {
+			if (i >= m_heapSize)
+				return;
+			int voice = m_heap[i];
+			int half = m_heapSize >> 1;
+			while (i < half) {
+				int child = 2 * i + 1;
+				if ((child + 1 < m_heapSize)
+						&& before(m_heap[child + 1], m_heap[child]))
+					child++;
+				if (!before(m_heap[child], voice))
+					break;
+				m_heap[i] = m_heap[child];
+				i = child;
+			}
+			m_heap[i] = voice;
+		}
+
+	}
+
+}
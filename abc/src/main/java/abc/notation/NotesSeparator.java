@@ -27,4 +27,9 @@ public class NotesSeparator extends MusicPresentationElement implements Cloneabl
 	public Object clone() throws CloneNotSupportedException {
 		return super.clone();
 	}
+
+	byte elementType() {
+		return MusicElementVisitor.NOTES_SEPARATOR;
+	}
+
 }
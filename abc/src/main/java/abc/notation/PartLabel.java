@@ -37,4 +37,9 @@ public class PartLabel extends MusicPresentationElement implements Cloneable {
 	public Object clone() throws CloneNotSupportedException {
 		return super.clone();
 	}
+
+	byte elementType() {
+		return MusicElementVisitor.PART_LABEL;
+	}
+
 }
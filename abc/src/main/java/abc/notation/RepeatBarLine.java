@@ -129,4 +129,9 @@ public class RepeatBarLine extends BarLine implements Cloneable {
 		}
 		return ret;
 	}
+
+	byte elementType() {
+		return MusicElementVisitor.REPEAT_BAR_LINE;
+	}
+
 }
@@ -32,5 +32,9 @@ public class RepeatEnd extends DecorableElement implements Cloneable {
 	public Object clone() throws CloneNotSupportedException {
 		return super.clone();
 	}
-	
+
+	byte elementType() {
+		return MusicElementVisitor.REPEAT_END;
+	}
+
 }
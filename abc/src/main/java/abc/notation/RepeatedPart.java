@@ -27,6 +27,9 @@ public class RepeatedPart extends RepeatedPartAbstract
   public RepeatedPart (Part part)
   { m_part = part; }
 
+  Part getPart()
+  { return m_part; }
+
   public Part[] toPartsArray()
   {
     int repeatNumber = getNumberOfRepeats();
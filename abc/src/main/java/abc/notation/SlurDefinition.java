@@ -23,4 +23,9 @@ public class SlurDefinition extends TwoNotesLink implements Cloneable {
 	public Object clone() throws CloneNotSupportedException {
 		return super.clone();
 	}
+
+	byte elementType() {
+		return MusicElementVisitor.SLUR_DEFINITION;
+	}
+
 }
@@ -37,4 +37,9 @@ public class Spacer extends DecorableElement implements Cloneable {
 	public Object clone() throws CloneNotSupportedException {
 		return super.clone();
 	}
+
+	byte elementType() {
+		return MusicElementVisitor.SPACER;
+	}
+
 }
@@ -0,0 +1,133 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import abc.parser.CharStreamPosition;
+
+/**
+ * A sorted interval index of the char stream positions of the
+ * {@link MusicElement music elements} of a {@link Music}, used
+ * to find the element at a given offset by binary search.
+ * <p>
+ * Intervals are sorted by start index. When intervals overlap (the
+ * same element appended twice by a part order, for example) the
+ * element which comes first in voices order is returned, as the
+ * former linear search did.
+ */
+final class StreamPositionIndex {
+
+	/** intervals start index, sorted ascending */
+	private int[] m_starts;
+	/** intervals end index (excluded) */
+	private int[] m_ends;
+	/** max of m_ends[0..i], to know when to stop looking backward */
+	private int[] m_maxEnds;
+	/** rank of the element in voices order, lower is first */
+	private int[] m_ranks;
+	private MusicElement[] m_elements;
+
+	/** voices revisions when the index has been built */
+	private int[] m_revisions;
+
+	/**
+	 * Builds the index of all positioned elements of the given voices.
+	 *
+	 * @param voices
+	 *            Collection of {@link Voice}, in music order
+	 */
+	StreamPositionIndex(Collection voices) {
+		m_revisions = Voice.getRevisions(voices);
+		int count = 0;
+		for (Object o : voices) {
+			count += ((Voice) o).size();
+		}
+		int[] starts = new int[count];
+		int[] ends = new int[count];
+		MusicElement[] elements = new MusicElement[count];
+		int n = 0;
+		for (Object o : voices) {
+			Voice v = (Voice) o;
+			for (int i = 0, j = v.size(); i < j; i++) {
+				MusicElement me = (MusicElement) v.elementAt(i);
+				if (me == null)
+					continue;
+				CharStreamPosition pos = me.getCharStreamPosition();
+				if ((pos == null) || (pos.getEndIndex() <= pos.getStartIndex()))
+					continue;
+				starts[n] = pos.getStartIndex();
+				ends[n] = pos.getEndIndex();
+				elements[n] = me;
+				n++;
+			}
+		}
+		// sort by start index, then by rank (start in high bits)
+		long[] order = new long[n];
+		for (int i = 0; i < n; i++)
+			order[i] = ((long) starts[i] << 32) | i;
+		Arrays.sort(order);
+		m_starts = new int[n];
+		m_ends = new int[n];
+		m_maxEnds = new int[n];
+		m_ranks = new int[n];
+		m_elements = new MusicElement[n];
+		int maxEnd = Integer.MIN_VALUE;
+		for (int i = 0; i < n; i++) {
+			int k = (int) (order[i] & 0xFFFFFFFFL);
+			m_starts[i] = starts[k];
+			m_ends[i] = ends[k];
+			m_ranks[i] = k;
+			m_elements[i] = elements[k];
+			maxEnd = Math.max(maxEnd, ends[k]);
+			m_maxEnds[i] = maxEnd;
+		}
+	}
+
+	/**
+	 * Returns the element whose char stream position contains the given
+	 * offset, <TT>null</TT> if none.
+	 */
+	MusicElement getElementAt(int offset) {
+		// last interval starting at or before offset
+		int lo = 0, hi = m_starts.length - 1, last = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (m_starts[mid] <= offset) {
+				last = mid;
+				lo = mid + 1;
+			} else
+				hi = mid - 1;
+		}
+		int found = -1;
+		for (int i = last; (i >= 0) && (m_maxEnds[i] > offset); i--) {
+			if ((m_ends[i] > offset)
+					&& ((found == -1) || (m_ranks[i] < m_ranks[found])))
+				found = i;
+		}
+		return found == -1 ? null : m_elements[found];
+	}
+
+	/**
+	 * Returns <TT>true</TT> if none of the given voices has been
+	 * modified since this index has been built.
+	 */
+	boolean isUpToDate(Collection voices) {
+		return Arrays.equals(m_revisions, Voice.getRevisions(voices));
+	}
+
+}
@@ -64,7 +64,7 @@ public class Tablature implements Cloneable, Serializable {
 	 */
 	public final static Tablature CHARANGO = new Tablature(new Note[] {
 			new Note(Note.G), new Note(Note.c), new Note(Note.E),
-			new Note(Note.A), new Note(Note.e), }, 15);
+			new Note(Note.A), new Note(Note.e), }, 15, 5, 7);
 
 	public final static Tablature GUITAR = new Tablature(new Note[] {
 			new Note(Note.E, -1), new Note(Note.A, -1), new Note(Note.D),
@@ -79,9 +79,29 @@ public class Tablature implements Cloneable, Serializable {
 			new Note(Note.G, -1), new Note(Note.D), new Note(Note.A),
 			new Note(Note.e), }, 21);
 
+	/** maximal number of positions kept for a note or chord */
+	private static final int MAX_POSITIONS = 32;
+	/** number of strings under which open strings in chord are free */
+	private static final int FREE_OPEN_STRINGS = 4;
+
+	private static final int HIGH_FRET_PENALTY = 1;
+	private static final int FINGER_GAP_PENALTY = 2;
+	private static final int OUT_OF_REACH_PENALTY = 200;
+	private static final int OPEN_STRING_IN_CHORD_PENALTY = 4;
+	private static final int UNPLAYABLE_PENALTY = 1000;
+	private static final int STRING_CHANGE_PENALTY = 1;
+	private static final int FRET_CHANGE_PENALTY = 2;
+	private static final int HAND_MOVE_PENALTY = 6;
+
 	private int m_numberOfFret = 0;
 
 	private Note[] m_strings = null;
+
+	/** maximal gap between index and little finger near the nut */
+	private int m_maxSpanAtNut = 3;
+
+	/** maximal gap between index and little finger near the body */
+	private int m_maxSpanAtBody = 5;
 	
 	private Map computedFingerings = null;
 
@@ -89,11 +109,27 @@ public class Tablature implements Cloneable, Serializable {
 		m_strings = strings;
 		m_numberOfFret = numberOfFret;
 	}
+
+	/**
+	 * @param maxSpanAtNut maximal gap in frets between index finger and
+	 * little finger near the headstock, e.g. 3 for guitar
+	 * @param maxSpanAtBody same near the body, e.g. 5 for guitar
+	 */
+	public Tablature(Note[] strings, int numberOfFret, int maxSpanAtNut,
+			int maxSpanAtBody) {
+		this(strings, numberOfFret);
+		m_maxSpanAtNut = maxSpanAtNut;
+		m_maxSpanAtBody = maxSpanAtBody;
+	}
 	
 	public Note[] getStrings() {
 		return m_strings;
 	}
 	
+	public int getNumberOfFret() {
+		return m_numberOfFret;
+	}
+
 	public int getNumberOfString() {
 		return m_strings.length;
 	}
@@ -111,101 +147,406 @@ public class Tablature implements Cloneable, Serializable {
 		else return null;
 	}
 	
+
+	/**
+	 * Returns the maximal gap in frets between index finger and little
+	 * finger when the index finger is on the given fret.
+	 */
+	public int getMaxSpan(int fret) {
+		if (m_numberOfFret <= 0)
+			return m_maxSpanAtNut;
+		fret = Math.max(0, Math.min(fret, m_numberOfFret));
+		return m_maxSpanAtNut + (m_maxSpanAtBody - m_maxSpanAtNut) * fret
+				/ m_numberOfFret;
+	}
+
 	/**
 	 * Returns the position and fingering of note n.
-	 * This should be called after {@link #computedFingerings}
+	 * This should be called after {@link #computeFingerings(Collection)}
 	 * which compute bests fingerings.
 	 * The result is a array of 2 int, the first is the string
-	 * number, and the second is the fret.
-	 * 
+	 * number, and the second is the fret. The fret is -1 if
+	 * the note can't be played on the tablature (note lower
+	 * than lowest string, more notes in MultiNote than strings...)
+	 *
 	 * @param n A Note
 	 * @return int[2] or null if not computed (rest, end of tie...)
 	 */
 	public int[] getFingeringForNote(Note n) {
 		return (int[]) computedFingerings.get(n.getReference());
 	}
-	
+
 	/**
 	 * Here is the brain of tablature fingerings computation.
+	 * <p>
+	 * Each note (or chord) may be played at several positions
+	 * (string, fret). The fingerings minimizing the sum of
+	 * penalties along the notes are found by dynamic programming
+	 * (Viterbi algorithm), penalties are:
+	 * <ul>
+	 * <li>for a position: high frets, gap between frets of a chord
+	 * (huge if out of reach of the fingers), open strings in a chord
+	 * (increasing with number of strings, none for 3 or 4 strings),
+	 * notes which can't be played
+	 * <li>from a position to the next one: pick another string (small
+	 * penalty), move fingers to another fret, move the hand when the
+	 * fret is out of reach (greater penalty)
+	 * </ul>
+	 * A rest resets the penalties, player may have time to move on the
+	 * neck. Positions of a note or chord and penalties between them are
+	 * computed once per pitch (or chord pitches).
+	 *
 	 * @param musicElements Collection of MusicElement in which notes
 	 * will be used for computation.
 	 */
 	public void computeFingerings(Collection musicElements) {
 		if (computedFingerings != null)
 			computedFingerings.clear();
-		//collect all notes
-		Collection notes = new ArrayList(musicElements.size());
+		int[] stringHeights = new int[m_strings.length];
+		for (int i = 0; i < m_strings.length; i++)
+			stringHeights[i] = m_strings[i].getMidiLikeHeight();
+		//collect all notes to play, with their height
+		ArrayList steps = new ArrayList(musicElements.size());
+		HashMap positionsCache = new HashMap();
+		KeySignature tuneKey = new KeySignature(Note.C, KeySignature.MAJOR);
+		// key with the accidentals found in the current bar
+		KeySignature currentKey = new KeySignature(tuneKey.getAccidentals());
+		boolean afterRest = true;
+		int notesCount = 0;
 		Iterator it = musicElements.iterator();
 		while (it.hasNext()) {
 			MusicElement element = (MusicElement) it.next();
-			if (element instanceof NoteAbstract) {
+			if (element instanceof KeySignature) {
+				tuneKey = (KeySignature) element;
+				currentKey = new KeySignature(tuneKey.getAccidentals());
+			} else if ((element instanceof BarLine)
+					&& (currentKey.getAccidentals() != tuneKey.getAccidentals())) {
+				currentKey = new KeySignature(tuneKey.getAccidentals());
+			} else if (element instanceof NoteAbstract) {
 				NoteAbstract[] graces = ((NoteAbstract) element).getGracingNotes();
 				if (graces != null) {
-                    Collections.addAll(notes, graces);
+					for (NoteAbstract grace : graces) {
+						Step step = createStep(grace, currentKey, stringHeights,
+								positionsCache, afterRest);
+						if (step != null) {
+							steps.add(step);
+							notesCount += step.m_notes.length;
+							afterRest = false;
+						}
+					}
+				}
+				if ((element instanceof Note) && ((Note) element).isRest()) {
+					afterRest = true;
+					continue;
+				}
+				Step step = createStep((NoteAbstract) element, currentKey,
+						stringHeights, positionsCache, afterRest);
+				if (step != null) {
+					steps.add(step);
+					notesCount += step.m_notes.length;
+					afterRest = false;
 				}
-				notes.add(element);
 			}
 		}
-		computedFingerings = new HashMap(notes.size());
-		
-		//TODO iterate notes collection, compute fingering
-		it = notes.iterator();
-		NoteAbstract lastNote = null;
-		while (it.hasNext()) {
-			NoteAbstract currentNote = (NoteAbstract) it.next();
-			if (currentNote instanceof MultiNote) {
-				//we have a chord
-                for (Object o : (((MultiNote) currentNote).getNotesAsVector())) {
-                    Note note = (Note) o;
-                    if (note.isRest() || note.isEndingTie())
-                        continue;
-                    //just a random thing to put numbers on the tab :-)
-                    int string = 1 + (int) (Math.random() * (m_strings.length - 1));
-                    int fret = (int) (Math.random() * m_numberOfFret);
-                    computedFingerings.put(note.getReference(),
-                            new int[]{string, fret});
-                }
-			} else if (currentNote instanceof Note) {
-				Note note = (Note) currentNote;
-				if (!note.isEndingTie()) {
-					int[] pos = null;
-					if (note.isRest()) {
-						//reinit penalty, player may have time
-						//to move on the neck
-					}
-					else if ((lastNote != null)
-						&& (lastNote instanceof Note)
-						&& (note.getMidiLikeHeight()
-							== ((Note)lastNote).getMidiLikeHeight())
-						&& ((pos = getFingeringForNote((Note)lastNote)) != null)) {
-						//If the current note is the same than the last note
-						//keep the same position
-						computedFingerings.put(note.getReference(),
-							new int[] {pos[0], pos[1]});
-					} else {
-						//just a random thing to put numbers on the tab :-)
-						int string = 1+(int)Math.round(Math.random()*(m_strings.length-1));
-						int fret = (int)(Math.random()*m_numberOfFret);
-						computedFingerings.put(note.getReference(),
-							new int[]{string, fret});
+		computedFingerings = new HashMap(Math.max(16, notesCount * 2));
+		int count = steps.size();
+		if (count == 0)
+			return;
+
+		//forward: lowest penalty to reach each position of each step
+		HashMap transitionsCache = new HashMap();
+		int[][] previous = new int[count][];
+		Step step = (Step) steps.get(0);
+		int[] penalties = new int[step.m_positions.m_positions.length];
+		for (int j = 0; j < penalties.length; j++)
+			penalties[j] = step.m_positions.m_positions[j].m_penalty;
+		for (int i = 1; i < count; i++) {
+			Step last = step;
+			step = (Step) steps.get(i);
+			Position[] positions = step.m_positions.m_positions;
+			int[] stepPenalties = new int[positions.length];
+			int[] stepPrevious = new int[positions.length];
+			int[][] transitions = step.m_afterRest ? null
+					: getTransitions(last.m_positions, step.m_positions,
+							transitionsCache);
+			for (int j = 0; j < positions.length; j++) {
+				int best = 0;
+				int bestPenalty = Integer.MAX_VALUE;
+				for (int k = 0; k < penalties.length; k++) {
+					int penalty = penalties[k];
+					if (transitions != null)
+						penalty += transitions[k][j];
+					if (penalty < bestPenalty) {
+						bestPenalty = penalty;
+						best = k;
 					}
 				}
+				stepPenalties[j] = bestPenalty + positions[j].m_penalty;
+				stepPrevious[j] = best;
+			}
+			penalties = stepPenalties;
+			previous[i] = stepPrevious;
+		}
+
+		//backward: follow the best path
+		int best = 0;
+		for (int j = 1; j < penalties.length; j++) {
+			if (penalties[j] < penalties[best])
+				best = j;
+		}
+		for (int i = count - 1; i >= 0; i--) {
+			step = (Step) steps.get(i);
+			Position position = step.m_positions.m_positions[best];
+			for (int n = 0; n < step.m_notes.length; n++) {
+				int[] fingering = new int[] { position.m_strings[n],
+						position.m_frets[n] };
+				computedFingerings.put(step.m_notes[n].getReference(),
+						fingering);
+			}
+			if (i > 0)
+				best = previous[i][best];
+		}
+	}
+
+	/**
+	 * Returns the step to play the note or chord, <TT>null</TT> if
+	 * nothing to play (rest, end of tie...).
+	 */
+	private Step createStep(NoteAbstract element, KeySignature currentKey,
+			int[] stringHeights, Map positionsCache, boolean afterRest) {
+		Note[] notes;
+		if (element instanceof MultiNote) {
+			notes = ((MultiNote) element).toArray();
+			if (notes == null)
+				return null;
+		} else if (element instanceof Note) {
+			notes = new Note[] { (Note) element };
+		} else
+			return null;
+		int played = 0;
+		int[] heights = new int[notes.length];
+		for (int i = 0; i < notes.length; i++) {
+			Note note = notes[i];
+			if (note.isRest())
+				continue;
+			Accidental accidental = note.getAccidental();
+			if (!accidental.isInTheKey())
+				currentKey.setAccidental(note.getStrictHeight(), accidental);
+			if (note.isEndingTie())
+				continue;
+			notes[played] = note;
+			heights[played] = note.getMidiLikeHeight(currentKey);
+			played++;
+		}
+		if (played == 0)
+			return null;
+		if (played < notes.length) {
+			Note[] playedNotes = new Note[played];
+			System.arraycopy(notes, 0, playedNotes, 0, played);
+			notes = playedNotes;
+			int[] playedHeights = new int[played];
+			System.arraycopy(heights, 0, playedHeights, 0, played);
+			heights = playedHeights;
+		}
+		String key = Arrays.toString(heights);
+		Positions positions = (Positions) positionsCache.get(key);
+		if (positions == null) {
+			positions = new Positions(positionsCache.size(),
+					computePositions(heights, stringHeights));
+			positionsCache.put(key, positions);
+		}
+		return new Step(notes, positions, afterRest);
+	}
+
+	/**
+	 * Returns the best positions to play the notes of the given heights
+	 * at once, with their own penalty.
+	 */
+	private Position[] computePositions(int[] heights, int[] stringHeights) {
+		ArrayList positions = new ArrayList();
+		addPositions(positions, heights, stringHeights, 0, new int[heights.length],
+				new int[heights.length], 0);
+		Collections.sort(positions);
+		int size = Math.min(positions.size(), MAX_POSITIONS);
+		Position[] ret = new Position[size];
+		for (int i = 0; i < size; i++)
+			ret[i] = (Position) positions.get(i);
+		return ret;
+	}
+
+	/**
+	 * Adds to positions all the ways to play notes from the index,
+	 * strings and frets of previous notes being chosen.
+	 */
+	private void addPositions(List positions, int[] heights, int[] stringHeights,
+			int index, int[] strings, int[] frets, int usedStrings) {
+		if (index == heights.length) {
+			Position position = new Position(strings, frets);
+			position.m_penalty = getPenalty(position);
+			positions.add(position);
+			return;
+		}
+		boolean playable = false;
+		for (int s = 0; s < stringHeights.length; s++) {
+			int fret = heights[index] - stringHeights[s];
+			if ((usedStrings & (1 << s)) != 0
+					|| fret < 0 || fret > m_numberOfFret)
+				continue;
+			playable = true;
+			strings[index] = s + 1;
+			frets[index] = fret;
+			addPositions(positions, heights, stringHeights, index + 1, strings,
+					frets, usedStrings | (1 << s));
+		}
+		if (playable)
+			return;
+		//note lower than lowest string, more notes than strings...
+		strings[index] = 1;
+		frets[index] = -1;
+		addPositions(positions, heights, stringHeights, index + 1, strings,
+				frets, usedStrings);
+	}
+
+	/** Returns the penalty of a position, not depending on other ones */
+	private int getPenalty(Position position) {
+		int penalty = 0;
+		int openStringPenalty = 0;
+		if (position.m_frets.length > 1) {
+			int overStrings = m_strings.length - FREE_OPEN_STRINGS;
+			if (overStrings > 0)
+				openStringPenalty = OPEN_STRING_IN_CHORD_PENALTY * overStrings
+						* overStrings;
+		}
+		for (int fret : position.m_frets) {
+			if (fret < 0)
+				penalty += UNPLAYABLE_PENALTY;
+			else if (fret == 0)
+				penalty += openStringPenalty;
+			else
+				penalty += fret * HIGH_FRET_PENALTY;
+		}
+		if (position.m_lowestFret > 0) {
+			int gap = position.m_highestFret - position.m_lowestFret;
+			penalty += gap * FINGER_GAP_PENALTY;
+			int overSpan = gap - getMaxSpan(position.m_lowestFret);
+			if (overSpan > 0)
+				penalty += overSpan * OUT_OF_REACH_PENALTY;
+		}
+		return penalty;
+	}
+
+	/**
+	 * Returns the penalties of playing each position of to after each
+	 * position of from, computed once for each couple.
+	 */
+	private int[][] getTransitions(Positions from, Positions to,
+			Map transitionsCache) {
+		Long key = ((long) from.m_id << 32) | to.m_id;
+		int[][] ret = (int[][]) transitionsCache.get(key);
+		if (ret == null) {
+			ret = new int[from.m_positions.length][to.m_positions.length];
+			for (int i = 0; i < ret.length; i++) {
+				for (int j = 0; j < ret[i].length; j++)
+					ret[i][j] = getPenalty(from.m_positions[i],
+							to.m_positions[j]);
+			}
+			transitionsCache.put(key, ret);
+		}
+		return ret;
+	}
+
+	/** Returns the penalty of playing to after from */
+	private int getPenalty(Position from, Position to) {
+		int penalty = 0;
+		if (from.m_lowestString > 0 && to.m_lowestString > 0)
+			penalty += Math.abs(to.m_lowestString - from.m_lowestString)
+					* STRING_CHANGE_PENALTY;
+		//open strings let the hand free
+		if (from.m_lowestFret > 0 && to.m_lowestFret > 0) {
+			int move = Math.abs(to.m_lowestFret - from.m_lowestFret);
+			if (move == 0)
+				return penalty;
+			if (to.m_lowestFret > from.m_lowestFret
+					&& to.m_highestFret - from.m_lowestFret
+						<= getMaxSpan(from.m_lowestFret))
+				penalty += move * FRET_CHANGE_PENALTY;
+			else
+				penalty += HAND_MOVE_PENALTY + move * FRET_CHANGE_PENALTY;
+		}
+		return penalty;
+	}
+
+	/**
+	 * A way to play a note or a chord: string and fret of each note.
+	 */
+	private static final class Position implements Comparable {
+		/** string of each note, starts at 1 for lowest string */
+		private final int[] m_strings;
+		/** fret of each note, 0 for open string, -1 if not played */
+		private final int[] m_frets;
+		/** lowest fret pressed, 0 if none */
+		private int m_lowestFret = 0;
+		/** highest fret pressed, 0 if none */
+		private int m_highestFret = 0;
+		/** lowest string played, 0 if none */
+		private int m_lowestString = 0;
+		private int m_penalty = 0;
+
+		private Position(int[] strings, int[] frets) {
+			m_strings = (int[]) strings.clone();
+			m_frets = (int[]) frets.clone();
+			for (int i = 0; i < m_frets.length; i++) {
+				int fret = m_frets[i];
+				if (fret < 0)
+					continue;
+				if (m_lowestString == 0 || m_strings[i] < m_lowestString)
+					m_lowestString = m_strings[i];
+				if (fret == 0)
+					continue;
+				if (m_lowestFret == 0 || fret < m_lowestFret)
+					m_lowestFret = fret;
+				if (fret > m_highestFret)
+					m_highestFret = fret;
 			}
-			lastNote = currentNote;
-		}
-		//use penalty parameters, use private field if needed:
-		//- maximal gap between index finger and little finger
-		//	e.g. guitar: 3 frets near headstock/nut, 5 near body
-		//		 charango: 5 near headstock/nut, 7 near body
-		//- pick another string (small penalty)
-		//- move finger to another fret (greater penalty)
-		//- void string in a chord (increasing with number of strings
-		//	(no penalty for 3 or 4 strings, huge penalty for 7+ strings...)
-		//
-		//if a note is impossible to render on tab, set fret number to -1
-		//(note lower than lowest string, more notes in MultiNote than strings...)
-		//capodastre position = the minimal fret value
-		
+		}
+
+		public int compareTo(Object o) {
+			int penalty = ((Position) o).m_penalty;
+			return m_penalty < penalty ? -1 : (m_penalty == penalty ? 0 : 1);
+		}
+	}
+
+	/**
+	 * The positions to play a note or chord, shared by all notes or
+	 * chords of same heights.
+	 */
+	private static final class Positions {
+		/** identifies the positions in the transitions cache */
+		private final int m_id;
+		/** sorted by penalty, never empty */
+		private final Position[] m_positions;
+
+		private Positions(int id, Position[] positions) {
+			m_id = id;
+			m_positions = positions;
+		}
+	}
+
+	/**
+	 * A note or chord to play.
+	 */
+	private static final class Step {
+		/** notes to play, without rests and end of ties */
+		private final Note[] m_notes;
+		private final Positions m_positions;
+		/** <TT>true</TT> if the step follows a rest */
+		private final boolean m_afterRest;
+
+		private Step(Note[] notes, Positions positions, boolean afterRest) {
+			m_notes = notes;
+			m_positions = positions;
+			m_afterRest = afterRest;
+		}
 	}
 
 	public Object clone() throws CloneNotSupportedException {
@@ -65,4 +65,9 @@ public class Tempo extends MusicElement implements Cloneable
   public Object clone() throws CloneNotSupportedException {
 	  return super.clone();
   }
+
+	byte elementType() {
+		return MusicElementVisitor.TEMPO;
+	}
+
 }
@@ -0,0 +1,364 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+
+/**
+ * The time map of a {@link Music}: when each element starts and how
+ * long it lasts, and when each bar starts.
+ * <p>
+ * Times are expressed in ticks, {@link #getResolution()} ticks per unit
+ * of the scale of <TT>Note.WHOLE</TT>, <TT>Note.HALF</TT>... The
+ * resolution is the smallest one for which the notes of tuplets last a
+ * whole number of ticks: 1 for most tunes, 5 for a quintuplet of
+ * eighths... so onsets are exact, even when
+ * {@link Note#getDuration()} has been rounded. Each voice starts at
+ * time 0.
+ * <ul>
+ * <li>a {@link Note} lasts its {@link Note#getDuration()} times the
+ * resolution, or its exact share of its tuplet; a tied note keeps its
+ * own duration
+ * <li>a {@link MultiNote} lasts the duration of its shortest note
+ * <li>other elements (bar lines, keys...) and gracing notes last 0, and
+ * start with the next note
+ * </ul>
+ * Repeats are not expanded: this is the time of the written music.
+ * Queries are binary searches, or direct access for bars.
+ *
+ * @see Music#getTimeMap()
+ */
+public final class TimeMap {
+
+	private Voice[] m_voices;
+	/** ticks per unit of the Note.WHOLE scale */
+	private int m_resolution;
+	/** m_onsets[v][i] onset of element i of voice v,
+	 * m_onsets[v][size] is the voice duration */
+	private int[][] m_onsets;
+	/** positions of elements which last more than 0, ascending */
+	private int[][] m_soundingPositions;
+	/** first bar number of each voice */
+	private short[] m_firstBarNumbers;
+	/** m_barStarts[v][b] start time of bar (first bar + b) */
+	private int[][] m_barStarts;
+	/** element -> int[] {voice, position} */
+	private IdentityHashMap m_positions;
+
+	/** voices revisions when the map has been built */
+	private int[] m_revisions;
+
+	/**
+	 * Builds the time map of the given music.
+	 */
+	public TimeMap(Music music) {
+		Collection voices = music.getVoices();
+		m_revisions = Voice.getRevisions(voices);
+		int count = voices.size();
+		m_voices = (Voice[]) voices.toArray(new Voice[count]);
+		m_resolution = resolutionOf(voices);
+		m_onsets = new int[count][];
+		m_soundingPositions = new int[count][];
+		m_firstBarNumbers = new short[count];
+		m_barStarts = new int[count][];
+		int elementsCount = 0;
+		for (int v = 0; v < count; v++)
+			elementsCount += m_voices[v].size();
+		m_positions = new IdentityHashMap(elementsCount * 2);
+		for (int v = 0; v < count; v++)
+			addVoice(v);
+	}
+
+	private void addVoice(int v) {
+		Voice voice = m_voices[v];
+		int size = voice.size();
+		int[] onsets = new int[size + 1];
+		int[] sounding = new int[size];
+		int soundingCount = 0;
+		int[] barStarts = new int[size + 1];
+		int barsCount = 1;
+		barStarts[0] = 0;
+		long time = 0;
+		for (int i = 0; i < size; i++) {
+			Object element = voice.elementAt(i);
+			onsets[i] = checkedTicks(time);
+			if (element == null)
+				continue;
+			if (!m_positions.containsKey(element))
+				m_positions.put(element, new int[] { v, i });
+			if (element instanceof BarLine) {
+				barStarts[barsCount++] = (int) time;
+			}
+			int duration = ticksOf(element, m_resolution);
+			if (duration > 0) {
+				sounding[soundingCount++] = i;
+				time += duration;
+			}
+		}
+		onsets[size] = checkedTicks(time);
+		m_onsets[v] = onsets;
+		m_soundingPositions[v] = copyOf(sounding, soundingCount);
+		m_barStarts[v] = copyOf(barStarts, barsCount);
+		m_firstBarNumbers[v] = voice.getFirstBar() != null
+			? voice.getFirstBar().getBarNumber() : 1;
+	}
+
+	/**
+	 * Returns the smallest number of ticks per unit of the Note.WHOLE
+	 * scale for which all notes of the given voices last a whole number
+	 * of ticks.
+	 */
+	static int resolutionOf(Collection voices) {
+		long resolution = 1;
+		for (Object o : voices) {
+			Voice voice = (Voice) o;
+			for (int i = 0, j = voice.size(); i < j; i++) {
+				Object element = voice.elementAt(i);
+				if (element instanceof Note)
+					resolution = lcm(resolution, denominatorOf((Note) element));
+				else if (element instanceof MultiNote) {
+					Note[] notes = ((MultiNote) element).toArray();
+					if (notes != null) {
+						for (Note note : notes)
+							resolution = lcm(resolution, denominatorOf(note));
+					}
+				}
+			}
+		}
+		return checkedTicks(resolution);
+	}
+
+	/**
+	 * Returns the duration in ticks of the given note or multinote, 0
+	 * for other elements.
+	 */
+	static int ticksOf(Object element, int resolution) {
+		if (element instanceof Note)
+			return ticksOf((Note) element, resolution);
+		else if (element instanceof MultiNote) {
+			Note shortest = ((MultiNote) element).getShortestNote();
+			return shortest == null ? 0 : ticksOf(shortest, resolution);
+		}
+		return 0;
+	}
+
+	/** Returns the duration in ticks of the given note */
+	static int ticksOf(Note note, int resolution) {
+		if (!isTupletShare(note))
+			return note.getDuration() * resolution;
+		// same formula as the note duration, without rounding
+		Tuplet tuplet = note.getTuplet();
+		long numerator = (long) note.getStrictDuration()
+				* tuplet.getTotalDuration() * resolution;
+		return (int) (numerator / ((long) tuplet.getTupletNumber()
+				* tuplet.getDefaultNoteLength()));
+	}
+
+	/**
+	 * Returns the denominator of the exact duration of the note, in the
+	 * Note.WHOLE scale.
+	 */
+	private static long denominatorOf(Note note) {
+		if (!isTupletShare(note))
+			return 1;
+		Tuplet tuplet = note.getTuplet();
+		long numerator = (long) note.getStrictDuration()
+				* tuplet.getTotalDuration();
+		long denominator = (long) tuplet.getTupletNumber()
+				* tuplet.getDefaultNoteLength();
+		return denominator / gcd(numerator, denominator);
+	}
+
+	/**
+	 * Returns <TT>true</TT> if the note lasts its share of a tuplet,
+	 * <TT>false</TT> if it's not part of a tuplet or if its duration
+	 * has been set in an absolute manner.
+	 */
+	private static boolean isTupletShare(Note note) {
+		Tuplet tuplet = note.getTuplet();
+		return (tuplet != null) && (tuplet.getTupletNumber() > 0)
+				&& (tuplet.getDefaultNoteLength() > 0)
+				&& (note.getAbsoluteDuration() == -1);
+	}
+
+	/**
+	 * Returns the given count of ticks as an int.
+	 * 
+	 * @throws IllegalStateException
+	 *             if it doesn't fit, tuplets need too fine a resolution
+	 */
+	static int checkedTicks(long ticks) {
+		if (ticks > Integer.MAX_VALUE)
+			throw new IllegalStateException(ticks
+					+ " ticks can't be represented, the tuplets need too"
+					+ " fine a resolution");
+		return (int) ticks;
+	}
+
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	private static long lcm(long a, long b) {
+		return a / gcd(a, b) * b;
+	}
+
+	private static int[] copyOf(int[] a, int length) {
+		int[] ret = new int[length];
+		System.arraycopy(a, 0, ret, 0, length);
+		return ret;
+	}
+
+	private int voiceIndex(Voice voice) {
+		for (int v = 0; v < m_voices.length; v++) {
+			if (m_voices[v] == voice)
+				return v;
+		}
+		throw new IllegalArgumentException("Voice " + voice.getVoiceName()
+				+ " is not part of this time map");
+	}
+
+	/**
+	 * Returns the number of ticks per unit of the scale of
+	 * <TT>Note.WHOLE</TT>, <TT>Note.HALF</TT>...
+	 */
+	public int getResolution() {
+		return m_resolution;
+	}
+
+	/**
+	 * Returns the onset of the given element, -1 if it's not an element
+	 * of the music.
+	 */
+	public int getOnset(MusicElement element) {
+		int[] pos = (int[]) m_positions.get(element);
+		return pos == null ? -1 : m_onsets[pos[0]][pos[1]];
+	}
+
+	/**
+	 * Returns the duration of the given element, 0 if it's not a note
+	 * or if it's not an element of the music.
+	 */
+	public int getDuration(MusicElement element) {
+		int[] pos = (int[]) m_positions.get(element);
+		if (pos == null)
+			return 0;
+		return m_onsets[pos[0]][pos[1] + 1] - m_onsets[pos[0]][pos[1]];
+	}
+
+	/** Returns the duration of the given voice */
+	public int getDuration(Voice voice) {
+		int[] onsets = m_onsets[voiceIndex(voice)];
+		return onsets[onsets.length - 1];
+	}
+
+	/**
+	 * Returns the note or multinote of the first voice sounding at the
+	 * given time, <TT>null</TT> if none.
+	 */
+	public NoteAbstract getElementAt(int time) {
+		return m_voices.length == 0 ? null : getElementAt(m_voices[0], time);
+	}
+
+	/**
+	 * Returns the note or multinote of the given voice sounding at the
+	 * given time, <TT>null</TT> if none.
+	 */
+	public NoteAbstract getElementAt(Voice voice, int time) {
+		int v = voiceIndex(voice);
+		int[] onsets = m_onsets[v];
+		int[] sounding = m_soundingPositions[v];
+		if ((time < 0) || (time >= onsets[onsets.length - 1]))
+			return null;
+		// last sounding element starting at or before time
+		int lo = 0, hi = sounding.length - 1, found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (onsets[sounding[mid]] <= time) {
+				found = mid;
+				lo = mid + 1;
+			} else
+				hi = mid - 1;
+		}
+		return found == -1 ? null : (NoteAbstract) voice.elementAt(sounding[found]);
+	}
+
+	/**
+	 * Returns the start time of the given bar in the first voice, -1 if
+	 * there is no such bar.
+	 */
+	public int getTimeOfBar(short barNumber) {
+		return m_voices.length == 0 ? -1 : getTimeOfBar(m_voices[0], barNumber);
+	}
+
+	/**
+	 * Returns the start time of the given bar in the given voice, -1 if
+	 * there is no such bar.
+	 */
+	public int getTimeOfBar(Voice voice, short barNumber) {
+		int v = voiceIndex(voice);
+		int b = barNumber - m_firstBarNumbers[v];
+		if ((b < 0) || (b >= m_barStarts[v].length))
+			return -1;
+		return m_barStarts[v][b];
+	}
+
+	/**
+	 * Returns the number of the bar of the first voice at the given time.
+	 * When several bars start at the same time (empty bars), the last
+	 * one is returned.
+	 */
+	public short getBarAt(int time) {
+		return m_voices.length == 0 ? -1 : getBarAt(m_voices[0], time);
+	}
+
+	/**
+	 * Returns the number of the bar of the given voice at the given time,
+	 * -1 if time is negative.
+	 */
+	public short getBarAt(Voice voice, int time) {
+		int v = voiceIndex(voice);
+		if (time < 0)
+			return -1;
+		int[] starts = m_barStarts[v];
+		int lo = 0, hi = starts.length - 1, found = 0;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (starts[mid] <= time) {
+				found = mid;
+				lo = mid + 1;
+			} else
+				hi = mid - 1;
+		}
+		return (short) (m_firstBarNumbers[v] + found);
+	}
+
+	/**
+	 * Returns <TT>true</TT> if none of the given voices has been
+	 * modified since this map has been built.
+	 */
+	boolean isUpToDate(Collection voices) {
+		return Arrays.equals(m_revisions, Voice.getRevisions(voices));
+	}
+
+}
@@ -147,4 +147,8 @@ public class TimeSignature extends Fraction implements Cloneable {
 		return (m_sumOfNumerators != null) && (m_sumOfNumerators.length > 1);
 	}
 
+	byte elementType() {
+		return MusicElementVisitor.TIME_SIGNATURE;
+	}
+
 }
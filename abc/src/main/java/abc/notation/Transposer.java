@@ -0,0 +1,247 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Vector;
+
+/**
+ * Transposes tunes of a given number of semitones, see
+ * {@link Tune#transpose(Tune, int)}.
+ * <p>
+ * The transposed height and accidental of a note only depend on the
+ * note (strict height, octave, accidental) and on the source and
+ * target keys. They are computed once with an {@link Interval}, then
+ * kept in a table for the current keys: next notes of the same pitch
+ * are transposed by a lookup. Tables are kept from a tune to another,
+ * so a transposer should be used for a batch of tunes, by one thread.
+ */
+final class Transposer {
+
+	private final int m_semitones;
+
+	/** keys description -> HashMap (Long note code -> Note transposed) */
+	private final HashMap m_tables = new HashMap();
+
+	/** table for notes, for the current keys */
+	private HashMap m_notesTable;
+	/** table for chord names notes, which ignore keys */
+	private HashMap m_chordsTable;
+
+	private Note m_noneTranspKeyNote;
+	private KeySignature m_noneTranspKey;
+	private Note m_lastKeyNote;
+	private KeySignature m_lastKey;
+
+	/** notes already transposed in the current tune */
+	private IdentityHashMap m_done;
+
+	Transposer(int semitones) {
+		m_semitones = semitones;
+	}
+
+	/**
+	 * Returns a transposed copy of the given tune.
+	 */
+	Tune transpose(Tune t) {
+		return transposeCopy((Tune) t.clone());
+	}
+
+	/**
+	 * Transposes in place the given copy of a tune, which must not be
+	 * shared with another tune.
+	 *
+	 * @return the given tune
+	 */
+	Tune transposeCopy(Tune ret) {
+		if (m_semitones == 0)
+			return ret;
+		// collect all part's music to transpose
+		Vector musics = new Vector();
+		musics.add(ret.getDefaultPart().getMusic());
+		if (ret.getMultiPartsDefinition() != null) {
+			Vector alreadyAddedParts = new Vector();
+			Part[] parts = ret.getMultiPartsDefinition().toPartsArray();
+			for (Part part : parts) {
+				String label = part.getLabel();
+				// already added, skip it!
+				if (alreadyAddedParts.contains(label))
+					continue;
+				musics.add(part.getMusic());
+				alreadyAddedParts.add(label);
+			}
+		}
+
+		KeySignature lastKey = ret.getMusic().getKey();
+		if (lastKey == null)
+			lastKey = new KeySignature(Note.C, KeySignature.MAJOR);
+		setKeys(lastKey, new Note(lastKey.getNote(), lastKey.getAccidental()),
+				lastKey, new Note(lastKey.getNote(), lastKey.getAccidental()));
+		m_done = new IdentityHashMap();
+		for (Object m : musics) {
+			Music music = (Music) m;
+			for (Object o : music.getVoices()) {
+				Voice voice = (Voice) o;
+				for (int i = 0, j = voice.size(); i < j; i++) {
+					MusicElement element = (MusicElement) voice.elementAt(i);
+					byte type = element.getElementType();
+					if (type == MusicElementVisitor.KEY_SIGNATURE) {
+						KeySignature noneTranspKey = (KeySignature) element;
+						Note noneTranspKeyNote = new Note(noneTranspKey.getNote(),
+								noneTranspKey.getAccidental());
+						KeySignature transposed = KeySignature
+								.transpose(noneTranspKey, m_semitones);
+						voice.setElementAt(transposed, i);
+						byte octav = 0;
+						try {
+							octav = Note.getOctaveTransposition((byte) (noneTranspKeyNote.getHeight() + m_semitones));
+						} catch (Exception e) { //Illegal arg if transp note is accidented
+							octav = Note.getOctaveTransposition((byte) (noneTranspKeyNote.getHeight() + m_semitones - 1));
+						}
+						setKeys(noneTranspKey, noneTranspKeyNote, transposed,
+								new Note(transposed.getNote(), transposed.getAccidental(), octav));
+					} else if ((type == MusicElementVisitor.NOTE)
+							&& !((Note) element).isRest()) {
+						transposeNote((Note) element, m_notesTable);
+					} else if (type == MusicElementVisitor.MULTI_NOTE) {
+						transposeNote((MultiNote) element, m_notesTable);
+					} else if (element instanceof DecorableElement) {
+						// rests, bar lines, spacers...
+						transposeChord((DecorableElement) element);
+					}
+				}//end for each element in the voice
+			}// end for each voices in the music
+		}// end for each music part
+		m_done = null;
+		return ret;
+	}
+
+	/**
+	 * Sets the current keys, and the tables matching them.
+	 */
+	private void setKeys(KeySignature noneTranspKey, Note noneTranspKeyNote,
+			KeySignature lastKey, Note lastKeyNote) {
+		m_noneTranspKey = noneTranspKey;
+		m_noneTranspKeyNote = noneTranspKeyNote;
+		m_lastKey = lastKey;
+		m_lastKeyNote = lastKeyNote;
+		String keyNotes = codeOf(noneTranspKeyNote) + "/" + codeOf(lastKeyNote);
+		m_notesTable = getTable(keyNotes + "/" + codeOf(noneTranspKey)
+				+ "/" + codeOf(lastKey));
+		m_chordsTable = getTable(keyNotes);
+	}
+
+	private HashMap getTable(String keys) {
+		HashMap table = (HashMap) m_tables.get(keys);
+		if (table == null) {
+			table = new HashMap();
+			m_tables.put(keys, table);
+		}
+		return table;
+	}
+
+	/**
+	 * Transposes in place a note or a multinote, its chord name and its
+	 * gracing notes.
+	 */
+	private void transposeNote(NoteAbstract original, HashMap table) {
+		if (m_done.containsKey(original))
+			return;
+		m_done.put(original, Boolean.TRUE);
+		if (original instanceof Note) {
+			Note note = (Note) original;
+			float microtonalOffset = note.getAccidental().getMicrotonalOffset();
+			Note transpHeight = lookup(note, table);
+			note.setHeight(transpHeight.getHeight());
+			note.setOctaveTransposition(transpHeight.getOctaveTransposition());
+			if (microtonalOffset == 0)
+				note.setAccidental(transpHeight.getAccidental());
+			else
+				note.setAccidental(transpHeight.getAccidental().getValue()+microtonalOffset);
+		} else if (original instanceof MultiNote) {
+			MultiNote multi = (MultiNote) original;
+			Note[] notes = multi.toArray();
+			if (notes != null) {
+				for (Note note : notes) {
+					transposeNote(note, table);
+				}
+				// sort again from lowest to highest
+				multi.setNotes(notes);
+			}
+		}
+		transposeChord(original);
+		if (original.hasGracingNotes()) {
+			NoteAbstract[] graces = original.getGracingNotes();
+			for (NoteAbstract grace : graces) {
+				transposeNote(grace, table);
+			}
+		}
+	}
+
+	/**
+	 * Transposes in place the chord name of an element
+	 */
+	private void transposeChord(DecorableElement element) {
+		Chord chord = element.getChord();
+		if (chord != null) {
+			if (chord.hasNote())
+				transposeNote(chord.getNote(), m_chordsTable);
+			if (chord.hasBass())
+				transposeNote(chord.getBass(), m_chordsTable);
+		}
+	}
+
+	/**
+	 * Returns the transposed pitch of the given note from the table,
+	 * computes it if it's not found.
+	 */
+	private Note lookup(Note note, HashMap table) {
+		Long code = Long.valueOf(codeOf(note));
+		Note ret = (Note) table.get(code);
+		if (ret == null) {
+			boolean withKeys = table == m_notesTable;
+			KeySignature noneTranspKey = withKeys ? m_noneTranspKey : null;
+			KeySignature lastKey = withKeys ? m_lastKey : null;
+			Interval interval = new Interval(m_noneTranspKeyNote, note,
+					noneTranspKey);
+			ret = interval.calculateSecondNote(m_lastKeyNote, lastKey);
+			table.put(code, ret);
+		}
+		return ret;
+	}
+
+	/** Returns a code of the pitch (strict height, octave, accidental) */
+	private static long codeOf(Note note) {
+		Accidental acc = note.getAccidental();
+		// NONE and NATURAL must be different
+		float value = acc.isInTheKey() ? 10 : acc.getValue();
+		return ((long) (note.getStrictHeight() & 0xFF) << 40)
+			| ((long) (note.getOctaveTransposition() & 0xFF) << 32)
+			| (Float.floatToIntBits(value) & 0xFFFFFFFFL);
+	}
+
+	private static String codeOf(KeySignature key) {
+		StringBuffer sb = new StringBuffer();
+		Accidental[] accidentals = key.getAccidentals();
+		for (Accidental accidental : accidentals) {
+			sb.append(accidental.isInTheKey() ? 10 : accidental.getValue())
+				.append(',');
+		}
+		return sb.toString();
+	}
+
+}
@@ -24,7 +24,7 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.Vector;
 
 import abc.audio.BeforeAudioRendition;
@@ -66,6 +66,12 @@ public class Tune implements Cloneable, Serializable
   private ArrayList m_parts = null;
   /** Collection of Instruction object (Xcommand, user defined symbols) */
   private ArrayList m_instructions = null;
+  /** Music of {@link #getMusic()}, built on first call */
+  private transient CachedMusic m_music = null;
+  /** Music of {@link #getMusicForGraphicalRendition()}, built on first call */
+  private transient CachedMusic m_graphicalMusic = null;
+  /** Music of {@link #getMusicForAudioRendition()}, built on first call */
+  private transient CachedMusic m_audioMusic = null;
 
   /** Creates a new empty tune. */
   public Tune() {
@@ -429,160 +435,28 @@ public class Tune implements Cloneable, Serializable
   public String getFileURL()
   { return m_tuneInfos.get(TuneInfos.FILEURL); }
   
-	static public Tune transpose(Tune t, int semitones) {
-		Tune ret = (Tune) t.clone();
-		if (semitones == 0)
-			return ret;
-		// collect all part's music to transpose
-		Vector musics = new Vector();
-		musics.add(ret.m_defaultPart.getMusic());
-		if (ret.m_multiPartsDef != null) {
-			Vector alreadyAddedParts = new Vector();
-			Part[] parts = ret.m_multiPartsDef.toPartsArray();
-            for (Part part : parts) {
-                String label = part.getLabel();
-                // already added, skip it!
-                if (alreadyAddedParts.contains(label))
-                    continue;
-                musics.add(part.getMusic());
-                alreadyAddedParts.add(label);
-            }
-		}
-
-		KeySignature lastKey = ret.getMusic().getKey();
-		if (lastKey == null)
-			lastKey = new KeySignature(Note.C, KeySignature.MAJOR);
-		Note lastKeyNote = new Note(lastKey.getNote(), lastKey.getAccidental());
-		KeySignature noneTranspKey = lastKey;
-		Note noneTranspKeyNote = lastKeyNote;
-		Iterator itMusics = musics.iterator();
-		int musiccount = 0;
-		while (itMusics.hasNext()) {
-			musiccount++;
-			Music music = (Music) itMusics.next();
-            for (Object o : music.getVoices()) {
-                Voice voice = (Voice) o;
-                for (int i = 0, j = voice.size(); i < j; i++) {
-                    MusicElement element = (MusicElement) voice.elementAt(i);
-                    if (element instanceof KeySignature) {
-                        noneTranspKey = (KeySignature) element;
-                        noneTranspKeyNote = new Note(noneTranspKey.getNote(), noneTranspKey.getAccidental());
-                        KeySignature transposed = KeySignature
-                                .transpose(noneTranspKey, semitones);
-                        voice.setElementAt(transposed, i);
-                        lastKey = transposed;
-                        byte octav = 0;
-                        try {
-                            octav = Note.getOctaveTransposition((byte) (noneTranspKeyNote.getHeight() + semitones));
-                        } catch (Exception e) { //Illegal arg if transp note is accidented
-                            octav = Note.getOctaveTransposition((byte) (noneTranspKeyNote.getHeight() + semitones - 1));
-                        }
-                        lastKeyNote = new Note(lastKey.getNote(), lastKey.getAccidental(), octav);
-                    } else if ((element instanceof Note)
-                            && !((Note) element).isRest()) {
-                        Note original = (Note) element;
-                        Note transp = (Note) transpose_Note(original, noneTranspKeyNote,
-                                noneTranspKey, lastKeyNote, lastKey);
-                        voice.setElementAt(transp, i);
-                    } else if (element instanceof MultiNote) {
-                        MultiNote multi = (MultiNote) element;
-                        MultiNote transp = (MultiNote) transpose_Note(multi, noneTranspKeyNote,
-                                noneTranspKey, lastKeyNote, lastKey);
-                        voice.setElementAt(transp, i);
-                    } else if (element instanceof DecorableElement) {
-                        transpose_Chord((DecorableElement) element, noneTranspKeyNote,
-                                noneTranspKey, lastKeyNote, lastKey);
-                    }
-                }//end for each element in the voice
-            }// end for each voices in the music
-		}// end while there are more music part
-		return ret;
-	}
-	
 	/**
-	 * Subfunction of {@link #transpose(Tune, int)} which transpose
-	 * a Note, its graces notes (recursively)
+	 * Returns a transposed copy of the given tune.
+	 * 
+	 * @param t
+	 *            the tune to transpose
+	 * @param semitones
+	 *            number of semitones, can be negative
+	 * @see TuneBook#transpose(TuneBook, int[])
 	 */
-	static private NoteAbstract transpose_Note(NoteAbstract original,
-			Note noneTranspKeyNote, KeySignature noneTranspKey,
-			Note lastKeyNote, KeySignature lastKey) {
-		NoteAbstract transp = null;
-		if (original instanceof Note) {
-			float microtonalOffset = ((Note)original).getAccidental().getMicrotonalOffset();
-			Interval interval = new Interval(noneTranspKeyNote, (Note) original,
-					noneTranspKey);
-			// Note transp = Note.transpose(original, semitones, lastKey);
-			Note transpHeight = interval.calculateSecondNote(lastKeyNote, lastKey);
-			try {
-				transp = (Note) original.clone();
-			} catch (CloneNotSupportedException never) {
-				never.printStackTrace();
-                return null;
-			}
-			((Note) transp).setHeight(transpHeight.getHeight());
-			((Note) transp).setOctaveTransposition(transpHeight.getOctaveTransposition());
-			if (microtonalOffset == 0)
-				((Note) transp).setAccidental(transpHeight.getAccidental());
-			else
-				((Note) transp).setAccidental(transpHeight.getAccidental().getValue()+microtonalOffset);
-		} else if (original instanceof MultiNote) {
-			try {
-				transp = (MultiNote) original.clone();
-			} catch (CloneNotSupportedException never) {
-				never.printStackTrace();
-                return null;
-			}
-			Note[] notes = ((MultiNote) transp).toArray();
-			for (int k = 0; k < notes.length; k++) {
-				notes[k] = (Note) transpose_Note(notes[k], noneTranspKeyNote,
-						noneTranspKey, lastKeyNote, lastKey);
-			}
-			((MultiNote) transp).setNotes(notes);
-		}
-//		TieDefinition tie = original.getTieDefinition();
-//		if (tie != null) {
-//			if (tie.getStart() == original)
-//				tie.setStart(transp);
-//			else if (tie.getEnd() == original)
-//				tie.setEnd(transp);
-//		}
-//		Vector slurs = original.getSlurDefinitions();
-//		for (Iterator it = slurs.iterator(); it.hasNext();) {
-//			SlurDefinition slur = (SlurDefinition) it.next();
-//			if (slur.getStart() == original)
-//				slur.setStart(transp);
-//			else if (slur.getEnd() == original)
-//				slur.setEnd(transp);
-//		}
-		transpose_Chord(transp, noneTranspKeyNote, noneTranspKey,
-				lastKeyNote, lastKey);
-        assert transp != null;
-        if (transp.hasGracingNotes()) {
-			NoteAbstract[] graces = transp.getGracingNotes();
-			for (int k = 0; k < graces.length; k++) {
-				graces[k] = transpose_Note(graces[k], noneTranspKeyNote,
-						noneTranspKey, lastKeyNote, lastKey);
-			}
-		}
-		return transp;
+	static public Tune transpose(Tune t, int semitones) {
+		return new Transposer(semitones).transpose(t);
 	}
 	
-	/**
-	 * Subfunction of {@link #transpose(Tune, int)} which transpose
-	 * a Chord
-	 */
-	static private void transpose_Chord(DecorableElement transp,
-			Note noneTranspKeyNote, KeySignature noneTranspKey,
-			Note lastKeyNote, KeySignature lastKey) {
-		Chord chord = transp.getChord();
-		if (chord != null) {
-			if (chord.hasNote())
-				chord.setNote((Note) transpose_Note(chord.getNote(),
-						noneTranspKeyNote, null, lastKeyNote, null));
-			if (chord.hasBass())
-				chord.setBass((Note) transpose_Note(chord.getBass(),
-						noneTranspKeyNote, null, lastKeyNote, null));
-		}
+	/** Returns the part of the music without part label */
+	Part getDefaultPart() {
+		return m_defaultPart;
+	}
+
+	/** Returns the parts created by {@link #createPart(String)},
+	 * <TT>null</TT> if none. */
+	ArrayList getParts() {
+		return m_parts;
 	}
 	
 	/**
@@ -598,24 +472,48 @@ public class Tune implements Cloneable, Serializable
 		return ret;
 	}
 
+	/**
+	 * Returns the musics of the default part and the parts, in the order
+	 * of the music for graphical rendition, or the order of the parts
+	 * definition.
+	 */
+	private Music[] getPartsMusics(boolean partsOrder) {
+		ArrayList musics = new ArrayList();
+		musics.add(m_defaultPart.getMusic());
+		if (partsOrder && (m_multiPartsDef != null)) {
+			Part[] parts = m_multiPartsDef.toPartsArray();
+			for (Part part : parts) {
+				musics.add(part.getMusic());
+			}
+		} else if (m_parts != null) {
+			for (Object m_part : m_parts) {
+				musics.add(((Part) m_part).getMusic());
+			}
+		}
+		return (Music[]) musics.toArray(new Music[musics.size()]);
+	}
+
 	/**
 	 * Return the music for graphical rendition, i.e. if structure is ABBA, and
 	 * score contains 2 parts P:A and P:B, returns a music composed of the 2
 	 * parts. {@link #getMusic()} returns a music composed of 4 parts which is
 	 * ok for audio/midi rendition, but not good for graphical score rendition.
+	 * <p>
+	 * The music is built once, and built again only if a part or the parts
+	 * have been changed. It should not be modified.
 	 */
 	public Music getMusicForGraphicalRendition() {
 		if ((m_multiPartsDef == null) && (m_parts == null))
 			return (m_defaultPart.getMusic());
 		else {
-			//Vector alreadyAddedParts = new Vector();
-			Music globalScore = newMusic();
-			globalScore.append(m_defaultPart.getMusic());
-            for (Object m_part : m_parts) {
-                Part part = (Part) m_part;
-                globalScore.append(part.getMusic());
-            }
-			return globalScore;
+			Music[] sources = getPartsMusics(false);
+			CachedMusic cached = m_graphicalMusic;
+			if ((cached == null) || !cached.isUpToDate(sources)) {
+				//Vector alreadyAddedParts = new Vector();
+				cached = new CachedMusic(newExpandedMusic(sources), sources);
+				m_graphicalMusic = cached;
+			}
+			return cached.m_music;
 		}
 	}
 	
@@ -623,9 +521,31 @@ public class Tune implements Cloneable, Serializable
 	 * Returns a Music processed for audio rendition : expands
 	 * parts order and repeated bars, transforms ornaments
 	 * (trills, mordants) in several notes...
+	 * <p>
+	 * The music is built once, and built again only if a part or the parts
+	 * order have been changed. It should not be modified.
 	 */
 	public Music getMusicForAudioRendition() {
-		return BeforeAudioRendition.transformAll(getMusic());
+		Music[] sources = getPartsMusics(true);
+		CachedMusic cached = m_audioMusic;
+		if ((cached == null) || !cached.isUpToDate(sources)) {
+			//the transformation makes a new music, getMusic() is kept
+			Music music = BeforeAudioRendition.transformAll(getMusic());
+			cached = new CachedMusic(music, sources);
+			m_audioMusic = cached;
+		}
+		return cached.m_music;
+	}
+
+	/**
+	 * Returns a new music, made of the given musics one after the other
+	 */
+	private Music newExpandedMusic(Music[] sources) {
+		Music globalScore = newMusic();
+		for (Music source : sources) {
+			globalScore.append(source);
+		}
+		return globalScore;
 	}
 
 	/**
@@ -654,6 +574,10 @@ public class Tune implements Cloneable, Serializable
 	 * {@link #getMusicForAudioRendition()} which does this
 	 * task for you.
 	 * 
+	 * The music of several parts is built once, and built again only if
+	 * a part or the parts order have been changed. It should not be
+	 * modified.
+	 * 
 	 * @see #getMusicForGraphicalRendition()
 	 * @see #getMusicForAudioRendition()
 	 * @see #getPart(String)
@@ -672,18 +596,27 @@ public class Tune implements Cloneable, Serializable
 				return getMusicForGraphicalRendition();
 		}
 		else {
-			Music globalScore = newMusic();
-			globalScore.append(m_defaultPart.getMusic());
-			Part[] parts = m_multiPartsDef.toPartsArray();
-            for (Part part : parts) {
-                globalScore.append(part.getMusic());
-            }
-			return globalScore;
+			Music[] sources = getPartsMusics(true);
+			CachedMusic cached = m_music;
+			if ((cached == null) || !cached.isUpToDate(sources)) {
+				cached = new CachedMusic(newExpandedMusic(sources), sources);
+				m_music = cached;
+			}
+			return cached.m_music;
 		}
 	}
   
 	public Tempo getGeneralTempo() {
-		Voice voice = getMusic().getVoice("1");
+		Voice voice = null;
+		//don't create the voice in the music
+		for (Object o : getMusic().getVoices()) {
+			if (((Voice) o).getVoiceName().equals("1")) {
+				voice = (Voice) o;
+				break;
+			}
+		}
+		if (voice == null)
+			return null;
 		for (int i = 0; i < voice.size(); i++) {
 			if (voice.elementAt(i) instanceof Tempo) // got it!
 				return (Tempo) voice.elementAt(i);
@@ -730,7 +663,15 @@ public class Tune implements Cloneable, Serializable
   			Tune ret = new Tune(this);
   			return ret;
   		}*/
-  		Tune ret = null;
+  		return clone(1)[0];
+  	}
+
+	/**
+	 * Returns the given number of deep clones of the Tune object. The
+	 * tune is serialized only once for all the clones.
+	 */
+  	Tune[] clone(int count) {
+  		Tune[] ret = new Tune[count];
   		try {
   			//long s = System.currentTimeMillis();
 			// Write the object out to a byte array
@@ -741,9 +682,11 @@ public class Tune implements Cloneable, Serializable
 			out.close();
 
 			// Retrieve an input stream from the byte array and read
-			// a copy of the object back in.
-			ObjectInputStream in = new ObjectInputStream(fbos.getInputStream());
-			ret = (Tune) in.readObject();
+			// copies of the object back in.
+			for (int i = 0; i < count; i++) {
+				ObjectInputStream in = new ObjectInputStream(fbos.getInputStream());
+				ret[i] = (Tune) in.readObject();
+			}
 			//long e = System.currentTimeMillis();
 			//System.out.println("Tune.clone: "+fbos.getSize()+" en "+((e-s)/1000.0)+"s");
 		} catch (IOException e) {
@@ -868,4 +811,57 @@ public class Tune implements Cloneable, Serializable
   		return new FastByteArrayInputStream(buf, size);
   	}
   }
+
+	/**
+	 * A music built from the musics of parts, with the revisions of their
+	 * voices when it has been built.
+	 */
+	private static final class CachedMusic {
+
+		private final Music m_music;
+		private final Music[] m_sources;
+		/** revisions of the sources voices, then of the music voices */
+		private final int[] m_revisions;
+
+		private CachedMusic(Music music, Music[] sources) {
+			m_music = music;
+			m_sources = sources;
+			m_revisions = getRevisions(music, sources);
+		}
+
+		/**
+		 * Returns <TT>true</TT> if the music has been built from the same
+		 * musics, and neither them nor the music have been changed since.
+		 */
+		private boolean isUpToDate(Music[] sources) {
+			if (sources.length != m_sources.length)
+				return false;
+			for (int i = 0; i < sources.length; i++) {
+				if (sources[i] != m_sources[i])
+					return false;
+			}
+			return Arrays.equals(m_revisions, getRevisions(m_music, sources));
+		}
+
+		private static int[] getRevisions(Music music, Music[] sources) {
+			int[][] revisions = new int[sources.length + 1][];
+			int length = 0;
+			for (int i = 0; i <= sources.length; i++) {
+				Music m = (i < sources.length) ? sources[i] : music;
+				revisions[i] = Voice.getRevisions(m.getVoices());
+				length += revisions[i].length + 1;
+			}
+			//each music revisions preceded by its voices count
+			int[] ret = new int[length];
+			int index = 0;
+			for (int[] r : revisions) {
+				ret[index++] = r.length;
+				System.arraycopy(r, 0, ret, index, r.length);
+				index += r.length;
+			}
+			return ret;
+		}
+
+	}
+
 }
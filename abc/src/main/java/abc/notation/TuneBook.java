@@ -19,10 +19,16 @@ package abc.notation;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A tune book is a collection of {@link abc.notation.Tune}s with optionally
@@ -50,8 +56,16 @@ public class TuneBook implements Cloneable, Serializable {
 		m_bookInfos = new TuneInfos();
 	}
 	
+	/**
+	 * Creates a book which stores its tunes by itself, the subclass must
+	 * override all the methods reading or writing the tunes.
+	 */
+	protected TuneBook(TuneInfos bookInfos) {
+		m_bookInfos = bookInfos;
+	}
+
 	public TuneBook(TuneBook tuneBook) {
-		m_tunes = (TreeMap) tuneBook.m_tunes.clone();
+		m_tunes = new TreeMap(tuneBook.getTunes());
 		m_bookInfos = (TuneInfos) tuneBook.m_bookInfos.clone();
 		m_instructions = (ArrayList) tuneBook.getInstructions().clone();
 	}
@@ -168,12 +182,27 @@ public class TuneBook implements Cloneable, Serializable {
 	 */
 	public boolean putTune(Tune tune) {
 		boolean ret = containsTune(tune);
-		tune.getTuneInfos().setBookInfos(getBookInfos());
-		tune.getInstructions().addAll(0, getInstructions());
+		attach(tune);
 		m_tunes.put(tune.getReferenceNumber(), tune);
 		return ret;
 	}
 
+	/**
+	 * Gives the book infos and instructions to a tune put in the book. A
+	 * tune put again doesn't get the instructions twice.
+	 */
+	protected void attach(Tune tune) {
+		tune.getTuneInfos().setBookInfos(getBookInfos());
+		tune.getInstructions().removeAll(getInstructions());
+		tune.getInstructions().addAll(0, getInstructions());
+	}
+
+	/** Takes back the book infos and instructions from a removed tune */
+	void detach(Tune tune) {
+		tune.getTuneInfos().setBookInfos(null);
+		tune.getInstructions().removeAll(getInstructions());
+	}
+
 	/**
 	 * Remove the tune having the requested reference number from the book
 	 * 
@@ -182,8 +211,7 @@ public class TuneBook implements Cloneable, Serializable {
 	public Tune removeTune(int referenceNumber) {
 		Tune ret = getTune(referenceNumber);
 		if (ret != null) {
-			ret.getTuneInfos().setBookInfos(null);
-			ret.getInstructions().removeAll(getInstructions());
+			detach(ret);
 			m_tunes.remove(new Integer(referenceNumber));
 		}
 		return ret;
@@ -215,4 +243,84 @@ public class TuneBook implements Cloneable, Serializable {
         }
 		return v;
 	}
+
+	/**
+	 * Returns a copy of the given book, with all tunes transposed.
+	 * 
+	 * @see Tune#transpose(Tune, int)
+	 */
+	public static TuneBook transpose(TuneBook book, int semitones) {
+		return transpose(book, new int[] { semitones })[0];
+	}
+
+	/**
+	 * Returns copies of the given book, transposed of each given number of
+	 * semitones. Slices of the book are transposed in parallel, on as many
+	 * threads as available processors: each tune is serialized once and
+	 * copied for all transpositions. The given book must not be modified
+	 * meanwhile.
+	 * 
+	 * @param semitones
+	 *            numbers of semitones of the transpositions, e.g. from -5
+	 *            to 6 for all the keys
+	 * @return the transposed books, in the order of semitones
+	 * @see Tune#transpose(Tune, int)
+	 */
+	public static TuneBook[] transpose(TuneBook book, int[] semitones) {
+		Collection values = book.toVector();
+		final Tune[] tunes = (Tune[]) values.toArray(new Tune[values.size()]);
+		final int[] transpositions = (int[]) semitones.clone();
+		int threads = Runtime.getRuntime().availableProcessors();
+		// a few slices per thread, to balance long and short tunes
+		int slices = Math.max(1, Math.min(tunes.length, threads * 4));
+		int sliceSize = (tunes.length + slices - 1) / slices;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, slices));
+		try {
+			Future[] futures = new Future[slices];
+			for (int j = 0; j < slices; j++) {
+				final int from = j * sliceSize;
+				final int to = Math.min(tunes.length, from + sliceSize);
+				futures[j] = executor.submit(new Callable() {
+					public Object call() {
+						// tables are kept by the transposers from a tune to another
+						Transposer[] transposers = new Transposer[transpositions.length];
+						for (int i = 0; i < transposers.length; i++)
+							transposers[i] = new Transposer(transpositions[i]);
+						// ret[i][k] tune (from + k) transposed of transpositions[i]
+						Tune[][] ret = new Tune[transpositions.length][Math.max(0, to - from)];
+						for (int k = from; k < to; k++) {
+							Tune[] copies = tunes[k].clone(transpositions.length);
+							for (int i = 0; i < transposers.length; i++)
+								ret[i][k - from] = transposers[i].transposeCopy(copies[i]);
+						}
+						return ret;
+					}
+				});
+			}
+			TuneBook[] ret = new TuneBook[transpositions.length];
+			for (int i = 0; i < transpositions.length; i++) {
+				ret[i] = new TuneBook();
+				ret[i].m_bookInfos = (TuneInfos) book.m_bookInfos.clone();
+				ret[i].m_instructions = (ArrayList) book.getInstructions().clone();
+			}
+			for (int j = 0; j < slices; j++) {
+				Tune[][] transposed = (Tune[][]) futures[j].get();
+				for (int i = 0; i < transpositions.length; i++) {
+					for (Tune tune : transposed[i]) {
+						// book instructions are already in the tune
+						tune.getTuneInfos().setBookInfos(ret[i].m_bookInfos);
+						ret[i].m_tunes.put(tune.getReferenceNumber(), tune);
+					}
+				}
+			}
+			return ret;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Transposition interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Transposition failed", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
 }
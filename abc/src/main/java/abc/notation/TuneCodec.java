@@ -0,0 +1,1316 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import abc.instructions.UserDefinedPlaySymbol;
+import abc.instructions.UserDefinedPrintSymbol;
+import abc.instructions.UserDefinedSymbol;
+import abc.instructions.Xcommand;
+import abc.parser.CharStreamPosition;
+
+/**
+ * Writes and reads {@link TuneBook}, {@link Tune} and {@link Music} in a
+ * compact binary format, for caches or to send tunes to another process.
+ * It is much smaller and faster than Java serialization.
+ * <p>
+ * A stream starts with a header: the magic bytes <TT>abc4</TT>, the
+ * {@link #FORMAT_VERSION format version}, the kind of content (book, tune
+ * or music) and the length of the content. In the content, numbers are
+ * varints (7 bits per byte, zig-zag encoded when signed), a string is
+ * written once then by its index in the table of strings already written,
+ * and objects are written after a type tag. An object written twice is
+ * written the second time as a back reference, so ties, slurs, tuplets
+ * and repeated parts still share their notes, references and parts once
+ * read back.
+ * <p>
+ * Values which are computed on request (e.g. fingerings of tablatures) are
+ * not written. Streams of another format version are not read, the content
+ * should be built again from the abc source.
+ */
+public class TuneCodec {
+
+	/** Version of the format, changed each time an object is written
+	 * differently */
+	public static final int FORMAT_VERSION = 1;
+
+	private static final byte[] MAGIC = { 'a', 'b', 'c', '4' };
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// kinds of content
+	private static final byte TUNE_BOOK = 1;
+	private static final byte TUNE = 2;
+	private static final byte MUSIC = 3;
+
+	// type tags
+	private static final byte NULL = 0;
+	private static final byte BACK_REFERENCE = 1;
+	private static final byte REFERENCE = 2;
+	private static final byte NOTE = 3;
+	private static final byte MULTI_NOTE = 4;
+	private static final byte TUPLET = 5;
+	private static final byte TIE = 6;
+	private static final byte SLUR = 7;
+	private static final byte BAR_LINE = 8;
+	private static final byte REPEAT_BAR_LINE = 9;
+	private static final byte REPEAT_END = 10;
+	private static final byte KEY_SIGNATURE = 11;
+	private static final byte CLEF = 12;
+	private static final byte TIME_SIGNATURE = 13;
+	private static final byte TEMPO = 14;
+	private static final byte DECORATION = 15;
+	private static final byte DYNAMIC = 16;
+	private static final byte ANNOTATION = 17;
+	private static final byte CHORD = 18;
+	private static final byte SPACER = 19;
+	private static final byte PART_LABEL = 20;
+	private static final byte WORDS = 21;
+	private static final byte MEASURE_REST = 22;
+	private static final byte MEASURE_REPEAT = 23;
+	private static final byte END_OF_STAFF_LINE = 24;
+	private static final byte NOTES_SEPARATOR = 25;
+	private static final byte ELEMSKIP = 26;
+	private static final byte XCOMMAND = 27;
+	private static final byte PLAY_SYMBOL = 28;
+	private static final byte PRINT_SYMBOL = 29;
+	private static final byte TABLATURE = 30;
+	private static final byte TUNE_INFOS = 31;
+	private static final byte PART = 32;
+	private static final byte MULTI_PARTS = 33;
+	private static final byte REPEATED_PART = 34;
+	private static final byte LIST = 35;
+	/** reference of an element at its place in the voice being written,
+	 * only its y is written */
+	private static final byte VOICE_REFERENCE = 36;
+
+	// flags of decorable elements and notes, followed by their values
+	private static final int ANNOTATIONS = 1;
+	private static final int CHORD_NAME = 1 << 1;
+	private static final int DECORATIONS = 1 << 2;
+	private static final int DYNAMIC_MARK = 1 << 3;
+	private static final int GRACING_NOTES = 1 << 4;
+	private static final int GENERAL_GRACING = 1 << 5;
+	private static final int STACCATO = 1 << 6;
+	private static final int PART_OF_SLUR = 1 << 7;
+	private static final int TIE_DEFINITION = 1 << 8;
+	private static final int SLUR_DEFINITIONS = 1 << 9;
+	private static final int TUPLET_NOTE = 1 << 10;
+	private static final int DOTTED = 1 << 11;
+	private static final int GRACING_TYPE = 1 << 12;
+	private static final int INVISIBLE_REST = 1 << 13;
+	private static final int ABSOLUTE_DURATION = 1 << 14;
+
+	/** accidental which is not a multiple of a half tone, float follows */
+	private static final int MICROTONAL_ACCIDENTAL = 10;
+
+	/** Notes of the accidentals of a key signature, from C to B */
+	private static final byte[] KEY_NOTES = { Note.C, Note.D, Note.E, Note.F,
+			Note.G, Note.A, Note.B };
+
+	/** Class => Byte type tag */
+	private static final HashMap s_tags = new HashMap();
+	static {
+		s_tags.put(MusicElementReference.class, REFERENCE);
+		s_tags.put(Note.class, NOTE);
+		s_tags.put(MultiNote.class, MULTI_NOTE);
+		s_tags.put(Tuplet.class, TUPLET);
+		s_tags.put(TieDefinition.class, TIE);
+		s_tags.put(SlurDefinition.class, SLUR);
+		s_tags.put(BarLine.class, BAR_LINE);
+		s_tags.put(RepeatBarLine.class, REPEAT_BAR_LINE);
+		s_tags.put(RepeatEnd.class, REPEAT_END);
+		s_tags.put(KeySignature.class, KEY_SIGNATURE);
+		s_tags.put(Clef.class, CLEF);
+		s_tags.put(TimeSignature.class, TIME_SIGNATURE);
+		s_tags.put(Tempo.class, TEMPO);
+		s_tags.put(Decoration.class, DECORATION);
+		s_tags.put(Dynamic.class, DYNAMIC);
+		s_tags.put(Annotation.class, ANNOTATION);
+		s_tags.put(Chord.class, CHORD);
+		s_tags.put(Spacer.class, SPACER);
+		s_tags.put(PartLabel.class, PART_LABEL);
+		s_tags.put(Words.class, WORDS);
+		s_tags.put(MeasureRest.class, MEASURE_REST);
+		s_tags.put(MeasureRepeat.class, MEASURE_REPEAT);
+		s_tags.put(EndOfStaffLine.class, END_OF_STAFF_LINE);
+		s_tags.put(NotesSeparator.class, NOTES_SEPARATOR);
+		s_tags.put(Elemskip.class, ELEMSKIP);
+		s_tags.put(Xcommand.class, XCOMMAND);
+		s_tags.put(UserDefinedPlaySymbol.class, PLAY_SYMBOL);
+		s_tags.put(UserDefinedPrintSymbol.class, PRINT_SYMBOL);
+		s_tags.put(Tablature.class, TABLATURE);
+		s_tags.put(TuneInfos.class, TUNE_INFOS);
+		s_tags.put(Part.class, PART);
+		s_tags.put(MultiPartsDefinition.class, MULTI_PARTS);
+		s_tags.put(RepeatedPart.class, REPEATED_PART);
+		s_tags.put(ArrayList.class, LIST);
+	}
+
+	private TuneCodec() {
+	}
+
+	/**
+	 * Returns the given book in the binary format. Subclasses of TuneBook
+	 * are written as a TuneBook.
+	 *
+	 * @throws NotSerializableException
+	 *             if the book contains an element of a class unknown by
+	 *             this format
+	 */
+	public static byte[] encode(TuneBook tuneBook)
+			throws NotSerializableException {
+		Encoder encoder = new Encoder();
+		encoder.writeTuneBook(tuneBook);
+		return encoder.toByteArray(TUNE_BOOK);
+	}
+
+	/** Returns the given tune in the binary format. */
+	public static byte[] encode(Tune tune) throws NotSerializableException {
+		Encoder encoder = new Encoder();
+		encoder.writeTune(tune);
+		return encoder.toByteArray(TUNE);
+	}
+
+	/** Returns the given music in the binary format. */
+	public static byte[] encode(Music music) throws NotSerializableException {
+		Encoder encoder = new Encoder();
+		encoder.writeMusic(music);
+		return encoder.toByteArray(MUSIC);
+	}
+
+	/** Writes the given book in the binary format. */
+	public static void write(TuneBook tuneBook, OutputStream out)
+			throws IOException {
+		out.write(encode(tuneBook));
+	}
+
+	/** Writes the given tune in the binary format. */
+	public static void write(Tune tune, OutputStream out) throws IOException {
+		out.write(encode(tune));
+	}
+
+	/** Writes the given music in the binary format. */
+	public static void write(Music music, OutputStream out) throws IOException {
+		out.write(encode(music));
+	}
+
+	/**
+	 * Reads a book from the given bytes.
+	 *
+	 * @throws StreamCorruptedException
+	 *             if the bytes are not a book of the current format version
+	 */
+	public static TuneBook decodeTuneBook(byte[] bytes) throws IOException {
+		return readTuneBook(new ByteArrayInputStream(bytes));
+	}
+
+	/** Reads a tune from the given bytes. */
+	public static Tune decodeTune(byte[] bytes) throws IOException {
+		return readTune(new ByteArrayInputStream(bytes));
+	}
+
+	/** Reads a music from the given bytes. */
+	public static Music decodeMusic(byte[] bytes) throws IOException {
+		return readMusic(new ByteArrayInputStream(bytes));
+	}
+
+	/**
+	 * Reads a book from the given stream. Only the bytes of the book are
+	 * read, the stream can contain other data after them.
+	 */
+	public static TuneBook readTuneBook(InputStream in) throws IOException {
+		return new Decoder(readContent(in, TUNE_BOOK)).readTuneBook();
+	}
+
+	/** Reads a tune from the given stream. */
+	public static Tune readTune(InputStream in) throws IOException {
+		return new Decoder(readContent(in, TUNE)).readTune();
+	}
+
+	/** Reads a music from the given stream. */
+	public static Music readMusic(InputStream in) throws IOException {
+		return new Decoder(readContent(in, MUSIC)).readMusic();
+	}
+
+	/** Checks the header and returns the content which follows it */
+	private static byte[] readContent(InputStream in, byte kind)
+			throws IOException {
+		for (byte b : MAGIC) {
+			if (read(in) != b)
+				throw new StreamCorruptedException("Not an abc4j binary stream");
+		}
+		int version = readVarint(in);
+		if (version != FORMAT_VERSION)
+			throw new StreamCorruptedException("Format version " + version
+					+ " can't be read, expected " + FORMAT_VERSION);
+		int found = read(in);
+		if (found != kind)
+			throw new StreamCorruptedException("Content of kind " + found
+					+ " found, expected " + kind);
+		int length = readVarint(in);
+		byte[] content = new byte[length];
+		for (int n = 0; n < length;) {
+			int count = in.read(content, n, length - n);
+			if (count < 0)
+				throw new EOFException();
+			n += count;
+		}
+		return content;
+	}
+
+	private static int read(InputStream in) throws IOException {
+		int b = in.read();
+		if (b < 0)
+			throw new EOFException();
+		return b;
+	}
+
+	private static int readVarint(InputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = read(in);
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new StreamCorruptedException("Malformed varint");
+	}
+
+	/**
+	 * Writes the content in a growing buffer, with a table of the objects
+	 * and strings already written.
+	 */
+	private static final class Encoder {
+
+		private byte[] m_buffer = new byte[1024];
+		private int m_size = 0;
+		/** Object => Integer index, by identity */
+		private final IdentityHashMap m_objects = new IdentityHashMap();
+		/** String => Integer index */
+		private final HashMap m_strings = new HashMap();
+		/** positions are written from the previous one */
+		private int m_lastStart = 0;
+		private int m_lastLine = 0;
+		/** voice being written and index of its current element */
+		private Voice m_voice = null;
+		private int m_index = 0;
+
+		private byte[] toByteArray(byte kind) {
+			Encoder header = new Encoder();
+			header.writeBytes(MAGIC);
+			header.writeVarint(FORMAT_VERSION);
+			header.writeByte(kind);
+			header.writeVarint(m_size);
+			byte[] ret = new byte[header.m_size + m_size];
+			System.arraycopy(header.m_buffer, 0, ret, 0, header.m_size);
+			System.arraycopy(m_buffer, 0, ret, header.m_size, m_size);
+			return ret;
+		}
+
+		private void ensureCapacity(int n) {
+			if (m_size + n > m_buffer.length) {
+				byte[] buffer = new byte[Math.max(m_size + n, 2 * m_buffer.length)];
+				System.arraycopy(m_buffer, 0, buffer, 0, m_size);
+				m_buffer = buffer;
+			}
+		}
+
+		private void writeByte(int b) {
+			ensureCapacity(1);
+			m_buffer[m_size++] = (byte) b;
+		}
+
+		private void writeBytes(byte[] bytes) {
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, m_buffer, m_size, bytes.length);
+			m_size += bytes.length;
+		}
+
+		/** Writes 7 bits per byte, the high bit set if a byte follows */
+		private void writeVarint(int value) {
+			ensureCapacity(5);
+			while ((value & ~0x7f) != 0) {
+				m_buffer[m_size++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			m_buffer[m_size++] = (byte) value;
+		}
+
+		/** Zig-zag encoding: small negative numbers take one byte too */
+		private void writeSigned(int value) {
+			writeVarint((value << 1) ^ (value >> 31));
+		}
+
+		private void writeFloat(float f) {
+			int bits = Float.floatToIntBits(f);
+			ensureCapacity(4);
+			for (int i = 0; i < 4; i++) {
+				m_buffer[m_size++] = (byte) (bits >>> (i * 8));
+			}
+		}
+
+		/** 0 for null, 1 for a new string followed by its UTF-8 bytes,
+		 * else the index in the table + 2 */
+		private void writeString(String s) {
+			if (s == null) {
+				writeVarint(0);
+				return;
+			}
+			Integer index = (Integer) m_strings.get(s);
+			if (index != null) {
+				writeVarint(index + 2);
+			} else {
+				m_strings.put(s, m_strings.size());
+				byte[] bytes = s.getBytes(UTF8);
+				writeVarint(1);
+				writeVarint(bytes.length);
+				writeBytes(bytes);
+			}
+		}
+
+		/** 0 for none, 1 to 9 for half tones from double flat to double
+		 * sharp, else a float */
+		private void writeAccidental(Accidental accidental) {
+			if ((accidental == null) || accidental.isNotDefined()) {
+				writeVarint(0);
+				return;
+			}
+			float halfTones = accidental.getValue() * 2;
+			int i = (int) halfTones;
+			if ((i == halfTones) && (i >= -4) && (i <= 4))
+				writeVarint(((i << 1) ^ (i >> 31)) + 1);
+			else {
+				writeVarint(MICROTONAL_ACCIDENTAL);
+				writeFloat(accidental.getValue());
+			}
+		}
+
+		/** 0 for null, else length + 1, start and line from the previous
+		 * position, and column */
+		private void writePosition(CharStreamPosition position) {
+			if (position == null) {
+				writeVarint(0);
+				return;
+			}
+			int start = position.getStartIndex();
+			int length = position.getEndIndex() - start;
+			writeVarint(((length << 1) ^ (length >> 31)) + 1);
+			writeSigned(start - m_lastStart);
+			writeSigned(position.getLine() - m_lastLine);
+			writeSigned(position.getColumn());
+			m_lastStart = start;
+			m_lastLine = position.getLine();
+		}
+
+		private void writeTuneBook(TuneBook tuneBook)
+				throws NotSerializableException {
+			writeObject(tuneBook.getBookInfos());
+			writeObject(tuneBook.getInstructions());
+			Collection tunes = tuneBook.toVector();
+			writeVarint(tunes.size());
+			for (Object tune : tunes) {
+				writeTune((Tune) tune);
+			}
+		}
+
+		private void writeTune(Tune tune) throws NotSerializableException {
+			writeSigned(tune.getReferenceNumber());
+			writeSigned(tune.getElemskip());
+			writeObject(tune.getTuneInfos());
+			writeObject(tune.getInstructions());
+			writeObject(tune.getDefaultPart());
+			ArrayList parts = tune.getParts();
+			writeCollection(parts == null ? new ArrayList() : parts);
+			writeObject(tune.getMultiPartsDefinition());
+		}
+
+		private void writeMusic(Music music) throws NotSerializableException {
+			writeSigned(music.getFirstBarNumber());
+			writeString(music.getPartLabel());
+			writeObject(music.getGlobalInstructions());
+			Collection voices = music.getVoices();
+			writeVarint(voices.size());
+			for (Object o : voices) {
+				Voice voice = (Voice) o;
+				writeString(voice.getVoiceName());
+				writeSigned(voice.getFirstBarNumber());
+				writeString(voice.getPartLabel());
+				writeSigned(voice.getInstrument());
+				writeSigned(voice.getVolume());
+				writeObject(voice.getTablature());
+				writeVarint(voice.size());
+				m_voice = voice;
+				for (m_index = 0; m_index < voice.size(); m_index++) {
+					writeObject(voice.elementAt(m_index));
+				}
+				m_voice = null;
+			}
+		}
+
+		private void writeCollection(Collection c)
+				throws NotSerializableException {
+			writeVarint(c.size());
+			for (Object o : c) {
+				writeObject(o);
+			}
+		}
+
+		private void writeArray(Object[] array) throws NotSerializableException {
+			writeVarint(array.length);
+			for (Object o : array) {
+				writeObject(o);
+			}
+		}
+
+		private void writeObject(Object o) throws NotSerializableException {
+			if (o == null) {
+				writeByte(NULL);
+				return;
+			}
+			Integer index = (Integer) m_objects.get(o);
+			if (index != null) {
+				writeByte(BACK_REFERENCE);
+				writeVarint(index);
+				return;
+			}
+			Byte tag = (Byte) s_tags.get(o.getClass());
+			if (tag == null)
+				throw new NotSerializableException(o.getClass().getName());
+			if ((tag == REFERENCE) && isVoiceReference((MusicElementReference) o))
+				tag = VOICE_REFERENCE;
+			m_objects.put(o, m_objects.size());
+			writeByte(tag);
+			switch (tag) {
+			case VOICE_REFERENCE:
+				writeSigned(((MusicElementReference) o).getY());
+				break;
+			case REFERENCE: {
+				MusicElementReference ref = (MusicElementReference) o;
+				writeString(ref.getPart());
+				writeString(ref.getVoice());
+				writeSigned(ref.getX());
+				writeSigned(ref.getY());
+				break;
+			}
+			case NOTE: {
+				Note note = (Note) o;
+				short absoluteDuration = note.getAbsoluteDuration();
+				int flags = 0;
+				if (note.isRestInvisible())
+					flags |= INVISIBLE_REST;
+				if (absoluteDuration != -1)
+					flags |= ABSOLUTE_DURATION;
+				writeElement(note, flags);
+				writeSigned(note.getStrictHeight());
+				writeSigned(note.getOctaveTransposition());
+				writeAccidental(note.getAccidental());
+				writeVarint(note.getStrictDuration());
+				if (absoluteDuration != -1)
+					writeSigned(absoluteDuration);
+				break;
+			}
+			case MULTI_NOTE: {
+				// notes first, as they are needed to create the multi note
+				Note[] notes = ((MultiNote) o).toArray();
+				writeArray(notes == null ? new Note[0] : notes);
+				writeElement((MultiNote) o, 0);
+				break;
+			}
+			case TUPLET: {
+				Tuplet tuplet = (Tuplet) o;
+				writeVarint(tuplet.getTupletNumber());
+				// total length relative to the default note length
+				short defaultNoteLength = tuplet.getDefaultNoteLength();
+				writeSigned(defaultNoteLength == 0 ? 0
+						: tuplet.getTotalDuration() / defaultNoteLength);
+				writeSigned(defaultNoteLength);
+				writeCollection(tuplet.getNotesAsVector());
+				writeElement(tuplet, 0);
+				break;
+			}
+			case TIE:
+			case SLUR: {
+				TwoNotesLink link = (TwoNotesLink) o;
+				writeElement(link, 0);
+				writeObject(link.getStart());
+				writeObject(link.getEnd());
+				break;
+			}
+			case BAR_LINE:
+				writeSigned(((BarLine) o).getType());
+				writeElement((BarLine) o, 0);
+				break;
+			case REPEAT_BAR_LINE: {
+				RepeatBarLine bar = (RepeatBarLine) o;
+				writeSigned(bar.getType());
+				byte[] numbers = bar.getRepeatNumbers();
+				if (numbers == null)
+					writeVarint(0);
+				else {
+					writeVarint(numbers.length + 1);
+					for (byte number : numbers) {
+						writeSigned(number);
+					}
+				}
+				writeString(bar.getRepeatText());
+				writeElement(bar, 0);
+				break;
+			}
+			case KEY_SIGNATURE: {
+				KeySignature key = (KeySignature) o;
+				writeSigned(key.getNote());
+				writeAccidental(key.getAccidental());
+				writeSigned(key.getMode());
+				Accidental[] accidentals = key.getAccidentals();
+				for (int i = 0; i < 7; i++) {
+					writeAccidental(accidentals[i]);
+				}
+				writeElement(key, 0);
+				writeObject(key.getClef());
+				break;
+			}
+			case CLEF: {
+				Clef clef = (Clef) o;
+				writeString(clef.getName());
+				writeSigned(clef.getLineNumber());
+				writeSigned(clef.getOctaveTransposition());
+				writeSigned(clef.getSemitoneTransposition());
+				writeSigned(clef.getStaffLines());
+				writeSigned(clef.getInvisibleOctaveTransposition());
+				writeElement(clef, 0);
+				break;
+			}
+			case TIME_SIGNATURE: {
+				TimeSignature time = (TimeSignature) o;
+				int[] sum = time.getSumOfNumerators();
+				if ((sum == null) || (sum.length == 0)) {
+					writeVarint(0);
+					writeSigned(time.getNumerator());
+				} else {
+					writeVarint(sum.length);
+					for (int n : sum) {
+						writeSigned(n);
+					}
+				}
+				writeSigned(time.getDenominator());
+				writeElement(time, 0);
+				break;
+			}
+			case TEMPO:
+				writeSigned(((Tempo) o).getReferenceLength());
+				writeSigned(((Tempo) o).getNotesNumberPerMinute());
+				writeElement((Tempo) o, 0);
+				break;
+			case DECORATION:
+				writeSigned(((Decoration) o).getType());
+				writeElement((Decoration) o, 0);
+				break;
+			case DYNAMIC:
+				writeSigned(((Dynamic) o).getType());
+				writeElement((Dynamic) o, 0);
+				break;
+			case ANNOTATION:
+				writeString(((Annotation) o).getText());
+				writeString(((Annotation) o).getIdentifier());
+				writeElement((Annotation) o, 0);
+				break;
+			case CHORD: {
+				// the text of the chord is parsed again when read
+				Chord chord = (Chord) o;
+				writeString(chord.getText());
+				writeElement(chord, 0);
+				writeObject(chord.getNote());
+				writeObject(chord.getBass());
+				break;
+			}
+			case SPACER:
+				writeFloat(((Spacer) o).getSpaceRatio());
+				writeElement((Spacer) o, 0);
+				break;
+			case PART_LABEL:
+				writeString(((PartLabel) o).getLabel());
+				writeElement((PartLabel) o, 0);
+				break;
+			case WORDS:
+				writeString(((Words) o).getContent());
+				writeElement((Words) o, 0);
+				break;
+			case MEASURE_REST:
+				writeVarint(((MeasureRest) o).getNumberOfRepeats());
+				writeElement((MeasureRest) o, 0);
+				break;
+			case MEASURE_REPEAT:
+				writeVarint(((MeasureRepeat) o).getNumberOfMeasure());
+				writeElement((MeasureRepeat) o, 0);
+				break;
+			case REPEAT_END:
+			case END_OF_STAFF_LINE:
+			case NOTES_SEPARATOR:
+			case ELEMSKIP:
+				writeElement((MusicElement) o, 0);
+				break;
+			case XCOMMAND:
+				writeString(((Xcommand) o).getCommand());
+				writeElement((Xcommand) o, 0);
+				break;
+			case PLAY_SYMBOL:
+			case PRINT_SYMBOL: {
+				UserDefinedSymbol symbol = (UserDefinedSymbol) o;
+				writeVarint(symbol.getSymbol());
+				writeObject(symbol.getElement());
+				writeElement(symbol, 0);
+				break;
+			}
+			case TABLATURE: {
+				Tablature tablature = (Tablature) o;
+				writeArray(tablature.getStrings());
+				writeVarint(tablature.getNumberOfFret());
+				break;
+			}
+			case TUNE_INFOS: {
+				TuneInfos infos = (TuneInfos) o;
+				// only the book of the tune, not its infos
+				writeObject(infos.getBookInfos());
+				Map own = infos.getOwnInfos();
+				writeVarint(own.size());
+				for (Object e : own.entrySet()) {
+					Map.Entry entry = (Map.Entry) e;
+					writeSigned((Byte) entry.getKey());
+					writeString((String) entry.getValue());
+				}
+				break;
+			}
+			case PART:
+				writeString(((Part) o).getLabel());
+				writeMusic(((Part) o).getMusic());
+				break;
+			case MULTI_PARTS:
+				writeSigned(((MultiPartsDefinition) o).getNumberOfRepeats());
+				writeCollection(((MultiPartsDefinition) o).getParts());
+				break;
+			case REPEATED_PART:
+				writeSigned(((RepeatedPart) o).getNumberOfRepeats());
+				writeObject(((RepeatedPart) o).getPart());
+				break;
+			case LIST:
+				writeCollection((ArrayList) o);
+				break;
+			}
+		}
+
+		/** Returns <TT>true</TT> if the reference is the one given by
+		 * the voice to its current element, or to the notes of it */
+		private boolean isVoiceReference(MusicElementReference ref) {
+			return (m_voice != null) && (ref.getX() == m_index)
+					&& equal(m_voice.getPartLabel(), ref.getPart())
+					&& equal(m_voice.getVoiceName(), ref.getVoice());
+		}
+
+		private static boolean equal(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+
+		/**
+		 * Writes the reference and position of the element, and the
+		 * flags and values of decorable elements and notes.
+		 *
+		 * @param flags
+		 *            flags of the subclass, written with the others
+		 */
+		private void writeElement(MusicElement element, int flags)
+				throws NotSerializableException {
+			writeObject(element.getReference());
+			writePosition(element.getCharStreamPosition());
+			if (!(element instanceof DecorableElement))
+				return;
+			DecorableElement decorable = (DecorableElement) element;
+			if (decorable.hasAnnotations())
+				flags |= ANNOTATIONS;
+			if (decorable.getChord() != null)
+				flags |= CHORD_NAME;
+			if (decorable.getDecorations() != null)
+				flags |= DECORATIONS;
+			if (decorable.getDynamic() != null)
+				flags |= DYNAMIC_MARK;
+			NoteAbstract note = null;
+			if (element instanceof NoteAbstract) {
+				note = (NoteAbstract) element;
+				if (note.getGracingNotes() != null)
+					flags |= GRACING_NOTES;
+				if (note.hasGeneralGracing())
+					flags |= GENERAL_GRACING;
+				if (note.hasStaccato())
+					flags |= STACCATO;
+				if (note.isPartOfSlur())
+					flags |= PART_OF_SLUR;
+				if (note.getTieDefinition() != null)
+					flags |= TIE_DEFINITION;
+				if (note.getSlurDefinitions().size() > 0)
+					flags |= SLUR_DEFINITIONS;
+				if (note.getTuplet() != null)
+					flags |= TUPLET_NOTE;
+				if (note.countDots() != 0)
+					flags |= DOTTED;
+				if (note.getGracingType() != GracingType.APPOGGIATURA)
+					flags |= GRACING_TYPE;
+			}
+			writeVarint(flags);
+			if ((flags & ANNOTATIONS) != 0)
+				writeCollection(decorable.getAnnotations());
+			if ((flags & CHORD_NAME) != 0)
+				writeObject(decorable.getChord());
+			if ((flags & DECORATIONS) != 0)
+				writeArray(decorable.getDecorations());
+			if ((flags & DYNAMIC_MARK) != 0)
+				writeObject(decorable.getDynamic());
+			if (note == null)
+				return;
+			if ((flags & GRACING_NOTES) != 0)
+				writeArray(note.getGracingNotes());
+			if ((flags & TIE_DEFINITION) != 0)
+				writeObject(note.getTieDefinition());
+			if ((flags & SLUR_DEFINITIONS) != 0)
+				writeCollection(note.getSlurDefinitions());
+			if ((flags & TUPLET_NOTE) != 0)
+				writeObject(note.getTuplet());
+			if ((flags & DOTTED) != 0)
+				writeSigned(note.countDots());
+			if ((flags & GRACING_TYPE) != 0)
+				writeSigned(note.getGracingType());
+		}
+
+	}
+
+	/**
+	 * Reads the content from a buffer, with the table of objects and
+	 * strings already read.
+	 */
+	private static final class Decoder {
+
+		private final byte[] m_buffer;
+		private int m_position = 0;
+		/** objects, by index. An object is added when its tag is read,
+		 * and set once created */
+		private final ArrayList m_objects = new ArrayList();
+		private final ArrayList m_strings = new ArrayList();
+		private int m_lastStart = 0;
+		private int m_lastLine = 0;
+		/** voice being read and index of its current element */
+		private Voice m_voice = null;
+		private int m_index = 0;
+
+		private Decoder(byte[] buffer) {
+			m_buffer = buffer;
+		}
+
+		private int readByte() throws EOFException {
+			if (m_position >= m_buffer.length)
+				throw new EOFException();
+			return m_buffer[m_position++];
+		}
+
+		private int readVarint() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 35; shift += 7) {
+				int b = readByte();
+				value |= (b & 0x7f) << shift;
+				if ((b & 0x80) == 0)
+					return value;
+			}
+			throw new StreamCorruptedException("Malformed varint");
+		}
+
+		private int readSigned() throws IOException {
+			int value = readVarint();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		private float readFloat() throws IOException {
+			int bits = 0;
+			for (int i = 0; i < 4; i++) {
+				bits |= (readByte() & 0xff) << (i * 8);
+			}
+			return Float.intBitsToFloat(bits);
+		}
+
+		private String readString() throws IOException {
+			int index = readVarint();
+			if (index == 0)
+				return null;
+			if (index > 1) {
+				if (index - 2 >= m_strings.size())
+					throw new StreamCorruptedException("Unknown string " + index);
+				return (String) m_strings.get(index - 2);
+			}
+			int length = readVarint();
+			if ((length < 0) || (length > m_buffer.length - m_position))
+				throw new EOFException();
+			String s = new String(m_buffer, m_position, length, UTF8);
+			m_position += length;
+			m_strings.add(s);
+			return s;
+		}
+
+		private Accidental readAccidental() throws IOException {
+			int code = readVarint();
+			if (code == 0)
+				return Accidental.NONE;
+			if (code == MICROTONAL_ACCIDENTAL)
+				return Accidental.valueOf(readFloat());
+			code--;
+			return Accidental.valueOf(((code >>> 1) ^ -(code & 1)) / 2f);
+		}
+
+		private CharStreamPosition readPosition() throws IOException {
+			int length = readVarint();
+			if (length == 0)
+				return null;
+			length--;
+			length = (length >>> 1) ^ -(length & 1);
+			int start = m_lastStart + readSigned();
+			int line = m_lastLine + readSigned();
+			int column = readSigned();
+			m_lastStart = start;
+			m_lastLine = line;
+			return new CharStreamPosition(line, column, start, start + length);
+		}
+
+		private TuneBook readTuneBook() throws IOException {
+			TuneBook tuneBook = new TuneBook();
+			readObject(TuneInfos.class, tuneBook.getBookInfos());
+			readObject(ArrayList.class, tuneBook.getInstructions());
+			for (int i = readVarint(); i > 0; i--) {
+				// tunes already have the infos and instructions of the
+				// book, they are not attached again
+				Tune tune = readTune();
+				tuneBook.getTunes().put(tune.getReferenceNumber(), tune);
+			}
+			return tuneBook;
+		}
+
+		private Tune readTune() throws IOException {
+			Tune tune = new Tune();
+			tune.setReferenceNumber(readSigned());
+			tune.setElemskip(readSigned());
+			readObject(TuneInfos.class, tune.getTuneInfos());
+			readObject(ArrayList.class, tune.getInstructions());
+			readObject(Part.class, tune.getDefaultPart());
+			for (int i = readVarint(); i > 0; i--) {
+				readObject(Part.class, tune);
+			}
+			tune.setMultiPartsDefinition((MultiPartsDefinition) readObject(
+					MultiPartsDefinition.class));
+			return tune;
+		}
+
+		private Music readMusic() throws IOException {
+			Music music = new Music((short) readSigned());
+			music.setPartLabel(readString());
+			music.setGlobalInstructions((ArrayList) readObject(ArrayList.class));
+			for (int i = readVarint(); i > 0; i--) {
+				Voice voice = music.getVoice(readString());
+				voice.setFirstBarNumber((short) readSigned());
+				voice.setPartLabel(readString());
+				voice.setInstrument((byte) readSigned());
+				voice.setVolume((byte) readSigned());
+				voice.setTablature((Tablature) readObject(Tablature.class));
+				int size = readVarint();
+				Vector elements = new Vector(Math.min(size, m_buffer.length));
+				m_voice = voice;
+				for (m_index = 0; m_index < size; m_index++) {
+					elements.add(readObject(MusicElement.class));
+				}
+				m_voice = null;
+				voice.addElements0(elements);
+			}
+			return music;
+		}
+
+		private Vector readVector(Class type) throws IOException {
+			int size = readVarint();
+			Vector ret = new Vector(Math.min(size, m_buffer.length));
+			for (int i = 0; i < size; i++) {
+				ret.add(readObject(type));
+			}
+			return ret;
+		}
+
+		private Object[] readArray(Object[] array) throws IOException {
+			Class type = array.getClass().getComponentType();
+			int size = readVarint();
+			if (size > m_buffer.length - m_position)
+				throw new EOFException();
+			Object[] ret = (Object[]) Array.newInstance(type, size);
+			for (int i = 0; i < size; i++) {
+				ret[i] = readObject(type);
+			}
+			return ret;
+		}
+
+		private Object readObject(Class type) throws IOException {
+			return readObject(type, null);
+		}
+
+		/**
+		 * Reads an object of the given type.
+		 *
+		 * @param target
+		 *            existing object to fill instead of creating a new one,
+		 *            for the infos, instructions and default part of a
+		 *            tune; or the Tune for which a part is created
+		 */
+		private Object readObject(Class type, Object target) throws IOException {
+			int tag = readByte();
+			if (tag == NULL)
+				return null;
+			if (tag == BACK_REFERENCE) {
+				int index = readVarint();
+				if (index >= m_objects.size())
+					throw new StreamCorruptedException("Unknown object " + index);
+				// null while the object is being read, only for a note
+				// which links to its tuplet
+				return checkType(type, m_objects.get(index));
+			}
+			int index = m_objects.size();
+			m_objects.add(null);
+			Object o = readObject(tag, index, target);
+			m_objects.set(index, o);
+			return checkType(type, o);
+		}
+
+		private Object checkType(Class type, Object o)
+				throws StreamCorruptedException {
+			if ((o != null) && !type.isInstance(o))
+				throw new StreamCorruptedException(o.getClass().getName()
+						+ " found, expected " + type.getName());
+			return o;
+		}
+
+		/** Reads the object after its tag */
+		private Object readObject(int tag, int index, Object target)
+				throws IOException {
+			switch (tag) {
+			case VOICE_REFERENCE: {
+				if (m_voice == null)
+					throw new StreamCorruptedException("Reference out of a voice");
+				MusicElementReference ref = new MusicElementReference();
+				ref.setPart(m_voice.getPartLabel());
+				ref.setVoice(m_voice.getVoiceName());
+				ref.setX((short) m_index);
+				ref.setY((byte) readSigned());
+				return ref;
+			}
+			case REFERENCE: {
+				MusicElementReference ref = new MusicElementReference();
+				ref.setPart(readString());
+				ref.setVoice(readString());
+				ref.setX((short) readSigned());
+				ref.setY((byte) readSigned());
+				return ref;
+			}
+			case NOTE: {
+				Note note = new Note(Note.REST);
+				m_objects.set(index, note);
+				int flags = readElement(note);
+				note.setHeight((byte) readSigned());
+				note.setOctaveTransposition((byte) readSigned());
+				note.setAccidental(readAccidental());
+				note.setStrictDuration((short) readVarint());
+				if ((flags & ABSOLUTE_DURATION) != 0)
+					note.setAbsoluteDuration((short) readSigned());
+				note.setInvisibleRest((flags & INVISIBLE_REST) != 0);
+				return note;
+			}
+			case MULTI_NOTE: {
+				MultiNote multiNote = new MultiNote(new Vector(Arrays
+						.asList(readArray(new Note[0]))));
+				m_objects.set(index, multiNote);
+				readElement(multiNote);
+				return multiNote;
+			}
+			case TUPLET: {
+				int number = readVarint();
+				short totalRelativeLength = (short) readSigned();
+				short defaultNoteLength = (short) readSigned();
+				// links the notes to the tuplet, also those read before
+				Tuplet tuplet = new Tuplet(number, readVector(NoteAbstract.class),
+						totalRelativeLength, defaultNoteLength);
+				m_objects.set(index, tuplet);
+				readElement(tuplet);
+				return tuplet;
+			}
+			case TIE:
+			case SLUR: {
+				TwoNotesLink link = (tag == TIE) ? (TwoNotesLink) new TieDefinition()
+						: new SlurDefinition();
+				m_objects.set(index, link);
+				readElement(link);
+				link.setStart((MusicElementReference) readObject(MusicElementReference.class));
+				link.setEnd((MusicElementReference) readObject(MusicElementReference.class));
+				return link;
+			}
+			case BAR_LINE: {
+				BarLine bar = new BarLine((byte) readSigned());
+				m_objects.set(index, bar);
+				readElement(bar);
+				return bar;
+			}
+			case REPEAT_BAR_LINE: {
+				byte type = (byte) readSigned();
+				byte[] numbers = null;
+				int count = readVarint();
+				if (count > 0) {
+					numbers = new byte[count - 1];
+					for (int i = 0; i < numbers.length; i++) {
+						numbers[i] = (byte) readSigned();
+					}
+				}
+				String text = readString();
+				RepeatBarLine bar = (numbers != null) && (numbers.length > 0)
+						? new RepeatBarLine(type, numbers)
+						: new RepeatBarLine(type, text);
+				m_objects.set(index, bar);
+				readElement(bar);
+				return bar;
+			}
+			case KEY_SIGNATURE: {
+				byte note = (byte) readSigned();
+				Accidental accidental = readAccidental();
+				byte mode = (byte) readSigned();
+				KeySignature key = new KeySignature(note, accidental, mode);
+				Accidental[] accidentals = key.getAccidentals();
+				for (int i = 0; i < 7; i++) {
+					Accidental a = readAccidental();
+					if (!a.equals(accidentals[i]))
+						key.setAccidental(KEY_NOTES[i], a);
+				}
+				m_objects.set(index, key);
+				readElement(key);
+				key.setClef((Clef) readObject(Clef.class));
+				return key;
+			}
+			case CLEF: {
+				Clef clef = new Clef(readString(), readSigned(), readSigned(),
+						readSigned(), readSigned());
+				clef.setInvisibleOctaveTransposition((byte) readSigned());
+				m_objects.set(index, clef);
+				readElement(clef);
+				return clef;
+			}
+			case TIME_SIGNATURE: {
+				int count = readVarint();
+				TimeSignature time;
+				if (count == 0) {
+					int numerator = readSigned();
+					time = new TimeSignature(numerator, readSigned());
+				} else {
+					int[] sum = new int[count];
+					for (int i = 0; i < count; i++) {
+						sum[i] = readSigned();
+					}
+					time = new TimeSignature(sum, readSigned());
+				}
+				m_objects.set(index, time);
+				readElement(time);
+				return time;
+			}
+			case TEMPO: {
+				short referenceLength = (short) readSigned();
+				Tempo tempo = new Tempo(referenceLength, (short) readSigned());
+				m_objects.set(index, tempo);
+				readElement(tempo);
+				return tempo;
+			}
+			case DECORATION:
+				return readElement(new Decoration((byte) readSigned()), index);
+			case DYNAMIC:
+				return readElement(new Dynamic((byte) readSigned()), index);
+			case ANNOTATION: {
+				String text = readString();
+				return readElement(new Annotation(text, readString()), index);
+			}
+			case CHORD: {
+				Chord chord = new Chord(readString());
+				readElement(chord, index);
+				chord.setNote((Note) readObject(Note.class));
+				chord.setBass((Note) readObject(Note.class));
+				return chord;
+			}
+			case SPACER:
+				return readElement(new Spacer(readFloat()), index);
+			case PART_LABEL:
+				return readElement(new PartLabel(readString()), index);
+			case WORDS:
+				return readElement(new Words(readString()), index);
+			case MEASURE_REST:
+				return readElement(new MeasureRest(readVarint()), index);
+			case MEASURE_REPEAT:
+				return readElement(new MeasureRepeat(readVarint()), index);
+			case REPEAT_END:
+				return readElement(new RepeatEnd(), index);
+			case END_OF_STAFF_LINE:
+				return readElement(new EndOfStaffLine(), index);
+			case NOTES_SEPARATOR:
+				return readElement(new NotesSeparator(), index);
+			case ELEMSKIP:
+				return readElement(new Elemskip(0), index);
+			case XCOMMAND:
+				return readElement(new Xcommand(readString()), index);
+			case PLAY_SYMBOL:
+			case PRINT_SYMBOL: {
+				char symbol = (char) readVarint();
+				SymbolElement element = (SymbolElement) readObject(SymbolElement.class);
+				UserDefinedSymbol ret = (tag == PLAY_SYMBOL)
+						? (UserDefinedSymbol) new UserDefinedPlaySymbol(symbol, element)
+						: new UserDefinedPrintSymbol(symbol, element);
+				return readElement(ret, index);
+			}
+			case TABLATURE: {
+				Note[] strings = (Note[]) readArray(new Note[0]);
+				return new Tablature(strings, readVarint());
+			}
+			case TUNE_INFOS: {
+				TuneInfos infos = (target != null) ? (TuneInfos) target
+						: new TuneInfos();
+				m_objects.set(index, infos);
+				infos.setBookInfos((TuneInfos) readObject(TuneInfos.class));
+				for (int i = readVarint(); i > 0; i--) {
+					byte field = (byte) readSigned();
+					infos.set(field, readString());
+				}
+				return infos;
+			}
+			case PART: {
+				String label = readString();
+				Part part;
+				if (target instanceof Part)
+					part = (Part) target;
+				else if (target instanceof Tune)
+					part = ((Tune) target).createPart(label);
+				else
+					part = new Part(null, label);
+				m_objects.set(index, part);
+				part.setMusic(readMusic());
+				return part;
+			}
+			case MULTI_PARTS: {
+				MultiPartsDefinition parts = new MultiPartsDefinition();
+				m_objects.set(index, parts);
+				parts.setNumberOfRepeats((byte) readSigned());
+				for (int i = readVarint(); i > 0; i--) {
+					parts.addPart((RepeatedPartAbstract) readObject(
+							RepeatedPartAbstract.class));
+				}
+				return parts;
+			}
+			case REPEATED_PART: {
+				byte repeats = (byte) readSigned();
+				RepeatedPart part = new RepeatedPart((Part) readObject(Part.class));
+				part.setNumberOfRepeats(repeats);
+				return part;
+			}
+			case LIST: {
+				ArrayList list = (target != null) ? (ArrayList) target
+						: new ArrayList();
+				m_objects.set(index, list);
+				for (int i = readVarint(); i > 0; i--) {
+					list.add(readObject(Object.class));
+				}
+				return list;
+			}
+			default:
+				throw new StreamCorruptedException("Unknown type tag " + tag);
+			}
+		}
+
+		/** Sets the element in the table then reads its common values */
+		private MusicElement readElement(MusicElement element, int index)
+				throws IOException {
+			m_objects.set(index, element);
+			readElement(element);
+			return element;
+		}
+
+		/**
+		 * Reads what {@link Encoder#writeElement(MusicElement, int)}
+		 * wrote.
+		 *
+		 * @return the flags, to read the values of the subclass
+		 */
+		private int readElement(MusicElement element) throws IOException {
+			element.setReference((MusicElementReference) readObject(
+					MusicElementReference.class));
+			element.setCharStreamPosition0(readPosition());
+			if (!(element instanceof DecorableElement))
+				return 0;
+			DecorableElement decorable = (DecorableElement) element;
+			int flags = readVarint();
+			if ((flags & ANNOTATIONS) != 0)
+				decorable.setAnnotations(readVector(Annotation.class));
+			if ((flags & CHORD_NAME) != 0)
+				decorable.setChord((Chord) readObject(Chord.class));
+			if ((flags & DECORATIONS) != 0)
+				decorable.setDecorations((Decoration[]) readArray(new Decoration[0]));
+			if ((flags & DYNAMIC_MARK) != 0)
+				decorable.setDynamic((Dynamic) readObject(Dynamic.class));
+			if (!(element instanceof NoteAbstract))
+				return flags;
+			NoteAbstract note = (NoteAbstract) element;
+			if ((flags & GRACING_NOTES) != 0)
+				note.setGracingNotes((NoteAbstract[]) readArray(new NoteAbstract[0]));
+			note.setGeneralGracing((flags & GENERAL_GRACING) != 0);
+			note.setStaccato((flags & STACCATO) != 0);
+			note.setPartOfSlur((flags & PART_OF_SLUR) != 0);
+			if ((flags & TIE_DEFINITION) != 0)
+				note.setTieDefinition((TieDefinition) readObject(TieDefinition.class));
+			if ((flags & SLUR_DEFINITIONS) != 0) {
+				for (Object slur : readVector(SlurDefinition.class)) {
+					note.addSlurDefinition((SlurDefinition) slur);
+				}
+			}
+			if ((flags & TUPLET_NOTE) != 0) {
+				// null if the tuplet is being read, it links its notes
+				Tuplet tuplet = (Tuplet) readObject(Tuplet.class);
+				if (tuplet != null)
+					note.setTuplet(tuplet);
+			}
+			if ((flags & DOTTED) != 0)
+				note.setDotted((byte) readSigned());
+			if ((flags & GRACING_TYPE) != 0)
+				note.setGracingType((byte) readSigned());
+			return flags;
+		}
+
+	}
+
+}
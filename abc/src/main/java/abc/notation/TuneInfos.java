@@ -166,7 +166,7 @@ public class TuneInfos implements Cloneable, Serializable {
 	 * Returns the whole content of field b, null if not defined
 	 */
 	public String get(byte b) {
-		Object o = m_infos.get(key(b));
+		Object o = getOwn(b);
 		String o2 = null;
 		if (m_bookInfos != null)
 			o2 = m_bookInfos.get(b);
@@ -209,6 +209,26 @@ public class TuneInfos implements Cloneable, Serializable {
 			return s.split(lineSeparator+"");
 	}
 
+	/**
+	 * Returns the content of field b of this object only, not the book
+	 * one, null if not defined
+	 */
+	String getOwn(byte b) {
+		return (String) m_infos.get(key(b));
+	}
+
+	TuneInfos getBookInfos() {
+		return m_bookInfos;
+	}
+
+	/**
+	 * Returns the fields of this object only, not those of the book:
+	 * Byte => String
+	 */
+	Map getOwnInfos() {
+		return m_infos;
+	}
+
 	/** Is the field b filled? */
 	public boolean has(byte b) {
 		return get(b) != null;
@@ -0,0 +1,368 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A compact table of the {@link TuneInfos} of many tunes, e.g. the
+ * catalogue of big tune books, when tunes and their music don't have to
+ * be kept.
+ * <p>
+ * Values are stored by column, one column per field: each row holds an
+ * <TT>int</TT> id of its value in the field dictionary, where equal values
+ * are stored once. Reference numbers are an <TT>int</TT> column too.
+ * <p>
+ * {@link #getInfos(int)} returns a read-only {@link TuneInfos} view of a
+ * row, created on demand, which reads its values in the table.
+ */
+public class TuneInfosTable implements Serializable {
+
+	private static final long serialVersionUID = -2718503345468829624L;
+
+	/** one column per field, indexed by field & 0xFF, null if unused */
+	private Column[] m_columns = new Column[256];
+
+	/** reference numbers of rows */
+	private int[] m_refs = new int[16];
+
+	/** book infos of rows, id in m_books + 1, null if no row has one */
+	private int[] m_bookIds = null;
+
+	/** book infos, shared by their rows */
+	private ArrayList m_books = new ArrayList(2);
+
+	private int m_size = 0;
+
+	/**
+	 * rows sorted by reference number, built by {@link #indexOf(int)},
+	 * cleared when a row is added
+	 */
+	private transient int[] m_sortedRows = null;
+
+	public TuneInfosTable() {
+		super();
+	}
+
+	/**
+	 * Creates a table with the infos of the tunes of the given book.
+	 *
+	 * @see #addAll(TuneBook)
+	 */
+	public TuneInfosTable(TuneBook book) {
+		this();
+		addAll(book);
+	}
+
+	/**
+	 * Adds a row for the tune.
+	 *
+	 * @return the row index
+	 */
+	public int add(Tune tune) {
+		return add(tune.getReferenceNumber(), tune.getTuneInfos());
+	}
+
+	/**
+	 * Adds a row with the given reference number and the values of the
+	 * given infos. Book infos are not copied, the row shares them.
+	 *
+	 * @return the row index
+	 */
+	public int add(int referenceNumber, TuneInfos infos) {
+		int row = m_size;
+		if (row == m_refs.length)
+			grow(Math.max(16, row * 2));
+		m_refs[row] = referenceNumber;
+		Iterator it = infos.getOwnInfos().entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry entry = (Map.Entry) it.next();
+			int field = (Byte) entry.getKey() & 0xFF;
+			if (m_columns[field] == null)
+				m_columns[field] = new Column(m_refs.length);
+			m_columns[field].m_ids[row] = m_columns[field]
+					.intern((String) entry.getValue());
+		}
+		TuneInfos bookInfos = infos.getBookInfos();
+		if (bookInfos != null) {
+			// TuneInfos equality is identity
+			int book = m_books.indexOf(bookInfos);
+			if (book == -1) {
+				book = m_books.size();
+				m_books.add(bookInfos);
+			}
+			if (m_bookIds == null)
+				m_bookIds = new int[m_refs.length];
+			m_bookIds[row] = book + 1;
+		}
+		m_size++;
+		m_sortedRows = null;
+		return row;
+	}
+
+	/**
+	 * Adds a row for each tune of the book. The music of the tunes is not
+	 * needed, so tunes of a lazy book are not parsed.
+	 */
+	public void addAll(TuneBook book) {
+		Map tunes = book.getTunes();
+		if (m_size + tunes.size() > m_refs.length)
+			grow(m_size + tunes.size());
+		for (Object o : tunes.values())
+			add((Tune) o);
+	}
+
+	/**
+	 * Returns the number of distinct values of a field.
+	 */
+	public int countValues(byte field) {
+		Column column = m_columns[field & 0xFF];
+		return column == null ? 0 : column.m_count;
+	}
+
+	/**
+	 * Returns the value of a field for a row, not including the book
+	 * value, <TT>null</TT> if not defined.
+	 */
+	public String get(int row, byte field) {
+		checkRow(row);
+		Column column = m_columns[field & 0xFF];
+		return column == null ? null : column.m_values[column.m_ids[row]];
+	}
+
+	/**
+	 * Returns a read-only view of the infos of a row. It includes the book
+	 * infos, as the infos the row was made from.
+	 */
+	public TuneInfos getInfos(int row) {
+		checkRow(row);
+		return new Row(this, row);
+	}
+
+	/** Returns the reference number of a row */
+	public int getReferenceNumber(int row) {
+		checkRow(row);
+		return m_refs[row];
+	}
+
+	/**
+	 * Returns the first row having the given reference number, in rows
+	 * order, -1 if none.
+	 */
+	public int indexOf(int referenceNumber) {
+		int[] sorted = m_sortedRows;
+		if (sorted == null) {
+			// reference number in high bits, row in low bits
+			long[] order = new long[m_size];
+			for (int i = 0; i < m_size; i++)
+				order[i] = ((long) m_refs[i] << 32) | i;
+			Arrays.sort(order);
+			sorted = new int[m_size];
+			for (int i = 0; i < m_size; i++)
+				sorted[i] = (int) order[i];
+			m_sortedRows = sorted;
+		}
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (m_refs[sorted[mid]] < referenceNumber)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		if ((low < sorted.length) && (m_refs[sorted[low]] == referenceNumber))
+			return sorted[low];
+		return -1;
+	}
+
+	/** Returns the number of rows */
+	public int size() {
+		return m_size;
+	}
+
+	/**
+	 * Releases the space reserved for next rows and values, once all rows
+	 * have been added.
+	 */
+	public void trimToSize() {
+		grow(m_size);
+		for (Column column : m_columns) {
+			if (column != null)
+				column.trimToSize();
+		}
+	}
+
+	private void checkRow(int row) {
+		if ((row < 0) || (row >= m_size))
+			throw new IndexOutOfBoundsException("Row " + row + ", size "
+					+ m_size);
+	}
+
+	/** Sets the capacity of all row columns */
+	private void grow(int capacity) {
+		capacity = Math.max(capacity, m_size);
+		m_refs = copyOf(m_refs, capacity);
+		if (m_bookIds != null)
+			m_bookIds = copyOf(m_bookIds, capacity);
+		for (Column column : m_columns) {
+			if (column != null)
+				column.m_ids = copyOf(column.m_ids, capacity);
+		}
+	}
+
+	private static int[] copyOf(int[] array, int length) {
+		if (array.length == length)
+			return array;
+		int[] ret = new int[length];
+		System.arraycopy(array, 0, ret, 0, Math.min(array.length, length));
+		return ret;
+	}
+
+	/**
+	 * A field: value id of each row, and the dictionary of values.
+	 */
+	private static final class Column implements Serializable {
+
+		private static final long serialVersionUID = 7190398637283340577L;
+
+		/** value id of rows, 0 if no value */
+		private int[] m_ids;
+		/** values by id, m_values[0] is null */
+		private String[] m_values = new String[8];
+		/** number of values, without null */
+		private int m_count = 0;
+		/**
+		 * open addressing hash table of value ids, 0 for empty slots.
+		 * Rebuilt after deserialization.
+		 */
+		private transient int[] m_slots = null;
+
+		private Column(int capacity) {
+			m_ids = new int[capacity];
+		}
+
+		/** Returns the id of the value, adding it if new */
+		private int intern(String value) {
+			if (m_slots == null)
+				rehash(Math.max(16, Integer.highestOneBit(m_count * 2) * 2));
+			int mask = m_slots.length - 1;
+			int i = value.hashCode() & mask;
+			int id;
+			while ((id = m_slots[i]) != 0) {
+				if (m_values[id].equals(value))
+					return id;
+				i = (i + 1) & mask;
+			}
+			id = ++m_count;
+			if (id == m_values.length) {
+				String[] values = new String[id * 2];
+				System.arraycopy(m_values, 0, values, 0, id);
+				m_values = values;
+			}
+			m_values[id] = value;
+			m_slots[i] = id;
+			// keep load factor under 1/2
+			if (m_count * 2 > m_slots.length)
+				rehash(m_slots.length * 2);
+			return id;
+		}
+
+		private void rehash(int length) {
+			int[] slots = new int[length];
+			int mask = length - 1;
+			for (int id = 1; id <= m_count; id++) {
+				int i = m_values[id].hashCode() & mask;
+				while (slots[i] != 0)
+					i = (i + 1) & mask;
+				slots[i] = id;
+			}
+			m_slots = slots;
+		}
+
+		private void trimToSize() {
+			if (m_values.length > m_count + 1) {
+				String[] values = new String[m_count + 1];
+				System.arraycopy(m_values, 0, values, 0, m_count + 1);
+				m_values = values;
+			}
+			// rebuilt if a value is added
+			m_slots = null;
+		}
+
+	}
+
+	/**
+	 * Read-only infos of a row.
+	 */
+	private static final class Row extends TuneInfos {
+
+		private static final long serialVersionUID = 5349640962213406578L;
+
+		private final TuneInfosTable m_table;
+		private final int m_row;
+
+		private Row(TuneInfosTable table, int row) {
+			m_table = table;
+			m_row = row;
+			if (table.m_bookIds != null && table.m_bookIds[row] != 0)
+				setBookInfos((TuneInfos) table.m_books
+						.get(table.m_bookIds[row] - 1));
+		}
+
+		/** Returns a modifiable copy of the row infos */
+		public Object clone() {
+			TuneInfos ret = new TuneInfos();
+			ret.getOwnInfos().putAll(getOwnInfos());
+			ret.setBookInfos(getBookInfos());
+			return ret;
+		}
+
+		String getOwn(byte b) {
+			return m_table.get(m_row, b);
+		}
+
+		Map getOwnInfos() {
+			HashMap infos = new HashMap();
+			for (int field = 0; field < m_table.m_columns.length; field++) {
+				String value = m_table.get(m_row, (byte) field);
+				if (value != null)
+					infos.put((byte) field, value);
+			}
+			return infos;
+		}
+
+		public void remove(byte b) {
+			throw new UnsupportedOperationException("Read-only infos");
+		}
+
+		public void set(byte b, String s) {
+			throw new UnsupportedOperationException("Read-only infos");
+		}
+
+		/** Serialized as a copy, not with the whole table */
+		private Object writeReplace() {
+			return clone();
+		}
+
+	}
+
+}
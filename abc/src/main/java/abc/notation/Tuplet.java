@@ -110,4 +110,9 @@ public class Tuplet extends MusicElement implements Cloneable, Serializable
 			((Tuplet) o).m_notes = (Vector) m_notes.clone();
 		return o;
 	}
+
+	byte elementType() {
+		return MusicElementVisitor.TUPLET;
+	}
+
 }
@@ -17,6 +17,8 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.notation;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.*;
 
@@ -37,7 +39,17 @@ public class Voice extends Vector implements Cloneable, Serializable {
 
 	protected transient NoteAbstract lastNote = null;
 
-	private TreeMap m_bars = new TreeMap();
+	/**
+	 * Position of the first element of each bar, the bar number is
+	 * m_firstBarNumber + index. Built again after deserialization.
+	 */
+	private transient int[] m_barPositions = new int[16];
+
+	/** Number of bars in {@link #m_barPositions} */
+	private transient int m_barCount = 0;
+
+	/** Bars returned by {@link #getBar(int)}, by index, created on demand */
+	private transient Bar[] m_barObjects = null;
 
 	private short m_currentBar = 1;
 
@@ -53,6 +65,12 @@ public class Voice extends Vector implements Cloneable, Serializable {
 
 	private byte m_volume = 64;
 
+	/** Count of replaced elements, see {@link #getRevision()} */
+	private transient int m_replacements = 0;
+
+	/** Index for range queries, see {@link #getIndex()} */
+	private transient VoiceIndex m_index = null;
+
 	public Voice(String voiceName) {
 		this(voiceName, (short) 1);
 	}
@@ -61,7 +79,7 @@ public class Voice extends Vector implements Cloneable, Serializable {
 		super();
 		m_voiceName = voiceName;
 		setFirstBarNumber(firstBarNo);
-		m_bars.put(m_firstBarNumber, new Bar(m_firstBarNumber, 0));
+		addBar(0);
 	}
 
 	public void addElement(MusicElement element) {
@@ -75,64 +93,323 @@ public class Voice extends Vector implements Cloneable, Serializable {
 			if (me instanceof NoteAbstract) {
 				lastNote = (NoteAbstract) me;
 			} else if (me instanceof BarLine) {
-				m_currentBar++;
 				// BarLine barLine = (BarLine) me;
 				// barLine.removeAnnotation("BAR_NUMBER");
 				// barLine.addAnnotation(new Annotation("^"+currentBar,
 				// "BAR_NUMBER"));
-				m_bars.put(m_currentBar, new Bar(m_currentBar,
-						size()));
+				addBar(size());
+				m_currentBar = getLastBarNumber();
 			}
-			short x = (short) size();
+			setReference(me, size(), true);
+			super.addElement(me);
+		}
+	}
+
+	/**
+	 * Sets the reference of the given element (and of the notes of a
+	 * multinote) at the given position.
+	 *
+	 * @param owner
+	 *            <TT>true</TT> to set also the part and voice of the
+	 *            reference, <TT>false</TT> to set only the position
+	 */
+	private void setReference(MusicElement me, int position, boolean owner) {
+		short x = (short) position;
+		if (owner) {
 			me.getReference().setPart(m_partLabel);
 			me.getReference().setVoice(m_voiceName);
-			me.getReference().setX(x);
-			if (me instanceof MultiNote) {
-				Note[] notes = ((MultiNote) me).toArray();
-				if (notes != null) {
-                    for (Note note : notes) {
-                        note.getReference().setPart(m_partLabel);
-                        note.getReference().setVoice(m_voiceName);
-                        note.getReference().setX(x);
-                        // setY is defined in MultiNote constructor
-                    }
+		}
+		me.getReference().setX(x);
+		if (me instanceof MultiNote) {
+			Note[] notes = ((MultiNote) me).toArray();
+			if (notes != null) {
+				for (Note note : notes) {
+					if (owner) {
+						note.getReference().setPart(m_partLabel);
+						note.getReference().setVoice(m_voiceName);
+					}
+					note.getReference().setX(x);
+					// setY is defined in MultiNote constructor
 				}
 			}
-			super.addElement(me);
 		}
 	}
 
+	/**
+	 * Inserts an element at the given position, the references of the
+	 * following elements and the bars positions are updated.
+	 *
+	 * @see Music#insertElement(Voice, int, MusicElement)
+	 */
+	synchronized void insertElement0(MusicElement me, int index) {
+		super.insertElementAt(me, index);
+		setReference(me, index, true);
+		updateReferences(index + 1);
+		updateBars();
+	}
+
+	/**
+	 * Replaces the element at the given position, the bars are
+	 * updated if a bar line is replaced or added.
+	 *
+	 * @return the replaced element
+	 * @see Music#replaceElement(Voice, int, MusicElement)
+	 */
+	synchronized MusicElement replaceElement0(MusicElement me, int index) {
+		MusicElement old = (MusicElement) set(index, me);
+		setReference(me, index, true);
+		if ((old instanceof BarLine) || (me instanceof BarLine))
+			updateBars();
+		return old;
+	}
+
+	/**
+	 * Removes the element at the given position, the references of
+	 * the following elements and the bars positions are updated.
+	 *
+	 * @return the removed element
+	 * @see Music#removeElement(Voice, int)
+	 */
+	synchronized MusicElement removeElement0(int index) {
+		MusicElement old = (MusicElement) super.remove(index);
+		updateReferences(index);
+		updateBars();
+		return old;
+	}
+
+	/**
+	 * Marks this voice as modified after a change of one of its
+	 * elements in place, so indexes built over the voice are built
+	 * again.
+	 *
+	 * @see #getRevision()
+	 */
+	synchronized void touch() {
+		m_replacements++;
+	}
+
+	/**
+	 * Adds elements keeping their references as they are, e.g. when
+	 * they are read back by {@link TuneCodec}. The bars are built again.
+	 */
+	synchronized void addElements0(Collection elements) {
+		super.addAll(elements);
+		for (int i = size() - 1; i >= 0; i--) {
+			if (elementAt(i) instanceof NoteAbstract) {
+				lastNote = (NoteAbstract) elementAt(i);
+				break;
+			}
+		}
+		updateBars();
+	}
+
+	/** Sets the position of references of elements from the given one */
+	private void updateReferences(int from) {
+		for (int i = from, j = size(); i < j; i++) {
+			setReference((MusicElement) elementAt(i), i, false);
+		}
+	}
+
+	/** Builds again the bars, as {@link #addElement0(MusicElement)} does */
+	private void updateBars() {
+		m_barCount = 0;
+		m_barObjects = null;
+		addBar(0);
+		for (int i = 0, j = size(); i < j; i++) {
+			if (elementData[i] instanceof BarLine)
+				addBar(i);
+		}
+		m_currentBar = getLastBarNumber();
+	}
+
+	/** Adds a bar beginning at the given position */
+	private void addBar(int position) {
+		if (m_barCount == m_barPositions.length) {
+			int[] positions = new int[m_barCount * 2];
+			System.arraycopy(m_barPositions, 0, positions, 0, m_barCount);
+			m_barPositions = positions;
+		}
+		m_barPositions[m_barCount++] = position;
+	}
+
+	/**
+	 * Returns the bar of the given index, 0 for the first bar,
+	 * <TT>null</TT> if out of range.
+	 */
+	private Bar getBar(int index) {
+		if ((index < 0) || (index >= m_barCount))
+			return null;
+		if ((m_barObjects == null) || (m_barObjects.length < m_barCount)) {
+			Bar[] bars = new Bar[m_barPositions.length];
+			if (m_barObjects != null)
+				System.arraycopy(m_barObjects, 0, bars, 0, m_barObjects.length);
+			m_barObjects = bars;
+		}
+		if (m_barObjects[index] == null)
+			m_barObjects[index] = new Bar((short) (m_firstBarNumber + index),
+					m_barPositions[index]);
+		return m_barObjects[index];
+	}
+
+	/**
+	 * Returns the position of the first element of the given bar of
+	 * this voice, its bar line if any, -1 if this voice has no such bar.
+	 * The bar is looked up by its number, it may come from another voice.
+	 */
+	private int getBarStart(Bar bar) {
+		int index = bar.getBarNumber() - m_firstBarNumber;
+		return ((index < 0) || (index >= m_barCount)) ? -1
+				: m_barPositions[index];
+	}
+
+	/**
+	 * Returns the position following the last element of the given bar,
+	 * the position of the bar line of the next bar, or the size.
+	 */
+	private int getBarEnd(Bar bar) {
+		int index = bar.getBarNumber() - m_firstBarNumber + 1;
+		return (index < m_barCount) ? m_barPositions[index] : size();
+	}
+
 	/**
 	 * Return true if the bar is empty or contains only barline and spacer(s).
 	 * False if barline contain other kind of music element
 	 */
-	public boolean barIsEmpty(Bar bar) {
-        for (Object o : getBarContent(bar)) {
-            MusicElement me = (MusicElement) o;
-            if (!(me instanceof BarLine) && !(me instanceof Spacer))
-                return false;
-        }
+	public synchronized boolean barIsEmpty(Bar bar) {
+		int from = getBarStart(bar);
+		if (from == -1)
+			return true;
+		for (int i = from, to = getBarEnd(bar); i < to; i++) {
+			Object me = elementData[i];
+			if (!(me instanceof BarLine) && !(me instanceof Spacer))
+				return false;
+		}
 		return true;
 	}
 
+	/**
+	 * Visits the elements of this voice, in order.
+	 * 
+	 * @see MusicElement#accept(MusicElementVisitor)
+	 */
+	public void accept(MusicElementVisitor visitor) {
+		int expectedModCount = modCount;
+		for (int i = 0; i < elementCount; i++) {
+			MusicElement element = (MusicElement) elementData[i];
+			if (element != null)
+				element.accept(visitor);
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+		}
+	}
+
 	public Object clone() {
-		return super.clone();
+		Voice ret = (Voice) super.clone();
+		ret.m_barPositions = (int[]) m_barPositions.clone();
+		ret.m_barObjects = null;
+		return ret;
 	}
 
-	public Collection getBarContent(Bar bar) {
-		int from = bar.getPosInMusic();
-		int to = size() - 1;
-		Bar next = getNextBar(bar.getBarNumber());
-		if (next != null) {
-			to = next.getPosInMusic() - 1;/* exclude barline */
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		short currentBar = m_currentBar;
+		m_barPositions = new int[16];
+		updateBars();
+		m_currentBar = currentBar;
+	}
+
+	/**
+	 * Returns the array holding the elements, for {@link VoiceCursor}.
+	 * Only the first {@link #size()} ones are elements.
+	 */
+	Object[] getElementData() {
+		return elementData;
+	}
+
+	/**
+	 * Returns a number which changes each time an element is added or
+	 * removed, not when it is replaced.
+	 */
+	int getModCount() {
+		return modCount;
+	}
+
+	/**
+	 * Returns a number which changes each time an element is added,
+	 * removed or replaced in this voice. Used by indexes built over
+	 * the voice to know if they are still accurate.
+	 */
+	int getRevision() {
+		return modCount + m_replacements;
+	}
+
+	/**
+	 * Returns the revisions of the given voices, in the collection
+	 * order.
+	 *
+	 * @param voices
+	 *            Collection of {@link Voice}
+	 * @see #getRevision()
+	 */
+	static int[] getRevisions(Collection voices) {
+		int[] ret = new int[voices.size()];
+		Iterator it = voices.iterator();
+		for (int i = 0; it.hasNext(); i++) {
+			ret[i] = ((Voice) it.next()).getRevision();
 		}
-		Collection ret = new Vector(to - from + 1);
-        ret.addAll(Arrays.asList(elementData).subList(from, to + 1));
 		return ret;
 	}
 
+	public synchronized Object set(int index, Object element) {
+		Object ret = super.set(index, element);
+		m_replacements++;
+		return ret;
+	}
+
+	public synchronized void setElementAt(Object obj, int index) {
+		super.setElementAt(obj, index);
+		m_replacements++;
+	}
+
+	/**
+	 * Returns the elements of the given bar, from its bar line if any to
+	 * the bar line of the next bar (excluded). The returned list is a
+	 * read-only view over this voice, which must not be changed while
+	 * the view is used.
+	 */
+	public Collection getBarContent(Bar bar) {
+		int from = getBarStart(bar);
+		if (from == -1)
+			return Collections.EMPTY_LIST;
+		return new BarContent(from, getBarEnd(bar));
+	}
+
 	public Bar getFirstBar() {
-		return (Bar) m_bars.get(new Short(m_firstBarNumber));
+		return getBar(0);
+	}
+
+	/** Returns the number of the last bar of this voice */
+	public short getLastBarNumber() {
+		return (short) (m_firstBarNumber + m_barCount - 1);
+	}
+
+	/**
+	 * Returns the number of the bar containing the element at the
+	 * given position. A bar line is part of the bar it begins.
+	 */
+	public short getBarNumberAt(int position) {
+		// last bar beginning at or before position
+		int low = 0;
+		int high = m_barCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (m_barPositions[mid] <= position)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return (short) (m_firstBarNumber + Math.max(low - 1, 0));
 	}
 
 	/**
@@ -164,31 +441,15 @@ public class Voice extends Vector implements Cloneable, Serializable {
 						: ((Note) highestNote).getMidiLikeHeight();
 			}
 		}
+		VoiceIndex index = getIndex();
 		int idxBegin = indexOf(elmtBegin);
 		int idxEnd = indexOf(elmtEnd);
-		if (idxBegin == -1)
-			throw new IllegalArgumentException("Note " + elmtBegin
-					+ " hasn't been found in tune");
-		if (idxEnd == -1)
-			throw new IllegalArgumentException("Note " + elmtEnd
-					+ " hasn't been found in tune");
-		if (idxBegin > idxEnd)
-			throw new IllegalArgumentException("Note " + elmtBegin
-					+ " is located after " + elmtEnd + " in the score");
-		MusicElement currentScoreEl;
-		int currentNoteHeight;
-		for (int i = idxBegin + 1; i <= idxEnd; i++) {
-			currentScoreEl = (MusicElement) elementAt(i);
-			if (currentScoreEl instanceof NoteAbstract) {
-				currentNoteHeight = (currentScoreEl instanceof MultiNote) ? ((MultiNote) currentScoreEl)
-						.getHighestNote().getMidiLikeHeight()
-						: ((Note) currentScoreEl).getMidiLikeHeight();
-				if ((currentNoteHeight != Note.REST)
-						&& ((highestNoteHeight == Note.REST) || (currentNoteHeight > highestNoteHeight))) {
-					highestNoteHeight = currentNoteHeight;
-					highestNote = (NoteAbstract) currentScoreEl;
-				}
-			}
+		checkRange(elmtBegin, idxBegin, elmtEnd, idxEnd);
+		int pos = index.getHighestNotePosition(idxBegin + 1, idxEnd);
+		if (pos != -1) {
+			int height = index.getHighestHeight(pos);
+			if ((highestNoteHeight == Note.REST) || (height > highestNoteHeight))
+				highestNote = (NoteAbstract) elementAt(pos);
 		}
 		return highestNote;
 	}
@@ -212,7 +473,7 @@ public class Voice extends Vector implements Cloneable, Serializable {
 	}
 
 	public Bar getLastBar() {
-		return (Bar) m_bars.get(m_bars.lastKey());
+		return getBar(m_barCount - 1);
 	}
 
 	/**
@@ -255,31 +516,15 @@ public class Voice extends Vector implements Cloneable, Serializable {
 						: ((Note) lowestNote).getMidiLikeHeight();
 			}
 		}
+		VoiceIndex index = getIndex();
 		int idxBegin = indexOf(elmtBegin);
 		int idxEnd = indexOf(elmtEnd);
-		if (idxBegin == -1)
-			throw new IllegalArgumentException("Note " + elmtBegin
-					+ " hasn't been found in tune");
-		if (idxEnd == -1)
-			throw new IllegalArgumentException("Note " + elmtEnd
-					+ " hasn't been found in tune");
-		if (idxBegin > idxEnd)
-			throw new IllegalArgumentException("Note " + elmtBegin
-					+ " is located after " + elmtEnd + " in the score");
-		MusicElement currentScoreEl;
-		int currentNoteHeight;
-		for (int i = idxBegin + 1; i <= idxEnd; i++) {
-			currentScoreEl = (MusicElement) elementAt(i);
-			if (currentScoreEl instanceof NoteAbstract) {
-				currentNoteHeight = (currentScoreEl instanceof MultiNote) ? ((MultiNote) currentScoreEl)
-						.getLowestNote().getMidiLikeHeight()
-						: ((Note) currentScoreEl).getMidiLikeHeight();
-				if ((currentNoteHeight != Note.REST)
-						&& ((lowestNoteHeight == Note.REST) || (currentNoteHeight < lowestNoteHeight))) {
-					lowestNoteHeight = currentNoteHeight;
-					lowestNote = (NoteAbstract) currentScoreEl;
-				}
-			}
+		checkRange(elmtBegin, idxBegin, elmtEnd, idxEnd);
+		int pos = index.getLowestNotePosition(idxBegin + 1, idxEnd);
+		if (pos != -1) {
+			int height = index.getLowestHeight(pos);
+			if ((lowestNoteHeight == Note.REST) || (height < lowestNoteHeight))
+				lowestNote = (NoteAbstract) elementAt(pos);
 		}
 		return lowestNote;
 
@@ -290,15 +535,9 @@ public class Voice extends Vector implements Cloneable, Serializable {
 	}
 
 	private Bar getNextBar(short barNum) {
-		short nextBar = barNum;
-		if (nextBar < m_firstBarNumber)
-			nextBar = (short) (m_firstBarNumber - 1);
-		Short s = nextBar++;
-		if (m_bars.keySet().contains(s))
-			return (Bar) m_bars.get(s);
-		else {
+		if (barNum < m_firstBarNumber)
 			return null;
-		}
+		return getBar(barNum - m_firstBarNumber);
 	}
 
 	/**
@@ -309,8 +548,26 @@ public class Voice extends Vector implements Cloneable, Serializable {
 	 */
 	public Collection getNotesBetween(MusicElement elmtBegin,
 			MusicElement elmtEnd) throws IllegalArgumentException {
+		VoiceIndex index = getIndex();
 		int idxBegin = indexOf(elmtBegin);
-		int idxEnd = this.indexOf(elmtEnd);
+		int idxEnd = indexOf(elmtEnd);
+		checkRange(elmtBegin, idxBegin, elmtEnd, idxEnd);
+		int[] notesPositions = index.getNotesPositions();
+		int from = index.firstNoteFrom(idxBegin);
+		int to = index.firstNoteFrom(idxEnd + 1);
+		Collection ret = new Vector(to - from);
+		for (int i = from; i < to; i++) {
+			ret.add(elementAt(notesPositions[i]));
+		}
+		return ret;
+	}
+
+	/**
+	 * Throws the IllegalArgumentException of range queries if one of
+	 * the elements hasn't been found, or if they are not in order.
+	 */
+	private void checkRange(MusicElement elmtBegin, int idxBegin,
+			MusicElement elmtEnd, int idxEnd) throws IllegalArgumentException {
 		if (idxBegin == -1)
 			throw new IllegalArgumentException("Note " + elmtBegin
 					+ " hasn't been found in tune");
@@ -320,20 +577,24 @@ public class Voice extends Vector implements Cloneable, Serializable {
 		if (idxBegin > idxEnd)
 			throw new IllegalArgumentException("Note " + elmtBegin
 					+ " is located after " + elmtEnd + " in the score");
-		Collection ret = new Vector();
-		MusicElement currentScoreEl;
-		for (int i = idxBegin; i <= idxEnd; i++) {
-			currentScoreEl = (MusicElement) elementAt(i);
-			if (currentScoreEl instanceof NoteAbstract)
-				ret.add(currentScoreEl);
+	}
+
+	/**
+	 * Returns the index of elements positions and note heights,
+	 * built again if this voice has changed since last call.
+	 */
+	private VoiceIndex getIndex() {
+		VoiceIndex index = m_index;
+		if ((index == null) || !index.isUpToDate(this)) {
+			index = new VoiceIndex(this);
+			m_index = index;
 		}
-		return ret;
+		return index;
 	}
 
 	public Bar getPreviousBar() {
-		Short s = (short) (m_currentBar - 1);
-		if ((m_currentBar > m_firstBarNumber) && m_bars.keySet().contains(s))
-			return (Bar) m_bars.get(s);
+		if (m_currentBar > m_firstBarNumber)
+			return getBar(m_currentBar - 1 - m_firstBarNumber);
 		else {
 			return null;
 		}
@@ -375,6 +636,14 @@ public class Voice extends Vector implements Cloneable, Serializable {
 		return m_tablature;
 	}
 
+	short getFirstBarNumber() {
+		return m_firstBarNumber;
+	}
+
+	String getPartLabel() {
+		return m_partLabel;
+	}
+
 	/** Return voice number V:1 returns 1 */
 	public String getVoiceName() {
 		return m_voiceName;
@@ -420,18 +689,17 @@ public class Voice extends Vector implements Cloneable, Serializable {
 	}
 
 	public int indexOf(MusicElement elmnt) {
+		if (elmnt instanceof NoteAbstract) {
+			// notes are equal only to themselves, the
+			// index of positions gives the same result
+			return getIndex().indexOf(elmnt);
+		}
 		if (elmnt != null) {
 			Object elmntIt = null;
-			boolean isLooking4Note = elmnt instanceof Note;
 			for (int i = 0; i < size(); i++) {
 				elmntIt = elementAt(i);
-				if (elmntIt != null) {
-					if (elementAt(i) instanceof MultiNote && isLooking4Note) {
-						if (((MultiNote) elmntIt).contains((Note) elmnt))
-							return i;
-					} else if (elementAt(i).equals(elmnt))
-						return i;
-				}
+				if ((elmntIt != null) && elmntIt.equals(elmnt))
+					return i;
 			}
 		}
 		return -1;
@@ -443,6 +711,7 @@ public class Voice extends Vector implements Cloneable, Serializable {
 
 	public void setFirstBarNumber(short s) {
 		m_firstBarNumber = s;
+		m_barObjects = null;
 	}
 
 	/** %%MIDI program xx */
@@ -471,6 +740,36 @@ public class Voice extends Vector implements Cloneable, Serializable {
 		return "V:" + getVoiceName();
 	}
 
+	/**
+	 * Read-only view of the elements of a bar, reading the array of the
+	 * voice.
+	 */
+	private class BarContent extends AbstractList implements RandomAccess {
+
+		private final int m_from;
+		private final int m_to;
+		private final int m_expectedModCount = Voice.this.modCount;
+
+		private BarContent(int from, int to) {
+			m_from = from;
+			m_to = to;
+		}
+
+		public Object get(int index) {
+			if ((index < 0) || (index >= m_to - m_from))
+				throw new IndexOutOfBoundsException("Index " + index
+						+ ", size " + (m_to - m_from));
+			if (Voice.this.modCount != m_expectedModCount)
+				throw new ConcurrentModificationException();
+			return elementData[m_from + index];
+		}
+
+		public int size() {
+			return m_to - m_from;
+		}
+
+	}
+
 	// TODO hasLyrics...
 
 }
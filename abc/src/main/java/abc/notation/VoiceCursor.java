@@ -0,0 +1,194 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.util.ConcurrentModificationException;
+
+/**
+ * A reusable cursor over the elements of a {@link Voice}, which stops only
+ * on elements of some types, e.g. notes and bar lines. It reads the voice
+ * elements directly, without iterator nor synchronized
+ * {@link Voice#elementAt(int)} call, and keeps the current element and its
+ * type tag so they are read once.
+ * <p>
+ * <PRE>
+ * VoiceCursor notes = new VoiceCursor(VoiceCursor.maskOf(MusicElementVisitor.NOTE)
+ * 		| VoiceCursor.maskOf(MusicElementVisitor.MULTI_NOTE));
+ * for (Object o : music.getVoices()) {
+ * 	notes.reset((Voice) o);
+ * 	while (notes.next()) {
+ * 		NoteAbstract note = (NoteAbstract) notes.get();
+ * 		...
+ * 	}
+ * }
+ * </PRE>
+ * As iterators, a cursor fails with a {@link ConcurrentModificationException}
+ * when elements are added to or removed from the voice. Replacing an
+ * element does not fail. A cursor is not thread safe.
+ */
+public class VoiceCursor {
+
+	/** Mask of all element types */
+	public static final int ALL = -1;
+
+	private final int m_mask;
+
+	private Voice m_voice = null;
+	private Object[] m_elements = null;
+	private int m_size = 0;
+	private int m_modCount = 0;
+
+	private int m_index = -1;
+	private MusicElement m_element = null;
+	private byte m_type = 0;
+
+	/**
+	 * Creates a cursor stopping on elements whose type is in the mask.
+	 * 
+	 * @param mask
+	 *            types of elements, {@link #maskOf(byte)} of each type
+	 *            or'ed, or {@link #ALL}
+	 * @see #reset(Voice)
+	 */
+	public VoiceCursor(int mask) {
+		m_mask = mask;
+	}
+
+	/**
+	 * Returns the mask of the given type
+	 * 
+	 * @param type
+	 *            one of the tags of {@link MusicElementVisitor}
+	 */
+	public static int maskOf(byte type) {
+		return 1 << type;
+	}
+
+	/** Returns the current element, <TT>null</TT> if none */
+	public MusicElement get() {
+		return m_element;
+	}
+
+	/**
+	 * Returns the index of the current element in the voice, -1 before
+	 * the first element and the voice size after the last one.
+	 */
+	public int getIndex() {
+		return m_index;
+	}
+
+	/** Returns the type tag of the current element */
+	public byte getType() {
+		return m_type;
+	}
+
+	/** Returns the voice this cursor is on */
+	public Voice getVoice() {
+		return m_voice;
+	}
+
+	/**
+	 * Moves to the next element matching the mask.
+	 * 
+	 * @return <TT>false</TT> if there is no more element
+	 */
+	public boolean next() {
+		checkModCount();
+		Object[] elements = m_elements;
+		for (int i = m_index + 1; i < m_size; i++) {
+			MusicElement element = (MusicElement) elements[i];
+			if (element == null)
+				continue;
+			byte type = element.getElementType();
+			if ((m_mask & (1 << type)) != 0) {
+				m_index = i;
+				m_element = element;
+				m_type = type;
+				return true;
+			}
+		}
+		m_index = m_size;
+		m_element = null;
+		m_type = 0;
+		return false;
+	}
+
+	/**
+	 * Moves to the previous element matching the mask.
+	 * 
+	 * @return <TT>false</TT> if there is no more element
+	 */
+	public boolean previous() {
+		checkModCount();
+		Object[] elements = m_elements;
+		for (int i = Math.min(m_index, m_size) - 1; i >= 0; i--) {
+			MusicElement element = (MusicElement) elements[i];
+			if (element == null)
+				continue;
+			byte type = element.getElementType();
+			if ((m_mask & (1 << type)) != 0) {
+				m_index = i;
+				m_element = element;
+				m_type = type;
+				return true;
+			}
+		}
+		m_index = -1;
+		m_element = null;
+		m_type = 0;
+		return false;
+	}
+
+	/**
+	 * Puts the cursor before the first element of the voice.
+	 * 
+	 * @return this cursor
+	 */
+	public VoiceCursor reset(Voice voice) {
+		return reset(voice, 0);
+	}
+
+	/**
+	 * Puts the cursor before the given index of the voice: {@link #next()}
+	 * moves to the first matching element at or after <TT>index</TT>.
+	 * 
+	 * @return this cursor
+	 */
+	public VoiceCursor reset(Voice voice, int index) {
+		m_voice = voice;
+		reload();
+		m_index = Math.max(-1, Math.min(index, m_size) - 1);
+		m_element = null;
+		m_type = 0;
+		return this;
+	}
+
+	private void reload() {
+		synchronized (m_voice) {
+			m_elements = m_voice.getElementData();
+			m_size = m_voice.size();
+			m_modCount = m_voice.getModCount();
+		}
+	}
+
+	private void checkModCount() {
+		if (m_voice == null)
+			throw new IllegalStateException("Cursor is not on a voice");
+		if (m_voice.getModCount() != m_modCount)
+			throw new ConcurrentModificationException();
+	}
+
+}
@@ -0,0 +1,219 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Index of the elements of a {@link Voice}, built in one pass and
+ * used while the voice is not modified.
+ * <ul>
+ * <li>position of each element, and of each note of a
+ * {@link MultiNote}, for an {@link Voice#indexOf(MusicElement)}
+ * in constant time
+ * <li>positions of notes and multinotes, to walk the notes of
+ * a range without testing the other elements
+ * <li>sparse tables of highest and lowest heights, to find the
+ * highest or lowest note of any range in constant time.
+ * </ul>
+ * Heights are the {@link Note#getMidiLikeHeight()} of notes, or of
+ * the highest/lowest note of multinotes. Rests are ignored.
+ * <p>
+ * Only changes of the voice itself (see {@link Voice#getRevision()})
+ * are detected: a note modified in place must be set again in the
+ * voice to be taken into account.
+ */
+final class VoiceIndex {
+
+	/** marker for elements which are not a note, or are rests */
+	private static final int NO_HEIGHT = Integer.MIN_VALUE;
+
+	/** the voice revision when this index has been built */
+	private final int m_revision;
+
+	/** element (or note of a multinote) -> Integer first position */
+	private final IdentityHashMap m_positions;
+
+	/** positions of NoteAbstract elements, ascending */
+	private final int[] m_notesPositions;
+
+	private final int[] m_highest;
+	private final int[] m_lowest;
+
+	/** m_maxTable[k][i] is the position of the highest note in
+	 * [i, i + 2^k[, first one if several */
+	private final int[][] m_maxTable;
+	private final int[][] m_minTable;
+
+	VoiceIndex(Voice voice) {
+		m_revision = voice.getRevision();
+		int size = voice.size();
+		m_positions = new IdentityHashMap(size * 2);
+		m_highest = new int[size];
+		m_lowest = new int[size];
+		int[] notesPositions = new int[size];
+		int notesCount = 0;
+		for (int i = 0; i < size; i++) {
+			Object element = voice.elementAt(i);
+			m_highest[i] = NO_HEIGHT;
+			m_lowest[i] = NO_HEIGHT;
+			if (element == null)
+				continue;
+			if (!m_positions.containsKey(element))
+				m_positions.put(element, i);
+			if (element instanceof MultiNote) {
+				MultiNote multi = (MultiNote) element;
+				Note[] notes = multi.toArray();
+				if (notes != null) {
+					for (Note note : notes) {
+						if (!m_positions.containsKey(note))
+							m_positions.put(note, i);
+					}
+					m_highest[i] = heightOf(multi.getHighestNote());
+					m_lowest[i] = heightOf(multi.getLowestNote());
+				}
+				notesPositions[notesCount++] = i;
+			} else if (element instanceof Note) {
+				m_highest[i] = m_lowest[i] = heightOf((Note) element);
+				notesPositions[notesCount++] = i;
+			} else if (element instanceof NoteAbstract) {
+				notesPositions[notesCount++] = i;
+			}
+		}
+		m_notesPositions = new int[notesCount];
+		System.arraycopy(notesPositions, 0, m_notesPositions, 0, notesCount);
+		m_maxTable = buildSparseTable(m_highest, true);
+		m_minTable = buildSparseTable(m_lowest, false);
+	}
+
+	private static int heightOf(Note note) {
+		if (note == null)
+			return NO_HEIGHT;
+		int height = note.getMidiLikeHeight();
+		return height == Note.REST ? NO_HEIGHT : height;
+	}
+
+	private static int[][] buildSparseTable(int[] heights, boolean highest) {
+		int n = heights.length;
+		int levels = 1;
+		while ((1 << levels) <= n)
+			levels++;
+		int[][] table = new int[levels][];
+		table[0] = new int[n];
+		for (int i = 0; i < n; i++)
+			table[0][i] = i;
+		for (int k = 1; k < levels; k++) {
+			int half = 1 << (k - 1);
+			int count = n - (1 << k) + 1;
+			int[] previous = table[k - 1];
+			int[] current = new int[count];
+			for (int i = 0; i < count; i++) {
+				current[i] = best(heights, previous[i], previous[i + half], highest);
+			}
+			table[k] = current;
+		}
+		return table;
+	}
+
+	/**
+	 * Returns the best of two positions, the first one
+	 * if heights are equal.
+	 */
+	private static int best(int[] heights, int a, int b, boolean highest) {
+		int ha = heights[a], hb = heights[b];
+		if (hb == NO_HEIGHT)
+			return a;
+		if (ha == NO_HEIGHT)
+			return b;
+		if (ha == hb)
+			return Math.min(a, b);
+		if (highest)
+			return hb > ha ? b : a;
+		else
+			return hb < ha ? b : a;
+	}
+
+	/** Returns <TT>true</TT> if the voice hasn't changed since this index has been built */
+	boolean isUpToDate(Voice voice) {
+		return m_revision == voice.getRevision();
+	}
+
+	/**
+	 * Returns the position of the given element, or the position of
+	 * the multinote containing the given note. -1 if not found.
+	 */
+	int indexOf(Object element) {
+		Integer pos = (Integer) m_positions.get(element);
+		return pos == null ? -1 : pos;
+	}
+
+	/**
+	 * Returns the position of the highest note in [from, to] (both
+	 * included), the first one if several. -1 if no note in the range.
+	 */
+	int getHighestNotePosition(int from, int to) {
+		return query(m_maxTable, m_highest, from, to, true);
+	}
+
+	/**
+	 * Returns the position of the lowest note in [from, to] (both
+	 * included), the first one if several. -1 if no note in the range.
+	 */
+	int getLowestNotePosition(int from, int to) {
+		return query(m_minTable, m_lowest, from, to, false);
+	}
+
+	/** Returns the height of the highest note at the given position */
+	int getHighestHeight(int pos) {
+		return m_highest[pos];
+	}
+
+	/** Returns the height of the lowest note at the given position */
+	int getLowestHeight(int pos) {
+		return m_lowest[pos];
+	}
+
+	private static int query(int[][] table, int[] heights,
+			int from, int to, boolean highest) {
+		if (from > to)
+			return -1;
+		int k = 31 - Integer.numberOfLeadingZeros(to - from + 1);
+		int ret = best(heights, table[k][from], table[k][to - (1 << k) + 1], highest);
+		return heights[ret] == NO_HEIGHT ? -1 : ret;
+	}
+
+	/**
+	 * Returns the index in the notes positions array of the first
+	 * note at or after the given position.
+	 */
+	int firstNoteFrom(int pos) {
+		int lo = 0, hi = m_notesPositions.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (m_notesPositions[mid] < pos)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/** Returns the notes positions, ascending. Must not be modified. */
+	int[] getNotesPositions() {
+		return m_notesPositions;
+	}
+
+}
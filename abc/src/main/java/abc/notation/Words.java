@@ -40,5 +40,9 @@ public class Words extends MusicElement implements Cloneable {
 	public Object clone() throws CloneNotSupportedException {
 		return super.clone();
 	}
-	
-}
\ No newline at end of file
+
+	byte elementType() {
+		return MusicElementVisitor.WORDS;
+	}
+
+}
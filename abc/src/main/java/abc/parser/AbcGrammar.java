@@ -23,6 +23,8 @@ import org.parboiled.annotations.BuildParseTree;
 public class AbcGrammar extends BaseParser implements AbcTokens {
 
 	private static AbcGrammar instance = null;
+
+	private static Rule abcFile = null;
 	
 	protected static synchronized AbcGrammar getInstance() {
 		if (instance == null) {
@@ -30,6 +32,19 @@ public class AbcGrammar extends BaseParser implements AbcTokens {
 		}
 		return instance;
 	}
+
+	/**
+	 * Returns the {@link #AbcFile()} rule, built once. The grammar is not
+	 * created by parboiled, so its rules are not cached: building them
+	 * takes longer than parsing a tune. Rules keep no parsing state, all
+	 * parsings share them.
+	 */
+	protected static synchronized Rule getAbcFileRule() {
+		if (abcFile == null) {
+			abcFile = getInstance().AbcFile();
+		}
+		return abcFile;
+	}
 	
 	private AbcGrammar() {}
 	
@@ -66,17 +66,28 @@ public class AbcNode extends PositionableInCharStream {
 	// @SuppressWarnings("unchecked")
 	protected AbcNode(Node node, InputBuffer parseInputBuffer,
 			List<ParseError> parseErrors, AbcInputBuffer abcInputBuffer) {
+		this(node, parseInputBuffer, parseErrors, abcInputBuffer, 0, 0);
+	}
+
+	/**
+	 * Builds a node for a parsed string which is a part of a bigger
+	 * stream: positions are shifted by the given number of lines and
+	 * characters, the string starting at the beginning of a line.
+	 */
+	protected AbcNode(Node node, InputBuffer parseInputBuffer,
+			List<ParseError> parseErrors, AbcInputBuffer abcInputBuffer,
+			int lineOffset, int indexOffset) {
 		super(null);
 		if (node != null) {
 			this.label = node.getLabel();
 			this.value = parseInputBuffer.extract(node.getStartIndex(), node
 					.getEndIndex());
 			Position pos = parseInputBuffer.getPosition(node.getStartIndex());
-			int sourceStartIndex = abcInputBuffer.getIndex(pos);
+			int sourceStartIndex = abcInputBuffer.getIndex(pos) + indexOffset;
 			int sourceEndIndex = sourceStartIndex + value.length();
 			setCharStreamPosition(
 				new CharStreamPosition(
-						pos.line,
+						pos.line + lineOffset,
 						pos.column,
 						sourceStartIndex,
 						sourceEndIndex
@@ -85,7 +96,7 @@ public class AbcNode extends PositionableInCharStream {
 			Iterator it = node.getChildren().iterator();
 			while (it.hasNext()) {
 				AbcNode abcn = new AbcNode((Node) it.next(), parseInputBuffer,
-						parseErrors, abcInputBuffer);
+						parseErrors, abcInputBuffer, lineOffset, indexOffset);
 				abcn.parent = this;
 				childs.add(abcn);
 			}
@@ -98,9 +109,9 @@ public class AbcNode extends PositionableInCharStream {
 							pe.getStartIndex(), pe.getEndIndex());
 					String peMsg = pe.getErrorMessage();
 					Position pePos = pe.getInputBuffer().getPosition(pe.getStartIndex());
-					int peIndex = abcInputBuffer.getIndex(pePos);
+					int peIndex = abcInputBuffer.getIndex(pePos) + indexOffset;
 					CharStreamPosition csp = new CharStreamPosition(
-							pePos.line, pePos.column, peIndex,
+							pePos.line + lineOffset, pePos.column, peIndex,
 							peIndex + (peValue.length()>0?peValue.length():1));
 					//if ((pe.getStartIndex() >= node.getStartIndex())
 					//		&& (pe.getStartIndex() </*=*/ node.getEndIndex())) {
@@ -333,7 +344,8 @@ public class AbcNode extends PositionableInCharStream {
 	 */
 	public String getTexTextValue() {
 		String text = value;
-		if ((text != null) && (text.trim().length() > 0)) {
+		// all the escaped chars start with \
+		if ((text != null) && (text.indexOf('\\') != -1)) {
 			Enumeration e = bundle.getKeys();
 			while (e.hasMoreElements()) {
 				String key = (String) e.nextElement();
@@ -26,6 +26,7 @@ import java.util.Stack;
 import java.util.Vector;
 
 import org.parboiled.common.StringUtils;
+import org.parboiled.parserunners.BasicParseRunner;
 import org.parboiled.parserunners.RecoveringParseRunner;
 import org.parboiled.support.ParsingResult;
 
@@ -403,11 +404,26 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	 * @param abcString
 	 */
 	protected AbcNode getParseTree(String abcString) {
+		return getParseTree(abcString, 1, 0);
+	}
+
+	/**
+	 * Parse a part of a bigger ABC stream and get the parsing tree by its
+	 * root {@link AbcNode}. Positions of nodes are positions in the whole
+	 * stream.
+	 * 
+	 * @param abcString
+	 *            a part of the stream, starting at the beginning of a line
+	 * @param line
+	 *            line of the stream where the part starts (first is 1)
+	 * @param index
+	 *            offset of the part in the stream (first is 0)
+	 */
+	protected AbcNode getParseTree(String abcString, int line, int index) {
 		long startTime = System.currentTimeMillis();
-		AbcGrammar grammar = AbcGrammar.getInstance();
 		// AbcGrammar parser = Parboiled.createParser(AbcGrammar.class);
-		ParsingResult<?> result = RecoveringParseRunner.run(grammar.AbcFile(),
-				abcString);
+		ParsingResult<?> result = RecoveringParseRunner.run(
+				AbcGrammar.getAbcFileRule(), abcString);
 		if (DEBUG) {
 			System.out.println("Parse : "+(System.currentTimeMillis() - startTime) + "ms");
 		}
@@ -421,9 +437,30 @@ public abstract class AbcParserAbstract implements AbcTokens {
 						+ "("+pe.getStartIndex()+"->"+pe.getEndIndex()+")");
 			}*/
 		}
+		return newParseTree(result, abcString, line, index);
+	}
 
+	/**
+	 * Same as {@link #getParseTree(String, int, int)}, without error
+	 * recovery, which takes far longer than parsing.
+	 * 
+	 * @return the root of the parsing tree, <code>null</code> if the
+	 *         string has a syntax error
+	 */
+	protected AbcNode getParseTreeWithoutRecovery(String abcString, int line,
+			int index) {
+		ParsingResult<?> result = new BasicParseRunner(AbcGrammar
+				.getAbcFileRule()).run(abcString);
+		if (!result.matched)
+			return null;
+		return newParseTree(result, abcString, line, index);
+	}
+
+	private AbcNode newParseTree(ParsingResult<?> result, String abcString,
+			int line, int index) {
 		AbcNode abcRoot = new AbcNode(result.parseTreeRoot, result.inputBuffer,
-				result.parseErrors, new AbcInputBuffer(abcString.toCharArray()));
+				result.parseErrors, new AbcInputBuffer(abcString.toCharArray()),
+				line - 1, index);
 		if (result.hasErrors() || DEBUG)
 			debugTree(abcRoot);
 		return abcRoot;
@@ -519,7 +556,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	/** If you call directly parseAbcHeader, be sure to
 	 * call {@link #initNewTune()} and listener notifiers.
 	 * <p>
-	 * See {@link TuneParser#parseHeader0(AbcNode)} for example.
+	 * See {@link #parseAbcTuneHeader(AbcNode)} for example.
 	 */
 	protected AbcTune parseAbcHeader(AbcNode abcHeader) {
 		// X: number
@@ -566,6 +603,31 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		}
 	}
 	
+	/**
+	 * Parses the header of a tune, its music is not parsed. The tune ABC
+	 * string is the header one.
+	 * 
+	 * @param abcTune
+	 *            tune node, may be <code>null</code>
+	 */
+	protected AbcTune parseAbcTuneHeader(AbcNode abcTune) {
+		initNewTune();
+		notifyListenersForTuneBegin();
+		AbcNode abcHeaderNode = null;
+		if (abcTune != null)
+			abcHeaderNode = abcTune.getChild(AbcHeader);
+		AbcTune tune;
+		if (abcHeaderNode == null) {
+			tune = new AbcTune();
+			notifyListenersForNoTune();
+		} else {
+			tune = parseAbcHeader(abcHeaderNode);
+			tune.setAbcString(abcHeaderNode.getValue());
+		}
+		notifyListenersForTuneEnd(tune, abcHeaderNode);
+		return tune;
+	}
+
 	protected AbcTune parseAbcTune(AbcNode abcTune) {
 		notifyListenersForTuneBegin();
 		initNewTune();
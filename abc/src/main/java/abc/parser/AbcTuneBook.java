@@ -18,8 +18,13 @@ package abc.parser;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Serializable;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
 
 import abc.notation.Tune;
 import abc.notation.TuneBook;
@@ -35,6 +40,16 @@ import abc.notation.TuneInfos;
  * modify a tune book, by handling {@link abc.parser.AbcTune} objects. <br>
  * As described in AbcTune, even if the tunes' content is modified, the
  * {@link #saveAs(File)} method save the non-modified source for each tune.
+ * <p>
+ * A book built by {@link TuneBookParser#parseLazily(String)} is lazy: it
+ * keeps the source and the header of its tunes, and parses the music of a
+ * tune on the first {@link #getTune(int)} call for it. Parsed tunes are
+ * held through soft references, so they can be dropped under memory
+ * pressure and parsed again later: changes made to a tune got from a lazy
+ * book are kept only if the tune is put back with {@link #putTune(AbcTune)}.
+ * {@link #getTunes()} returns the tune headers and doesn't parse anything.
+ * A lazy book may have more tunes than the same source fully parsed, see
+ * {@link TuneBookParser#parseLazily(String)}.
  */
 public class AbcTuneBook extends TuneBook {
 
@@ -44,12 +59,24 @@ public class AbcTuneBook extends TuneBook {
 
 	private ArrayList m_listeners = new ArrayList(2);
 
+	/** reference number => LazyTune, for tunes not parsed by the parser */
+	private HashMap m_lazyTunes = new HashMap();
+
 	public AbcTuneBook() {
 		super();
 	}
 
 	public AbcTuneBook(TuneBook tuneBook) {
 		super(tuneBook);
+		if (tuneBook instanceof AbcTuneBook) {
+			Iterator it = ((AbcTuneBook) tuneBook).m_lazyTunes.entrySet()
+					.iterator();
+			while (it.hasNext()) {
+				Map.Entry entry = (Map.Entry) it.next();
+				m_lazyTunes.put(entry.getKey(), new LazyTune(
+						((LazyTune) entry.getValue()).m_source));
+			}
+		}
 	}
 
 	protected AbcTuneBook(TuneBook tuneBook, String abcString) {
@@ -67,6 +94,10 @@ public class AbcTuneBook extends TuneBook {
 		m_listeners.add(l);
 	}
 
+	public boolean containsTune(int referenceNumber) {
+		return getTunes().containsKey(referenceNumber);
+	}
+
 	public String getAbcHeaderString() {
 		return m_abcHeaderString;
 	}
@@ -75,7 +106,8 @@ public class AbcTuneBook extends TuneBook {
 		StringBuffer sb = new StringBuffer(getAbcHeaderString());
 		if (sb.length() > 0)
 			sb.append("\n\n");
-		Iterator it = toVector().iterator();
+		// tunes of a lazy book have their whole source, no need to parse
+		Iterator it = getTunes().values().iterator();
 		while (it.hasNext()) {
 			Tune tune = (Tune) it.next();
 			if (tune instanceof AbcTune) {
@@ -86,6 +118,37 @@ public class AbcTuneBook extends TuneBook {
 		return sb.toString();
 	}
 
+	/**
+	 * Returns the tune requested by its reference number, its music is
+	 * parsed if this book is lazy and the tune has not been parsed yet or
+	 * has been dropped.
+	 * 
+	 * @return a Tune or null
+	 */
+	public synchronized Tune getTune(int referenceNumber) {
+		Tune tune = super.getTune(referenceNumber);
+		LazyTune lazy = (LazyTune) m_lazyTunes.get(referenceNumber);
+		if ((tune == null) || (lazy == null))
+			return tune;
+		AbcTune parsed = (lazy.m_tune != null) ? (AbcTune) lazy.m_tune.get()
+				: null;
+		if (parsed == null) {
+			parsed = new TuneParser().parse(((AbcTune) tune).getAbcString(),
+					lazy.m_source);
+			attach(parsed);
+			lazy.m_tune = new SoftReference(parsed);
+		}
+		return parsed;
+	}
+
+	/**
+	 * Returns <TT>true</TT> if this book has tunes whose music is parsed on
+	 * demand.
+	 */
+	public boolean isLazy() {
+		return !m_lazyTunes.isEmpty();
+	}
+
 	protected void notifyListenersForTuneChange(TuneChangeEvent e) {
 		for (int i = 0; i < m_listeners.size(); i++)
 			((TuneBookListenerInterface) m_listeners.get(i)).tuneChanged(e);
@@ -105,13 +168,41 @@ public class AbcTuneBook extends TuneBook {
 	 */
 	public boolean putTune(AbcTune tune) {
 		boolean ret = containsTune(tune);
+		m_lazyTunes.remove(tune.getReferenceNumber());
 		super.putTune(tune);
+		notifyListenersForTunePut(tune, ret);
+		return ret;
+	}
+
+	/**
+	 * Puts the header of a tune whose music will be parsed on demand.
+	 * Listeners get the parsed tune, so the tune is parsed at once if
+	 * there are listeners.
+	 * 
+	 * @param header
+	 *            tune with header values and whole tune source
+	 * @param source
+	 *            position of the tune source in the book source
+	 */
+	void putTune(AbcTune header, CharStreamPosition source) {
+		boolean ret = containsTune(header);
+		super.putTune(header);
+		m_lazyTunes.put(header.getReferenceNumber(), new LazyTune(source));
+		if (!m_listeners.isEmpty())
+			notifyListenersForTunePut(getTune(header.getReferenceNumber()), ret);
+	}
+
+	private void notifyListenersForTunePut(Tune tune, boolean replaced) {
 		TuneChangeEvent tce = new TuneChangeEvent(this,
 				TuneChangeEvent.TUNE_ADDED, tune);
-		if (ret) // update
+		if (replaced) // update
 			tce.setType(TuneChangeEvent.TUNE_UPDATED);
 		notifyListenersForTuneChange(tce);
-		return ret;
+	}
+
+	public boolean putTune(Tune tune) {
+		m_lazyTunes.remove(tune.getReferenceNumber());
+		return super.putTune(tune);
 	}
 
 	/**
@@ -131,6 +222,8 @@ public class AbcTuneBook extends TuneBook {
 	 * @return the removed tune, null if didn't exist.
 	 */
 	public Tune removeTune(int referenceNumber) {
+		// no need to parse a lazy tune to remove it
+		m_lazyTunes.remove(referenceNumber);
 		Tune ret = super.removeTune(referenceNumber);
 		if (ret != null) {
 			notifyListenersForTuneChange(new TuneChangeEvent(this,
@@ -162,4 +255,31 @@ public class AbcTuneBook extends TuneBook {
 		super.setBookInfos(bookInfos);
 	}
 
+	/** Returns the tunes, a lazy book parses all of them */
+	public Vector toVector() {
+		int[] refs = getReferenceNumbers();
+		Vector v = new Vector(refs.length, 5);
+		for (int i = 0; i < refs.length; i++)
+			v.addElement(getTune(refs[i]));
+		return v;
+	}
+
+	/**
+	 * A tune not parsed by the parser: where to find it in the book source,
+	 * and the tune once parsed.
+	 */
+	private static final class LazyTune implements Serializable {
+
+		private static final long serialVersionUID = 2648861398146310717L;
+
+		private final CharStreamPosition m_source;
+		/** parsed tune, may have been cleared */
+		private transient SoftReference m_tune = null;
+
+		private LazyTune(CharStreamPosition source) {
+			m_source = source;
+		}
+
+	}
+
 }
@@ -0,0 +1,406 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import abc.notation.Tune;
+import abc.notation.TuneBook;
+
+/**
+ * Finds tunes which are probably versions of the same tune, e.g. in
+ * merged tune books, whatever their reference numbers, titles or keys.
+ * <p>
+ * Each tune melody (see {@link MelodyIndex}) is cut in shingles of
+ * {@link #SHINGLE_LENGTH} consecutive intervals, longer than the n-grams
+ * of the melody index to be specific to a tune. Two tunes are similar
+ * if they share
+ * many shingles (Jaccard similarity of the sets of shingles). Sets are
+ * not compared pair by pair:
+ * <ul>
+ * <li>each set is summarized by a MinHash signature of
+ * {@link #SIGNATURE_LENGTH} values, the same value in both signatures
+ * being as likely as the similarity of the sets
+ * <li>signatures are cut in bands, tunes having the same band are
+ * candidates (locality sensitive hashing). Bands are found by sorting
+ * the band hashes.
+ * <li>similarity of candidates is estimated from their signatures, the
+ * pairs above the threshold are merged in clusters.
+ * </ul>
+ * Tunes with the same band are sorted in a bucket, each one is compared
+ * to the following {@link #DEFAULT_MAX_COMPARISONS} tunes only, to keep
+ * big buckets (e.g. many tunes with the same common phrase) from
+ * costing a comparison of all pairs. Similar tunes further apart in a
+ * bucket are missed, unless they are chained by tunes in between or
+ * share another band. The limit can be given to
+ * {@link #DuplicateFinder(float, int)}, <TT>Integer.MAX_VALUE</TT>
+ * compares all pairs of a bucket.
+ * Signatures and bands are computed in parallel, on as many threads as
+ * available processors. Tunes must not be modified meanwhile.
+ */
+public class DuplicateFinder {
+
+	/** Number of hash values of a signature */
+	public static final int SIGNATURE_LENGTH = 64;
+
+	/** Number of intervals in a shingle */
+	public static final int SHINGLE_LENGTH = 5;
+
+	/**
+	 * Default maximum number of following tunes compared to a tune in a
+	 * bucket of a band
+	 */
+	public static final int DEFAULT_MAX_COMPARISONS = 32;
+
+	/** tunes without melody */
+	private static final int NO_SIGNATURE = Integer.MAX_VALUE;
+
+	private static final int[] HASH_A = new int[SIGNATURE_LENGTH];
+	private static final int[] HASH_B = new int[SIGNATURE_LENGTH];
+	static {
+		// fixed seed, results must not change from a run to another
+		Random random = new Random(0x5eed);
+		for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+			HASH_A[i] = random.nextInt() | 1;
+			HASH_B[i] = random.nextInt();
+		}
+	}
+
+	private final float m_threshold;
+
+	private final int m_rows;
+
+	private final int m_maxComparisons;
+
+	/** Creates a finder of tunes at least 50% similar */
+	public DuplicateFinder() {
+		this(0.5f);
+	}
+
+	/**
+	 * Creates a finder of tunes at least similar of the given threshold.
+	 *
+	 * @param threshold
+	 *            minimum estimated similarity, in ]0, 1]
+	 */
+	public DuplicateFinder(float threshold) {
+		this(threshold, DEFAULT_MAX_COMPARISONS);
+	}
+
+	/**
+	 * Creates a finder of tunes at least similar of the given threshold,
+	 * comparing each tune to at most the given number of following tunes
+	 * in a bucket.
+	 *
+	 * @param threshold
+	 *            minimum estimated similarity, in ]0, 1]
+	 * @param maxComparisons
+	 *            tunes compared to a tune in a bucket, at least 1,
+	 *            <TT>Integer.MAX_VALUE</TT> to compare all
+	 */
+	public DuplicateFinder(float threshold, int maxComparisons) {
+		if ((threshold <= 0) || (threshold > 1))
+			throw new IllegalArgumentException("Threshold " + threshold
+					+ " not in ]0, 1]");
+		if (maxComparisons < 1)
+			throw new IllegalArgumentException("Maximum comparisons "
+					+ maxComparisons + " lower than 1");
+		m_threshold = threshold;
+		m_maxComparisons = maxComparisons;
+		// the most rows per band, whose candidate threshold
+		// (1 / bands) ^ (1 / rows) is under the similarity threshold
+		int rows = 1;
+		for (int r = 2; r <= SIGNATURE_LENGTH / 2; r *= 2) {
+			double t = Math.pow(1.0 / (SIGNATURE_LENGTH / r), 1.0 / r);
+			if (t <= threshold)
+				rows = r;
+		}
+		m_rows = rows;
+	}
+
+	/**
+	 * Returns the clusters of similar tunes found in the given books.
+	 */
+	public Cluster[] find(TuneBook[] books) {
+		ArrayList tunes = new ArrayList();
+		for (TuneBook book : books)
+			tunes.addAll(book.toVector());
+		return find((Tune[]) tunes.toArray(new Tune[tunes.size()]));
+	}
+
+	/**
+	 * Returns the clusters of similar tunes, largest clusters first.
+	 */
+	public Cluster[] find(final Tune[] tunes) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final int[] signatures = signatures(tunes, executor, threads);
+			final int bands = SIGNATURE_LENGTH / m_rows;
+			Future[] futures = new Future[bands];
+			for (int b = 0; b < bands; b++) {
+				final int band = b;
+				futures[b] = executor.submit(new Callable() {
+					public Object call() {
+						return similarPairs(signatures, tunes.length, band);
+					}
+				});
+			}
+			UnionFind clusters = new UnionFind(tunes.length);
+			for (int b = 0; b < bands; b++) {
+				long[] pairs = (long[]) futures[b].get();
+				for (long pair : pairs)
+					clusters.union((int) (pair >>> 32), (int) pair);
+			}
+			return clusters(tunes, signatures, clusters);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Search of duplicates interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Search of duplicates failed", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Computes the signatures of all tunes in slices, returns them in
+	 * one array: signature of tune i starts at i * SIGNATURE_LENGTH.
+	 */
+	private static int[] signatures(final Tune[] tunes, ExecutorService executor,
+			int threads) throws InterruptedException, ExecutionException {
+		final int[] signatures = new int[tunes.length * SIGNATURE_LENGTH];
+		int slices = Math.max(1, Math.min(tunes.length, threads * 4));
+		int sliceSize = (tunes.length + slices - 1) / slices;
+		Future[] futures = new Future[slices];
+		for (int j = 0; j < slices; j++) {
+			final int from = j * sliceSize;
+			final int to = Math.min(tunes.length, from + sliceSize);
+			futures[j] = executor.submit(new Callable() {
+				public Object call() {
+					for (int i = from; i < to; i++)
+						sign(shinglesOf(tunes[i]), signatures, i * SIGNATURE_LENGTH);
+					return null;
+				}
+			});
+		}
+		for (Future future : futures)
+			future.get();
+		return signatures;
+	}
+
+	/**
+	 * Returns the shingles of the melody of a tune, hashes of
+	 * SHINGLE_LENGTH intervals. Duplicates don't matter for MinHash.
+	 */
+	private static int[] shinglesOf(Tune tune) {
+		int[] pitches = MelodyIndex.melodyOf(tune.getMusicForGraphicalRendition())[0];
+		int count = Math.max(0, pitches.length - SHINGLE_LENGTH);
+		int[] ret = new int[count];
+		for (int i = 0; i < count; i++) {
+			int h = 0;
+			for (int k = 0; k < SHINGLE_LENGTH; k++)
+				h = h * 127 + (pitches[i + k + 1] - pitches[i + k]);
+			ret[i] = h;
+		}
+		return ret;
+	}
+
+	/** Writes the MinHash signature of the given shingles */
+	private static void sign(int[] shingles, int[] signatures, int offset) {
+		Arrays.fill(signatures, offset, offset + SIGNATURE_LENGTH, NO_SIGNATURE);
+		for (int shingle : shingles) {
+			for (int k = 0; k < SIGNATURE_LENGTH; k++) {
+				int h = hash(shingle * HASH_A[k] + HASH_B[k]);
+				if (h < signatures[offset + k])
+					signatures[offset + k] = h;
+			}
+		}
+	}
+
+	/** Mixes the bits of a value (murmur3 finalizer), keeps it positive */
+	private static int hash(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return (h & NO_SIGNATURE) == NO_SIGNATURE ? 0 : h & NO_SIGNATURE;
+	}
+
+	/**
+	 * Returns the pairs (i << 32 | j) of tunes having the same given band
+	 * and an estimated similarity over the threshold.
+	 */
+	private long[] similarPairs(int[] signatures, int count, int band) {
+		// band hash << 32 | tune, sorted to gather tunes with the same band
+		long[] keys = new long[count];
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			int offset = i * SIGNATURE_LENGTH;
+			if (signatures[offset] == NO_SIGNATURE)
+				continue;
+			int h = 1;
+			for (int r = band * m_rows, end = r + m_rows; r < end; r++)
+				h = 31 * h + signatures[offset + r];
+			keys[n++] = ((long) h << 32) | i;
+		}
+		Arrays.sort(keys, 0, n);
+		long[] pairs = new long[16];
+		int pairsCount = 0;
+		for (int i = 0; i < n; i++) {
+			int hi = (int) (keys[i] >>> 32);
+			int last = (int) Math.min(n - 1L, (long) i + m_maxComparisons);
+			for (int j = i + 1; (j <= last)
+					&& ((int) (keys[j] >>> 32) == hi); j++) {
+				int a = (int) keys[i], b = (int) keys[j];
+				if (similarity(signatures, a, b) >= m_threshold) {
+					if (pairsCount == pairs.length) {
+						long[] more = new long[pairsCount * 2];
+						System.arraycopy(pairs, 0, more, 0, pairsCount);
+						pairs = more;
+					}
+					pairs[pairsCount++] = ((long) a << 32) | b;
+				}
+			}
+		}
+		long[] ret = new long[pairsCount];
+		System.arraycopy(pairs, 0, ret, 0, pairsCount);
+		return ret;
+	}
+
+	/** Returns the estimated similarity of two tunes */
+	private static float similarity(int[] signatures, int a, int b) {
+		int offsetA = a * SIGNATURE_LENGTH, offsetB = b * SIGNATURE_LENGTH;
+		int same = 0;
+		for (int k = 0; k < SIGNATURE_LENGTH; k++) {
+			if (signatures[offsetA + k] == signatures[offsetB + k])
+				same++;
+		}
+		return same / (float) SIGNATURE_LENGTH;
+	}
+
+	private static Cluster[] clusters(Tune[] tunes, int[] signatures,
+			UnionFind unionFind) {
+		// tunes of each root, in tunes order
+		int count = tunes.length;
+		int[] sizes = new int[count];
+		for (int i = 0; i < count; i++)
+			sizes[unionFind.find(i)]++;
+		int[][] members = new int[count][];
+		int[] filled = new int[count];
+		ArrayList roots = new ArrayList();
+		for (int i = 0; i < count; i++) {
+			int root = unionFind.find(i);
+			if (sizes[root] < 2)
+				continue;
+			if (members[root] == null) {
+				members[root] = new int[sizes[root]];
+				roots.add(root);
+			}
+			members[root][filled[root]++] = i;
+		}
+		Cluster[] ret = new Cluster[roots.size()];
+		for (int c = 0; c < ret.length; c++) {
+			int[] m = members[(Integer) roots.get(c)];
+			Tune[] clusterTunes = new Tune[m.length];
+			float[] similarities = new float[m.length];
+			for (int i = 0; i < m.length; i++) {
+				clusterTunes[i] = tunes[m[i]];
+				similarities[i] = similarity(signatures, m[0], m[i]);
+			}
+			ret[c] = new Cluster(clusterTunes, similarities);
+		}
+		Arrays.sort(ret, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				return ((Cluster) o2).size() - ((Cluster) o1).size();
+			}
+		});
+		return ret;
+	}
+
+	/**
+	 * A group of tunes similar to each other.
+	 */
+	public static final class Cluster {
+
+		private final Tune[] m_tunes;
+		private final float[] m_similarities;
+
+		private Cluster(Tune[] tunes, float[] similarities) {
+			m_tunes = tunes;
+			m_similarities = similarities;
+		}
+
+		/** Returns the number of tunes in this cluster */
+		public int size() {
+			return m_tunes.length;
+		}
+
+		/** Returns the tunes of this cluster, in the order they were given */
+		public Tune[] getTunes() {
+			return (Tune[]) m_tunes.clone();
+		}
+
+		/**
+		 * Returns the estimated similarity of the tune i with the first
+		 * tune of the cluster, from 0 to 1.
+		 */
+		public float getSimilarity(int i) {
+			return m_similarities[i];
+		}
+
+	}
+
+	/** Disjoint sets of tunes indexes, with path halving */
+	private static final class UnionFind {
+
+		private final int[] m_parents;
+
+		private UnionFind(int count) {
+			m_parents = new int[count];
+			for (int i = 0; i < count; i++)
+				m_parents[i] = i;
+		}
+
+		private int find(int i) {
+			while (m_parents[i] != i) {
+				m_parents[i] = m_parents[m_parents[i]];
+				i = m_parents[i];
+			}
+			return i;
+		}
+
+		private void union(int a, int b) {
+			int ra = find(a), rb = find(b);
+			// the lowest index is the root, first tune of the cluster
+			if (ra < rb)
+				m_parents[rb] = ra;
+			else if (rb < ra)
+				m_parents[ra] = rb;
+		}
+
+	}
+
+}
@@ -0,0 +1,419 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import abc.notation.Music;
+import abc.notation.NoteColumns;
+import abc.notation.Tune;
+import abc.notation.TuneBook;
+
+/**
+ * An index of the melodies of the tunes of a book, to find tunes from
+ * a fragment of melody, typed or hummed, in any key.
+ * <p>
+ * The melody of a tune is the first voice of its
+ * {@link Tune#getMusicForGraphicalRendition() music}: the highest note
+ * of chords, without rests, tied notes merged. It is cut in n-grams of
+ * {@link #GRAM_LENGTH} consecutive intervals (in semitones, so the
+ * index doesn't depend on the key), and of the same intervals with the
+ * ratios of consecutive durations. Each n-gram is packed in an
+ * <TT>int</TT> and knows the tunes using it.
+ * <p>
+ * A search cuts the fragment in n-grams the same way, and counts for
+ * each tune the n-grams found: a matching interval n-gram counts 2, a
+ * matching rhythm n-gram one more, so tunes with the same rhythm come
+ * first. The fragment needs at least <TT>GRAM_LENGTH + 1</TT> notes.
+ * <p>
+ * The index follows changes of an {@link AbcTuneBook} when it is added
+ * as listener. Methods are synchronized.
+ */
+public class MelodyIndex implements TuneBookListenerInterface {
+
+	/** Number of intervals in a n-gram */
+	public static final int GRAM_LENGTH = 3;
+
+	/** intervals are kept in [-63, 63], 7 bits */
+	private static final int INTERVAL_BITS = 7;
+	/** duration ratios are kept in [1/8, 8] as log2 + 3, 3 bits */
+	private static final int RATIO_BITS = 3;
+	/** marker of rhythm n-grams, interval n-grams use 21 bits */
+	private static final int RHYTHM_GRAM = 1 << 30;
+
+	private static final int[] NONE = new int[0];
+
+	/** Integer gram -> Postings of tune ids */
+	private final HashMap m_postings = new HashMap();
+
+	/** Integer reference number -> Integer tune id */
+	private final HashMap m_ids = new HashMap();
+
+	/** m_refs[id] reference number of the tune, -1 if removed */
+	private int[] m_refs = new int[16];
+	/** m_grams[id] distinct grams of the tune, to remove it */
+	private int[][] m_grams = new int[16][];
+	private int m_nextId = 0;
+	/** ids of removed tunes, reused by next tunes */
+	private int[] m_freeIds = new int[16];
+	private int m_freeIdsCount = 0;
+
+	/** score of each tune id, kept to 0 between searches */
+	private int[] m_scores = NONE;
+	/** ids with a score, filled by a search */
+	private int[] m_candidates = NONE;
+
+	/** Creates an empty index */
+	public MelodyIndex() {
+		super();
+	}
+
+	/** Creates an index of the tunes of the given book */
+	public MelodyIndex(TuneBook book) {
+		this();
+		for (Object o : book.toVector())
+			putTune((Tune) o);
+	}
+
+	/**
+	 * Updates the index when a tune is added, updated or removed.
+	 */
+	public void tuneChanged(TuneChangeEvent e) {
+		if (e.getType() == TuneChangeEvent.TUNE_REMOVED)
+			removeTune(e.getTune().getReferenceNumber());
+		else
+			putTune(e.getTune());
+	}
+
+	/**
+	 * Indexes the melody of the given tune, replacing the tune of the
+	 * same reference number if any.
+	 */
+	public synchronized void putTune(Tune tune) {
+		int ref = tune.getReferenceNumber();
+		removeTune(ref);
+		int[] grams = gramsOf(tune.getMusicForGraphicalRendition());
+		int id = m_freeIdsCount > 0 ? m_freeIds[--m_freeIdsCount] : m_nextId++;
+		if (id == m_refs.length) {
+			int[] refs = new int[id * 2];
+			System.arraycopy(m_refs, 0, refs, 0, id);
+			m_refs = refs;
+			int[][] allGrams = new int[id * 2][];
+			System.arraycopy(m_grams, 0, allGrams, 0, id);
+			m_grams = allGrams;
+		}
+		m_refs[id] = ref;
+		m_grams[id] = grams;
+		m_ids.put(ref, id);
+		for (int gram : grams) {
+			Postings postings = (Postings) m_postings.get(gram);
+			if (postings == null) {
+				postings = new Postings();
+				m_postings.put(gram, postings);
+			}
+			postings.add(id);
+		}
+	}
+
+	/**
+	 * Removes the tune of the given reference number from the index.
+	 */
+	public synchronized void removeTune(int referenceNumber) {
+		Integer id = (Integer) m_ids.remove(referenceNumber);
+		if (id == null)
+			return;
+		for (int gram : m_grams[id]) {
+			Postings postings = (Postings) m_postings.get(gram);
+			if ((postings != null) && postings.remove(id) && (postings.m_size == 0))
+				m_postings.remove(gram);
+		}
+		m_refs[id] = -1;
+		m_grams[id] = null;
+		if (m_freeIdsCount == m_freeIds.length) {
+			int[] freeIds = new int[m_freeIdsCount * 2];
+			System.arraycopy(m_freeIds, 0, freeIds, 0, m_freeIdsCount);
+			m_freeIds = freeIds;
+		}
+		m_freeIds[m_freeIdsCount++] = id;
+	}
+
+	/** Returns the number of indexed tunes */
+	public synchronized int size() {
+		return m_ids.size();
+	}
+
+	/**
+	 * Returns the tunes containing the melody of the first voice of the
+	 * given music, best matches first.
+	 */
+	public Match[] search(Music fragment, int maxResults) {
+		int[][] melody = melodyOf(fragment);
+		return search(melody[0], melody[1], maxResults);
+	}
+
+	/**
+	 * Returns the tunes containing the given fragment in ABC notation,
+	 * e.g. <TT>"ABcd e2dB"</TT>, best matches first. The default note
+	 * length is 1/8, accidentals can be given in a "K:" field.
+	 */
+	public Match[] search(String abcFragment, int maxResults) {
+		String abc = abcFragment.trim();
+		if (!abc.startsWith("K:"))
+			abc = "K:C\n" + abc;
+		Tune tune = new TuneParser().parse("X:1\nL:1/8\n" + abc + "\n");
+		return search(tune.getMusicForGraphicalRendition(), maxResults);
+	}
+
+	/**
+	 * Returns the tunes containing the given melody, best matches first.
+	 *
+	 * @param pitches
+	 *            midi pitches of the notes
+	 * @param durations
+	 *            durations of the notes, in the scale of
+	 *            <TT>Note.QUARTER</TT>..., or <TT>null</TT> if not known
+	 *            (e.g. for a hummed melody)
+	 * @param maxResults
+	 *            maximum number of returned matches
+	 * @throws IllegalArgumentException
+	 *             if there are less than <TT>GRAM_LENGTH + 1</TT> notes
+	 */
+	public synchronized Match[] search(int[] pitches, int[] durations,
+			int maxResults) throws IllegalArgumentException {
+		if (pitches.length < GRAM_LENGTH + 1)
+			throw new IllegalArgumentException("At least " + (GRAM_LENGTH + 1)
+					+ " notes are needed to search a melody");
+		int[] grams = grams(pitches, durations, pitches.length);
+		int intervalGrams = 0;
+		int rhythmGrams = 0;
+		for (int gram : grams) {
+			if ((gram & RHYTHM_GRAM) == 0)
+				intervalGrams++;
+			else
+				rhythmGrams++;
+		}
+		// score of each tune id: 2 per interval gram, 1 per rhythm gram
+		if (m_scores.length < m_nextId) {
+			m_scores = new int[m_refs.length];
+			m_candidates = new int[m_refs.length];
+		}
+		int[] scores = m_scores;
+		int[] candidates = m_candidates;
+		int candidatesCount = 0;
+		try {
+			for (int gram : grams) {
+				Postings postings = (Postings) m_postings.get(gram);
+				if (postings == null)
+					continue;
+				int weight = (gram & RHYTHM_GRAM) == 0 ? 2 : 1;
+				int[] ids = postings.m_ids;
+				for (int i = 0, n = postings.m_size; i < n; i++) {
+					int id = ids[i];
+					if (scores[id] == 0)
+						candidates[candidatesCount++] = id;
+					scores[id] += weight;
+				}
+			}
+			// scores are small, count them to keep only the best candidates
+			int maxScore = intervalGrams * 2 + rhythmGrams;
+			int[] histogram = new int[maxScore + 1];
+			for (int i = 0; i < candidatesCount; i++)
+				histogram[scores[candidates[i]]]++;
+			int threshold = maxScore;
+			int kept = histogram[maxScore];
+			while ((threshold > 1) && (kept < maxResults))
+				kept += histogram[--threshold];
+			// best scores first, then lowest reference numbers
+			long[] sorted = new long[kept];
+			int n = 0;
+			for (int i = 0; i < candidatesCount; i++) {
+				int id = candidates[i];
+				if (scores[id] >= threshold)
+					sorted[n++] = ((long) (Integer.MAX_VALUE - scores[id]) << 32)
+						| (m_refs[id] & 0xFFFFFFFFL);
+			}
+			Arrays.sort(sorted);
+			Match[] ret = new Match[Math.min(maxResults, kept)];
+			for (int i = 0; i < ret.length; i++) {
+				int score = Integer.MAX_VALUE - (int) (sorted[i] >>> 32);
+				ret[i] = new Match((int) sorted[i], Math.min(1f, score / (float) maxScore));
+			}
+			return ret;
+		} finally {
+			// ready for the next search
+			for (int i = 0; i < candidatesCount; i++)
+				scores[candidates[i]] = 0;
+		}
+	}
+
+	/** Returns the distinct grams of the melody of the given music */
+	private static int[] gramsOf(Music music) {
+		int[][] melody = melodyOf(music);
+		return grams(melody[0], melody[1], melody[0].length);
+	}
+
+	/**
+	 * Returns the melody of the first voice: {pitches, durations}.
+	 */
+	static int[][] melodyOf(Music music) {
+		if (music.getVoices().isEmpty())
+			return new int[][] { NONE, NONE };
+		NoteColumns columns = music.getNoteColumns();
+		int from = columns.getFirstRowOfVoice(0);
+		int to = columns.getEndRowOfVoice(0);
+		int[] pitches = new int[to - from];
+		int[] durations = new int[to - from];
+		int count = 0;
+		int lastPosition = -1;
+		NoteColumns.Cursor c = columns.cursor(0);
+		while (c.next()) {
+			if (c.isRest())
+				continue;
+			if (c.getPosition() == lastPosition) {
+				// note of the same chord, keep the highest
+				pitches[count - 1] = Math.max(pitches[count - 1], c.getPitch());
+				continue;
+			}
+			lastPosition = c.getPosition();
+			if (((c.getFlags() & NoteColumns.TIE_END) != 0) && (count > 0)
+					&& (pitches[count - 1] == c.getPitch())) {
+				durations[count - 1] += c.getDuration();
+				continue;
+			}
+			pitches[count] = c.getPitch();
+			durations[count] = c.getDuration();
+			count++;
+		}
+		int[] p = new int[count];
+		int[] d = new int[count];
+		System.arraycopy(pitches, 0, p, 0, count);
+		System.arraycopy(durations, 0, d, 0, count);
+		return new int[][] { p, d };
+	}
+
+	/**
+	 * Returns the distinct interval grams, and rhythm grams if durations
+	 * are given, of a melody.
+	 */
+	private static int[] grams(int[] pitches, int[] durations, int count) {
+		int gramsCount = Math.max(0, count - GRAM_LENGTH);
+		int[] ret = new int[gramsCount * (durations == null ? 1 : 2)];
+		int n = 0;
+		for (int i = 0; i < gramsCount; i++) {
+			int gram = 0;
+			int rhythm = 0;
+			for (int k = 0; k < GRAM_LENGTH; k++) {
+				int interval = pitches[i + k + 1] - pitches[i + k];
+				interval = Math.max(-63, Math.min(63, interval)) + 63;
+				gram = (gram << INTERVAL_BITS) | interval;
+				if (durations != null)
+					rhythm = (rhythm << RATIO_BITS)
+						| ratio(durations[i + k], durations[i + k + 1]);
+			}
+			ret[n++] = gram;
+			if (durations != null)
+				ret[n++] = RHYTHM_GRAM | (rhythm << (INTERVAL_BITS * GRAM_LENGTH)) | gram;
+		}
+		Arrays.sort(ret, 0, n);
+		// remove duplicates
+		int distinct = 0;
+		for (int i = 0; i < n; i++) {
+			if ((distinct == 0) || (ret[i] != ret[distinct - 1]))
+				ret[distinct++] = ret[i];
+		}
+		if (distinct == ret.length)
+			return ret;
+		int[] copy = new int[distinct];
+		System.arraycopy(ret, 0, copy, 0, distinct);
+		return copy;
+	}
+
+	/** Returns log2(next / previous) rounded in [-3, 3], plus 3 */
+	private static int ratio(int previous, int next) {
+		if ((previous <= 0) || (next <= 0))
+			return 3;
+		double log = Math.log(next / (double) previous) / Math.log(2);
+		return (int) Math.max(-3, Math.min(3, Math.round(log))) + 3;
+	}
+
+	/**
+	 * A tune found by a search.
+	 */
+	public static final class Match {
+
+		private final int m_referenceNumber;
+		private final float m_quality;
+
+		private Match(int referenceNumber, float quality) {
+			m_referenceNumber = referenceNumber;
+			m_quality = quality;
+		}
+
+		/** Returns the reference number of the tune */
+		public int getReferenceNumber() {
+			return m_referenceNumber;
+		}
+
+		/**
+		 * Returns the part of the n-grams of the fragment found in the
+		 * tune, from 0 to 1 (all intervals, and rhythm if given, found)
+		 */
+		public float getQuality() {
+			return m_quality;
+		}
+
+		public String toString() {
+			return "X:" + m_referenceNumber + " (" + m_quality + ")";
+		}
+
+	}
+
+	/** Sorted ids of tunes having a gram */
+	private static final class Postings {
+
+		private int[] m_ids = new int[2];
+		private int m_size = 0;
+
+		/** Adds an id, not already there */
+		private void add(int id) {
+			if (m_size == m_ids.length) {
+				int[] ids = new int[m_size * 2];
+				System.arraycopy(m_ids, 0, ids, 0, m_size);
+				m_ids = ids;
+			}
+			// new ids are usually the greatest, reused ones are inserted
+			int i = m_size;
+			if ((i > 0) && (m_ids[i - 1] > id)) {
+				i = -(Arrays.binarySearch(m_ids, 0, m_size, id) + 1);
+				System.arraycopy(m_ids, i, m_ids, i + 1, m_size - i);
+			}
+			m_ids[i] = id;
+			m_size++;
+		}
+
+		private boolean remove(int id) {
+			int i = Arrays.binarySearch(m_ids, 0, m_size, id);
+			if (i < 0)
+				return false;
+			System.arraycopy(m_ids, i + 1, m_ids, i, m_size - i - 1);
+			m_size--;
+			return true;
+		}
+
+	}
+
+}
@@ -0,0 +1,459 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import abc.notation.KeySignature;
+import abc.notation.Music;
+import abc.notation.NoteAbstract;
+import abc.notation.TimeSignature;
+import abc.notation.Tune;
+import abc.notation.TuneBook;
+import abc.notation.TuneInfos;
+import abc.notation.Voice;
+
+/**
+ * An inverted index of the {@link TuneInfos} of the tunes of a book, to
+ * search tunes by title, composer, rhythm... without walking the book.
+ * <p>
+ * Texts are cut in tokens: lower case words, without accents, so
+ * "Gavotte de l'Aven" matches "aven" or "gavotte". Each token of each
+ * indexed field knows the sorted reference numbers of tunes using it.
+ * Tunes are also indexed by key (e.g. "Dmix") and meter (e.g. "6/8"),
+ * to filter results and count them by key or meter (facets).
+ * <p>
+ * The index follows changes of an {@link AbcTuneBook} when it is added
+ * as listener:
+ * <PRE>
+ * TuneBookIndex index = new TuneBookIndex(book);
+ * book.addListener(index);
+ * int[] refs = index.searchPrefix(TuneInfos.TITLE, "gavotte de l");
+ * </PRE>
+ * Methods are synchronized, the index can be queried by several threads.
+ */
+public class TuneBookIndex implements TuneBookListenerInterface {
+
+	/** Search in all indexed fields */
+	public static final byte ANY_FIELD = 0;
+
+	/** Fields indexed by default */
+	private static final byte[] DEFAULT_FIELDS = { TuneInfos.TITLE,
+			TuneInfos.COMPOSER, TuneInfos.RHYTHM, TuneInfos.ORIGIN,
+			TuneInfos.AREA, TuneInfos.GROUP, TuneInfos.BOOK,
+			TuneInfos.SOURCE, TuneInfos.TRANSCRIPTION };
+
+	private static final Pattern DIACRITICS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+	private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	private static final int[] NONE = new int[0];
+
+	private static final String[] NONE_TOKENS = new String[0];
+
+	private final byte[] m_fields;
+
+	/** m_tokens[field] TreeMap token -> Postings, [ANY_FIELD] for all */
+	private final TreeMap[] m_tokens;
+
+	/** key notation -> Postings */
+	private final HashMap m_keys = new HashMap();
+
+	/** meter -> Postings */
+	private final HashMap m_meters = new HashMap();
+
+	/** Integer reference number -> Entry */
+	private final HashMap m_entries = new HashMap();
+
+	/** Creates an empty index of the default fields */
+	public TuneBookIndex() {
+		this(DEFAULT_FIELDS);
+	}
+
+	/**
+	 * Creates an empty index of the given fields
+	 *
+	 * @param fields
+	 *            {@link TuneInfos#TITLE}, {@link TuneInfos#COMPOSER}...
+	 */
+	public TuneBookIndex(byte[] fields) {
+		m_fields = (byte[]) fields.clone();
+		byte max = ANY_FIELD;
+		for (byte field : m_fields)
+			max = (byte) Math.max(max, field);
+		m_tokens = new TreeMap[max + 1];
+		m_tokens[ANY_FIELD] = new TreeMap();
+		for (byte field : m_fields)
+			m_tokens[field] = new TreeMap();
+	}
+
+	/** Creates an index of the default fields of the tunes of the given book */
+	public TuneBookIndex(TuneBook book) {
+		this(DEFAULT_FIELDS);
+		for (Object o : book.getTunes().values())
+			putTune((Tune) o);
+	}
+
+	/**
+	 * Updates the index when a tune is added, updated or removed.
+	 */
+	public void tuneChanged(TuneChangeEvent e) {
+		if (e.getType() == TuneChangeEvent.TUNE_REMOVED)
+			removeTune(e.getTune().getReferenceNumber());
+		else
+			putTune(e.getTune());
+	}
+
+	/**
+	 * Indexes the given tune, replacing the tune of the same reference
+	 * number if any.
+	 */
+	public synchronized void putTune(Tune tune) {
+		int ref = tune.getReferenceNumber();
+		removeTune(ref);
+		TuneInfos infos = tune.getTuneInfos();
+		Entry entry = new Entry();
+		entry.m_tokens = new String[m_fields.length][];
+		for (int i = 0; i < m_fields.length; i++) {
+			String[] tokens = tokenize(infos.get(m_fields[i]));
+			entry.m_tokens[i] = tokens;
+			for (String token : tokens) {
+				postings(m_tokens[m_fields[i]], token).add(ref);
+				postings(m_tokens[ANY_FIELD], token).add(ref);
+			}
+		}
+		readKeyAndMeter(tune, entry);
+		if (entry.m_key != null)
+			postings(m_keys, entry.m_key).add(ref);
+		if (entry.m_meter != null)
+			postings(m_meters, entry.m_meter).add(ref);
+		m_entries.put(ref, entry);
+	}
+
+	/**
+	 * Removes the tune of the given reference number from the index.
+	 */
+	public synchronized void removeTune(int referenceNumber) {
+		Entry entry = (Entry) m_entries.remove(referenceNumber);
+		if (entry == null)
+			return;
+		for (int i = 0; i < m_fields.length; i++) {
+			for (String token : entry.m_tokens[i]) {
+				removePosting(m_tokens[m_fields[i]], token, referenceNumber);
+				removePosting(m_tokens[ANY_FIELD], token, referenceNumber);
+			}
+		}
+		if (entry.m_key != null)
+			removePosting(m_keys, entry.m_key, referenceNumber);
+		if (entry.m_meter != null)
+			removePosting(m_meters, entry.m_meter, referenceNumber);
+	}
+
+	/** Returns the number of indexed tunes */
+	public synchronized int size() {
+		return m_entries.size();
+	}
+
+	/**
+	 * Returns the reference numbers of tunes having all the words of the
+	 * given text in the given field.
+	 *
+	 * @param field
+	 *            {@link TuneInfos#TITLE}, {@link TuneInfos#COMPOSER}... or
+	 *            {@link #ANY_FIELD}
+	 * @return reference numbers, ascending
+	 * @throws IllegalArgumentException
+	 *             if the field is not indexed
+	 */
+	public synchronized int[] search(byte field, String text)
+			throws IllegalArgumentException {
+		TreeMap tokens = getTokens(field);
+		String[] words = tokenize(text);
+		if (words.length == 0)
+			return NONE;
+		int[] ret = null;
+		for (String word : words) {
+			Postings postings = (Postings) tokens.get(word);
+			if (postings == null)
+				return NONE;
+			ret = (ret == null) ? postings.toArray() : and(ret, postings.toArray());
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the reference numbers of tunes having all the words of the
+	 * given text in the given field, the last word being the beginning
+	 * of a word, e.g. while it is typed.
+	 *
+	 * @see #search(byte, String)
+	 */
+	public synchronized int[] searchPrefix(byte field, String text)
+			throws IllegalArgumentException {
+		TreeMap tokens = getTokens(field);
+		String[] words = tokenize(text);
+		if (words.length == 0)
+			return NONE;
+		String prefix = words[words.length - 1];
+		SortedMap matching = tokens.subMap(prefix, prefix + Character.MAX_VALUE);
+		if (matching.isEmpty())
+			return NONE;
+		int[] ret;
+		if (matching.size() == 1)
+			ret = ((Postings) matching.values().iterator().next()).toArray();
+		else {
+			// union of the postings of all matching words
+			ArrayList arrays = new ArrayList(matching.size());
+			int count = 0;
+			for (Object o : matching.values()) {
+				int[] refs = ((Postings) o).toArray();
+				arrays.add(refs);
+				count += refs.length;
+			}
+			ret = new int[count];
+			int pos = 0;
+			for (Object o : arrays) {
+				int[] refs = (int[]) o;
+				System.arraycopy(refs, 0, ret, pos, refs.length);
+				pos += refs.length;
+			}
+			Arrays.sort(ret);
+			ret = distinct(ret);
+		}
+		for (int i = 0; (i < words.length - 1) && (ret.length > 0); i++) {
+			Postings postings = (Postings) tokens.get(words[i]);
+			ret = (postings == null) ? NONE : and(ret, postings.toArray());
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the reference numbers of tunes in the given key, e.g.
+	 * "Gmaj", "Ador", see {@link KeySignature#toLitteralNotation()}.
+	 */
+	public synchronized int[] getTunesInKey(String key) {
+		Postings postings = (Postings) m_keys.get(key);
+		return postings == null ? NONE : postings.toArray();
+	}
+
+	/**
+	 * Returns the reference numbers of tunes in the given meter, e.g.
+	 * "6/8" or "4/4" (also for common time "C").
+	 */
+	public synchronized int[] getTunesInMeter(String meter) {
+		Postings postings = (Postings) m_meters.get(meter);
+		return postings == null ? NONE : postings.toArray();
+	}
+
+	/**
+	 * Counts the given tunes by key.
+	 *
+	 * @param referenceNumbers
+	 *            the tunes to count, e.g. a search result, <TT>null</TT>
+	 *            for all tunes
+	 * @return a map of key notation => Integer count, sorted by key
+	 */
+	public synchronized Map getKeyFacets(int[] referenceNumbers) {
+		return facets(m_keys, referenceNumbers, true);
+	}
+
+	/**
+	 * Counts the given tunes by meter.
+	 *
+	 * @param referenceNumbers
+	 *            the tunes to count, e.g. a search result, <TT>null</TT>
+	 *            for all tunes
+	 * @return a map of meter => Integer count, sorted by meter
+	 */
+	public synchronized Map getMeterFacets(int[] referenceNumbers) {
+		return facets(m_meters, referenceNumbers, false);
+	}
+
+	private Map facets(HashMap values, int[] referenceNumbers, boolean key) {
+		TreeMap ret = new TreeMap();
+		if (referenceNumbers == null) {
+			for (Iterator it = values.entrySet().iterator(); it.hasNext();) {
+				Map.Entry e = (Map.Entry) it.next();
+				ret.put(e.getKey(), ((Postings) e.getValue()).m_size);
+			}
+		} else {
+			for (int ref : referenceNumbers) {
+				Entry entry = (Entry) m_entries.get(ref);
+				String value = (entry == null) ? null
+						: (key ? entry.m_key : entry.m_meter);
+				if (value != null) {
+					Integer count = (Integer) ret.get(value);
+					ret.put(value, count == null ? 1 : count + 1);
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the reference numbers found in both given sorted arrays,
+	 * e.g. to filter a search result by key.
+	 */
+	public static int[] and(int[] a, int[] b) {
+		int[] ret = new int[Math.min(a.length, b.length)];
+		int i = 0, j = 0, n = 0;
+		while ((i < a.length) && (j < b.length)) {
+			if (a[i] < b[j])
+				i++;
+			else if (a[i] > b[j])
+				j++;
+			else {
+				ret[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return n == ret.length ? ret : copyOf(ret, n);
+	}
+
+	/**
+	 * Cuts a text in normalized tokens: lower case letters and digits
+	 * words, without accents.
+	 */
+	static String[] tokenize(String text) {
+		if ((text == null) || (text.length() == 0))
+			return NONE_TOKENS;
+		String s = Normalizer.normalize(text, Normalizer.Form.NFD);
+		s = DIACRITICS.matcher(s).replaceAll("").toLowerCase();
+		String[] words = SEPARATORS.split(s);
+		// remove empty and duplicate words
+		ArrayList ret = new ArrayList(words.length);
+		for (String word : words) {
+			if ((word.length() > 0) && !ret.contains(word))
+				ret.add(word);
+		}
+		return (String[]) ret.toArray(new String[ret.size()]);
+	}
+
+	/**
+	 * Reads the first key and meter of the tune, before its first note.
+	 */
+	private static void readKeyAndMeter(Tune tune, Entry entry) {
+		Music music = tune.getMusicForGraphicalRendition();
+		if (music.getVoices().isEmpty())
+			return;
+		Voice voice = (Voice) music.getVoices().iterator().next();
+		for (int i = 0, j = voice.size(); i < j; i++) {
+			Object element = voice.elementAt(i);
+			if ((element instanceof KeySignature) && (entry.m_key == null))
+				entry.m_key = ((KeySignature) element).toLitteralNotation();
+			else if ((element instanceof TimeSignature) && (entry.m_meter == null)
+					&& !((TimeSignature) element).isNone())
+				entry.m_meter = element.toString();
+			else if (element instanceof NoteAbstract)
+				break;
+		}
+		if (entry.m_key == null) {
+			KeySignature key = music.getKey();
+			if (key != null)
+				entry.m_key = key.toLitteralNotation();
+		}
+	}
+
+	private TreeMap getTokens(byte field) throws IllegalArgumentException {
+		if ((field >= 0) && (field < m_tokens.length) && (m_tokens[field] != null))
+			return m_tokens[field];
+		throw new IllegalArgumentException("Field " + field + " is not indexed");
+	}
+
+	private static Postings postings(Map map, String value) {
+		Postings ret = (Postings) map.get(value);
+		if (ret == null) {
+			ret = new Postings();
+			map.put(value, ret);
+		}
+		return ret;
+	}
+
+	private static void removePosting(Map map, String value, int ref) {
+		Postings postings = (Postings) map.get(value);
+		if ((postings != null) && postings.remove(ref) && (postings.m_size == 0))
+			map.remove(value);
+	}
+
+	private static int[] distinct(int[] sorted) {
+		int n = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if ((n == 0) || (sorted[i] != sorted[n - 1]))
+				sorted[n++] = sorted[i];
+		}
+		return n == sorted.length ? sorted : copyOf(sorted, n);
+	}
+
+	private static int[] copyOf(int[] a, int length) {
+		int[] ret = new int[length];
+		System.arraycopy(a, 0, ret, 0, length);
+		return ret;
+	}
+
+	/** What has been indexed for a tune, to remove it */
+	private static final class Entry {
+		/** tokens of each indexed field */
+		private String[][] m_tokens;
+		private String m_key;
+		private String m_meter;
+	}
+
+	/** Sorted reference numbers of tunes having a token or facet value */
+	private static final class Postings {
+
+		private int[] m_refs = new int[2];
+		private int m_size = 0;
+
+		private void add(int ref) {
+			int i = Arrays.binarySearch(m_refs, 0, m_size, ref);
+			if (i >= 0)
+				return;
+			i = -(i + 1);
+			if (m_size == m_refs.length) {
+				int[] refs = new int[m_size * 2];
+				System.arraycopy(m_refs, 0, refs, 0, m_size);
+				m_refs = refs;
+			}
+			System.arraycopy(m_refs, i, m_refs, i + 1, m_size - i);
+			m_refs[i] = ref;
+			m_size++;
+		}
+
+		private boolean remove(int ref) {
+			int i = Arrays.binarySearch(m_refs, 0, m_size, ref);
+			if (i < 0)
+				return false;
+			System.arraycopy(m_refs, i + 1, m_refs, i, m_size - i - 1);
+			m_size--;
+			return true;
+		}
+
+		private int[] toArray() {
+			return copyOf(m_refs, m_size);
+		}
+
+	}
+
+}
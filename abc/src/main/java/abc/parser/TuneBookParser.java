@@ -19,6 +19,8 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Iterator;
 
 /**
@@ -140,34 +142,162 @@ public class TuneBookParser extends AbcParserAbstract {
 
 	private AbcTuneBook parseHeaders0(AbcNode abcRoot) {
 		notifyListenersForTuneBookBegin();
+		AbcTuneBook tuneBook;
 		if (abcRoot != null) {
 			AbcNode tuneBookHeader = abcRoot.getChild("AbcTuneBookHeader");
-			AbcTuneBook tuneBook = parseTuneBookHeader(tuneBookHeader);
+			tuneBook = parseTuneBookHeader(tuneBookHeader);
 			Iterator it = abcRoot.getChilds("AbcTune").iterator();
 			while (it.hasNext()) {
 				AbcNode abcTuneNode = (AbcNode) it.next();
-				initNewTune();
-				notifyListenersForTuneBegin();
-				AbcNode abcHeaderNode = null;
-				if (abcTuneNode != null)
-					abcHeaderNode = abcTuneNode.getChild("AbcHeader");
-				AbcTune tune;
-				if (abcHeaderNode == null) {
-					tune = new AbcTune();
-					notifyListenersForNoTune();
-				} else {
-					tune = parseAbcHeader(abcHeaderNode);
-					tune.setAbcString(abcHeaderNode.getValue());
-				}
-				notifyListenersForTuneEnd(tune, abcHeaderNode);
-				tuneBook.putTune(tune);
+				tuneBook.putTune(parseAbcTuneHeader(abcTuneNode));
 			}
 		} else {
-			m_tuneBook = newAbcTuneBook();
+			tuneBook = newAbcTuneBook();
 			notifyListenersForEmptyTuneBook();
 		}
-		notifyListenersForTuneBookEnd(m_tuneBook, abcRoot);
-		return m_tuneBook;
+		notifyListenersForTuneBookEnd(tuneBook, abcRoot);
+		return tuneBook;
+	}
+
+	/**
+	 * Parse the given file and creates a lazy <TT>TuneBook</TT>: only the
+	 * headers of the tunes are parsed, the music of a tune is parsed on
+	 * the first {@link AbcTuneBook#getTune(int)} call for it. This is
+	 * faster than {@link #parse(File)} when only a few tunes of a big
+	 * book are read.
+	 * 
+	 * @param file
+	 *            Tune book file in ABC notation.
+	 * @return A lazy tune book representing the ABC notation stream.
+	 * @see AbcTuneBook#isLazy()
+	 */
+	public AbcTuneBook parseLazily(File file) throws IOException {
+		return parseLazily(new FileReader(file));
+	}
+
+	/**
+	 * Parse the given stream and creates a lazy <TT>TuneBook</TT>.
+	 * 
+	 * @param reader
+	 *            Tune book stream in ABC notation.
+	 * @return A lazy tune book representing the ABC notation stream.
+	 * @see #parseLazily(File)
+	 */
+	public AbcTuneBook parseLazily(Reader reader) throws IOException {
+		StringWriter writer = new StringWriter();
+		char[] buffer = new char[32 * 1024];
+		int n;
+		while ((n = reader.read(buffer)) != -1) {
+			writer.write(buffer, 0, n);
+		}
+		return parseLazily(writer.toString());
+	}
+
+	/**
+	 * Parse the given string and creates a lazy <TT>TuneBook</TT>.
+	 * <p>
+	 * Tunes are found by their <TT>X:</TT> field at the beginning of a
+	 * line, a tune ending where the next one starts. Only the tune headers
+	 * (up to the <TT>K:</TT> field) go through the parser, the lines of a
+	 * header it doesn't accept are left out until the tune is read. A
+	 * book with no <TT>X:</TT> field is parsed at once, as by
+	 * {@link #parse(String)}.
+	 * <p>
+	 * As each tune is parsed on its own, a syntax error in a tune doesn't
+	 * hide the next ones, while the error recovery of {@link #parse(String)}
+	 * may swallow the tunes following an error. So a lazy book may have
+	 * more tunes than the same book fully parsed: it has all of its
+	 * tunes, with the same music, and the tunes lost by the full parse.
+	 * 
+	 * @param tuneBook
+	 *            The abc tune book, as a String, to be parsed.
+	 * @return A lazy tune book representing the ABC notation string.
+	 * @see #parseLazily(File)
+	 */
+	public AbcTuneBook parseLazily(String tuneBook) {
+		// {start, line, header end} of each tune
+		ArrayList tunes = new ArrayList();
+		int[] tune = null;
+		boolean inHeader = false;
+		int length = tuneBook.length();
+		int line = 1;
+		for (int i = 0; i < length; line++) {
+			int eol = tuneBook.indexOf('\n', i);
+			int next = eol < 0 ? length : eol + 1;
+			if (tuneBook.startsWith("X:", i)) {
+				tune = new int[] { i, line, next };
+				tunes.add(tune);
+				inHeader = true;
+			} else if (inHeader) {
+				tune[2] = next;
+				inHeader = !tuneBook.startsWith("K:", i);
+			}
+			i = next;
+		}
+		if (tunes.isEmpty())
+			return parse(tuneBook);
+
+		notifyListenersForTuneBookBegin();
+		// book header is parsed with the first tune header
+		tune = (int[]) tunes.get(0);
+		AbcNode abcRoot = getParseTree(tuneBook.substring(0, tune[2]));
+		AbcTuneBook abcTuneBook = parseTuneBookHeader(abcRoot
+				.getChild("AbcTuneBookHeader"));
+		for (int i = 0; i < tunes.size(); i++) {
+			tune = (int[]) tunes.get(i);
+			int end = (i + 1 < tunes.size()) ? ((int[]) tunes.get(i + 1))[0]
+					: length;
+			AbcNode abcTuneNode;
+			if (i == 0)
+				abcTuneNode = abcRoot.getChild("AbcTune");
+			else
+				abcTuneNode = parseLazyHeader(tuneBook, tune).getChild("AbcTune");
+			AbcTune header = parseAbcTuneHeader(abcTuneNode);
+			header.setAbcString(tuneBook.substring(tune[0], end));
+			abcTuneBook.putTune(header, new CharStreamPosition(tune[1], 1,
+					tune[0], end));
+		}
+		notifyListenersForTuneBookEnd(abcTuneBook, abcRoot);
+		return abcTuneBook;
+	}
+
+	/**
+	 * Parses the header of a tune of a lazy book. If the grammar doesn't
+	 * accept the header, its lines that are not fields and its fields
+	 * continued on the next line are turned into comments rather than
+	 * recovered: error recovery takes far longer than parsing a header.
+	 * The tune is fully parsed, with error recovery, when it is read.
+	 * 
+	 * @param tune
+	 *            {start, line, header end} of the tune
+	 */
+	private AbcNode parseLazyHeader(String tuneBook, int[] tune) {
+		String abc = tuneBook.substring(tune[0], tune[2]);
+		AbcNode abcRoot = getParseTreeWithoutRecovery(abc, tune[1], tune[0]);
+		if (abcRoot != null)
+			return abcRoot;
+		char[] header = abc.toCharArray();
+		// the X: line is kept
+		int start = abc.indexOf('\n') + 1;
+		while ((start > 0) && (start < header.length)) {
+			int end = abc.indexOf('\n', start);
+			int next = end + 1;
+			if (end == -1)
+				end = header.length;
+			if ((end > start) && (header[end - 1] == '\r'))
+				end--;
+			boolean field = (end - start >= 2) && (header[start + 1] == ':')
+					&& Character.isLetter(header[start]);
+			if ((end > start) && (header[start] != 'K')
+					&& (!field || (header[end - 1] == '\\')))
+				header[start] = '%';
+			start = next;
+		}
+		abcRoot = getParseTreeWithoutRecovery(new String(header), tune[1],
+				tune[0]);
+		if (abcRoot != null)
+			return abcRoot;
+		return getParseTree(abc, tune[1], tune[0]);
 	}
 
 }
@@ -77,6 +77,21 @@ public class TuneParser extends AbcParserAbstract {
 		return parse0(getParseTree(tune));
 	}
 
+	/**
+	 * Parses a tune which is a part of a bigger stream, e.g. a tune of a
+	 * lazy {@link AbcTuneBook}. Positions of the music elements are
+	 * positions in the whole stream.
+	 * 
+	 * @param tune
+	 *            The abc tune, as a String, to be parsed.
+	 * @param source
+	 *            position of the tune in the stream
+	 */
+	AbcTune parse(String tune, CharStreamPosition source) {
+		return parse0(getParseTree(tune, source.getLine(), source
+				.getStartIndex()));
+	}
+
 	private AbcTune parse0(AbcNode abcRoot) {
 		AbcNode abcTuneNode = abcRoot.getChild("AbcTune");
 		m_tune = parseAbcTune(abcTuneNode);
@@ -123,25 +138,10 @@ public class TuneParser extends AbcParserAbstract {
 	}
 
 	private AbcTune parseHeader0(AbcNode abcRoot) {
-		initNewTune();
-		notifyListenersForTuneBegin();
-		AbcNode abcHeaderNode = null;
-		if (abcRoot != null) {
-			AbcNode abcTuneNode = abcRoot.getChild("AbcTune");
-			if (abcTuneNode != null) {
-				abcHeaderNode = abcTuneNode.getChild("AbcHeader");
-			}
-		}
-		AbcTune tune;
-		if (abcHeaderNode == null) {
-			tune = new AbcTune();
-			notifyListenersForNoTune();
-		} else {
-			tune = parseAbcHeader(abcHeaderNode);
-			tune.setAbcString(abcHeaderNode.getValue());
-		}
-		notifyListenersForTuneEnd(tune, abcHeaderNode);
-		return tune;
+		AbcNode abcTuneNode = null;
+		if (abcRoot != null)
+			abcTuneNode = abcRoot.getChild("AbcTune");
+		return parseAbcTuneHeader(abcTuneNode);
 	}
 
 }
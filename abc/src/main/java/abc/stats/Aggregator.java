@@ -0,0 +1,47 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.stats;
+
+import abc.notation.Tune;
+
+/**
+ * Computes a statistic over tunes, e.g. a {@link Histogram} of keys.
+ * <p>
+ * To be computed in parallel by {@link TuneStatistics}, an aggregator
+ * creates empty partial aggregators of the same kind, one for each slice
+ * of tunes. Each partial is filled by one thread, then partials are
+ * merged into the first aggregator, in the order of the tunes.
+ *
+ * @see AggregatorGroup
+ */
+public abstract class Aggregator {
+
+	/**
+	 * Returns a new empty aggregator of the same kind and parameters,
+	 * which can be merged into this one.
+	 */
+	public abstract Aggregator newPartial();
+
+	/** Adds a tune to the statistic */
+	public abstract void add(Tune tune);
+
+	/**
+	 * Adds the statistic of the given partial, created by
+	 * {@link #newPartial()}, to this one.
+	 */
+	public abstract void merge(Aggregator partial);
+
+}
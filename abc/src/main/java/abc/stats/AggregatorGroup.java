@@ -0,0 +1,51 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.stats;
+
+import abc.notation.Tune;
+
+/**
+ * Computes several statistics in the same pass over tunes, e.g. all the
+ * histograms of a collection report. Results are read in the given
+ * aggregators.
+ */
+public class AggregatorGroup extends Aggregator {
+
+	private final Aggregator[] m_aggregators;
+
+	public AggregatorGroup(Aggregator[] aggregators) {
+		m_aggregators = (Aggregator[]) aggregators.clone();
+	}
+
+	public Aggregator newPartial() {
+		Aggregator[] partials = new Aggregator[m_aggregators.length];
+		for (int i = 0; i < partials.length; i++)
+			partials[i] = m_aggregators[i].newPartial();
+		return new AggregatorGroup(partials);
+	}
+
+	public void add(Tune tune) {
+		for (Aggregator aggregator : m_aggregators)
+			aggregator.add(tune);
+	}
+
+	public void merge(Aggregator partial) {
+		Aggregator[] partials = ((AggregatorGroup) partial).m_aggregators;
+		for (int i = 0; i < m_aggregators.length; i++)
+			m_aggregators[i].merge(partials[i]);
+	}
+
+}
@@ -0,0 +1,121 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.stats;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A statistic which counts values, e.g. keys of tunes or intervals
+ * between notes. Values are <TT>Comparable</TT> objects of the same
+ * class, such as <TT>String</TT> or <TT>Integer</TT>.
+ * <p>
+ * Subclasses implement {@link #add(abc.notation.Tune)}, calling
+ * {@link #count(Object)} for the values of the tune.
+ *
+ * @see TuneStatistics
+ */
+public abstract class Histogram extends Aggregator {
+
+	/** value -> int[1] count, counts are incremented in place */
+	private HashMap m_counts = new HashMap();
+
+	private int m_total = 0;
+
+	/** Counts one more occurrence of the value */
+	protected void count(Object value) {
+		count(value, 1);
+	}
+
+	/** Counts more occurrences of the value */
+	protected void count(Object value, int occurrences) {
+		int[] count = (int[]) m_counts.get(value);
+		if (count == null) {
+			count = new int[1];
+			m_counts.put(value, count);
+		}
+		count[0] += occurrences;
+		m_total += occurrences;
+	}
+
+	public void merge(Aggregator partial) {
+		Iterator it = ((Histogram) partial).m_counts.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry entry = (Map.Entry) it.next();
+			count(entry.getKey(), ((int[]) entry.getValue())[0]);
+		}
+	}
+
+	/** Returns the number of occurrences of the value, 0 if not found */
+	public int getCount(Object value) {
+		int[] count = (int[]) m_counts.get(value);
+		return count == null ? 0 : count[0];
+	}
+
+	/**
+	 * Returns the part of occurrences of the value, between 0 and 1.
+	 */
+	public float getFrequency(Object value) {
+		return m_total == 0 ? 0 : getCount(value) / (float) m_total;
+	}
+
+	/** Returns the number of occurrences of all values */
+	public int getTotal() {
+		return m_total;
+	}
+
+	/** Returns the counted values, in their natural order */
+	public Object[] getValues() {
+		Object[] ret = m_counts.keySet().toArray();
+		Arrays.sort(ret);
+		return ret;
+	}
+
+	/**
+	 * Returns the most frequent values, most frequent first, values of the
+	 * same count in their natural order.
+	 *
+	 * @param max
+	 *            maximum number of returned values
+	 */
+	public Object[] getMostFrequent(int max) {
+		Object[] values = getValues();
+		// stable sort, keeps the natural order of equal counts
+		Arrays.sort(values, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				return getCount(o2) - getCount(o1);
+			}
+		});
+		if (values.length <= max)
+			return values;
+		Object[] ret = new Object[max];
+		System.arraycopy(values, 0, ret, 0, max);
+		return ret;
+	}
+
+	/** Returns "value: count" lines, values in their natural order */
+	public String toString() {
+		StringBuffer sb = new StringBuffer();
+		Object[] values = getValues();
+		for (Object value : values)
+			sb.append(value).append(": ").append(getCount(value)).append('\n');
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,326 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.stats;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import abc.notation.KeySignature;
+import abc.notation.Music;
+import abc.notation.NoteColumns;
+import abc.notation.TimeSignature;
+import abc.notation.Tune;
+import abc.notation.TuneBook;
+import abc.notation.Voice;
+
+/**
+ * Computes statistics over collections of tunes, using all processors,
+ * and provides the common statistics.
+ * <p>
+ * Histograms of tunes:
+ * <UL>
+ * <LI>{@link #keys()}, {@link #modes()}, {@link #meters()}
+ * <LI>{@link #ranges()}: semitones between lowest and highest notes
+ * <LI>{@link #tuneLengths()}: notes of the first voice
+ * </UL>
+ * Histograms of notes:
+ * <UL>
+ * <LI>{@link #noteLengths()}
+ * <LI>{@link #intervals()}: semitones between consecutive notes of a voice
+ * </UL>
+ * Several statistics are computed in one pass with an
+ * {@link AggregatorGroup}, e.g.
+ *
+ * <PRE>
+ * Histogram keys = TuneStatistics.keys();
+ * Histogram intervals = TuneStatistics.intervals();
+ * TuneStatistics.aggregate(book, new AggregatorGroup(new Aggregator[] {
+ * 		keys, intervals }));
+ * </PRE>
+ */
+public class TuneStatistics {
+
+	private static final String[] MODES = { "aeolian", "dorian", "ionian",
+			"locrian", "lydian", "major", "minor", "mixolydian", "phrygian" };
+
+	private TuneStatistics() {
+	}
+
+	/**
+	 * Adds the tunes of the book to the aggregator.
+	 *
+	 * @see #aggregate(Tune[], Aggregator)
+	 */
+	public static void aggregate(TuneBook book, Aggregator aggregator) {
+		aggregate(new TuneBook[] { book }, aggregator);
+	}
+
+	/**
+	 * Adds the tunes of all books to the aggregator, in books order.
+	 *
+	 * @see #aggregate(Tune[], Aggregator)
+	 */
+	public static void aggregate(TuneBook[] books, Aggregator aggregator) {
+		ArrayList tunes = new ArrayList();
+		for (TuneBook book : books)
+			tunes.addAll(book.toVector());
+		aggregate((Tune[]) tunes.toArray(new Tune[tunes.size()]), aggregator);
+	}
+
+	/**
+	 * Adds the tunes to the aggregator. Tunes are processed in slices, in
+	 * parallel: each slice fills a partial of the aggregator, partials are
+	 * merged into the aggregator in tunes order.
+	 * <p>
+	 * A tune may be read by one thread only, tunes must not be modified
+	 * during the computation.
+	 */
+	public static void aggregate(final Tune[] tunes, Aggregator aggregator) {
+		if (tunes.length == 0)
+			return;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int slices = Math.max(1, Math.min(tunes.length, threads * 4));
+		int sliceSize = (tunes.length + slices - 1) / slices;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+				threads, slices));
+		try {
+			Future[] futures = new Future[slices];
+			for (int j = 0; j < slices; j++) {
+				final int from = Math.min(tunes.length, j * sliceSize);
+				final int to = Math.min(tunes.length, from + sliceSize);
+				final Aggregator partial = aggregator.newPartial();
+				futures[j] = executor.submit(new Callable() {
+					public Object call() {
+						for (int i = from; i < to; i++)
+							partial.add(tunes[i]);
+						return partial;
+					}
+				});
+			}
+			for (Future future : futures)
+				aggregator.merge((Aggregator) future.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Statistics interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Statistics failed", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/** Returns a histogram of keys, e.g. "Dmaj", "Ador" */
+	public static Histogram keys() {
+		return new Histogram() {
+			public Aggregator newPartial() {
+				return keys();
+			}
+
+			public void add(Tune tune) {
+				KeySignature key = keyOf(tune);
+				if (key != null)
+					count(key.toLitteralNotation());
+			}
+		};
+	}
+
+	/** Returns a histogram of modes, e.g. "major", "dorian" */
+	public static Histogram modes() {
+		return new Histogram() {
+			public Aggregator newPartial() {
+				return modes();
+			}
+
+			public void add(Tune tune) {
+				KeySignature key = keyOf(tune);
+				if (key != null)
+					count(key.getMode() == KeySignature.OTHER ? "other"
+							: MODES[key.getMode()]);
+			}
+		};
+	}
+
+	/**
+	 * Returns a histogram of the first time signature of tunes, e.g.
+	 * "6/8", "none" for free meter.
+	 */
+	public static Histogram meters() {
+		return new Histogram() {
+			public Aggregator newPartial() {
+				return meters();
+			}
+
+			public void add(Tune tune) {
+				Voice voice = firstVoiceOf(tune.getMusicForGraphicalRendition());
+				if (voice == null)
+					return;
+				for (int i = 0, j = voice.size(); i < j; i++) {
+					if (voice.elementAt(i) instanceof TimeSignature) {
+						TimeSignature meter = (TimeSignature) voice.elementAt(i);
+						count(meter.isNone() ? "none" : meter.toString());
+						return;
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns a histogram of tune ranges, semitones between the lowest and
+	 * the highest notes of all voices. Tunes without notes are not counted.
+	 */
+	public static Histogram ranges() {
+		return new Histogram() {
+			public Aggregator newPartial() {
+				return ranges();
+			}
+
+			public void add(Tune tune) {
+				NoteColumns columns = tune.getMusicForGraphicalRendition()
+						.getNoteColumns();
+				int lowest = Integer.MAX_VALUE;
+				int highest = Integer.MIN_VALUE;
+				NoteColumns.Cursor c = columns.cursor();
+				while (c.next()) {
+					if (c.isRest())
+						continue;
+					lowest = Math.min(lowest, c.getPitch());
+					highest = Math.max(highest, c.getPitch());
+				}
+				if (lowest <= highest)
+					count(Integer.valueOf(highest - lowest));
+			}
+		};
+	}
+
+	/**
+	 * Returns a histogram of note lengths, e.g.
+	 * {@link abc.notation.Note#QUARTER}. Notes of chords are counted
+	 * once each, rests are not counted.
+	 */
+	public static Histogram noteLengths() {
+		return new Histogram() {
+			public Aggregator newPartial() {
+				return noteLengths();
+			}
+
+			public void add(Tune tune) {
+				NoteColumns columns = tune.getMusicForGraphicalRendition()
+						.getNoteColumns();
+				NoteColumns.Cursor c = columns.cursor();
+				while (c.next()) {
+					if (!c.isRest())
+						count(Integer.valueOf(c.getDuration()));
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns a histogram of melodic intervals, in semitones, negative when
+	 * descending. Intervals are taken between consecutive notes of each
+	 * voice: the highest note of chords, tied notes counted once, rests
+	 * ignored.
+	 */
+	public static Histogram intervals() {
+		return new Histogram() {
+			public Aggregator newPartial() {
+				return intervals();
+			}
+
+			public void add(Tune tune) {
+				NoteColumns columns = tune.getMusicForGraphicalRendition()
+						.getNoteColumns();
+				for (int v = 0; v < columns.getVoiceCount(); v++) {
+					int previous = NoteColumns.NO_PITCH;
+					int current = NoteColumns.NO_PITCH;
+					int lastPosition = -1;
+					NoteColumns.Cursor c = columns.cursor(v);
+					while (c.next()) {
+						if (c.isRest())
+							continue;
+						if (c.getPosition() == lastPosition) {
+							// note of the same chord, keep the highest
+							current = Math.max(current, c.getPitch());
+							continue;
+						}
+						lastPosition = c.getPosition();
+						if (((c.getFlags() & NoteColumns.TIE_END) != 0)
+								&& (current == c.getPitch()))
+							continue;
+						if ((previous != NoteColumns.NO_PITCH)
+								&& (current != NoteColumns.NO_PITCH))
+							count(Integer.valueOf(current - previous));
+						if (current != NoteColumns.NO_PITCH)
+							previous = current;
+						current = c.getPitch();
+					}
+					if ((previous != NoteColumns.NO_PITCH)
+							&& (current != NoteColumns.NO_PITCH))
+						count(Integer.valueOf(current - previous));
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns a histogram of tune lengths, number of notes of the first
+	 * voice, chords and tied notes counted once.
+	 */
+	public static Histogram tuneLengths() {
+		return new Histogram() {
+			public Aggregator newPartial() {
+				return tuneLengths();
+			}
+
+			public void add(Tune tune) {
+				NoteColumns columns = tune.getMusicForGraphicalRendition()
+						.getNoteColumns();
+				if (columns.getVoiceCount() == 0)
+					return;
+				int notes = 0;
+				int lastPosition = -1;
+				NoteColumns.Cursor c = columns.cursor(0);
+				while (c.next()) {
+					if (c.isRest() || (c.getPosition() == lastPosition))
+						continue;
+					lastPosition = c.getPosition();
+					if ((c.getFlags() & NoteColumns.TIE_END) == 0)
+						notes++;
+				}
+				count(Integer.valueOf(notes));
+			}
+		};
+	}
+
+	/** Returns the key of the tune, null if it has no music */
+	private static KeySignature keyOf(Tune tune) {
+		Voice voice = firstVoiceOf(tune.getMusic());
+		return voice == null ? null : voice.getKey();
+	}
+
+	/** Returns the first voice, null if none, without creating one */
+	private static Voice firstVoiceOf(Music music) {
+		Iterator it = music.getVoices().iterator();
+		return it.hasNext() ? (Voice) it.next() : null;
+	}
+
+}
@@ -103,7 +103,8 @@ class JTablature extends JScoreElementAbstract {
 	protected void renderNote(Graphics2D g, JNote jnote) {
 		Note note = (Note) jnote.getMusicElement();
 		int[] pos = m_tablature.getFingeringForNote(note);
-		if (pos != null) {
+		//fret -1 if the note can't be played
+		if ((pos != null) && (pos[1] >= 0)) {
 			number.setText(pos[1]+"");
 			number.setTextVerticalAlign(TextVerticalAlign.BOTTOM);
 			number.setTextJustification(TextJustification.LEFT);
@@ -1,9 +1,15 @@
 import junit.framework.TestCase;
+import abc.audio.BeforeAudioRendition;
 import abc.notation.Accidental;
+import abc.notation.BarLine;
+import abc.notation.Dynamic;
 import abc.notation.EndOfStaffLine;
 import abc.notation.KeySignature;
+import abc.notation.Music;
+import abc.notation.MusicElement;
 import abc.notation.Note;
 import abc.notation.PartLabel;
+import abc.notation.RepeatBarLine;
 import abc.notation.Tune;
 import abc.notation.Voice;
 import abc.parser.TuneParser;
@@ -123,4 +129,58 @@ public class BeforeAudioRenditionTest extends TestCase {
 
 	}
 	
+	public void test2oneNewPass() {
+		Music music = new Music();
+		Voice source = music.getVoice("1");
+		source.addElement(new KeySignature(Note.G, KeySignature.MAJOR));
+		source.addElement(new BarLine(BarLine.REPEAT_OPEN));
+		Note f = new Note(Note.F);
+		source.addElement(f);
+		Note a = new Note(Note.A);
+		a.setDynamic(new Dynamic(Dynamic.FF));
+		source.addElement(a);
+		Note b = new Note(Note.B);
+		source.addElement(b);
+		source.addElement(new RepeatBarLine(BarLine.SIMPLE, new byte[] { 1 }));
+		source.addElement(new Note(Note.c));
+		source.addElement(new BarLine(BarLine.REPEAT_CLOSE));
+		source.addElement(new RepeatBarLine(BarLine.SIMPLE, new byte[] { 2 }));
+		source.addElement(new Note(Note.d));
+		source.addElement(new BarLine(BarLine.END));
+		int size = source.size();
+
+		Voice voice = BeforeAudioRendition.transformAll(music).getFirstVoice();
+		//played as F A B c | F A B | d
+		byte[] heights = new byte[] { Note.F, Note.A, Note.B, Note.c,
+				Note.F, Note.A, Note.B, Note.d };
+		int notes = 0;
+		for (int i = 0; i < voice.size(); i++) {
+			MusicElement element = (MusicElement) voice.elementAt(i);
+			if (element instanceof RepeatBarLine)
+				fail("Repeat bar line at " + i);
+			if (element instanceof BarLine) {
+				byte type = ((BarLine) element).getType();
+				assertTrue(type == BarLine.SIMPLE || type == BarLine.END);
+			} else if (element instanceof Note) {
+				Note note = (Note) element;
+				assertEquals(heights[notes++], note.getHeight());
+				if (note.getHeight() == Note.F) {
+					assertEquals(Accidental.SHARP, note.getAccidental());
+					assertEquals(f.getReference(), note.getReference());
+				}
+				if (note.getHeight() != Note.F)
+					assertEquals(Dynamic.FF, note.getDynamic().getType());
+			}
+		}
+		assertEquals(heights.length, notes);
+
+		//the source has not been changed
+		assertEquals(size, source.size());
+		assertTrue(source.elementAt(1) instanceof BarLine);
+		assertEquals(Accidental.NONE, f.getAccidental());
+		assertNull(b.getDynamic());
+		//not changed elements are shared
+		assertTrue(voice.contains(a));
+	}
+
 }
@@ -3,11 +3,13 @@ import java.util.Vector;
 import junit.framework.TestCase;
 import abc.midi.MidiConverterAbstract;
 import abc.notation.Accidental;
+import abc.notation.BarLine;
 import abc.notation.KeySignature;
 import abc.notation.MultiNote;
 import abc.notation.Note;
 import abc.notation.NoteHeightException;
 import abc.notation.Tune;
+import abc.notation.Voice;
 import abc.parser.TuneParser;
 
 
@@ -68,6 +70,28 @@ public class HeightTest extends TestCase {
 		
 	}
 	
+	public void testCachedMidiHeight() {
+		Note note = new Note(Note.F, Accidental.NONE);
+		KeySignature ks = new KeySignature(Note.D, KeySignature.MAJOR);
+		assertEquals(5, note.getMidiLikeHeight());
+		assertEquals(6, note.getMidiLikeHeight(ks));
+		note.setAccidental(Accidental.HALF_FLAT);
+		assertEquals(4.5f, note.getMidiLikeMicrotonalHeight(ks), 0f);
+		note.setHeight(Note.g);
+		assertEquals(18.5f, note.getMidiLikeMicrotonalHeight(), 0f);
+		note.setOctaveTransposition((byte) -1);
+		assertEquals(-6, note.getMidiLikeHeight(ks));
+		note.setAccidental(Accidental.NONE);
+		assertEquals(-5, note.getMidiLikeHeight(ks));
+		Note lower = new Note(Note.G, Accidental.FLAT, (byte) -1);
+		assertTrue(note.isHigherThan(lower));
+		assertTrue(lower.isLowerThan(note, ks));
+		Note f = new Note(Note.F, Accidental.NONE);
+		Note fNatural = new Note(Note.F, Accidental.NATURAL);
+		assertFalse(f.isHigherThan(fNatural));
+		assertTrue(f.isHigherThan(fNatural, ks));
+	}
+	
 	public void testNoteHeightComparison() {
 		String tuneAsString = "X:1\nT:test\nK:C\nabcdef\n";
 		TuneParser tuneParser = new TuneParser();
@@ -111,6 +135,39 @@ public class HeightTest extends TestCase {
 		assertEquals(firstNote.getLowestNote().getStrictHeight(), Note.F);
 	}
 	
+	/** Range queries, including notes of a chord as range bounds */
+	public void testHighestLowestInRange() {
+		Voice voice = new Voice("1");
+		Note c = new Note(Note.c);
+		Note e = new Note(Note.e);
+		Vector chordNotes = new Vector();
+		chordNotes.add(new Note(Note.C));
+		chordNotes.add(new Note(Note.g));
+		MultiNote chord = new MultiNote(chordNotes);
+		Note rest = new Note(Note.REST);
+		Note secondE = new Note(Note.e);
+		voice.addElement(c);
+		voice.addElement(new BarLine());
+		voice.addElement(chord);
+		voice.addElement(e);
+		voice.addElement(rest);
+		voice.addElement(secondE);
+		assertSame(chord, voice.getHighestNoteBewteen(c, secondE));
+		assertSame(chord, voice.getLowestNoteBewteen(c, secondE));
+		assertSame(e, voice.getHighestNoteBewteen(e, secondE));
+		assertSame(e, voice.getLowestNoteBewteen(e, secondE));
+		assertEquals(2, voice.indexOf((Note) chordNotes.get(0)));
+		assertEquals(3, voice.getNotesBetween((Note) chordNotes.get(1), rest).size());
+		Note a = new Note(Note.a);
+		voice.setElementAt(a, 3);
+		assertSame(a, voice.getHighestNoteBewteen(c, secondE));
+		try {
+			voice.getNotesBetween(secondE, c);
+			fail("end before begin should be refused");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+	
 	public void testNoteVariousHeightComparison() {
 		String tuneAsString = "X:1\nT:test\nK:C\nA,B,CDEFa,b,cdef\n";
 		Tune tune = new TuneParser().parse(tuneAsString);
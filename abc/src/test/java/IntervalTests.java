@@ -1,8 +1,12 @@
+import java.util.Vector;
+
 import junit.framework.TestCase;
 import abc.notation.Accidental;
+import abc.notation.Degree;
 import abc.notation.Interval;
 import abc.notation.KeySignature;
 import abc.notation.Note;
+import abc.notation.NoteHeightException;
 
 public class IntervalTests extends TestCase {
 	
@@ -692,6 +696,253 @@ public class IntervalTests extends TestCase {
 		
 	}
 	
+	/**
+	 * Second notes of intervals and enharmonics are looked up in tables,
+	 * compares them with the computation they replaced, kept below.
+	 */
+	public void test7tablesRegression() {
+		KeySignature[] keys = new KeySignature[7 * 3 * 2];
+		int k = 0;
+		for (byte height : HEIGHTS) {
+			for (int acc = -1; acc <= 1; acc++) {
+				keys[k++] = new KeySignature(height, Accidental.valueOf(acc), KeySignature.MAJOR);
+				keys[k++] = new KeySignature(height, Accidental.valueOf(acc), KeySignature.MINOR);
+			}
+		}
+		for (byte octave = -2; octave <= 2; octave++) {
+			for (byte height : HEIGHTS) {
+				for (int acc = -2; acc <= 2; acc++) {
+					Note note = new Note(height, Accidental.valueOf(acc), octave);
+					for (KeySignature key : keys)
+						assertSameNote(note + " in " + key.toLitteralNotation(),
+								oldEnharmonic(note, key), Note.createEnharmonic(note, key));
+					for (byte label = Interval.UNISON; label <= 2 * Interval.OCTAVE; label++) {
+						for (byte quality = Interval.DIMINISHED; quality <= Interval.AUGMENTED; quality++) {
+							for (byte direction = Interval.DOWNWARD; direction <= Interval.UPWARD; direction += 2) {
+								Interval interval;
+								try {
+									interval = Interval.valueOf(label, quality, direction);
+								} catch (IllegalArgumentException e) {
+									continue;
+								}
+								assertSameNote(interval + " from " + note,
+										oldSecondNote(interval, note, null),
+										interval.calculateSecondNote(note));
+								assertSameNote(interval + " from " + note + " in "
+										+ keys[label].toLitteralNotation(),
+										oldSecondNote(interval, note, keys[label]),
+										interval.calculateSecondNote(note, keys[label]));
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static final byte[] HEIGHTS = { Note.C, Note.D, Note.E, Note.F,
+			Note.G, Note.A, Note.B };
+
+	private static void assertSameNote(String message, Note expected, Note actual) {
+		assertEquals(message, expected.getHeight(), actual.getHeight());
+		assertEquals(message, expected.getAccidental(), actual.getAccidental());
+	}
+
+	/** Note.createEnharmonic(Note, KeySignature) before the tables */
+	private static Note oldEnharmonic(Note note, KeySignature key) {
+		Note ret = copy(note);
+		if (note.getAccidental().isInTheKey()) return ret;
+		Accidental accValue = note.getAccidental();
+		if (accValue.isDoubleFlat() || accValue.isDoubleSharp())
+			ret = oldEnharmonic(note, new Accidental[] {Accidental.NATURAL, Accidental.SHARP});
+		if (ret.getAccidental().equals(key.getAccidentalFor(ret.getStrictHeight()))) {
+			ret.setAccidental(Accidental.NONE);
+		}
+		else if (ret.getStrictHeight() == key.getDegree(Degree.TONIC)) {
+			if (key.getAccidental().isSharp())
+				ret = oldEnharmonic(ret, new Accidental[] {Accidental.DOUBLE_SHARP, Accidental.SHARP, Accidental.NATURAL});
+			else if (key.getAccidental().isFlat())
+				ret = oldEnharmonic(ret, new Accidental[] {Accidental.NATURAL, Accidental.FLAT});
+			else {
+				Accidental acc = key.hasOnlySharps()?Accidental.SHARP:Accidental.FLAT;
+				ret = oldEnharmonic(ret, new Accidental[] {Accidental.NATURAL, acc});
+			}
+		}
+		else if (ret.getStrictHeight() == key.getDegree(Degree.LEADING_TONE)) {
+			if (key.getAccidental().isFlat())
+				ret = oldEnharmonic(ret, new Accidental[] {Accidental.NATURAL, Accidental.FLAT});
+			else if (key.getAccidental().isSharp())
+				ret = oldEnharmonic(ret, new Accidental[] {Accidental.DOUBLE_SHARP, Accidental.SHARP, Accidental.NATURAL});
+			else
+				ret = oldEnharmonic(ret, new Accidental[] {Accidental.SHARP, Accidental.NATURAL});
+		}
+		else {
+			Accidental dominant = Accidental.NATURAL;
+			if (key.hasOnlyFlats())
+				dominant = Accidental.FLAT;
+			else if (key.hasOnlySharps())
+				dominant = Accidental.SHARP;
+			for (int i = Degree.SUPERTONIC; i <= Degree.SUBMEDIANT; i++) {
+				if (ret.getStrictHeight() == key.getDegree(i))
+					ret = oldEnharmonic(note, new Accidental[] {
+						key.getAccidentalFor(ret.getStrictHeight()),
+						Accidental.NATURAL, dominant });
+			}
+		}
+		if (ret.getAccidental().equals(key.getAccidentalFor(ret.getStrictHeight()))) {
+			ret.setAccidental(Accidental.NONE);
+		}
+		return ret;
+	}
+
+	/** Note.createEnharmonic(Note, Accidental[]) before the tables */
+	private static Note oldEnharmonic(Note note, Accidental[] accidentalTypes) {
+		Note ret = copy(note);
+		if (ret.isRest() || (accidentalTypes[0].equals(ret.getAccidental())))
+			return ret;
+		Vector nearNotes = new Vector(9);
+		for (int i = -4; i <= 4; i++) {
+			if (i == 0)
+				continue;
+			try {
+				nearNotes.add(Note.transpose(ret, i));
+			} catch (NoteHeightException ignored) {
+			}
+		}
+		try {
+			nearNotes.add(Note.transpose(ret, 0));
+		} catch (NoteHeightException ignored) {
+		}
+		for (Accidental accidentalType : accidentalTypes) {
+			for (Object o : nearNotes) {
+				Note nearNote = (Note) o;
+				nearNote.setAccidental(accidentalType);
+				if (nearNote.getMidiLikeMicrotonalHeight() == note.getMidiLikeMicrotonalHeight())
+					return nearNote;
+			}
+		}
+		return ret;
+	}
+
+	/** Interval.calculateSecondNote(Note, KeySignature) before the tables */
+	private static Note oldSecondNote(Interval interval, Note n1, KeySignature key) {
+		int index = 0;
+		for (int i = 0; i < HEIGHTS.length; i++) {
+			if (HEIGHTS[i] == n1.getStrictHeight()) {
+				index = i;
+				break;
+			}
+		}
+		int steps = interval.getLabel();
+		int octaveTransp = n1.getOctaveTransposition();
+		while (steps > 0) {
+			int oldIndex = index;
+			index = (7 + index + interval.getDirection()) % Interval.OCTAVE;
+			if ((oldIndex == 6) && (index == 0))
+				octaveTransp += 1;
+			else if ((oldIndex == 0) && (index == 6))
+				octaveTransp -= 1;
+			steps--;
+		}
+		Note n2 = copy(n1);
+		n2.setHeight(HEIGHTS[index]);
+		n2.setOctaveTransposition((byte) octaveTransp);
+		n2.setAccidental(Accidental.NATURAL);
+		int delta = n1.getMidiLikeHeight(key) + interval.getDirection()
+				* interval.getSemitones() - n2.getMidiLikeHeight(key);
+		if (delta != 0) {
+			n2 = Note.transpose(n2, delta);
+			n2 = oldEnharmonic(n2, oldSecondNoteAccidental(interval, n1, key));
+		}
+		if (key != null) {
+			if (n2.getAccidental().equals(key.getAccidentalFor(n2.getStrictHeight())))
+				n2.setAccidental(Accidental.NONE);
+		}
+		return n2;
+	}
+
+	/** Interval.calculateSecondNoteAccidental, unchanged by the tables */
+	private static Accidental[] oldSecondNoteAccidental(Interval interval,
+			Note n1, KeySignature key) {
+		Accidental n1AccValue = n1.getAccidental(key);
+		byte quality = interval.getQuality();
+		int label = interval.getLabel() % Interval.OCTAVE;
+		boolean perfectAllowed = (label == Interval.UNISON)
+				|| (label == Interval.FOURTH) || (label == Interval.FIFTH);
+		boolean up = interval.isUpward();
+		if (interval.isPerfectUnisonOrOctave()) {
+			return new Accidental[] {n1AccValue};
+		} else if ((interval.isAugmented() && up)
+				|| (interval.isDiminished() && !up)) {
+			if (n1AccValue.isDoubleFlat())
+				return new Accidental[] { Accidental.FLAT, Accidental.NATURAL };
+			else if (n1AccValue.isFlat())
+				return new Accidental[] { Accidental.NATURAL, Accidental.SHARP };
+			else if ((n1AccValue.isInTheKey()) || (n1AccValue.isNatural()))
+				return new Accidental[] { Accidental.SHARP, Accidental.DOUBLE_SHARP };
+			else if (n1AccValue.isSharp())
+				return new Accidental[] { Accidental.DOUBLE_SHARP, Accidental.SHARP };
+			else if (n1AccValue.isDoubleSharp())
+				return new Accidental[] { Accidental.NATURAL, Accidental.SHARP };
+		} else if ((interval.isDiminished() && up)
+				|| (interval.isAugmented() && !up)) {
+			if (n1AccValue.isDoubleFlat())
+				return new Accidental[] { Accidental.FLAT, Accidental.NATURAL };
+			else if (n1AccValue.isFlat())
+				return new Accidental[] { Accidental.DOUBLE_FLAT, Accidental.FLAT, Accidental.NATURAL };
+			else if ((n1AccValue.isInTheKey()) || (n1AccValue.isNatural()))
+				return new Accidental[] { Accidental.FLAT, Accidental.DOUBLE_FLAT };
+			else if (n1AccValue.isSharp()) {
+				if (perfectAllowed)
+					return new Accidental[] { Accidental.NATURAL, Accidental.SHARP, Accidental.FLAT };
+				else
+					return new Accidental[] { Accidental.NATURAL, Accidental.FLAT, Accidental.DOUBLE_FLAT };
+			}
+			else if (n1AccValue.isDoubleSharp())
+				return new Accidental[] { Accidental.SHARP, Accidental.NATURAL };
+		} else if (((quality == Interval.MINOR) && up)
+				|| (((quality == Interval.MAJOR) || (quality == Interval.PERFECT)) && !up)) {
+			if (n1AccValue.isDoubleFlat())
+				return new Accidental[] { Accidental.DOUBLE_FLAT, Accidental.FLAT };
+			else if (n1AccValue.isFlat())
+				return new Accidental[] { Accidental.FLAT, Accidental.DOUBLE_FLAT };
+			else if ((n1AccValue.isInTheKey()) || (n1AccValue.isNatural()))
+				return new Accidental[] { Accidental.NATURAL,
+					(quality==Interval.PERFECT&&label==Interval.FOURTH)?Accidental.SHARP:Accidental.FLAT };
+			else if (n1AccValue.isSharp()) {
+				if (perfectAllowed)
+					return new Accidental[] { Accidental.SHARP, Accidental.DOUBLE_SHARP };
+				else
+					return new Accidental[] { Accidental.NATURAL, Accidental.SHARP };
+			}
+			else if (n1AccValue.isDoubleSharp())
+				return new Accidental[] { Accidental.SHARP, Accidental.DOUBLE_SHARP };
+		} else if ((((quality == Interval.MAJOR) || (quality == Interval.PERFECT)) && up)
+				|| ((quality == Interval.MINOR) && !up)) {
+			if (n1AccValue.isDoubleFlat())
+				return new Accidental[] { Accidental.FLAT, Accidental.DOUBLE_FLAT };
+			else if (n1AccValue.isFlat())
+				return new Accidental[] { Accidental.NATURAL, Accidental.FLAT };
+			else if ((n1AccValue.isInTheKey()) || (n1AccValue.isNatural()))
+				return new Accidental[] { Accidental.NATURAL,
+					(quality==Interval.PERFECT&&label==Interval.FOURTH)?Accidental.FLAT:Accidental.SHARP };
+			else if (n1AccValue.isSharp())
+				return new Accidental[] { Accidental.SHARP,
+					(quality==Interval.PERFECT&&label==Interval.FOURTH)?Accidental.NATURAL:Accidental.DOUBLE_SHARP };
+			else if (n1AccValue.isDoubleSharp())
+				return new Accidental[] { Accidental.DOUBLE_SHARP, Accidental.SHARP };
+		}
+		return new Accidental[] { Accidental.NATURAL };
+	}
+
+	private static Note copy(Note note) {
+		try {
+			return (Note) note.clone();
+		} catch (CloneNotSupportedException never) {
+			throw new IllegalStateException(never);
+		}
+	}
+
 	protected void tearDown() throws Exception {
 		super.tearDown();
 	}
@@ -224,6 +224,21 @@ C
 		assertTrue(BbnawaAtar.getAccidentalFor(Note.A).isNatural());
 	}
 	
+	public void test8sharedAccidentals() {
+		KeySignature D = new KeySignature(Note.D, KeySignature.MAJOR);
+		KeySignature Dbis = new KeySignature(Note.D, KeySignature.MAJOR);
+		assertSame(D.getAccidentals(), Dbis.getAccidentals());
+		KeySignature barKey = new KeySignature(D.getAccidentals());
+		assertSame(D.getAccidentals(), barKey.getAccidentals());
+		//modified key doesn't alter the shared accidentals
+		barKey.setAccidental(Note.C, Accidental.NATURAL);
+		assertTrue(barKey.getAccidentalFor(Note.C).isNatural());
+		assertTrue(D.getAccidentalFor(Note.C).isSharp());
+		assertTrue(Dbis.getAccidentalFor(Note.C).isSharp());
+		assertSame(Accidental.SHARP, Accidental.valueOf(1));
+		assertSame(Accidental.valueOf(0.25f), Accidental.valueOf(0.25f));
+	}
+	
 	protected void tearDown() throws Exception {
 		super.tearDown();
 	}
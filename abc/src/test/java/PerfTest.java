@@ -1,13 +1,18 @@
 // modified by HHR 07-Aug-13
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 
 import junit.framework.TestCase;
 import abc.parser.TuneBookParser;
 import abc.notation.TuneBook;
+import abc.notation.TuneCodec;
 
 public class PerfTest extends TestCase {
 	
@@ -115,6 +120,78 @@ public class PerfTest extends TestCase {
 		
 	}
 	
+	public void testLazyVsTunebook() throws Exception {
+		// first round warms up both
+		TuneBook lazy = null;
+		TuneBook t = null;
+		long lazyTime = 0;
+		long tuneBookCreationTime = 0;
+		for (int round = 0; round < 2; round++) {
+			long start = System.currentTimeMillis();
+			lazy = new TuneBookParser().parseLazily(getResource());
+			lazyTime = System.currentTimeMillis() - start;
+
+			start = System.currentTimeMillis();
+			t = new TuneBookParser().parse(getResource());
+			tuneBookCreationTime = System.currentTimeMillis() - start;
+		}
+		System.out.println("Lazy tune book creation time : " + lazyTime);
+		System.out.println("Tune Book creation time : " + tuneBookCreationTime);
+		// only the headers are parsed, though the lazy book has more tunes
+		assertTrue(lazyTime < tuneBookCreationTime);
+
+		long start = System.currentTimeMillis();
+		int[] refs = lazy.getReferenceNumbers();
+		for (int i = 0; i < Math.min(10, refs.length); i++)
+			lazy.getTune(refs[i]).getMusic();
+		System.out.println("10 first tunes of the lazy book : "
+				+ (System.currentTimeMillis() - start));
+		// the lazy book also has the tunes lost after syntax errors
+		for (int ref : t.getReferenceNumbers())
+			assertTrue(lazy.containsTune(ref));
+		assertTrue(lazy.size() >= t.size());
+	}
+
+	public void testCodecVsSerialization() throws Exception {
+		TuneBook book = new TuneBookParser().parse(getResource());
+		// first rounds warm up both
+		long codecTime = 0;
+		long serializationTime = 0;
+		int codecSize = 0;
+		int serializedSize = 0;
+		for (int round = 0; round < 4; round++) {
+			long start = System.nanoTime();
+			byte[] bytes = TuneCodec.encode(book);
+			TuneCodec.decodeTuneBook(bytes);
+			long time = System.nanoTime() - start;
+			codecSize = bytes.length;
+
+			start = System.nanoTime();
+			ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(serialized);
+			out.writeObject(book);
+			out.close();
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+					serialized.toByteArray()));
+			in.readObject();
+			in.close();
+			long serializedTime = System.nanoTime() - start;
+			serializedSize = serialized.size();
+			if (round >= 2) {
+				codecTime += time;
+				serializationTime += serializedTime;
+			}
+		}
+		System.out.println("Codec : " + codecSize + " bytes, "
+				+ codecTime / 2000000 + " ms to encode and decode");
+		System.out.println("Serialization : " + serializedSize + " bytes, "
+				+ serializationTime / 2000000 + " ms to write and read");
+		System.out.println("=====> Codec is about " + serializationTime / Math.max(1, codecTime)
+				+ " times faster");
+		// times depend on the machine, only the sizes are checked
+		assertTrue(codecSize * 5 < serializedSize);
+	}
+
 	protected void tearDown() throws Exception {
 		super.tearDown();
 	}
@@ -1,16 +1,49 @@
 // modified by HHR 07-Aug-13
 
+import java.io.ByteArrayOutputStream;
 import java.io.InputStreamReader;
+import java.io.ObjectOutputStream;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Vector;
 
 import junit.framework.TestCase;
+import abc.instructions.Xcommand;
+import abc.notation.Accidental;
 import abc.notation.BarLine;
+import abc.notation.ConcurrentTuneBook;
+import abc.notation.Decoration;
+import abc.notation.KeySignature;
+import abc.notation.MultiNote;
+import abc.notation.MultiPartsDefinition;
+import abc.notation.MusicDiff;
+import abc.notation.MusicElement;
+import abc.notation.Part;
+import abc.notation.RepeatBarLine;
+import abc.notation.RepeatedPart;
+import abc.notation.TieDefinition;
+import abc.notation.TimeSignature;
+import abc.notation.Tuplet;
 import abc.notation.Tune;
 import abc.notation.Note;
 //import abc.parser2.PositionableNote;
 import abc.notation.TuneBook;
+import abc.notation.TuneCodec;
+import abc.notation.TuneInfos;
+import abc.notation.TuneInfosTable;
+import abc.notation.Voice;
+import abc.parser.AbcTune;
+import abc.parser.AbcTuneBook;
+import abc.parser.DuplicateFinder;
+import abc.parser.MelodyIndex;
+import abc.parser.TuneBookIndex;
 import abc.parser.TuneBookParser;
+import abc.stats.Aggregator;
+import abc.stats.AggregatorGroup;
+import abc.stats.Histogram;
+import abc.stats.TuneStatistics;
 
 public class TuneBookTest extends TestCase {
 	
@@ -119,6 +152,462 @@ public class TuneBookTest extends TestCase {
 		
 	}
 	
+	public void test2transpose() throws Exception {
+		TuneBook tb = new TuneBookParser().parse(getResource());
+		int[] semitones = { -3, 0, 2, 7 };
+		TuneBook[] transposed = TuneBook.transpose(tb, semitones);
+		assertEquals(semitones.length, transposed.length);
+		for (int i = 0; i < semitones.length; i++) {
+			assertEquals(tb.size(), transposed[i].size());
+			int[] refs = tb.getReferenceNumbers();
+			for (int j = 0; j < refs.length; j++) {
+				Tune expected = Tune.transpose(tb.getTune(refs[j]), semitones[i]);
+				Tune actual = transposed[i].getTune(refs[j]);
+				assertNotSame(tb.getTune(refs[j]), actual);
+				Voice expectedVoice = expected.getMusic().getFirstVoice();
+				Voice actualVoice = actual.getMusic().getFirstVoice();
+				assertEquals(expectedVoice.size(), actualVoice.size());
+				for (int k = 0; k < expectedVoice.size(); k++) {
+					Object e = expectedVoice.elementAt(k);
+					Object a = actualVoice.elementAt(k);
+					assertEquals(e.getClass(), a.getClass());
+					// only pitches are compared, toString() of other
+					// elements may hold the identity of the object
+					if (e instanceof Note)
+						assertSamePitch((Note) e, (Note) a);
+					else if (e instanceof MultiNote) {
+						Note[] en = ((MultiNote) e).toArray();
+						Note[] an = ((MultiNote) a).toArray();
+						assertEquals(en.length, an.length);
+						for (int n = 0; n < en.length; n++)
+							assertSamePitch(en[n], an[n]);
+					}
+				}
+			}
+		}
+	}
+
+	private static void assertSamePitch(Note expected, Note actual) {
+		assertEquals(expected.getHeight(), actual.getHeight());
+		assertEquals(expected.getAccidental(), actual.getAccidental());
+		assertEquals(expected.getOctaveTransposition(), actual
+				.getOctaveTransposition());
+	}
+
+	private static TuneBook bookOf(int from, int count) {
+		TuneBook book = new TuneBook();
+		for (int i = from; i < from + count; i++) {
+			Tune tune = new Tune();
+			tune.setReferenceNumber(i);
+			book.putTune(tune);
+		}
+		return book;
+	}
+
+	public void test3concurrentBook() throws Exception {
+		final ConcurrentTuneBook book = new ConcurrentTuneBook(bookOf(0, 100));
+		assertEquals(100, book.size());
+		assertEquals(99, book.getHighestReferenceNumber());
+		assertFalse(book.putTune(bookOf(150, 1).getTune(150)));
+		assertTrue(book.containsTune(150));
+		assertNotNull(book.removeTune(150));
+		assertNull(book.getTune(150));
+		book.update(bookOf(100, 2).getTunes().values(), new int[] { 0, 1 });
+		assertEquals(100, book.size());
+		assertEquals(2, book.getReferenceNumbers()[0]);
+		assertEquals(101, book.getHighestReferenceNumber());
+
+		// the instructions of the book are given once to a tune put again
+		book.addInstruction(new Xcommand("scale 0.8"));
+		Tune tune = book.getTune(2);
+		book.putTune(tune);
+		book.putTune(tune);
+		assertEquals(1, tune.getInstructions().size());
+
+		// readers always see a whole book, never a half reloaded one
+		final TuneBook[] books = { bookOf(0, 100), bookOf(1000, 100) };
+		final String[] failure = new String[1];
+		Thread[] readers = new Thread[4];
+		for (int t = 0; t < readers.length; t++) {
+			readers[t] = new Thread() {
+				public void run() {
+					for (int n = 0; n < 2000; n++) {
+						int[] refs = book.getReferenceNumbers();
+						if ((refs.length != 100) || (refs[99] - refs[0] != 99))
+							failure[0] = "inconsistent snapshot";
+						Map tunes = book.getTunes();
+						if (tunes.size() != 100)
+							failure[0] = "inconsistent map";
+					}
+				}
+			};
+			readers[t].start();
+		}
+		for (int n = 0; n < 200; n++)
+			book.reload(books[n % 2]);
+		for (Thread reader : readers)
+			reader.join();
+		assertNull(failure[0], failure[0]);
+		assertEquals(1, book.getTune(1000).getInstructions().size());
+	}
+
+	private static AbcTune tuneOf(int ref, String title, byte key, byte mode, TimeSignature meter) {
+		AbcTune tune = new AbcTune();
+		tune.setReferenceNumber(ref);
+		tune.addTitle(title);
+		tune.getMusic().addElement(meter);
+		tune.getMusic().addElement(new KeySignature(key, mode));
+		tune.getMusic().addElement(new Note(Note.A));
+		return tune;
+	}
+
+	public void test4index() {
+		AbcTuneBook book = new AbcTuneBook();
+		book.putTune(tuneOf(1, "Gavotte de l'Aven", Note.D, KeySignature.MIXOLYDIAN, TimeSignature.SIGNATURE_4_4));
+		book.putTune(tuneOf(2, "La gavotte d'Honneur", Note.G, KeySignature.MAJOR, TimeSignature.SIGNATURE_4_4));
+		book.putTune(tuneOf(3, "Cooley's reel", Note.E, KeySignature.MINOR, TimeSignature.SIGNATURE_4_4));
+		TuneBookIndex index = new TuneBookIndex(book);
+		book.addListener(index);
+		assertEquals(3, index.size());
+		assertTrue(Arrays.equals(new int[] { 1, 2 }, index.search(TuneInfos.TITLE, "GAVOTTE")));
+		assertTrue(Arrays.equals(new int[] { 2 }, index.search(TuneBookIndex.ANY_FIELD, "honneur gavotte")));
+		assertEquals(0, index.search(TuneInfos.TITLE, "gavot").length);
+		assertTrue(Arrays.equals(new int[] { 1, 2 }, index.searchPrefix(TuneInfos.TITLE, "gavot")));
+		assertTrue(Arrays.equals(new int[] { 1 }, index.searchPrefix(TuneInfos.TITLE, "gavotte de l'av")));
+		assertTrue(Arrays.equals(new int[] { 1 }, index.getTunesInKey("Dmix")));
+		assertEquals(3, index.getTunesInMeter("4/4").length);
+		assertEquals(new Integer(1), index.getKeyFacets(index.search(TuneInfos.TITLE, "gavotte")).get("Gmaj"));
+
+		// index follows the book
+		book.putTune(tuneOf(4, "Gavotte pourlet", Note.A, KeySignature.MINOR, TimeSignature.SIGNATURE_6_8));
+		book.removeTune(1);
+		assertTrue(Arrays.equals(new int[] { 2, 4 }, index.search(TuneInfos.TITLE, "gavotte")));
+		assertEquals(0, index.getTunesInKey("Dmix").length);
+		assertTrue(Arrays.equals(new int[] { 4 }, index.getTunesInMeter("6/8")));
+	}
+
+	private static AbcTune melodyOf(int ref, byte[] heights) {
+		AbcTune tune = new AbcTune();
+		tune.setReferenceNumber(ref);
+		tune.getMusic().addElement(new KeySignature(Note.C, KeySignature.MAJOR));
+		for (byte height : heights)
+			tune.getMusic().addElement(new Note(height));
+		return tune;
+	}
+
+	public void test5melodyIndex() {
+		AbcTuneBook book = new AbcTuneBook();
+		book.putTune(melodyOf(1, new byte[] { Note.C, Note.D, Note.E, Note.F, Note.G, Note.A }));
+		book.putTune(melodyOf(2, new byte[] { Note.G, Note.F, Note.E, Note.D, Note.C }));
+		MelodyIndex index = new MelodyIndex(book);
+		book.addListener(index);
+		assertEquals(2, index.size());
+		// D E F G transposed a fifth higher: A B c d
+		int[] pitches = { 69, 71, 72, 74 };
+		MelodyIndex.Match[] matches = index.search(pitches, null, 10);
+		assertEquals(1, matches.length);
+		assertEquals(1, matches[0].getReferenceNumber());
+		assertEquals(1f, matches[0].getQuality(), 0f);
+		// same intervals in a new tune, same rhythm
+		book.putTune(melodyOf(3, new byte[] { Note.A, Note.B, Note.c, Note.d }));
+		int eighth = new Note(Note.A).getDuration();
+		matches = index.search(pitches, new int[] { eighth, eighth, eighth, eighth }, 10);
+		assertEquals(2, matches.length);
+		assertEquals(1, matches[0].getReferenceNumber());
+		assertEquals(3, matches[1].getReferenceNumber());
+		matches = index.search(new int[] { 67, 65, 64, 62, 60 }, null, 10);
+		assertEquals(2, matches[0].getReferenceNumber());
+		book.removeTune(2);
+		assertEquals(0, index.search(new int[] { 67, 65, 64, 62, 60 }, null, 10).length);
+		// ids of removed tunes are reused
+		book.putTune(melodyOf(1, new byte[] { Note.C, Note.D, Note.E, Note.F, Note.G, Note.A }));
+		book.putTune(melodyOf(4, new byte[] { Note.C, Note.D, Note.E, Note.F, Note.G, Note.A }));
+		assertEquals(3, index.size());
+		matches = index.search(pitches, new int[] { eighth, eighth, eighth, eighth }, 10);
+		assertEquals(3, matches.length);
+		assertEquals(1, matches[0].getReferenceNumber());
+		assertEquals(3, matches[1].getReferenceNumber());
+		assertEquals(4, matches[2].getReferenceNumber());
+		book.removeTune(4);
+		matches = index.search(pitches, null, 10);
+		assertEquals(2, matches.length);
+		assertEquals(3, matches[1].getReferenceNumber());
+		// more rhythm grams than interval grams
+		book.putTune("X:5\nL:1/8\nK:C\nCDEF CD2EF2 CDEF|\n");
+		matches = index.search("CDEF CD2EF2", 10);
+		assertEquals(5, matches[0].getReferenceNumber());
+		assertEquals(1f, matches[0].getQuality(), 0f);
+		// the scores of the previous search are cleared
+		matches = index.search(pitches, null, 10);
+		assertEquals(2, matches.length);
+		assertEquals(1f, matches[0].getQuality(), 0f);
+	}
+
+	public void test6duplicates() {
+		byte[] melody = { Note.C, Note.D, Note.E, Note.F, Note.G, Note.A, Note.G, Note.E, Note.C };
+		byte[] transposed = { Note.G, Note.A, Note.B, Note.c, Note.d, Note.e, Note.d, Note.B, Note.G };
+		TuneBook book1 = new TuneBook();
+		book1.putTune(melodyOf(1, melody));
+		book1.putTune(melodyOf(2, new byte[] { Note.A, Note.A, Note.G, Note.E, Note.D, Note.C, Note.D }));
+		TuneBook book2 = new TuneBook();
+		book2.putTune(melodyOf(10, transposed));
+		book2.putTune(melodyOf(11, new byte[] { Note.C, Note.E, Note.G, Note.c, Note.G, Note.E }));
+		DuplicateFinder.Cluster[] clusters = new DuplicateFinder().find(new TuneBook[] { book1, book2 });
+		assertEquals(1, clusters.length);
+		assertEquals(2, clusters[0].size());
+		assertEquals(1, clusters[0].getTunes()[0].getReferenceNumber());
+		assertEquals(10, clusters[0].getTunes()[1].getReferenceNumber());
+		assertEquals(1f, clusters[0].getSimilarity(1), 0f);
+
+		// a tune compared to its next one only, copies are still chained
+		TuneBook copies = new TuneBook();
+		for (int i = 0; i < 40; i++)
+			copies.putTune(melodyOf(i, i % 2 == 0 ? melody : transposed));
+		clusters = new DuplicateFinder(0.5f, 1).find(new TuneBook[] { copies });
+		assertEquals(1, clusters.length);
+		assertEquals(40, clusters[0].size());
+		try {
+			new DuplicateFinder(0.5f, 0);
+			fail("0 comparison should be refused");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	private static Tune codecTune() {
+		Tune tune = new Tune();
+		tune.setReferenceNumber(7);
+		tune.addTitle("Suite de Plinn");
+		tune.addComposer("Trad.");
+		Voice voice = tune.getVoice("1");
+		voice.addElement(new TimeSignature(new int[] { 3, 2 }, 8));
+		voice.addElement(new KeySignature(Note.D, KeySignature.MIXOLYDIAN));
+		Note a = new Note(Note.A);
+		a.setChordName("Am7/G");
+		a.setDecorations(new Decoration[] { new Decoration(Decoration.ROLL) });
+		Note b = new Note(Note.B);
+		b.setDotted((byte) 1);
+		TieDefinition tie = new TieDefinition();
+		tie.setStart(a);
+		tie.setEnd(b);
+		a.setTieDefinition(tie);
+		b.setTieDefinition(tie);
+		voice.addElement(a);
+		voice.addElement(b);
+		voice.addElement(new BarLine());
+		Vector notes = new Vector();
+		notes.add(new Note(Note.c));
+		notes.add(new Note(Note.d, Accidental.SHARP));
+		notes.add(new Note(Note.e));
+		new Tuplet(notes, (short) 2, Note.EIGHTH);
+		for (Object note : notes)
+			voice.addElement((Note) note);
+		Vector chord = new Vector();
+		chord.add(new Note(Note.C));
+		chord.add(new Note(Note.G, Accidental.NATURAL));
+		voice.addElement(new MultiNote(chord));
+		Note rest = new Note(Note.REST);
+		rest.setInvisibleRest(true);
+		voice.addElement(rest);
+		voice.addElement(new RepeatBarLine(new byte[] { 1, 2 }));
+		Part part = tune.createPart("A");
+		part.getMusic().addElement(new Note(Note.f));
+		MultiPartsDefinition parts = new MultiPartsDefinition();
+		RepeatedPart repeated = new RepeatedPart(part);
+		repeated.setNumberOfRepeats((byte) 2);
+		parts.addPart(repeated);
+		tune.setMultiPartsDefinition(parts);
+		return tune;
+	}
+
+	public void test7codec() throws Exception {
+		TuneBook book = new TuneBook();
+		book.getBookInfos().set(TuneInfos.SOURCE, "Collected in Brittany");
+		book.addInstruction(new Xcommand("scale 0.8"));
+		book.putTune(codecTune());
+		byte[] bytes = TuneCodec.encode(book);
+		TuneBook read = TuneCodec.decodeTuneBook(bytes);
+		// written again, gives the same bytes
+		assertTrue(Arrays.equals(bytes, TuneCodec.encode(read)));
+
+		Tune tune = read.getTune(7);
+		assertEquals("Suite de Plinn", tune.getTuneInfos().get(TuneInfos.TITLE));
+		assertEquals("Collected in Brittany", tune.getTuneInfos().get(TuneInfos.SOURCE));
+		assertEquals(1, tune.getInstructions().size());
+		assertSame(read.getInstructions().get(0), tune.getInstructions().get(0));
+		Voice voice = tune.getVoice("1");
+		Voice original = codecTune().getVoice("1");
+		assertEquals(original.size(), voice.size());
+		for (int i = 0; i < voice.size(); i++) {
+			MusicElement element = (MusicElement) voice.elementAt(i);
+			assertEquals(original.elementAt(i).getClass(), element.getClass());
+			assertEquals(((MusicElement) original.elementAt(i)).getReference(), element.getReference());
+		}
+		assertEquals(3, voice.getLastBarNumber());
+		assertEquals("Dmix", ((KeySignature) voice.elementAt(1)).toLitteralNotation());
+		Note a = (Note) voice.elementAt(2);
+		Note b = (Note) voice.elementAt(3);
+		assertSame(a.getTieDefinition(), b.getTieDefinition());
+		assertSame(b.getReference(), a.getTieDefinition().getEnd());
+		assertEquals("Am7/G", a.getChordName());
+		assertEquals(Decoration.ROLL, a.getDecorations()[0].getType());
+		assertEquals(Note.DOTTED_EIGHTH, b.getDuration());
+		Note c = (Note) voice.elementAt(5);
+		assertSame(c.getTuplet(), ((Note) voice.elementAt(7)).getTuplet());
+		assertEquals(3, c.getTuplet().getNumberOfNotes());
+		assertEquals(((Note) original.elementAt(5)).getDuration(), c.getDuration());
+		assertEquals(Accidental.SHARP, ((Note) voice.elementAt(6)).getAccidental());
+		assertEquals(2, ((MultiNote) voice.elementAt(8)).toArray().length);
+		assertTrue(((Note) voice.elementAt(9)).isRestInvisible());
+		Part part = tune.getPart("A");
+		assertSame(part, tune.getMultiPartsDefinition().toPartsArray()[1]);
+		assertEquals(1, part.getMusic().getFirstVoice().size());
+
+		ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(serialized);
+		out.writeObject(book);
+		out.close();
+		assertTrue(bytes.length * 5 < serialized.size());
+	}
+
+	public void test8lazyBook() throws Exception {
+		TuneBook full = new TuneBookParser().parse(getResource());
+		AbcTuneBook lazy = new TuneBookParser().parseLazily(getResource());
+		assertTrue(lazy.isLazy());
+		// all tunes of the full parse, with the same music
+		for (int ref : full.getReferenceNumbers())
+			assertEquals(0, MusicDiff.diff(full.getTune(ref), lazy.getTune(ref)).length);
+		// and the tunes following the syntax error of X:14, lost by the full parse
+		assertFalse(full.containsTune(15));
+		assertTrue(lazy.containsTune(15));
+		assertTrue(lazy.size() > full.size());
+		lazy = new TuneBookParser().parseLazily(getResource());
+
+		// headers are there, music is not parsed yet
+		AbcTune header = (AbcTune) lazy.getTunes().get(1);
+		assertEquals("Simple scale exercise", header.getTuneInfos().get(TuneInfos.TITLE));
+		assertTrue(header.getAbcString().startsWith("X:1"));
+
+		Tune tune = lazy.getTune(1);
+		assertNotSame(header, tune);
+		assertSame(tune, lazy.getTune(1));
+		Voice expected = full.getTune(1).getMusic().getFirstVoice();
+		Voice voice = tune.getMusic().getFirstVoice();
+		assertEquals(expected.size(), voice.size());
+		for (int i = 0; i < voice.size(); i++) {
+			MusicElement e = (MusicElement) expected.elementAt(i);
+			MusicElement me = (MusicElement) voice.elementAt(i);
+			assertEquals(e.getClass(), me.getClass());
+			// positions are book positions
+			if (e.getCharStreamPosition() != null)
+				assertEquals(e.getCharStreamPosition().toString(),
+						me.getCharStreamPosition().toString());
+		}
+
+		assertEquals(lazy.size(), lazy.toVector().size());
+		assertNotNull(lazy.removeTune(1));
+		assertFalse(lazy.containsTune(1));
+		lazy.putTune(tune);
+		assertSame(tune, lazy.getTune(1));
+	}
+
+	public void test9infosTable() throws Exception {
+		AbcTuneBook book = new AbcTuneBook();
+		book.getBookInfos().set(TuneInfos.SOURCE, "O'Neill's");
+		for (int i = 0; i < 100; i++) {
+			AbcTune tune = tuneOf(100 - i, "Tune " + i, Note.D,
+					KeySignature.MAJOR, TimeSignature.SIGNATURE_4_4);
+			tune.getTuneInfos().set(TuneInfos.RHYTHM, i % 2 == 0 ? "reel" : "jig");
+			tune.getTuneInfos().set(TuneInfos.COMPOSER, "Trad.");
+			book.putTune(tune);
+		}
+		TuneInfosTable table = new TuneInfosTable(book);
+		table.trimToSize();
+		assertEquals(100, table.size());
+		assertEquals(100, table.countValues(TuneInfos.TITLE));
+		assertEquals(2, table.countValues(TuneInfos.RHYTHM));
+		assertEquals(1, table.countValues(TuneInfos.COMPOSER));
+		assertEquals(0, table.countValues(TuneInfos.AREA));
+
+		int row = table.indexOf(42);
+		assertEquals(42, table.getReferenceNumber(row));
+		assertEquals(-1, table.indexOf(101));
+		TuneInfos expected = book.getTune(42).getTuneInfos();
+		TuneInfos infos = table.getInfos(row);
+		for (byte field = TuneInfos.AREA; field <= TuneInfos.WORDS; field++)
+			assertEquals(expected.get(field), infos.get(field));
+		assertEquals("O'Neill's", infos.get(TuneInfos.SOURCE));
+		assertNull(table.get(row, TuneInfos.SOURCE));
+		assertEquals("Tune 58", table.get(row, TuneInfos.TITLE));
+		try {
+			infos.set(TuneInfos.TITLE, "Other");
+			fail("row infos are read-only");
+		} catch (UnsupportedOperationException expectedException) {
+		}
+
+		TuneInfos copy = (TuneInfos) infos.clone();
+		copy.add(TuneInfos.TITLE, "Other");
+		assertEquals("Tune 58\nOther", copy.get(TuneInfos.TITLE));
+		assertEquals("Tune 58", table.get(row, TuneInfos.TITLE));
+
+		// rows added after trimToSize, lookups still right
+		AbcTune tune = tuneOf(500, "Tune 0", Note.D, KeySignature.MAJOR,
+				TimeSignature.SIGNATURE_4_4);
+		row = table.add(tune);
+		assertEquals(row, table.indexOf(500));
+		assertEquals(100, table.countValues(TuneInfos.TITLE));
+		assertEquals("Tune 0", table.get(row, TuneInfos.TITLE));
+		assertNull(table.get(row, TuneInfos.RHYTHM));
+	}
+	
+	public void test10statistics() {
+		AbcTuneBook book = new AbcTuneBook();
+		for (int i = 0; i < 50; i++) {
+			book.putTune(tuneOf(i * 3 + 1, "Reel " + i, Note.D, KeySignature.MAJOR,
+					TimeSignature.SIGNATURE_4_4));
+			book.putTune(tuneOf(i * 3 + 2, "Jig " + i, Note.A, KeySignature.DORIAN,
+					TimeSignature.SIGNATURE_6_8));
+			book.putTune(melodyOf(i * 3 + 3, new byte[] { Note.C, Note.E, Note.D, Note.G }));
+		}
+		Histogram keys = TuneStatistics.keys();
+		Histogram modes = TuneStatistics.modes();
+		Histogram meters = TuneStatistics.meters();
+		Histogram ranges = TuneStatistics.ranges();
+		Histogram intervals = TuneStatistics.intervals();
+		Histogram lengths = TuneStatistics.tuneLengths();
+		TuneStatistics.aggregate(book, new AggregatorGroup(new Aggregator[] {
+				keys, modes, meters, ranges, intervals, lengths }));
+
+		assertEquals(150, keys.getTotal());
+		assertEquals(50, keys.getCount("Dmaj"));
+		assertEquals(50, keys.getCount("Ador"));
+		assertEquals(50, keys.getCount("Cmaj"));
+		assertEquals(0, keys.getCount("Gmaj"));
+		assertEquals(1f / 3, keys.getFrequency("Ador"), 0.0001f);
+		assertTrue(Arrays.equals(new Object[] { "Ador", "Cmaj", "Dmaj" }, keys.getValues()));
+		assertEquals(100, modes.getCount("major"));
+		assertEquals(50, modes.getCount("dorian"));
+		assertTrue(Arrays.equals(new Object[] { "major" }, modes.getMostFrequent(1)));
+		assertEquals(50, meters.getCount("4/4"));
+		assertEquals(50, meters.getCount("6/8"));
+		assertEquals(100, meters.getTotal());
+		// one note A, and C E D G
+		assertEquals(100, ranges.getCount(new Integer(0)));
+		assertEquals(50, ranges.getCount(new Integer(7)));
+		assertEquals(150, intervals.getTotal());
+		assertEquals(50, intervals.getCount(new Integer(4)));
+		assertEquals(50, intervals.getCount(new Integer(-2)));
+		assertEquals(50, intervals.getCount(new Integer(5)));
+		assertEquals(100, lengths.getCount(new Integer(1)));
+		assertEquals(50, lengths.getCount(new Integer(4)));
+
+		// same results as one sequential pass
+		Histogram sequential = TuneStatistics.intervals();
+		Vector tunes = book.toVector();
+		for (int i = 0; i < tunes.size(); i++)
+			sequential.add((Tune) tunes.elementAt(i));
+		assertEquals(sequential.toString(), intervals.toString());
+	}
+
 	protected void tearDown() throws Exception {
 		super.tearDown();
 	}
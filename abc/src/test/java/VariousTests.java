@@ -1,9 +1,51 @@
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Vector;
 
 import junit.framework.TestCase;
+import abc.notation.AbcWriter;
+import abc.notation.Accidental;
+import abc.notation.Annotation;
+import abc.notation.Bar;
+import abc.notation.BarLine;
+import abc.notation.Chord;
+import abc.notation.Decoration;
+import abc.notation.EndOfStaffLine;
+import abc.notation.Fraction;
+import abc.notation.KeySignature;
+import abc.notation.MultiNote;
+import abc.notation.MultiPartsDefinition;
+import abc.notation.Music;
+import abc.notation.MusicChangeEvent;
+import abc.notation.MusicChangeListenerInterface;
+import abc.notation.MusicDiff;
+import abc.notation.MusicElement;
+import abc.notation.MusicElementVisitor;
+import abc.notation.MusicElementVisitorAdapter;
 import abc.notation.Note;
+import abc.notation.Part;
+import abc.notation.NoteAbstract;
+import abc.notation.NoteColumns;
+import abc.notation.NotesSeparator;
+import abc.notation.RepeatBarLine;
+import abc.notation.RepeatedPart;
+import abc.notation.SlurDefinition;
+import abc.notation.Spacer;
+import abc.notation.Tablature;
+import abc.notation.TieDefinition;
+import abc.notation.TimeMap;
+import abc.notation.TimeSignature;
 import abc.notation.Tune;
+import abc.notation.TuneBook;
+import abc.notation.Tuplet;
+import abc.notation.Voice;
+import abc.notation.VoiceCursor;
+import abc.parser.CharStreamPosition;
 //import abc.parser.AbcHeadersParser;
 import abc.parser.TuneBookParser;
 import abc.parser.TuneParser;
@@ -125,6 +167,616 @@ public class VariousTests extends TestCase {
 		new TuneParser().parse(tuneAsString);
 	}
 	
+	/** Each positioned element must be found at its own position,
+	 * including when the music is made of several voices. */
+	public void test5ElementAtStreamPosition(){
+		String tuneAsString = "X:1\nT:test\nK:C\nV:1\nabc|\nV:2\nCDE|\n";
+		Music music = new TuneParser().parse(tuneAsString).getMusic();
+		assertNull(music.getElementAtStreamPosition(-1));
+		for (Object o : music.getVoices()) {
+			Voice voice = (Voice) o;
+			for (int i = 0; i < voice.size(); i++) {
+				MusicElement element = (MusicElement) voice.elementAt(i);
+				CharStreamPosition pos = element.getCharStreamPosition();
+				if ((pos != null) && (pos.getLength() > 0))
+					assertSame(element, music.getElementAtStreamPosition(pos.getStartIndex()));
+			}
+		}
+	}
+	
+	public void test6NoteColumns(){
+		String tuneAsString = "X:1\nT:test\nL:1/4\nK:D\nF=FF|F[CE]zG|\n";
+		Music music = new TuneParser().parse(tuneAsString).getMusic();
+		NoteColumns columns = music.getNoteColumns();
+		assertSame(columns, music.getNoteColumns());
+		assertEquals(8, columns.size());
+		byte[] pitches = { 66, 65, 65, 66, 61, 64, NoteColumns.NO_PITCH, 67 };
+		int[] onsets = { 0, 192, 384, 576, 768, 768, 960, 1152 };
+		NoteColumns.Cursor cursor = columns.cursor();
+		for (int i = 0; cursor.next(); i++) {
+			assertEquals(pitches[i], cursor.getPitch());
+			assertEquals(onsets[i], cursor.getOnset());
+			assertEquals(Note.QUARTER, cursor.getDuration());
+			assertEquals(i == 4 || i == 5, cursor.isChord());
+			assertEquals(i == 6, cursor.isRest());
+		}
+		assertEquals(Accidental.NATURAL, columns.getAccidental(1));
+		assertEquals(Accidental.NONE, columns.getAccidental(2));
+	}
+	
+	public void test7TimeMap(){
+		String tuneAsString = "X:1\nT:test\nL:1/4\nK:C\nab|c2|[ce]d|\n";
+		Music music = new TuneParser().parse(tuneAsString).getMusic();
+		TimeMap timeMap = music.getTimeMap();
+		assertSame(timeMap, music.getTimeMap());
+		Voice voice = music.getFirstVoice();
+		int[] onsets = { 0, Note.QUARTER, Note.HALF, Note.WHOLE, Note.WHOLE + Note.QUARTER };
+		int n = 0;
+		for (int i = 0; i < voice.size(); i++) {
+			if (voice.elementAt(i) instanceof NoteAbstract) {
+				NoteAbstract note = (NoteAbstract) voice.elementAt(i);
+				assertEquals(onsets[n++], timeMap.getOnset(note));
+				assertSame(note, timeMap.getElementAt(timeMap.getOnset(note)));
+			}
+		}
+		assertEquals(onsets.length, n);
+		assertTrue(timeMap.getElementAt(Note.WHOLE + 1) instanceof MultiNote);
+		assertNull(timeMap.getElementAt(Note.WHOLE + Note.HALF));
+		assertEquals(0, timeMap.getTimeOfBar((short) 1));
+		assertEquals(Note.HALF, timeMap.getTimeOfBar((short) 2));
+		assertEquals(Note.WHOLE, timeMap.getTimeOfBar((short) 3));
+		assertEquals(2, timeMap.getBarAt(Note.HALF + Note.QUARTER));
+		assertEquals(3, timeMap.getBarAt(Note.WHOLE));
+	}
+
+	public void test8MusicChanges(){
+		Music music = new Music();
+		Voice voice = music.getFirstVoice();
+		Note a = new Note(Note.A);
+		Note b = new Note(Note.B);
+		Note c = new Note(Note.c);
+		voice.addElement(a);
+		voice.addElement(b);
+		voice.addElement(new BarLine());
+		voice.addElement(c);
+		voice.addElement(new BarLine());
+		final Vector events = new Vector();
+		music.addListener(new MusicChangeListenerInterface() {
+			public void musicChanged(MusicChangeEvent e) {
+				events.add(e);
+			}
+		});
+		assertFalse(music.isDirty());
+		assertEquals(a.getDuration() + b.getDuration(), music.getTimeMap().getOnset(c));
+
+		music.setDuration(a, Note.HALF, (byte) 0);
+		MusicChangeEvent e = (MusicChangeEvent) events.lastElement();
+		assertEquals(MusicChangeEvent.DURATION_CHANGED, e.getType());
+		assertEquals(0, e.getPosition());
+		assertEquals(1, e.getFirstBar());
+		assertEquals(1, e.getLastBar());
+		assertEquals(Note.HALF + b.getDuration(), music.getTimeMap().getOnset(c));
+
+		Note d = new Note(Note.d);
+		music.insertElement(voice, 1, d);
+		e = (MusicChangeEvent) events.lastElement();
+		assertEquals(MusicChangeEvent.ELEMENT_INSERTED, e.getType());
+		assertSame(d, e.getNewElement());
+		assertEquals(1, e.getLastBar());
+		assertEquals(1, d.getReference().getX());
+		assertEquals(2, b.getReference().getX());
+		assertEquals(4, c.getReference().getX());
+		assertEquals(2, voice.getBarNumberAt(4));
+
+		music.setPitch(c, Note.e, Accidental.FLAT);
+		e = (MusicChangeEvent) events.lastElement();
+		assertEquals(MusicChangeEvent.PITCH_CHANGED, e.getType());
+		assertEquals(2, e.getFirstBar());
+		assertEquals(Accidental.FLAT, c.getAccidental());
+
+		// removing the first bar line merges bars 1 and 2
+		assertEquals(3, voice.getLastBarNumber());
+		MusicElement removed = music.removeElement(voice, 3);
+		assertTrue(removed instanceof BarLine);
+		e = (MusicChangeEvent) events.lastElement();
+		assertEquals(MusicChangeEvent.ELEMENT_REMOVED, e.getType());
+		assertEquals(1, e.getFirstBar());
+		assertEquals(3, e.getLastBar());
+		assertEquals(2, voice.getLastBarNumber());
+		assertEquals(1, voice.getBarNumberAt(3));
+		assertEquals(3, c.getReference().getX());
+		assertSame(c, music.getElementByReference(c.getReference()));
+
+		assertEquals(4, events.size());
+		assertTrue(music.isDirty());
+		assertEquals(1, music.getFirstDirtyBar());
+		assertEquals(3, music.getLastDirtyBar());
+		music.clearDirty();
+		assertFalse(music.isDirty());
+	}
+
+	public void test9VisitorAndCursor(){
+		Music music = new Music();
+		Voice voice = music.getFirstVoice();
+		voice.addElement(new KeySignature(Note.D, KeySignature.MAJOR));
+		voice.addElement(new Note(Note.A));
+		voice.addElement(new BarLine());
+		voice.addElement(new MultiNote(new Vector(Arrays.asList(new Note[] {
+				new Note(Note.A), new Note(Note.c) }))));
+		voice.addElement(new Note(Note.B));
+		voice.addElement(new RepeatBarLine(new byte[] { 1 }));
+		voice.addElement(new Chord("Am"));
+
+		assertEquals(MusicElementVisitor.KEY_SIGNATURE, ((MusicElement) voice.elementAt(0)).getElementType());
+		assertEquals(MusicElementVisitor.NOTE, ((MusicElement) voice.elementAt(1)).getElementType());
+		assertEquals(MusicElementVisitor.REPEAT_BAR_LINE, ((MusicElement) voice.elementAt(5)).getElementType());
+		assertEquals(MusicElementVisitor.OTHER, new Fraction(1, 2).getElementType());
+
+		final StringBuffer visited = new StringBuffer();
+		music.accept(new MusicElementVisitorAdapter() {
+			public void visitNote(Note note) {
+				visited.append("N");
+			}
+			public void visitBarLine(BarLine barLine) {
+				visited.append("|");
+			}
+			public void visitAnnotation(Annotation annotation) {
+				visited.append("\"");
+			}
+			public void visitElement(MusicElement element) {
+				visited.append(".");
+			}
+		});
+		// repeat bar line goes to visitBarLine, chord to visitAnnotation
+		assertEquals(".N|.N|\"", visited.toString());
+
+		VoiceCursor notes = new VoiceCursor(VoiceCursor.maskOf(MusicElementVisitor.NOTE)
+				| VoiceCursor.maskOf(MusicElementVisitor.MULTI_NOTE));
+		notes.reset(voice);
+		assertTrue(notes.next());
+		assertEquals(1, notes.getIndex());
+		assertSame(voice.elementAt(1), notes.get());
+		assertTrue(notes.next());
+		assertEquals(MusicElementVisitor.MULTI_NOTE, notes.getType());
+		assertTrue(notes.next());
+		assertEquals(4, notes.getIndex());
+		assertFalse(notes.next());
+		assertNull(notes.get());
+		assertTrue(notes.previous());
+		assertEquals(4, notes.getIndex());
+
+		// reused on another start, replacing an element doesn't fail
+		notes.reset(voice, 2);
+		assertTrue(notes.next());
+		assertEquals(3, notes.getIndex());
+		voice.setElementAt(new Note(Note.C), 4);
+		assertTrue(notes.next());
+		assertSame(voice.elementAt(4), notes.get());
+		voice.addElement(new Note(Note.D));
+		try {
+			notes.next();
+			fail("voice has been modified");
+		} catch (ConcurrentModificationException e) {
+		}
+	}
+
+	private static Note note(byte height, short duration) {
+		Note note = new Note(height);
+		note.setStrictDuration(duration);
+		return note;
+	}
+
+	public void test10TimeSlices(){
+		Music music = new Music();
+		Voice v1 = music.getFirstVoice();
+		v1.addElement(note(Note.A, Note.QUARTER));
+		v1.addElement(note(Note.B, Note.QUARTER));
+		v1.addElement(note(Note.c, Note.QUARTER));
+		Voice v2 = music.getVoice("2");
+		v2.addElement(note(Note.C, Note.HALF));
+		v2.addElement(note(Note.REST, Note.QUARTER));
+		v2.addElement(note(Note.E, Note.QUARTER));
+		NoteColumns columns = music.getNoteColumns();
+		NoteColumns.TimeSlices slices = columns.timeSlices();
+
+		assertTrue(slices.next());
+		assertEquals(0, slices.getTime());
+		assertEquals(2, slices.size());
+		assertEquals(0, columns.getVoice(slices.getRow(0)));
+		assertEquals(1, columns.getVoice(slices.getRow(1)));
+		assertTrue(slices.isStarting(0));
+
+		// C is held while B starts
+		assertTrue(slices.next());
+		assertEquals(Note.QUARTER, slices.getTime());
+		assertEquals(2, slices.size());
+		assertFalse(slices.isStarting(0));
+		assertEquals(columns.getFirstRowOfVoice(1), slices.getRow(0));
+		assertTrue(slices.isStarting(1));
+		assertEquals(1, columns.getPosition(slices.getRow(1)));
+
+		// the rest makes no slice, C has ended
+		assertTrue(slices.next());
+		assertEquals(Note.HALF, slices.getTime());
+		assertEquals(1, slices.size());
+		assertTrue(slices.next());
+		assertEquals(Note.HALF + Note.QUARTER, slices.getTime());
+		assertEquals(1, slices.size());
+		assertEquals(1, columns.getVoice(slices.getRow(0)));
+		assertFalse(slices.next());
+		assertEquals(0, slices.size());
+
+		slices.reset();
+		int count = 0;
+		while (slices.next())
+			count++;
+		assertEquals(4, count);
+	}
+	
+	public void test11Fingerings(){
+		Voice voice = new Voice("1", (short) 1);
+		byte[] melody = new byte[] { Note.E, Note.E, Note.G, Note.A, Note.B,
+				Note.c, Note.B, Note.A };
+		for (int i = 0; i < 500; i++) {
+			for (byte height : melody)
+				voice.addElement(new Note(height));
+		}
+		Vector notes = new Vector();
+		notes.add(new Note(Note.C));
+		notes.add(new Note(Note.E));
+		notes.add(new Note(Note.G));
+		notes.add(new Note(Note.c));
+		voice.addElement(new MultiNote(notes));
+		voice.addElement(new Note(Note.C, -2));
+
+		Tablature tab = Tablature.GUITAR;
+		long start = System.currentTimeMillis();
+		tab.computeFingerings(voice);
+		System.out.println("Fingerings of " + voice.size() + " notes computed in "
+				+ (System.currentTimeMillis() - start) + "ms");
+		for (int i = 0; i < voice.size() - 2; i++) {
+			Note note = (Note) voice.elementAt(i);
+			int[] pos = tab.getFingeringForNote(note);
+			assertEquals(note.getMidiLikeHeight(), tab.getStringNote(pos[0])
+					.getMidiLikeHeight() + pos[1]);
+		}
+		// same note, same position
+		assertTrue(Arrays.equals(tab.getFingeringForNote((Note) voice.elementAt(0)),
+				tab.getFingeringForNote((Note) voice.elementAt(1))));
+		// the melody stays in first position
+		for (int i = 0; i < melody.length; i++) {
+			int[] pos = tab.getFingeringForNote((Note) voice.elementAt(i));
+			assertTrue(pos[1] <= 3);
+		}
+
+		Note[] chord = ((MultiNote) voice.elementAt(voice.size() - 2)).toArray();
+		int usedStrings = 0;
+		for (Note note : chord) {
+			int[] pos = tab.getFingeringForNote(note);
+			assertTrue(pos[1] >= 0);
+			assertEquals(note.getMidiLikeHeight(), tab.getStringNote(pos[0])
+					.getMidiLikeHeight() + pos[1]);
+			usedStrings |= 1 << pos[0];
+		}
+		assertEquals(chord.length, Integer.bitCount(usedStrings));
+
+		// lower than lowest string
+		assertEquals(-1, tab.getFingeringForNote(
+				(Note) voice.elementAt(voice.size() - 1))[1]);
+	}
+
+	public void test12CachedMusic(){
+		Tune tune = new Tune();
+		Part a = tune.createPart("A");
+		a.getMusic().getVoice("1").addElement(new Note(Note.A));
+		Part b = tune.createPart("B");
+		b.getMusic().getVoice("1").addElement(new Note(Note.B));
+		MultiPartsDefinition abba = new MultiPartsDefinition();
+		abba.addPart(new RepeatedPart(a));
+		abba.addPart(new RepeatedPart(b));
+		abba.addPart(new RepeatedPart(b));
+		abba.addPart(new RepeatedPart(a));
+		tune.setMultiPartsDefinition(abba);
+
+		Music music = tune.getMusic();
+		assertSame(music, tune.getMusic());
+		Music graphical = tune.getMusicForGraphicalRendition();
+		assertSame(graphical, tune.getMusicForGraphicalRendition());
+		Music audio = tune.getMusicForAudioRendition();
+		assertSame(audio, tune.getMusicForAudioRendition());
+		assertNull(tune.getGeneralTempo());
+		assertSame(music, tune.getMusic());
+
+		// a part is changed
+		b.getMusic().getVoice("1").addElement(new Note(Note.c));
+		Music changed = tune.getMusic();
+		assertNotSame(music, changed);
+		assertEquals(music.getVoice("1").size() + 2,
+				changed.getVoice("1").size());
+		assertNotSame(graphical, tune.getMusicForGraphicalRendition());
+		assertNotSame(audio, tune.getMusicForAudioRendition());
+
+		// the parts order is changed
+		abba.addPart(new RepeatedPart(b));
+		assertNotSame(changed, tune.getMusic());
+		music = tune.getMusic();
+		MultiPartsDefinition ab = new MultiPartsDefinition();
+		ab.addPart(new RepeatedPart(a));
+		ab.addPart(new RepeatedPart(b));
+		tune.setMultiPartsDefinition(ab);
+		assertNotSame(music, tune.getMusic());
+
+		// the returned music is changed
+		music = tune.getMusic();
+		music.getVoice("1").addElement(new Note(Note.d));
+		assertNotSame(music, tune.getMusic());
+	}
+
+	public void test13BarContent(){
+		Voice voice = new Voice("1", (short) 5);
+		Note a = new Note(Note.A);
+		Note b = new Note(Note.B);
+		voice.addElement(a);
+		voice.addElement(b);
+		BarLine first = new BarLine();
+		voice.addElement(first);
+		voice.addElement(new Spacer(10));
+		BarLine second = new BarLine();
+		voice.addElement(second);
+		assertEquals(7, voice.getLastBarNumber());
+		assertEquals(5, voice.getBarNumberAt(1));
+		assertEquals(6, voice.getBarNumberAt(2));
+		assertEquals(7, voice.getBarNumberAt(10));
+
+		Bar bar = voice.getFirstBar();
+		assertSame(bar, voice.getFirstBar());
+		Collection content = voice.getBarContent(bar);
+		assertEquals(Arrays.asList(new Object[] { a, b }), content);
+		assertFalse(voice.barIsEmpty(bar));
+		try {
+			content.clear();
+			fail("bar content is read-only");
+		} catch (UnsupportedOperationException expected) {
+		}
+
+		Bar last = voice.getLastBar();
+		assertEquals(Arrays.asList(new Object[] { second }),
+				voice.getBarContent(last));
+		assertTrue(voice.barIsEmpty(last));
+
+		// a clone has its own bars
+		Voice clone = (Voice) voice.clone();
+		clone.addElement(new BarLine());
+		assertEquals(8, clone.getLastBarNumber());
+		assertEquals(7, voice.getLastBarNumber());
+
+		// removing the first bar line merges bars 5 and 6
+		new Music().removeElement(voice, 2);
+		assertEquals(6, voice.getLastBarNumber());
+		assertEquals(3, voice.getBarContent(voice.getFirstBar()).size());
+		assertTrue(voice.barIsEmpty(voice.getLastBar()));
+		voice.addElement(new Note(Note.C));
+		try {
+			content.size();
+			content.iterator().next();
+			fail("voice has changed");
+		} catch (ConcurrentModificationException expected) {
+		}
+	}
+
+	public void test14MusicDiff(){
+		byte[] oldHeights = { Note.C, Note.D, -1, Note.E, Note.F, -1, Note.G,
+				Note.A, -1, Note.B, Note.c, -1 };
+		Voice oldVoice = new Voice("1", (short) 1);
+		Voice newVoice = new Voice("1", (short) 1);
+		for (int i = 0; i < oldHeights.length; i++) {
+			oldVoice.addElement(oldHeights[i] == -1 ? (MusicElement) new BarLine()
+					: new Note(oldHeights[i]));
+			newVoice.addElement(oldHeights[i] == -1 ? (MusicElement) new BarLine()
+					: new Note(oldHeights[i]));
+		}
+		assertEquals(0, MusicDiff.diff(oldVoice, newVoice).length);
+
+		// F becomes G in the 2nd bar, A gets a roll, a bar is added
+		Music music = new Music();
+		Note g = new Note(Note.G);
+		music.replaceElement(newVoice, 4, g);
+		((Note) newVoice.elementAt(7)).setDecorations(new Decoration[] {
+				new Decoration(Decoration.ROLL) });
+		Note d = new Note(Note.d);
+		newVoice.addElement(d);
+		newVoice.addElement(new BarLine());
+		// layout elements are ignored
+		music.insertElement(newVoice, 1, new NotesSeparator());
+		MusicDiff.Difference[] differences = MusicDiff.diff(oldVoice, newVoice);
+		assertEquals(3, differences.length);
+		assertEquals(MusicDiff.CHANGED, differences[0].getType());
+		assertEquals(Arrays.asList(new Object[] { oldVoice.elementAt(4) }),
+				Arrays.asList(differences[0].getOldElements()));
+		assertEquals(Arrays.asList(new Object[] { g }),
+				Arrays.asList(differences[0].getNewElements()));
+		assertEquals(4, differences[0].getOldIndex());
+		assertEquals(5, differences[0].getNewIndex());
+		assertEquals(2, differences[0].getNewBarNumber());
+		assertEquals(MusicDiff.CHANGED, differences[1].getType());
+		assertEquals(3, differences[1].getNewBarNumber());
+		assertEquals(MusicDiff.INSERTED, differences[2].getType());
+		assertEquals(2, differences[2].getNewElements().length);
+		assertSame(d, differences[2].getNewElements()[0]);
+		assertEquals(12, differences[2].getOldIndex());
+		assertNull(differences[2].getOldPosition());
+		// not parsed, no position
+		assertNull(differences[2].getNewPosition());
+
+		// voices matched by name
+		Music oldMusic = new Music();
+		oldMusic.getVoice("1").addAll(oldVoice);
+		oldMusic.getVoice("2").addElement(new Note(Note.C));
+		Music newMusic = new Music();
+		newMusic.getVoice("1").addAll(oldVoice);
+		newMusic.getVoice("3").addElement(new Note(Note.C));
+		differences = MusicDiff.diff(oldMusic, newMusic);
+		assertEquals(2, differences.length);
+		assertEquals(MusicDiff.DELETED, differences[0].getType());
+		assertEquals("2", differences[0].getVoiceName());
+		assertEquals(MusicDiff.INSERTED, differences[1].getType());
+		assertEquals("3", differences[1].getVoiceName());
+	}
+
+	public void test15AbcWriter(){
+		Tune tune = new Tune();
+		tune.setReferenceNumber(3);
+		tune.addTitle("Writer");
+		tune.setRhythm("jig");
+		Voice voice = tune.getVoice("1");
+		voice.addElement(new TimeSignature(6, 8));
+		voice.addElement(new KeySignature(Note.G, KeySignature.MAJOR));
+		Note a = new Note(Note.A);
+		a.setStrictDuration(Note.QUARTER);
+		a.setChord(new Chord("Em"));
+		Note b = new Note(Note.B);
+		b.setDecorations(new Decoration[] { new Decoration(Decoration.ROLL) });
+		Note c = new Note(Note.c);
+		voice.addElement(a);
+		voice.addElement(b);
+		voice.addElement(c);
+		TieDefinition tie = new TieDefinition();
+		tie.setStart(b);
+		tie.setEnd(c);
+		b.setTieDefinition(tie);
+		c.setTieDefinition(tie);
+		voice.addElement(new BarLine());
+		Vector tupletNotes = new Vector();
+		tupletNotes.add(new Note(Note.d));
+		tupletNotes.add(new Note(Note.e));
+		tupletNotes.add(new Note(Note.f));
+		new Tuplet(3, tupletNotes, (short) 2, Note.EIGHTH);
+		for (int i = 0; i < tupletNotes.size(); i++)
+			voice.addElement((Note) tupletNotes.get(i));
+		SlurDefinition slur = new SlurDefinition();
+		slur.setStart((Note) tupletNotes.get(0));
+		slur.setEnd((Note) tupletNotes.get(2));
+		((Note) tupletNotes.get(0)).addSlurDefinition(slur);
+		((Note) tupletNotes.get(2)).addSlurDefinition(slur);
+		Note g = new Note(Note.g);
+		g.setStrictDuration(Note.QUARTER);
+		g.setDotted((byte) 1);
+		voice.addElement(g);
+		voice.addElement(new BarLine(BarLine.END));
+		voice.addElement(new EndOfStaffLine());
+
+		AbcWriter writer = new AbcWriter();
+		assertEquals("X:3\nT:Writer\nR:jig\nM:6/8\nL:1/8\nK:G\n"
+				+ "\"Em\"A2~B-c|(3(def)g3|]\n", writer.toAbc(tune));
+		String transposed = writer.toAbc(Tune.transpose(tune, 2));
+		assertTrue(transposed, transposed.indexOf("K:A\n") != -1);
+
+		// explicit accidentals of the key, long lines are continued
+		Tune tune2 = new Tune();
+		tune2.setReferenceNumber(4);
+		KeySignature key = new KeySignature(Note.D, KeySignature.MAJOR);
+		key.setAccidental(Note.C, Accidental.NATURAL);
+		tune2.getVoice("1").addElement(key);
+		for (int i = 0; i < 40; i++) {
+			tune2.getVoice("1").addElement(new Note(Note.D));
+			tune2.getVoice("1").addElement(new BarLine());
+		}
+		String abc = writer.toAbc(tune2);
+		assertTrue(abc, abc.startsWith("X:4\nL:1/8\nK:D =c\nD|D|"));
+		assertTrue(abc.indexOf("|\\\nD|") != -1);
+		assertEquals(-1, abc.indexOf("\n\n"));
+
+		TuneBook book = new TuneBook();
+		book.putTune(tune);
+		book.putTune(tune2);
+		StringWriter out = new StringWriter();
+		try {
+			writer.write(book, out);
+		} catch (IOException e) {
+			fail(e.getMessage());
+		}
+		assertTrue(out.toString().startsWith("X:3\n"));
+		assertTrue(out.toString().indexOf("|]\n\nX:4\n") != -1);
+	}
+
+	public void test16TupletOnsets(){
+		Music music = new Music();
+		Voice v1 = music.getFirstVoice();
+		// quintuplet of eighths in the time of a half
+		Vector tupletNotes = new Vector();
+		for (int i = 0; i < 5; i++)
+			tupletNotes.add(note(Note.c, Note.EIGHTH));
+		new Tuplet(5, tupletNotes, (short) 4, Note.EIGHTH);
+		for (int i = 0; i < tupletNotes.size(); i++)
+			v1.addElement((Note) tupletNotes.get(i));
+		Note f = note(Note.f, Note.QUARTER);
+		v1.addElement(f);
+		Voice v2 = music.getVoice("2");
+		Note c = note(Note.C, Note.HALF);
+		v2.addElement(c);
+		Note d = note(Note.D, Note.QUARTER);
+		v2.addElement(d);
+		// durations of the tuplet notes are rounded
+		assertTrue(5 * ((Note) tupletNotes.get(0)).getDuration() < Note.HALF);
+
+		TimeMap timeMap = music.getTimeMap();
+		assertEquals(5, timeMap.getResolution());
+		assertEquals(Note.HALF * 5, timeMap.getOnset(f));
+		assertEquals(timeMap.getOnset(f), timeMap.getOnset(d));
+		assertEquals(Note.HALF, timeMap.getOnset((Note) tupletNotes.get(1)));
+		assertSame(f, timeMap.getElementAt(v1, Note.HALF * 5));
+
+		NoteColumns columns = music.getNoteColumns();
+		assertEquals(5, columns.getResolution());
+		assertEquals(Note.HALF * 5, columns.getOnset(5));
+		assertEquals(columns.getOnset(5), columns.getEnd(4));
+		NoteColumns.TimeSlices slices = columns.timeSlices();
+		for (int i = 0; i < 5; i++)
+			assertTrue(slices.next());
+		// f and D start together, C has ended
+		assertTrue(slices.next());
+		assertEquals(Note.HALF * 5, slices.getTime());
+		assertEquals(2, slices.size());
+		assertTrue(slices.isStarting(0));
+		assertTrue(slices.isStarting(1));
+		assertFalse(slices.next());
+	}
+
+	public void test17AbcWriterRoundTrip(){
+		// the parser reads A3/ as A3, repeat numbers follow their bar line
+		TuneBook book = new TuneBookParser().parse("X:1\nL:1/8\nK:C\n"
+				+ "A>Bc2|[1d4:|[2e4|]\n");
+		String abc = new AbcWriter().toAbc(book.getTune(1));
+		assertTrue(abc, abc.endsWith("\nA3/2B/c2|[1d4:|[2e4|]\n"));
+		assertRoundTrip(book);
+		assertRoundTrip(parseResource("/OneillDos.abc"));
+		assertRoundTrip(parseResource("/abc/examples/LGtunes.abc"));
+		assertRoundTrip(parseResource("/testPlan.abc"));
+	}
+
+	private TuneBook parseResource(String name) {
+		try {
+			return new TuneBookParser().parse(new InputStreamReader(
+					getClass().getResourceAsStream(name), "UTF-8"));
+		} catch (IOException e) {
+			fail(e.getMessage());
+			return null;
+		}
+	}
+
+	private static void assertRoundTrip(TuneBook book) {
+		AbcWriter writer = new AbcWriter();
+		int[] refs = book.getReferenceNumbers();
+		assertTrue(refs.length > 0);
+		for (int i = 0; i < refs.length; i++) {
+			Tune tune = book.getTune(refs[i]);
+			String abc = writer.toAbc(tune);
+			Tune reparsed = new TuneParser().parse(abc);
+			assertEquals("X:" + refs[i] + "\n" + abc, 0,
+					MusicDiff.diff(tune.getMusic(), reparsed.getMusic()).length);
+		}
+	}
+
 	protected void tearDown() throws Exception {
 		super.tearDown();
 	}